@@ -0,0 +1,93 @@
+package com.example.balbert.todo2day;
+
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+/**
+ * Instrumentation tests for bulk entry against the real database: the list's descriptions
+ * read in one scan, and 10,000 pasted lines inserted in one transaction and announced in
+ * one call.
+ */
+@RunWith(AndroidJUnit4.class)
+public class BulkEntryDatabaseTest {
+
+    private DBHelper mDB;
+    private int mGroceries;
+    private final List<List<TaskChange>> mNotified = new ArrayList<>();
+
+    private final TaskObserver mObserver = new TaskObserver() {
+        @Override
+        public void onTasksChanged(List<TaskChange> changes) {
+            mNotified.add(changes);
+        }
+    };
+
+    @Before
+    public void setUp() throws Exception {
+        mDB = DBHelper.getInstance(InstrumentationRegistry.getTargetContext());
+        mDB.deleteAllTasks();
+        mGroceries = mDB.addList("Groceries");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mDB.unregisterObserver(mObserver);
+        mDB.deleteAllTasks();
+    }
+
+    @Test
+    public void descriptionsAreOnlyTheListsLiveOnes() throws Exception {
+        Task milk = new Task("Milk", false);
+        milk.setListId(mGroceries);
+        mDB.addTask(milk);
+        Task bread = new Task("Bread", true);
+        bread.setListId(mGroceries);
+        int breadId = mDB.addTask(bread);
+        mDB.addTask(new Task("Dentist", false));
+        mDB.deleteTask(mDB.getSingleTask(breadId));
+
+        Set<String> descriptions = mDB.getDescriptions(mGroceries);
+        assertEquals(1, descriptions.size());
+        assertTrue(descriptions.contains("Milk"));
+    }
+
+    @Test
+    public void tenThousandLinesAreOneInsertAndOneNotification() throws Exception {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 10000; i++)
+            text.append("Item ").append(i).append('\n');
+        List<Task> tasks = BulkEntry.parse(new StringReader(text.toString()),
+                mDB.getDescriptions(mGroceries), mGroceries);
+
+        mDB.registerObserver(mObserver);
+        List<Task> inserted = mDB.addTasks(tasks);
+
+        assertEquals(10000, inserted.size());
+        assertEquals(1, mNotified.size());
+        assertEquals(10000, mNotified.get(0).size());
+        assertEquals("Item 0", mDB.getSingleTask(inserted.get(0).getId()).getDescription());
+        assertEquals(10000, mDB.getTaskCount(mGroceries, DBHelper.FILTER_ALL));
+
+        // Pasting the same lines again adds nothing
+        assertTrue(BulkEntry.parse(new StringReader(text.toString()),
+                mDB.getDescriptions(mGroceries), mGroceries).isEmpty());
+
+        // One undo takes them all away
+        UndoLog log = new UndoLog();
+        log.record(UndoLog.inserted(inserted));
+        assertTrue(log.undo(mDB));
+        assertEquals(0, mDB.getTaskCount(mGroceries, DBHelper.FILTER_ALL));
+    }
+}
@@ -0,0 +1,173 @@
+package com.example.balbert.todo2day;
+
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.*;
+
+/**
+ * Instrumentation tests for each schema migration step, run against an in-memory
+ * database that starts at version 1 with some Tasks in it.
+ */
+@RunWith(AndroidJUnit4.class)
+public class DBMigrationsTest {
+
+    private static final String TAG = DBMigrationsTest.class.getSimpleName();
+
+    private SQLiteDatabase mDb;
+
+    @Before
+    public void setUp() throws Exception {
+        mDb = SQLiteDatabase.create(null);
+        DBMigrations.createVersion1(mDb);
+        insertTasks(3);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mDb.close();
+    }
+
+    @Test
+    public void version2IndexesExistingDescriptionsForSearch() throws Exception {
+        DBMigrations.migrate(mDb, 1, 2);
+
+        assertEquals(3, DatabaseUtils.queryNumEntries(mDb, DBHelper.DATABASE_TABLE));
+        Cursor cursor = mDb.rawQuery("SELECT docid FROM " + DBHelper.SEARCH_TABLE + " WHERE "
+                + DBHelper.SEARCH_TABLE + " MATCH ?", new String[] {"tas*"});
+        assertEquals(3, cursor.getCount());
+        cursor.close();
+    }
+
+    @Test
+    public void version3AddsDoneIndex() throws Exception {
+        DBMigrations.migrate(mDb, 1, 2);
+        DBMigrations.migrate(mDb, 2, 3);
+
+        assertEquals(3, DatabaseUtils.queryNumEntries(mDb, DBHelper.DATABASE_TABLE));
+        assertEquals(1, DatabaseUtils.longForQuery(mDb, "SELECT COUNT(*) FROM sqlite_master"
+                + " WHERE type = 'index' AND name = ?", new String[] {DBHelper.DONE_INDEX}));
+    }
+
+    @Test
+    public void version4KeepsEveryTaskLive() throws Exception {
+        DBMigrations.migrate(mDb, 1, 4);
+
+        assertEquals(3, DatabaseUtils.longForQuery(mDb, "SELECT COUNT(*) FROM " + DBHelper.DATABASE_TABLE
+                + " WHERE " + DBHelper.FIELD_DELETED + " = 0", null));
+        assertEquals(1, DatabaseUtils.longForQuery(mDb, "SELECT COUNT(*) FROM sqlite_master"
+                + " WHERE type = 'index' AND name = ?", new String[] {DBHelper.LIVE_INDEX}));
+        assertEquals(0, DatabaseUtils.longForQuery(mDb, "SELECT COUNT(*) FROM sqlite_master"
+                + " WHERE type = 'index' AND name = ?", new String[] {DBHelper.DONE_INDEX}));
+
+        // Search still follows edits to descriptions
+        mDb.execSQL("UPDATE " + DBHelper.DATABASE_TABLE + " SET " + DBHelper.FIELD_DESCRIPTION
+                + " = 'Buy milk' WHERE " + DBHelper.KEY_FIELD_ID + " = 1");
+        assertEquals(1, DatabaseUtils.longForQuery(mDb, "SELECT COUNT(*) FROM " + DBHelper.SEARCH_TABLE
+                + " WHERE " + DBHelper.SEARCH_TABLE + " MATCH ?", new String[] {"milk"}));
+    }
+
+    @Test
+    public void version5GivesEveryTaskAUuidAndSeq() throws Exception {
+        DBMigrations.migrate(mDb, 1, 5);
+
+        assertEquals(3, DatabaseUtils.longForQuery(mDb, "SELECT COUNT(DISTINCT " + DBHelper.FIELD_UUID
+                + ") FROM " + DBHelper.DATABASE_TABLE + " WHERE length(" + DBHelper.FIELD_UUID + ") = 32", null));
+        assertEquals(0, DatabaseUtils.longForQuery(mDb, "SELECT COUNT(*) FROM " + DBHelper.DATABASE_TABLE
+                + " WHERE " + DBHelper.FIELD_SEQ + " != " + DBHelper.KEY_FIELD_ID, null));
+        assertEquals(1, DatabaseUtils.longForQuery(mDb, "SELECT COUNT(*) FROM sqlite_master"
+                + " WHERE type = 'index' AND name = ?", new String[] {DBHelper.SEQ_INDEX}));
+        assertEquals(1, DatabaseUtils.longForQuery(mDb, "SELECT COUNT(*) FROM sqlite_master"
+                + " WHERE type = 'table' AND name = ?", new String[] {DBHelper.SYNC_STATE_TABLE}));
+    }
+
+    @Test
+    public void version6KeepsTheIdOrder() throws Exception {
+        DBMigrations.migrate(mDb, 1, 6);
+
+        Cursor cursor = mDb.rawQuery("SELECT " + DBHelper.KEY_FIELD_ID + " FROM " + DBHelper.DATABASE_TABLE
+                + " ORDER BY " + DBHelper.FIELD_POSITION, null);
+        int previous = 0;
+        while (cursor.moveToNext())
+        {
+            assertTrue(cursor.getInt(0) > previous);
+            previous = cursor.getInt(0);
+        }
+        cursor.close();
+        assertEquals(1, DatabaseUtils.longForQuery(mDb, "SELECT COUNT(*) FROM sqlite_master"
+                + " WHERE type = 'index' AND name = ?", new String[] {DBHelper.ORDER_INDEX}));
+        assertEquals(0, DatabaseUtils.longForQuery(mDb, "SELECT COUNT(*) FROM sqlite_master"
+                + " WHERE type = 'index' AND name = ?", new String[] {DBHelper.LIVE_INDEX}));
+    }
+
+    @Test
+    public void version7AddsDueDates() throws Exception {
+        DBMigrations.migrate(mDb, 1, 7);
+
+        Cursor cursor = mDb.rawQuery("SELECT " + DBHelper.FIELD_DUE_AT + " FROM " + DBHelper.DATABASE_TABLE, null);
+        while (cursor.moveToNext())
+            assertEquals(Task.NO_DUE_DATE, cursor.getLong(0));
+        cursor.close();
+        assertEquals(1, DatabaseUtils.longForQuery(mDb, "SELECT COUNT(*) FROM sqlite_master"
+                + " WHERE type = 'index' AND name = ?", new String[] {DBHelper.DUE_INDEX}));
+    }
+
+    @Test
+    public void version8PutsEveryTaskInTheFirstList() throws Exception {
+        DBMigrations.migrate(mDb, 1, 8);
+
+        // The three Tasks, one of them done, are counted once
+        Cursor cursor = mDb.rawQuery("SELECT " + DBHelper.KEY_FIELD_ID + ", " + DBHelper.FIELD_TOTAL + ", "
+                + DBHelper.FIELD_DONE + " FROM " + DBHelper.LISTS_TABLE, null);
+        assertTrue(cursor.moveToFirst());
+        assertEquals(Task.DEFAULT_LIST_ID, cursor.getInt(0));
+        assertEquals(3, cursor.getInt(1));
+        assertEquals(1, cursor.getInt(2));
+        assertFalse(cursor.moveToNext());
+        cursor.close();
+        assertEquals(3, DatabaseUtils.longForQuery(mDb, "SELECT COUNT(*) FROM " + DBHelper.DATABASE_TABLE
+                + " WHERE " + DBHelper.FIELD_LIST_ID + " = " + Task.DEFAULT_LIST_ID, null));
+        for (String index : new String[] {DBHelper.LIST_ORDER_INDEX, DBHelper.LIST_DONE_INDEX})
+            assertEquals(1, DatabaseUtils.longForQuery(mDb, "SELECT COUNT(*) FROM sqlite_master"
+                    + " WHERE type = 'index' AND name = ?", new String[] {index}));
+        assertEquals(0, DatabaseUtils.longForQuery(mDb, "SELECT COUNT(*) FROM sqlite_master"
+                + " WHERE type = 'index' AND name = ?", new String[] {DBHelper.LIVE_ORDER_INDEX}));
+
+        // From now on the triggers keep the counters
+        insertTasks(2);
+        mDb.execSQL("UPDATE " + DBHelper.DATABASE_TABLE + " SET " + DBHelper.FIELD_DELETED + " = 1 WHERE "
+                + DBHelper.KEY_FIELD_ID + " = 1");
+        assertEquals(4, DatabaseUtils.longForQuery(mDb, "SELECT " + DBHelper.FIELD_TOTAL + " FROM "
+                + DBHelper.LISTS_TABLE, null));
+    }
+
+    @Test
+    public void fullUpgradeOf100kTasksKeepsEveryRow() throws Exception {
+        insertTasks(100000 - 3);
+        DBMigrations.migrate(mDb, 1, DBMigrations.LATEST_VERSION);
+
+        Log.i(TAG, "Migrating 100k Tasks took " + DBMigrations.getLastMigrationMillis() + " ms");
+        assertEquals(100000, DatabaseUtils.queryNumEntries(mDb, DBHelper.DATABASE_TABLE));
+    }
+
+    private void insertTasks(int count) {
+        mDb.beginTransaction();
+        try {
+            for (int i = 0; i < count; i++)
+                mDb.execSQL("INSERT INTO " + DBHelper.DATABASE_TABLE + " ( "
+                        + DBHelper.FIELD_DESCRIPTION + ", " + DBHelper.FIELD_DONE
+                        + " ) VALUES ( ?, ? )", new Object[] {"Task " + i, i % 2});
+            mDb.setTransactionSuccessful();
+        } finally {
+            mDb.endTransaction();
+        }
+    }
+}
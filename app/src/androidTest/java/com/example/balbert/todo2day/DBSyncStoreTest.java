@@ -0,0 +1,108 @@
+package com.example.balbert.todo2day;
+
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Instrumentation tests for the database side of sync: which rows a push picks up, how
+ * pulled rows are merged in, and that tombstones wait for the push before being purged.
+ */
+@RunWith(AndroidJUnit4.class)
+public class DBSyncStoreTest {
+
+    private DBHelper mDB;
+    private DBSyncStore mStore;
+
+    @Before
+    public void setUp() throws Exception {
+        mDB = DBHelper.getInstance(InstrumentationRegistry.getTargetContext());
+        mDB.setSyncState(DBHelper.SYNC_PUSHED_SEQ, null);
+        mDB.deleteAllTasks();
+        mDB.purgeTombstones(Integer.MAX_VALUE);
+        mStore = new DBSyncStore(mDB);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mDB.setSyncState(DBHelper.SYNC_PUSHED_SEQ, null);
+        mDB.deleteAllTasks();
+        mDB.purgeTombstones(Integer.MAX_VALUE);
+    }
+
+    @Test
+    public void pushPicksUpOnlyRowsChangedSinceTheLastPush() throws Exception {
+        int milk = mDB.addTask(new Task("Buy milk", false));
+        int bread = mDB.addTask(new Task("Buy bread", false));
+        List<SyncChange> all = mStore.getChangesAfter(mStore.getPushedSeq(), Integer.MAX_VALUE, 100);
+        assertEquals(2, all.size());
+        assertEquals(32, all.get(0).getUuid().length());
+        mStore.setPushedSeq(all.get(1).getSeq());
+
+        // An update that changes nothing is not a change
+        mDB.updateTask(new Task(milk, "Buy milk", false));
+        assertTrue(mStore.getChangesAfter(mStore.getPushedSeq(), Integer.MAX_VALUE, 100).isEmpty());
+
+        mDB.updateTask(new Task(bread, "Buy bread", true));
+        List<SyncChange> changed = mStore.getChangesAfter(mStore.getPushedSeq(), Integer.MAX_VALUE, 100);
+        assertEquals(1, changed.size());
+        assertEquals(bread, changed.get(0).getId());
+        assertTrue(changed.get(0).isDone());
+        // Only the done time moved
+        assertEquals(all.get(1).getDescriptionTime(), changed.get(0).getDescriptionTime());
+        assertTrue(changed.get(0).getDoneTime() >= all.get(1).getDoneTime());
+    }
+
+    @Test
+    public void pulledRowsAreMergedWithoutBeingPushedBack() throws Exception {
+        int milk = mDB.addTask(new Task("Buy milk", false));
+        SyncChange mine = mStore.getChangesAfter(0, Integer.MAX_VALUE, 1).get(0);
+        mStore.setPushedSeq(mine.getSeq());
+
+        String uuid = "0123456789abcdef0123456789abcdef";
+        long later = mine.getDoneTime() + 1000;
+        mStore.applyRemoteChanges(Arrays.asList(
+                new SyncChange(mine.getUuid(), "Buy oat milk", later, false, 0, false, 0),
+                new SyncChange(uuid, "Call mum", later, true, later, false, 0)));
+
+        assertEquals("Buy oat milk", mDB.getSingleTask(milk).getDescription());
+        assertEquals(2, mDB.getTaskCount(DBHelper.FILTER_ALL));
+        assertTrue(mStore.getChangesAfter(mStore.getPushedSeq(), Integer.MAX_VALUE, 100).isEmpty());
+
+        // A remote delete removes the Task here too
+        mStore.applyRemoteChanges(Collections.singletonList(
+                new SyncChange(uuid, "Call mum", later, true, later, true, later + 1)));
+        assertEquals(1, mDB.getTaskCount(DBHelper.FILTER_ALL));
+    }
+
+    @Test
+    public void tombstonesWaitForThePush() throws Exception {
+        mDB.addTask(new Task("Buy milk", false));
+        mStore.setPushedSeq(mStore.getChangesAfter(0, Integer.MAX_VALUE, 1).get(0).getSeq());
+        mDB.deleteAllTasks();
+
+        assertEquals(0, mDB.purgeTombstones(100));
+        SyncChange tombstone = mStore.getChangesAfter(mStore.getPushedSeq(), Integer.MAX_VALUE, 100).get(0);
+        assertTrue(tombstone.isDeleted());
+
+        mStore.setPushedSeq(tombstone.getSeq());
+        assertEquals(1, mDB.purgeTombstones(100));
+    }
+
+    @Test
+    public void deviceIdIsKept() throws Exception {
+        String id = mStore.getDeviceId();
+        assertEquals(32, id.length());
+        assertEquals(id, new DBSyncStore(mDB).getDeviceId());
+    }
+}
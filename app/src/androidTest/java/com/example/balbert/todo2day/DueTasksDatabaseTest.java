@@ -0,0 +1,104 @@
+package com.example.balbert.todo2day;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Instrumentation tests for due dates: they are stored and read back, and
+ * getDueTasks() reads them in order, a page at a time, from the due index.
+ */
+@RunWith(AndroidJUnit4.class)
+public class DueTasksDatabaseTest {
+
+    private static final long START = 1500000000000L;
+    private static final long MINUTE = 60 * 1000L;
+
+    private DBHelper mDB;
+
+    @Before
+    public void setUp() throws Exception {
+        mDB = DBHelper.getInstance(InstrumentationRegistry.getTargetContext());
+        mDB.deleteAllTasks();
+        mDB.purgeTombstones(Integer.MAX_VALUE);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mDB.deleteAllTasks();
+        mDB.purgeTombstones(Integer.MAX_VALUE);
+    }
+
+    @Test
+    public void dueDatesAreStored() throws Exception {
+        int id = mDB.addTask(new Task("Dentist", false));
+        assertFalse(mDB.getSingleTask(id).hasDueDate());
+
+        Task task = mDB.getSingleTask(id);
+        task.setDueAt(START);
+        mDB.updateTask(task);
+        assertEquals(START, mDB.getSingleTask(id).getDueAt());
+        assertEquals(START, mDB.getAllTasks().get(0).getDueAt());
+    }
+
+    @Test
+    public void dueTasksComeInOrderAPageAtATime() throws Exception {
+        int first = addDue("Third", START + 2 * MINUTE, false);
+        int second = addDue("Second", START + MINUTE, false);
+        int sameTime = addDue("Also second", START + MINUTE, false);
+        addDue("Done", START + MINUTE, true);
+        addDue("No date", Task.NO_DUE_DATE, false);
+        int deleted = addDue("Deleted", START + MINUTE, false);
+        mDB.deleteTask(mDB.getSingleTask(deleted));
+
+        List<Task> due = mDB.getDueTasks(START, Integer.MAX_VALUE, 2);
+        assertEquals(2, due.size());
+        assertEquals(second, due.get(0).getId());
+        assertEquals(sameTime, due.get(1).getId());
+
+        // The next page starts after the last Task read, even at the same time
+        due = mDB.getDueTasks(due.get(1).getDueAt(), due.get(1).getId(), 2);
+        assertEquals(1, due.size());
+        assertEquals(first, due.get(0).getId());
+        assertTrue(mDB.getDueTasks(START + 2 * MINUTE, first, 2).isEmpty());
+    }
+
+    @Test
+    public void dueTasksAreReadFromTheIndex() throws Exception {
+        addDue("Task", START, false);
+        SQLiteDatabase db = mDB.getWritableDatabase();
+        Cursor plan = db.rawQuery("EXPLAIN QUERY PLAN SELECT _id FROM " + DBHelper.DATABASE_TABLE
+                + " WHERE deleted = 0 AND done = 0 AND due_at >= 1 AND ( due_at > 1 OR _id > 0 )"
+                + " ORDER BY due_at, _id LIMIT 32", null);
+        try {
+            boolean usesIndex = false;
+            while (plan.moveToNext())
+            {
+                String detail = plan.getString(3); // the "detail" column
+                assertFalse(detail.contains("TEMP B-TREE"));
+                usesIndex |= detail.contains(DBHelper.DUE_INDEX);
+            }
+            assertTrue(usesIndex);
+        } finally {
+            plan.close();
+        }
+    }
+
+    private int addDue(String description, long dueAt, boolean done) {
+        int id = mDB.addTask(new Task(description, done));
+        Task task = mDB.getSingleTask(id);
+        task.setDueAt(dueAt);
+        mDB.updateTask(task);
+        return id;
+    }
+}
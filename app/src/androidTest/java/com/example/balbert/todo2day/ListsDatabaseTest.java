@@ -0,0 +1,256 @@
+package com.example.balbert.todo2day;
+
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.SparseBooleanArray;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Instrumentation tests for named lists: a list's pages hold only its own Tasks and come
+ * off the list indexes, and each list's counters follow every kind of write without
+ * counting the table.
+ */
+@RunWith(AndroidJUnit4.class)
+public class ListsDatabaseTest {
+
+    private DBHelper mDB;
+    private int mGroceries;
+
+    @Before
+    public void setUp() throws Exception {
+        mDB = DBHelper.getInstance(InstrumentationRegistry.getTargetContext());
+        mDB.deleteAllTasks();
+        mDB.purgeTombstones(Integer.MAX_VALUE);
+        mGroceries = mDB.addList("Groceries");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mDB.deleteAllTasks();
+        mDB.purgeTombstones(Integer.MAX_VALUE);
+    }
+
+    @Test
+    public void listsAreReadWithTheirCounts() throws Exception {
+        addTask("Milk", true, mGroceries);
+        addTask("Bread", false, mGroceries);
+        addTask("Dentist", false, Task.DEFAULT_LIST_ID);
+
+        TaskList groceries = null;
+        for (TaskList list : mDB.getLists())
+            if (list.getId() == mGroceries)
+                groceries = list;
+        assertNotNull(groceries);
+        assertEquals("Groceries", groceries.getName());
+        assertEquals(2, groceries.getCounts().getTotal());
+        assertEquals(1, groceries.getCounts().getDone());
+        assertEquals(Task.DEFAULT_LIST_ID, mDB.getLists().get(0).getId());
+    }
+
+    @Test
+    public void pagesOnlyHoldTheirListsTasks() throws Exception {
+        List<Integer> groceries = new ArrayList<>();
+        for (int i = 0; i < 10; i++)
+        {
+            addTask("Other " + i, i % 2 == 0, Task.DEFAULT_LIST_ID);
+            groceries.add(addTask("Grocery " + i, i % 2 == 0, mGroceries));
+        }
+
+        List<Task> page = mDB.getTasksAfter(mGroceries, DBHelper.FILTER_ALL, 0, 4);
+        assertEquals(groceries.subList(0, 4), ids(page));
+        page = mDB.getTasksAfter(mGroceries, DBHelper.FILTER_ALL, groceries.get(3), 4);
+        assertEquals(groceries.subList(4, 8), ids(page));
+        page = mDB.getTasksBefore(mGroceries, DBHelper.FILTER_ALL, groceries.get(4), 2);
+        assertEquals(groceries.subList(2, 4), ids(page));
+
+        page = mDB.getTasksAfter(mGroceries, DBHelper.FILTER_COMPLETED, 0, 10);
+        assertEquals(5, page.size());
+        for (Task task : page)
+        {
+            assertTrue(task.isDone());
+            assertEquals(mGroceries, task.getListId());
+        }
+        assertEquals(10, mDB.getAllTasks(mGroceries).size());
+        assertEquals(20, mDB.getAllTasks().size());
+    }
+
+    @Test
+    public void countersFollowEveryWrite() throws Exception {
+        int milk = addTask("Milk", false, mGroceries);
+        int bread = addTask("Bread", false, mGroceries);
+        addTask("Dentist", true, Task.DEFAULT_LIST_ID);
+        assertCounts(mGroceries, 2, 0);
+        assertCounts(Task.DEFAULT_LIST_ID, 1, 1);
+        assertCounts(DBHelper.ALL_LISTS, 3, 1);
+
+        // Toggled, written behind in a batch
+        SparseBooleanArray doneStates = new SparseBooleanArray();
+        doneStates.put(milk, true);
+        mDB.updateDoneStates(doneStates);
+        assertCounts(mGroceries, 2, 1);
+
+        // Edited without touching done: nothing moves
+        Task edited = mDB.getSingleTask(milk);
+        edited.setDescription("Oat milk");
+        mDB.updateTask(edited);
+        assertCounts(mGroceries, 2, 1);
+
+        // Moved to the other list
+        edited.setListId(Task.DEFAULT_LIST_ID);
+        mDB.updateTask(edited);
+        assertCounts(mGroceries, 1, 0);
+        assertCounts(Task.DEFAULT_LIST_ID, 2, 2);
+
+        // Deleted, then its tombstone purged
+        mDB.deleteTask(mDB.getSingleTask(bread));
+        assertCounts(mGroceries, 0, 0);
+        mDB.purgeTombstones(Integer.MAX_VALUE);
+        assertCounts(mGroceries, 0, 0);
+        assertEquals(2, mDB.getTaskCount(DBHelper.FILTER_ALL));
+        assertEquals(2, mDB.getTaskCount(Task.DEFAULT_LIST_ID, DBHelper.FILTER_COMPLETED));
+    }
+
+    @Test
+    public void clearingAListLeavesTheOthersAndCanBeUndone() throws Exception {
+        int milk = addTask("Milk", true, mGroceries);
+        addTask("Bread", false, mGroceries);
+        int dentist = addTask("Dentist", false, Task.DEFAULT_LIST_ID);
+
+        UndoLog log = new UndoLog();
+        log.record(UndoLog.cleared(mDB.getAllTasks(mGroceries)));
+        mDB.deleteAllTasks(mGroceries);
+        assertCounts(mGroceries, 0, 0);
+        assertCounts(Task.DEFAULT_LIST_ID, 1, 0);
+        assertNotNull(mDB.getSingleTask(dentist));
+
+        // Undone, every row comes back to its own list
+        assertTrue(log.undo(mDB));
+        assertCounts(mGroceries, 2, 1);
+        assertEquals(mGroceries, mDB.getSingleTask(milk).getListId());
+
+        // Redone, only the rows that were cleared go again, not one added since
+        int eggs = addTask("Eggs", false, mGroceries);
+        assertTrue(log.redo(mDB));
+        assertCounts(mGroceries, 1, 0);
+        assertNotNull(mDB.getSingleTask(eggs));
+        assertCounts(Task.DEFAULT_LIST_ID, 1, 0);
+    }
+
+    @Test
+    public void syncedTasksGoToTheFirstListAndKeepTheirs() throws Exception {
+        int milk = addTask("Milk", false, mGroceries);
+        String uuid = DatabaseUtils.stringForQuery(mDB.getWritableDatabase(), "SELECT " + DBHelper.FIELD_UUID
+                + " FROM " + DBHelper.DATABASE_TABLE + " WHERE " + DBHelper.KEY_FIELD_ID + " = ?",
+                new String[] {String.valueOf(milk)});
+
+        List<SyncChange> remote = new ArrayList<>();
+        remote.add(new SyncChange(uuid, "Milk", 1, true, Long.MAX_VALUE / 2, false, 1));
+        remote.add(new SyncChange("0123456789abcdef0123456789abcdef", "From elsewhere", 1, false, 1, false, 1));
+        mDB.applyRemoteChanges(remote);
+
+        assertEquals(mGroceries, mDB.getSingleTask(milk).getListId());
+        assertCounts(mGroceries, 1, 1);
+        assertCounts(Task.DEFAULT_LIST_ID, 1, 0);
+    }
+
+    @Test
+    public void listPagesAreReadFromTheListIndex() throws Exception {
+        addTask("Milk", false, mGroceries);
+        SQLiteDatabase db = mDB.getWritableDatabase();
+        for (String done : new String[] {"", " AND done = 0"})
+        {
+            Cursor plan = db.rawQuery("EXPLAIN QUERY PLAN SELECT _id FROM " + DBHelper.DATABASE_TABLE
+                    + " WHERE list_id = 2 AND deleted = 0" + done + " AND position > COALESCE(( SELECT position FROM "
+                    + DBHelper.DATABASE_TABLE + " WHERE _id = 0 ), " + Long.MIN_VALUE + ")"
+                    + " ORDER BY position LIMIT 50", null);
+            try {
+                boolean usesIndex = false;
+                while (plan.moveToNext())
+                {
+                    String detail = plan.getString(3); // the "detail" column
+                    assertFalse(detail.contains("TEMP B-TREE"));
+                    usesIndex |= detail.contains(done.isEmpty() ? DBHelper.LIST_ORDER_INDEX : DBHelper.LIST_DONE_INDEX);
+                }
+                assertTrue(usesIndex);
+            } finally {
+                plan.close();
+            }
+        }
+    }
+
+    @Test
+    public void searchesStayInTheirList() throws Exception {
+        int milk = addTask("Buy milk", false, mGroceries);
+        int card = addTask("Buy a birthday card", false, Task.DEFAULT_LIST_ID);
+
+        List<Task> found = mDB.searchTasks("buy", mGroceries, 10);
+        assertEquals(1, found.size());
+        assertEquals(milk, found.get(0).getId());
+        assertEquals(card, mDB.searchTasks("buy", Task.DEFAULT_LIST_ID, 10).get(0).getId());
+        assertEquals(2, mDB.searchTasks("buy", DBHelper.ALL_LISTS, 10).size());
+    }
+
+    @Test
+    public void exportsKeepListsAndDueDates() throws Exception {
+        for (int format : new int[] {TaskWriter.FORMAT_NDJSON, TaskWriter.FORMAT_BINARY})
+        {
+            mDB.deleteAllTasks();
+            mDB.addTask(new Task(-1, "Milk", false, 1500000000000L, mGroceries));
+            mDB.addTask(new Task(-1, "Dentist", true, Task.NO_DUE_DATE, Task.DEFAULT_LIST_ID));
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            assertEquals(2, mDB.exportTasks(TaskWriter.newWriter(format, out)));
+
+            mDB.deleteAllTasks();
+            assertEquals(2, mDB.importTasks(TaskReader.newReader(format, new ByteArrayInputStream(out.toByteArray()))));
+            Task milk = mDB.getTasksAfter(mGroceries, DBHelper.FILTER_ALL, 0, 10).get(0);
+            assertEquals("Milk", milk.getDescription());
+            assertEquals(1500000000000L, milk.getDueAt());
+            assertCounts(mGroceries, 1, 0);
+            assertCounts(Task.DEFAULT_LIST_ID, 1, 1);
+        }
+    }
+
+    @Test
+    public void importsIntoAMissingListGoToTheFirst() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        TaskWriter writer = TaskWriter.newWriter(TaskWriter.FORMAT_NDJSON, out);
+        writer.write(1, "From another phone", false, Task.NO_DUE_DATE, 9999);
+        writer.finish();
+
+        mDB.importTasks(TaskReader.newReader(TaskWriter.FORMAT_NDJSON, new ByteArrayInputStream(out.toByteArray())));
+        assertCounts(Task.DEFAULT_LIST_ID, 1, 0);
+    }
+
+    private int addTask(String description, boolean done, int listId) {
+        Task task = new Task(description, done);
+        task.setListId(listId);
+        return mDB.addTask(task);
+    }
+
+    private void assertCounts(int listId, int total, int done) {
+        TaskCounts counts = mDB.getTaskCounts(listId);
+        assertEquals(total, counts.getTotal());
+        assertEquals(done, counts.getDone());
+    }
+
+    private static List<Integer> ids(List<Task> tasks) {
+        List<Integer> ids = new ArrayList<>();
+        for (Task task : tasks)
+            ids.add(task.getId());
+        return ids;
+    }
+}
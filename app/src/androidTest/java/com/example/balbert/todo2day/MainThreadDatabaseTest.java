@@ -0,0 +1,72 @@
+package com.example.balbert.todo2day;
+
+import android.content.Context;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+/**
+ * Instrumentation test making sure the database can never be used from the main thread
+ * while main thread checks are on, and can still be used from a background thread.
+ */
+@RunWith(AndroidJUnit4.class)
+public class MainThreadDatabaseTest {
+
+    private DBHelper mDB;
+
+    @Before
+    public void setUp() throws Exception {
+        Context appContext = InstrumentationRegistry.getTargetContext();
+        mDB = DBHelper.getInstance(appContext);
+        DBHelper.setMainThreadChecksEnabled(true);
+    }
+
+    @Test
+    public void databaseAccessOnMainThreadThrows() throws Exception {
+        final AtomicReference<Throwable> thrown = new AtomicReference<>();
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    mDB.getAllTasks();
+                } catch (IllegalStateException e) {
+                    thrown.set(e);
+                }
+            }
+        });
+        assertNotNull(thrown.get());
+    }
+
+    @Test
+    public void cachedTaskOnMainThreadThrows() throws Exception {
+        // Read once here, so the main thread's read would be a cache hit
+        final int id = mDB.addTask(new Task("Cached", false));
+        assertNotNull(mDB.getSingleTask(id));
+        final AtomicReference<Throwable> thrown = new AtomicReference<>();
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    mDB.getSingleTask(id);
+                } catch (IllegalStateException e) {
+                    thrown.set(e);
+                }
+            }
+        });
+        mDB.deleteTask(new Task(id, "Cached", false));
+        assertNotNull(thrown.get());
+    }
+
+    @Test
+    public void databaseAccessOffMainThreadIsAllowed() throws Exception {
+        // Instrumentation tests run on their own (non-main) thread
+        assertNotNull(mDB.getAllTasks());
+    }
+}
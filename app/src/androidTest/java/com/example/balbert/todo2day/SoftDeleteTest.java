@@ -0,0 +1,144 @@
+package com.example.balbert.todo2day;
+
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Instrumentation tests for soft deletes: tombstones are invisible to every query, can be
+ * brought back, and are purged and vacuumed away by TaskCompactor a chunk at a time.
+ */
+@RunWith(AndroidJUnit4.class)
+public class SoftDeleteTest {
+
+    private static final String TAG = SoftDeleteTest.class.getSimpleName();
+
+    private DBHelper mDB;
+
+    @Before
+    public void setUp() throws Exception {
+        mDB = DBHelper.getInstance(InstrumentationRegistry.getTargetContext());
+        mDB.deleteAllTasks();
+        mDB.purgeTombstones(Integer.MAX_VALUE);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mDB.deleteAllTasks();
+        mDB.purgeTombstones(Integer.MAX_VALUE);
+    }
+
+    @Test
+    public void tombstonesAreInvisible() throws Exception {
+        int milk = mDB.addTask(new Task("Buy milk", true));
+        int bread = mDB.addTask(new Task("Buy bread", false));
+        mDB.deleteTask(new Task(milk, "Buy milk", true));
+
+        assertEquals(1, mDB.getTombstoneCount());
+        assertNull(mDB.getSingleTask(milk));
+        assertEquals(1, mDB.getAllTasks().size());
+        assertEquals(bread, mDB.getTasksAfter(Task.DEFAULT_LIST_ID, DBHelper.FILTER_ALL, 0, 10).get(0).getId());
+        assertTrue(mDB.getTasksAfter(Task.DEFAULT_LIST_ID, DBHelper.FILTER_COMPLETED, 0, 10).isEmpty());
+        assertEquals(1, mDB.getTaskCount(DBHelper.FILTER_ALL));
+        assertEquals(0, mDB.getTaskCounts().getDone());
+        assertEquals(1, mDB.searchTasks("buy", Task.DEFAULT_LIST_ID, 10).size());
+
+        // Updating a tombstone does not bring it back
+        mDB.updateTask(new Task(milk, "Buy oat milk", false));
+        assertNull(mDB.getSingleTask(milk));
+    }
+
+    @Test
+    public void writesToTombstonesAreNotReported() throws Exception {
+        int milk = mDB.addTask(new Task("Buy milk", false));
+        int bread = mDB.addTask(new Task("Buy bread", false));
+        Task deleted = new Task(milk, "Buy milk", false);
+        mDB.deleteTask(deleted);
+
+        final List<TaskChange> reported = new ArrayList<>();
+        TaskObserver observer = new TaskObserver() {
+            @Override
+            public void onTasksChanged(List<TaskChange> changes) {
+                reported.addAll(changes);
+            }
+        };
+        mDB.registerObserver(observer);
+        try {
+            mDB.updateTask(new Task(milk, "Buy oat milk", true));
+            mDB.deleteTask(deleted);
+            mDB.updateTasks(Collections.singletonList(new Task(milk, "Buy soy milk", false)));
+            assertTrue(reported.isEmpty());
+            assertNull(mDB.getSingleTask(milk));
+
+            // In a batch, only the live row is reported
+            List<Task> both = new ArrayList<>();
+            both.add(deleted);
+            both.add(new Task(bread, "Buy bread", false));
+            mDB.deleteTasks(both);
+            assertEquals(1, reported.size());
+            assertEquals(bread, reported.get(0).getId());
+        } finally {
+            mDB.unregisterObserver(observer);
+        }
+    }
+
+    @Test
+    public void tombstonesAndPurgedRowsAreRestored() throws Exception {
+        int milk = mDB.addTask(new Task("Buy milk", false));
+        int bread = mDB.addTask(new Task("Buy bread", true));
+        mDB.deleteTask(new Task(milk, "Buy milk", false));
+        mDB.purgeTombstones(10);
+        mDB.deleteTask(new Task(bread, "Buy bread", true));
+
+        List<Task> deleted = new ArrayList<>();
+        deleted.add(new Task(milk, "Buy milk", false));
+        deleted.add(new Task(bread, "Buy bread", true));
+        mDB.restoreTasks(deleted);
+
+        assertEquals(0, mDB.getTombstoneCount());
+        assertEquals("Buy milk", mDB.getSingleTask(milk).getDescription());
+        assertTrue(mDB.getSingleTask(bread).isDone());
+        assertEquals(2, mDB.searchTasks("buy", Task.DEFAULT_LIST_ID, 10).size());
+    }
+
+    @Test
+    public void compactorPurgesInChunksAndReclaimsSpace() throws Exception {
+        List<Task> tasks = new ArrayList<>();
+        for (int i = 0; i < 50000; i++)
+            tasks.add(new Task("Task " + i + " pick up groceries and call the bank", false));
+        mDB.addTasks(tasks);
+        long start = System.nanoTime();
+        mDB.deleteAllTasks();
+        Log.i(TAG, "Clearing 50k Tasks took " + (System.nanoTime() - start) / 1000000 + " ms");
+        assertEquals(50000, mDB.getTombstoneCount());
+
+        TaskCompactor compactor = new TaskCompactor(mDB).setChunkSize(1000).setMaxRowsPerSecond(0)
+                .setMaxPagesPerSecond(0);
+        int steps = 0;
+        while (compactor.step() != TaskCompactor.FINISHED)
+        {
+            steps++;
+            assertTrue(compactor.isRunning());
+        }
+        Log.i(TAG, "Compacted in " + steps + " steps, reclaiming " + compactor.getBytesReclaimed() + " bytes");
+
+        assertTrue(steps >= 50);
+        assertEquals(50000, compactor.getRowsPurged());
+        assertEquals(1f, compactor.getProgress(), 0f);
+        assertEquals(0, mDB.getTombstoneCount());
+        assertEquals(0, mDB.getTaskCount(DBHelper.FILTER_ALL));
+        assertTrue(compactor.getBytesReclaimed() > 0);
+        assertEquals(Collections.<Task>emptyList(), mDB.searchTasks("groceries", Task.DEFAULT_LIST_ID, 10));
+    }
+}
@@ -0,0 +1,104 @@
+package com.example.balbert.todo2day;
+
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.SparseBooleanArray;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Instrumentation tests for DBHelper's change feed: inserts report the _id the database
+ * assigned, and every kind of write reaches the observers once it is done.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TaskChangeFeedTest {
+
+    private DBHelper mDB;
+    private final List<List<TaskChange>> mCalls = new ArrayList<>();
+
+    private final TaskObserver mObserver = new TaskObserver() {
+        @Override
+        public void onTasksChanged(List<TaskChange> changes) {
+            mCalls.add(changes);
+        }
+    };
+
+    @Before
+    public void setUp() throws Exception {
+        mDB = DBHelper.getInstance(InstrumentationRegistry.getTargetContext());
+        mDB.deleteAllTasks();
+        mDB.registerObserver(mObserver);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mDB.unregisterObserver(mObserver);
+        mDB.deleteAllTasks();
+    }
+
+    @Test
+    public void insertReportsAssignedId() throws Exception {
+        int id = mDB.addTask(new Task("Buy milk", false));
+
+        assertTrue(id > 0);
+        assertEquals(1, mCalls.size());
+        TaskChange change = mCalls.get(0).get(0);
+        assertEquals(TaskChange.INSERTED, change.getType());
+        assertEquals(id, change.getId());
+        assertEquals(id, change.getTask().getId());
+        assertEquals("Buy milk", change.getTask().getDescription());
+        assertEquals("Buy milk", mDB.getSingleTask(id).getDescription());
+    }
+
+    @Test
+    public void bulkWritesReportEveryRowInOneCall() throws Exception {
+        mDB.addTasks(Arrays.asList(new Task("one", false), new Task("two", false), new Task("three", true)));
+        assertEquals(1, mCalls.size());
+        assertEquals(3, mCalls.get(0).size());
+
+        SparseBooleanArray doneStates = new SparseBooleanArray();
+        doneStates.put(mCalls.get(0).get(0).getId(), true);
+        doneStates.put(mCalls.get(0).get(1).getId(), true);
+        mDB.updateDoneStates(doneStates);
+        assertEquals(2, mCalls.size());
+        assertEquals(2, mCalls.get(1).size());
+        assertEquals(TaskChange.DONE_CHANGED, mCalls.get(1).get(0).getType());
+        assertTrue(mCalls.get(1).get(0).isDone());
+    }
+
+    @Test
+    public void updateDeleteAndClearAreReported() throws Exception {
+        int id = mDB.addTask(new Task("Walk the dog", false));
+        mDB.updateTask(new Task(id, "Walk the dogs", true));
+        mDB.deleteTask(new Task(id, "Walk the dogs", true));
+        mDB.addTask(new Task("Feed the cat", false));
+        mDB.deleteAllTasks();
+
+        assertEquals(5, mCalls.size());
+        assertEquals(TaskChange.UPDATED, mCalls.get(1).get(0).getType());
+        assertEquals("Walk the dogs", mCalls.get(1).get(0).getTask().getDescription());
+        assertEquals(TaskChange.DELETED, mCalls.get(2).get(0).getType());
+        assertEquals(id, mCalls.get(2).get(0).getId());
+        assertEquals(TaskChange.CLEARED, mCalls.get(4).get(0).getType());
+    }
+
+    @Test
+    public void clearingNothingIsNotReported() throws Exception {
+        mDB.addTask(new Task("Walk the dog", false));
+        mDB.deleteAllTasks();
+        mDB.deleteAllTasks();
+        mDB.deleteAllTasks(Task.DEFAULT_LIST_ID);
+
+        assertEquals(2, mCalls.size());
+        assertEquals(TaskChange.CLEARED, mCalls.get(1).get(0).getType());
+    }
+}
@@ -0,0 +1,72 @@
+package com.example.balbert.todo2day;
+
+import android.app.Instrumentation;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.rule.ActivityTestRule;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Instrumentation test scrolling through 10,000 Tasks and checking that row Views are
+ * recycled: the number of inflations must stay around one screenful, not grow with the list.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TaskListInflationTest {
+
+    private static final int TASK_COUNT = 10000;
+    private static final int MAX_INFLATIONS = 100;
+
+    @Rule
+    public ActivityTestRule<MainActivity> mActivityRule =
+            new ActivityTestRule<>(MainActivity.class, false, false);
+
+    private DBHelper mDB;
+
+    @Before
+    public void setUp() throws Exception {
+        mDB = DBHelper.getInstance(InstrumentationRegistry.getTargetContext());
+        mDB.deleteAllTasks();
+        List<Task> tasks = new ArrayList<>(TASK_COUNT);
+        for (int i = 0; i < TASK_COUNT; i++)
+            tasks.add(new Task("Task " + i, i % 3 == 0));
+        mDB.addTasks(tasks);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mDB.deleteAllTasks();
+    }
+
+    @Test
+    public void scrollingRecyclesRows() throws Exception {
+        final MainActivity activity = mActivityRule.launchActivity(null);
+        Instrumentation instrumentation = InstrumentationRegistry.getInstrumentation();
+        instrumentation.waitForIdleSync();
+
+        for (int position = 0; position < TASK_COUNT; position += 20)
+        {
+            final int target = position;
+            instrumentation.runOnMainSync(new Runnable() {
+                @Override
+                public void run() {
+                    activity.mTaskListView.scrollToPosition(target);
+                }
+            });
+            instrumentation.waitForIdleSync();
+        }
+
+        assertEquals(TASK_COUNT, activity.mTaskListAdapter.getItemCount());
+        int inflations = activity.mTaskListAdapter.getInflationCount();
+        assertTrue("Inflated " + inflations + " rows", inflations < MAX_INFLATIONS);
+    }
+}
@@ -0,0 +1,148 @@
+package com.example.balbert.todo2day;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Instrumentation tests for the user's order: moves, paging in that order, rebalancing,
+ * and ordered reads that need no sort.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TaskOrderDatabaseTest {
+
+    private DBHelper mDB;
+    private final List<TaskChange> mChanges = new ArrayList<>();
+    private final TaskObserver mObserver = new TaskObserver() {
+        @Override
+        public void onTasksChanged(List<TaskChange> changes) {
+            mChanges.addAll(changes);
+        }
+    };
+
+    @Before
+    public void setUp() throws Exception {
+        mDB = DBHelper.getInstance(InstrumentationRegistry.getTargetContext());
+        mDB.deleteAllTasks();
+        mDB.purgeTombstones(Integer.MAX_VALUE);
+        mDB.registerObserver(mObserver);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mDB.unregisterObserver(mObserver);
+        mDB.deleteAllTasks();
+        mDB.purgeTombstones(Integer.MAX_VALUE);
+    }
+
+    @Test
+    public void moveRewritesOneRow() throws Exception {
+        int[] ids = addTasks(5);
+        mChanges.clear();
+
+        // Last to first, then the new first after the third
+        assertTrue(mDB.moveTask(ids[4], 0));
+        assertOrder(ids[4], ids[0], ids[1], ids[2], ids[3]);
+        assertTrue(mDB.moveTask(ids[4], ids[2]));
+        assertOrder(ids[0], ids[1], ids[2], ids[4], ids[3]);
+
+        assertEquals(2, mChanges.size());
+        assertEquals(TaskChange.MOVED, mChanges.get(1).getType());
+        assertEquals(ids[2], mChanges.get(1).getAfterId());
+        assertFalse(mDB.moveTask(ids[0], -1));
+    }
+
+    @Test
+    public void pagesFollowTheOrder() throws Exception {
+        int[] ids = addTasks(6);
+        mDB.moveTask(ids[5], ids[1]);
+
+        List<Task> page = mDB.getTasksAfter(Task.DEFAULT_LIST_ID, DBHelper.FILTER_ALL, ids[1], 2);
+        assertEquals(ids[5], page.get(0).getId());
+        assertEquals(ids[2], page.get(1).getId());
+        page = mDB.getTasksBefore(Task.DEFAULT_LIST_ID, DBHelper.FILTER_ALL, ids[2], 3);
+        assertEquals(ids[1], page.get(1).getId());
+        assertEquals(ids[5], page.get(2).getId());
+        assertEquals(ids[5], mDB.getTasksFrom(Task.DEFAULT_LIST_ID, DBHelper.FILTER_ALL, ids[5], 1).get(0).getId());
+    }
+
+    @Test
+    public void crowdedSpotIsRebalancedWithoutChangingTheOrder() throws Exception {
+        int[] ids = addTasks(100);
+        // Keep moving the last Task to just after the first: each move halves the room there
+        int moves = 0;
+        while (!mDB.needsRebalance())
+        {
+            mDB.moveTask(ids[99 - moves], ids[0]);
+            moves++;
+        }
+        List<Integer> before = ids(mDB.getAllTasks());
+        assertTrue(mDB.rebalancePositions() > 0);
+        assertFalse(mDB.needsRebalance());
+        assertEquals(before, ids(mDB.getAllTasks()));
+
+        // Moves never run out of room, rebalanced or not
+        for (int i = 0; i < 200; i++)
+            assertTrue(mDB.moveTask(ids[i % 100], ids[(i + 1) % 100 == 0 ? 1 : 0]));
+    }
+
+    @Test
+    public void undeletedTaskGoesBackToItsPlace() throws Exception {
+        int[] ids = addTasks(3);
+        Task middle = mDB.getSingleTask(ids[1]);
+        mDB.deleteTask(middle);
+        List<Task> restored = new ArrayList<>();
+        restored.add(middle);
+        mDB.restoreTasks(restored);
+        assertOrder(ids[0], ids[1], ids[2]);
+    }
+
+    @Test
+    public void orderedReadsNeedNoSort() throws Exception {
+        addTasks(10);
+        SQLiteDatabase db = mDB.getWritableDatabase();
+        for (String where : new String[] {"deleted = 0", "deleted = 0 AND done = 1"})
+        {
+            Cursor plan = db.rawQuery("EXPLAIN QUERY PLAN SELECT _id, description, done FROM "
+                    + DBHelper.DATABASE_TABLE + " WHERE " + where + " AND position > 0 ORDER BY position LIMIT 50", null);
+            try {
+                while (plan.moveToNext())
+                    assertFalse(plan.getString(3).contains("TEMP B-TREE")); // the "detail" column
+            } finally {
+                plan.close();
+            }
+        }
+    }
+
+    private int[] addTasks(int count) {
+        int[] ids = new int[count];
+        for (int i = 0; i < count; i++)
+            ids[i] = mDB.addTask(new Task("Task " + i, i % 2 == 0));
+        return ids;
+    }
+
+    private static List<Integer> ids(List<Task> tasks) {
+        List<Integer> ids = new ArrayList<>(tasks.size());
+        for (Task task : tasks)
+            ids.add(task.getId());
+        return ids;
+    }
+
+    private void assertOrder(int... ids) {
+        List<Task> tasks = mDB.getAllTasks();
+        assertEquals(ids.length, tasks.size());
+        for (int i = 0; i < ids.length; i++)
+            assertEquals(ids[i], tasks.get(i).getId());
+    }
+}
@@ -0,0 +1,129 @@
+package com.example.balbert.todo2day;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.net.Uri;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Instrumentation tests for TaskProvider: Tasks read and written through the
+ * ContentResolver, and the per-row notifications its observers get.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TaskProviderTest {
+
+    private DBHelper mDB;
+    private ContentResolver mResolver;
+
+    @Before
+    public void setUp() throws Exception {
+        mDB = DBHelper.getInstance(InstrumentationRegistry.getTargetContext());
+        mResolver = InstrumentationRegistry.getTargetContext().getContentResolver();
+        // The notifications come from the repository's observer
+        TaskRepository.getInstance(InstrumentationRegistry.getTargetContext());
+        mDB.deleteAllTasks();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mDB.deleteAllTasks();
+    }
+
+    @Test
+    public void pagesAreReadThroughTheProvider() throws Exception {
+        List<Integer> ids = new ArrayList<>();
+        for (int i = 0; i < 5; i++)
+            ids.add(mDB.addTask(new Task("Task " + i, i % 2 == 0)));
+
+        Cursor cursor = mResolver.query(Uri.parse(TaskProvider.TASKS_URI + "?limit=3"), null, null, null, null);
+        try {
+            assertEquals(3, cursor.getCount());
+            assertEquals(TaskProvider.TASK_COLUMNS.length, cursor.getColumnCount());
+            cursor.moveToFirst();
+            assertEquals((int) ids.get(0), cursor.getInt(cursor.getColumnIndexOrThrow(DBHelper.KEY_FIELD_ID)));
+            assertEquals("Task 0", cursor.getString(cursor.getColumnIndexOrThrow(DBHelper.FIELD_DESCRIPTION)));
+        } finally {
+            cursor.close();
+        }
+
+        // The next page, done Tasks only
+        cursor = mResolver.query(Uri.parse(TaskProvider.TASKS_URI + "?after=" + ids.get(2) + "&filter="
+                + DBHelper.FILTER_COMPLETED), new String[] {DBHelper.KEY_FIELD_ID}, null, null, null);
+        try {
+            assertTrue(cursor.moveToFirst());
+            assertEquals(1, cursor.getCount());
+            assertEquals((int) ids.get(4), cursor.getInt(0));
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Test
+    public void tasksAreWrittenThroughTheProvider() throws Exception {
+        ContentValues values = new ContentValues();
+        values.put(DBHelper.FIELD_DESCRIPTION, "Shared");
+        Uri uri = mResolver.insert(TaskProvider.TASKS_URI, values);
+        int id = (int) ContentUris.parseId(uri);
+        assertEquals("Shared", mDB.getSingleTask(id).getDescription());
+
+        values = new ContentValues();
+        values.put(DBHelper.FIELD_DONE, true);
+        assertEquals(1, mResolver.update(uri, values, null, null));
+        assertTrue(mDB.getSingleTask(id).isDone());
+
+        assertEquals(1, mResolver.delete(uri, null, null));
+        assertNull(mDB.getSingleTask(id));
+        Cursor cursor = mResolver.query(uri, null, null, null, null);
+        try {
+            assertEquals(0, cursor.getCount());
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void selectionsAreRefused() throws Exception {
+        mResolver.query(TaskProvider.TASKS_URI, null, DBHelper.FIELD_DONE + " = 1", null, null);
+    }
+
+    @Test
+    public void aChangeIsNotifiedOnItsRow() throws Exception {
+        int id = mDB.addTask(new Task("Watched", false));
+        final List<Uri> notified = Collections.synchronizedList(new ArrayList<Uri>());
+        final CountDownLatch changed = new CountDownLatch(1);
+        ContentObserver observer = new ContentObserver(null) {
+            @Override
+            public void onChange(boolean selfChange, Uri uri) {
+                notified.add(uri);
+                changed.countDown();
+            }
+        };
+        mResolver.registerContentObserver(TaskProvider.TASKS_URI, true, observer);
+        try {
+            Task task = mDB.getSingleTask(id);
+            task.setDescription("Edited");
+            mDB.updateTask(task);
+            assertTrue(changed.await(5, TimeUnit.SECONDS));
+            assertEquals(ContentUris.withAppendedId(TaskProvider.TASKS_URI, id), notified.get(0));
+        } finally {
+            mResolver.unregisterContentObserver(observer);
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package com.example.balbert.todo2day;
+
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Instrumentation tests for undoing and redoing through DBHelper: a clear of 100k Tasks
+ * comes back with every _id in one RESTORED change, and edits go back and forth.
+ */
+@RunWith(AndroidJUnit4.class)
+public class UndoLogDatabaseTest {
+
+    private static final String TAG = UndoLogDatabaseTest.class.getSimpleName();
+
+    private DBHelper mDB;
+    private final List<List<TaskChange>> mCalls = new ArrayList<>();
+
+    private final TaskObserver mObserver = new TaskObserver() {
+        @Override
+        public void onTasksChanged(List<TaskChange> changes) {
+            mCalls.add(changes);
+        }
+    };
+
+    @Before
+    public void setUp() throws Exception {
+        mDB = DBHelper.getInstance(InstrumentationRegistry.getTargetContext());
+        mDB.deleteAllTasks();
+        mDB.registerObserver(mObserver);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mDB.unregisterObserver(mObserver);
+        mDB.deleteAllTasks();
+    }
+
+    @Test
+    public void undoingAClearOf100kTasksIsOneTransaction() throws Exception {
+        List<Task> tasks = new ArrayList<>();
+        for (int i = 0; i < 100000; i++)
+            tasks.add(new Task("Task " + i, i % 3 == 0));
+        mDB.addTasks(tasks);
+        TaskArray before = mDB.getAllTasks();
+
+        UndoLog log = new UndoLog();
+        log.record(UndoLog.cleared(mDB.getAllTasks()));
+        mDB.deleteAllTasks();
+        assertEquals(0, mDB.getTaskCount(DBHelper.FILTER_ALL));
+
+        mCalls.clear();
+        long start = System.nanoTime();
+        assertTrue(log.undo(mDB));
+        Log.i(TAG, "Undoing a clear of 100k Tasks took " + (System.nanoTime() - start) / 1000000 + " ms");
+
+        assertEquals(1, mCalls.size());
+        assertEquals(TaskChange.RESTORED, mCalls.get(0).get(0).getType());
+        TaskArray after = mDB.getAllTasks();
+        assertEquals(before.size(), after.size());
+        for (int i = 0; i < before.size(); i += 997)
+        {
+            assertEquals(before.getId(i), after.getId(i));
+            assertEquals(before.getDescription(i), after.getDescription(i));
+            assertEquals(before.isDone(i), after.isDone(i));
+        }
+
+        assertTrue(log.redo(mDB));
+        assertEquals(0, mDB.getTaskCount(DBHelper.FILTER_ALL));
+    }
+
+    @Test
+    public void editsAreUndoneAndRedone() throws Exception {
+        UndoLog log = new UndoLog();
+        int id = mDB.addTask(new Task("Buy milk", false));
+        log.record(UndoLog.inserted(new Task(id, "Buy milk", false)));
+        Task edited = new Task(id, "Buy oat milk", false);
+        log.record(UndoLog.updated(Collections.singletonList(mDB.getSingleTask(id)),
+                Collections.singletonList(edited)));
+        mDB.updateTask(edited);
+        log.record(UndoLog.doneChanged(id, true));
+        mDB.updateTask(new Task(id, "Buy oat milk", true));
+
+        assertTrue(log.undo(mDB));
+        assertFalse(mDB.getSingleTask(id).isDone());
+        assertTrue(log.undo(mDB));
+        assertEquals("Buy milk", mDB.getSingleTask(id).getDescription());
+        assertTrue(log.undo(mDB));
+        assertNull(mDB.getSingleTask(id));
+        assertFalse(log.undo(mDB));
+
+        assertTrue(log.redo(mDB));
+        assertEquals("Buy milk", mDB.getSingleTask(id).getDescription());
+        assertTrue(log.redo(mDB));
+        assertEquals("Buy oat milk", mDB.getSingleTask(id).getDescription());
+    }
+}
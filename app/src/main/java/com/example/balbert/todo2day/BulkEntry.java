@@ -0,0 +1,68 @@
+package com.example.balbert.todo2day;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * BulkEntry turns pasted or shared text into new Tasks, one per line, for
+ * TaskRepository.addTasksFromText().
+ *
+ * The text is read a line at a time, so only the lines kept are held, never a copy of the
+ * whole text split up.  Each line is trimmed, and a list bullet ("- ", "* " or a bullet point) in
+ * front of it is dropped, so a checklist copied from elsewhere comes out as plain
+ * descriptions.  Blank lines are skipped, and so is any line whose description the list
+ * already has, or that came earlier in the same text: each is one lookup in a HashSet of
+ * the list's descriptions, read once beforehand (DBHelper.getDescriptions()).
+ *
+ * Nothing here touches the database, so it runs on a plain JVM.
+ */
+final class BulkEntry {
+
+    // What a line may start with to be a list item
+    private static final String BULLETS = "-*\u2022";
+
+    private BulkEntry() {
+    }
+
+    /**
+     * parse() reads text a line at a time and returns a Task for each new description.
+     * The reader is not closed.
+     *
+     * @param text the pasted or shared text.
+     * @param existing the descriptions the list already has; each new one is added to it.
+     * @param listId the list the Tasks are for.
+     * @return the new Tasks, in the order of their lines, not yet inserted.
+     * @throws IOException if reading fails.
+     */
+    static List<Task> parse(Reader text, Set<String> existing, int listId) throws IOException {
+        BufferedReader lines = text instanceof BufferedReader ? (BufferedReader) text : new BufferedReader(text);
+        List<Task> tasks = new ArrayList<>();
+        String line;
+        while ((line = lines.readLine()) != null)
+        {
+            String description = clean(line);
+            if (description == null || !existing.add(description))
+                continue;
+            Task task = new Task(description, false);
+            task.setListId(listId);
+            tasks.add(task);
+        }
+        return tasks;
+    }
+
+    /**
+     * clean() returns the description one line holds: trimmed, without a list bullet.
+     * @return the description, or null for a blank line.
+     */
+    static String clean(String line) {
+        String description = line.trim();
+        if (description.length() > 1 && BULLETS.indexOf(description.charAt(0)) >= 0
+                && Character.isWhitespace(description.charAt(1)))
+            description = description.substring(2).trim();
+        return description.isEmpty() ? null : description;
+    }
+}
@@ -0,0 +1,201 @@
+package com.example.balbert.todo2day;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * DBConfig holds the SQLite settings DBHelper opens the database with:
+ *
+ *   - the journal mode: JOURNAL_WAL (write-ahead logging) or one of the rollback journal
+ *     modes, JOURNAL_DELETE and JOURNAL_TRUNCATE,
+ *   - the synchronous level: how often SQLite waits for the file to reach the disk,
+ *   - the page size, for newly created databases,
+ *   - the page cache size of each connection, in KiB,
+ *   - how many reads may run at the same time.
+ *
+ * With a rollback journal a reader and the writer lock each other out, so reads and writes
+ * have to take turns.  With write-ahead logging readers keep reading the last committed
+ * state while the writer appends to the log, so TaskRepository can run reads on
+ * getReaderCount() threads of their own without ever holding up a write.  In WAL mode
+ * SYNCHRONOUS_NORMAL is still safe against corruption; a power cut can at worst lose the
+ * last few commits, never the database.
+ *
+ * defaults() is what the app uses; rollbackJournal() is SQLite's own default settings,
+ * for comparison.  The setters return the DBConfig so settings can be chained:
+ *
+ *     DBConfig config = DBConfig.defaults().setCacheSizeKb(4096).setReaderCount(3);
+ *
+ * This class uses nothing from Android, so the JVM benchmarks apply exactly the same
+ * settings through JDBC.
+ */
+public class DBConfig {
+
+    // Journal modes
+    public static final String JOURNAL_WAL      = "WAL";
+    public static final String JOURNAL_DELETE   = "DELETE";
+    public static final String JOURNAL_TRUNCATE = "TRUNCATE";
+
+    // Synchronous levels, as PRAGMA synchronous numbers them
+    public static final int SYNCHRONOUS_OFF    = 0;
+    public static final int SYNCHRONOUS_NORMAL = 1;
+    public static final int SYNCHRONOUS_FULL   = 2;
+
+    // Page and cache sizes of 0 leave SQLite's own defaults in place
+    public static final int DEFAULT_SIZE = 0;
+
+    private String mJournalMode;
+    private int mSynchronous;
+    private int mPageSize;
+    private int mCacheSizeKb;
+    private int mReaderCount;
+
+    private DBConfig(String journalMode, int synchronous, int pageSize, int cacheSizeKb, int readerCount) {
+        setJournalMode(journalMode);
+        setSynchronous(synchronous);
+        setPageSize(pageSize);
+        setCacheSizeKb(cacheSizeKb);
+        setReaderCount(readerCount);
+    }
+
+    /**
+     * @param other the DBConfig to copy.
+     */
+    public DBConfig(DBConfig other) {
+        this(other.mJournalMode, other.mSynchronous, other.mPageSize, other.mCacheSizeKb, other.mReaderCount);
+    }
+
+    /**
+     * defaults() is write-ahead logging, SYNCHRONOUS_NORMAL, a 2 MiB page cache and two
+     * concurrent readers.
+     * @return a new DBConfig with the app's settings.
+     */
+    public static DBConfig defaults() {
+        return new DBConfig(JOURNAL_WAL, SYNCHRONOUS_NORMAL, DEFAULT_SIZE, 2048, 2);
+    }
+
+    /**
+     * rollbackJournal() is SQLite's out-of-the-box behaviour: a rollback journal deleted
+     * after each commit, SYNCHRONOUS_FULL, default page and cache sizes and so a single
+     * reader at a time.
+     * @return a new DBConfig with SQLite's default settings.
+     */
+    public static DBConfig rollbackJournal() {
+        return new DBConfig(JOURNAL_DELETE, SYNCHRONOUS_FULL, DEFAULT_SIZE, DEFAULT_SIZE, 1);
+    }
+
+    public String getJournalMode() { return mJournalMode; }
+
+    public boolean isWriteAheadLogging() { return JOURNAL_WAL.equals(mJournalMode); }
+
+    public int getSynchronous() { return mSynchronous; }
+
+    public int getPageSize() { return mPageSize; }
+
+    public int getCacheSizeKb() { return mCacheSizeKb; }
+
+    public int getReaderCount() { return mReaderCount; }
+
+    /**
+     * @param journalMode JOURNAL_WAL, JOURNAL_DELETE or JOURNAL_TRUNCATE.
+     */
+    public DBConfig setJournalMode(String journalMode) {
+        if (!JOURNAL_WAL.equals(journalMode) && !JOURNAL_DELETE.equals(journalMode)
+                && !JOURNAL_TRUNCATE.equals(journalMode))
+            throw new IllegalArgumentException("Unknown journal mode " + journalMode);
+        mJournalMode = journalMode;
+        return this;
+    }
+
+    /**
+     * @param synchronous SYNCHRONOUS_OFF, SYNCHRONOUS_NORMAL or SYNCHRONOUS_FULL.
+     */
+    public DBConfig setSynchronous(int synchronous) {
+        if (synchronous < SYNCHRONOUS_OFF || synchronous > SYNCHRONOUS_FULL)
+            throw new IllegalArgumentException("Unknown synchronous level " + synchronous);
+        mSynchronous = synchronous;
+        return this;
+    }
+
+    /**
+     * setPageSize() only affects a database that does not exist yet; an existing file
+     * keeps the page size it was created with.
+     * @param pageSize a power of two from 512 to 65536, or DEFAULT_SIZE.
+     */
+    public DBConfig setPageSize(int pageSize) {
+        if (pageSize != DEFAULT_SIZE
+                && (pageSize < 512 || pageSize > 65536 || Integer.bitCount(pageSize) != 1))
+            throw new IllegalArgumentException("Page size must be a power of two from 512 to 65536: " + pageSize);
+        mPageSize = pageSize;
+        return this;
+    }
+
+    /**
+     * @param cacheSizeKb the page cache of each connection in KiB, or DEFAULT_SIZE.
+     */
+    public DBConfig setCacheSizeKb(int cacheSizeKb) {
+        if (cacheSizeKb < 0)
+            throw new IllegalArgumentException("Cache size must not be negative: " + cacheSizeKb);
+        mCacheSizeKb = cacheSizeKb;
+        return this;
+    }
+
+    /**
+     * setReaderCount() sets how many reads may run at once.  Anything above one only has
+     * an effect with write-ahead logging; a rollback journal always reads one at a time.
+     * @param readerCount at least 1.
+     */
+    public DBConfig setReaderCount(int readerCount) {
+        if (readerCount < 1)
+            throw new IllegalArgumentException("There must be at least one reader: " + readerCount);
+        mReaderCount = readerCount;
+        return this;
+    }
+
+    /**
+     * getConcurrentReaders() is how many reads can really run at the same time.
+     * @return getReaderCount() with write-ahead logging, otherwise 1.
+     */
+    public int getConcurrentReaders() {
+        return isWriteAheadLogging() ? mReaderCount : 1;
+    }
+
+    /**
+     * getConnectionPragmas() returns the PRAGMA statements that have to be run on every
+     * connection as it is opened: the synchronous level and the cache size.  The journal
+     * mode and page size are properties of the file and are set separately.
+     * @return the statements, in the order to run them.
+     */
+    public List<String> getConnectionPragmas() {
+        List<String> pragmas = new ArrayList<>(2);
+        pragmas.add("PRAGMA synchronous = " + mSynchronous);
+        // A negative cache_size is in KiB rather than pages
+        if (mCacheSizeKb != DEFAULT_SIZE)
+            pragmas.add("PRAGMA cache_size = -" + mCacheSizeKb);
+        return pragmas;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof DBConfig))
+            return false;
+        DBConfig other = (DBConfig) o;
+        return mJournalMode.equals(other.mJournalMode) && mSynchronous == other.mSynchronous
+                && mPageSize == other.mPageSize && mCacheSizeKb == other.mCacheSizeKb
+                && mReaderCount == other.mReaderCount;
+    }
+
+    @Override
+    public int hashCode() {
+        int hash = mJournalMode.hashCode();
+        hash = 31 * hash + mSynchronous;
+        hash = 31 * hash + mPageSize;
+        hash = 31 * hash + mCacheSizeKb;
+        return 31 * hash + mReaderCount;
+    }
+
+    @Override
+    public String toString() {
+        return "journal=" + mJournalMode + " synchronous=" + mSynchronous + " pageSize=" + mPageSize
+                + " cacheSizeKb=" + mCacheSizeKb + " readers=" + mReaderCount;
+    }
+}
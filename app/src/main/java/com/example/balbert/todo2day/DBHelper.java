@@ -2,12 +2,26 @@ package com.example.balbert.todo2day;
 
 import android.content.ContentValues;
 import android.content.Context;
+import android.database.AbstractWindowedCursor;
+import android.database.CharArrayBuffer;
 import android.database.Cursor;
+import android.database.CursorWindow;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
+import android.os.Looper;
+import android.util.SparseBooleanArray;
 
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * DBHelper is a helper Model class.  DBHelper extends SQLiteOpenHelper
@@ -28,6 +42,95 @@ import java.util.List;
  * 4) update a Task,
  * 5) get a single Task
  *
+ * Tasks are listed in the user's order, kept in the position column (see TaskOrder).
+ * moveTask() moves a Task by rewriting that one row's position, and rebalancePositions()
+ * spreads out the neighbours of a spot that repeated moves have crowded.  Positions are
+ * shared by every list: a position between two Tasks of the table is also between them in
+ * their list, so neither needs to know about lists.
+ *
+ * Tasks are kept in the user's named lists (the Lists table; every Task's list_id is the
+ * _id of one of them).  getLists() and addList() read and add lists, and the first list,
+ * Task.DEFAULT_LIST_ID, always exists.
+ *
+ * For large lists, getTasksAfter() and getTasksBefore() read one page of a list's Tasks at
+ * a time, keyed on the position of a Task at the edge of the page, and getTaskCount()
+ * returns the number of rows without reading them.  Both take a filter (FILTER_ALL,
+ * FILTER_ACTIVE or FILTER_COMPLETED); pages are served in order by the index on ( list_id,
+ * deleted, position ) or, filtered, the one on ( list_id, deleted, done, position ), so a
+ * list costs the same to open however many Tasks the other lists hold.
+ *
+ * Counts are never counted: each list's row holds how many live Tasks it has and how many
+ * of them are done, and triggers on Tasks move those counters by one inside the same
+ * transaction as every insert, update and delete, whichever path made it (a sync, an
+ * import, an undo).  getTaskCounts() reads them with one primary key lookup.
+ *
+ * Adding, updating and deleting also come in bulk versions (addTasks, updateTasks, deleteTasks)
+ * which write a whole Collection inside one transaction, so SQLite syncs the file once for the
+ * batch instead of once per row.
+ *
+ * There is only one DBHelper per process, retrieved with getInstance().  It keeps one
+ * connection open for as long as the application lives, and the insert, update and delete
+ * statements are compiled once against that connection and then reused with bound (?)
+ * parameters, so toggling a Task does not reopen the file or recompile any SQL.
+ *
+ * Descriptions are indexed for full-text search in an FTS4 table (SEARCH_TABLE) that
+ * mirrors the Tasks table.  Triggers on Tasks keep the index up to date inside the same
+ * transaction as every insert, update and delete, and searchTasks() queries it.
+ *
+ * Deletes are soft: deleteTask(), deleteTasks() and deleteAllTasks() only set the deleted
+ * column, leaving a tombstone that every query skips.  That is one small UPDATE per row,
+ * with no B-tree pages freed and no full-text entry removed while the user waits.
+ * TaskCompactor removes tombstones for good later, a chunk at a time with purgeTombstones(),
+ * and shrinks the file with incrementalVacuum().
+ *
+ * restoreTasks() puts deleted Tasks back with their old _ids, in one transaction however
+ * many there are, which is how UndoLog undoes a delete or a clear.  A tombstone that has not
+ * been purged yet is simply brought back to life.
+ *
+ * For syncing, every row carries a uuid, a change sequence number (seq) that each local
+ * write moves past every earlier one, and the time each of its fields was last changed.
+ * getSyncChanges() pages through the rows changed since the last push, on the seq index,
+ * and applyRemoteChanges() merges pulled rows in field by field without touching their
+ * seq.  A tombstone is only purged once its seq has been pushed (SYNC_PUSHED_SEQ in the
+ * SyncState table), so other devices hear about every delete.  See SyncEngine.
+ *
+ * A Task may have a due date (due_at, kept on this device only: it is not synced).
+ * getDueTasks() reads the next ones due, for ReminderScheduler, from the index on
+ * ( deleted, done, due_at ) without looking at any other row.
+ *
+ * exportTasks() and importTasks() stream the whole table to and from a TaskWriter or
+ * TaskReader a row at a time, so a backup of any size needs only one row in memory;
+ * imports are written in transactions of IMPORT_BATCH_SIZE rows.
+ *
+ * Point lookups go through a TaskCache.  getSingleTask() reads through it and every write
+ * (add, update, delete, clear) writes through it once committed, so the cache never
+ * disagrees with the table.
+ * The cache's hit and miss counters show how often a lookup had to go to disk.
+ *
+ * queryTasks(), queryTask() and queryLists() run the same queries as the methods that
+ * read Tasks but return the Cursor itself, for TaskProvider to hand to other processes.
+ *
+ * Every change is published to the registered TaskObservers as TaskChanges: inserts carry
+ * the _id the database assigned, updates the new values, deletes the _id, and
+ * deleteAllTasks() a single CLEARED change (for the list it cleared) and restoreTasks() a
+ * single RESTORED change.  Each operation reports all of its rows in one call, after its
+ * transaction has committed.
+ *
+ * Every public method records its time in a Metrics timer ("db.<method>"), along with the
+ * rows each query read, cursor window fills and cache hits and misses.  All of it costs
+ * nothing unless Metrics are enabled.
+ *
+ * The database is opened with the settings of a DBConfig: by default in write-ahead
+ * logging mode, where reads do not block the writer and the writer does not block reads.
+ * Writes are serialized on the DBHelper (one writer at a time); reads are not, so with
+ * write-ahead logging TaskRepository runs them on reader threads of their own, each
+ * using its own connection from SQLite's pool.  A read never caches a row a write has
+ * changed since the read began.
+ *
+ * DBHelper is meant to be called from TaskRepository's background threads.  When main thread
+ * checks are enabled (debug builds), any call made on the UI thread throws an
+ * IllegalStateException instead of silently blocking it.
+ *
  * Created by balbert on 9/28/2017.
  */
 class DBHelper extends SQLiteOpenHelper{
@@ -35,15 +138,313 @@ class DBHelper extends SQLiteOpenHelper{
     // Create some useful database constants
     public static final String DATABASE_NAME    = "ToDo2Day";
     public static final String DATABASE_TABLE   = "Tasks";
-    public static final int    DATABASE_VERSION = 1;
+    public static final String SEARCH_TABLE     = "TasksSearch";
+    public static final String DONE_INDEX       = "TasksDone";
+    public static final String LIVE_INDEX       = "TasksLive";
+    public static final String UUID_INDEX       = "TasksUuid";
+    public static final String SEQ_INDEX        = "TasksSeq";
+    public static final String SYNC_STATE_TABLE = "SyncState";
+    public static final String ORDER_INDEX      = "TasksOrder";
+    public static final String LIVE_ORDER_INDEX = "TasksLiveOrder";
+    public static final String DUE_INDEX        = "TasksDue";
+    public static final String LISTS_TABLE      = "Lists";
+    public static final String LIST_ORDER_INDEX = "TasksListOrder";
+    public static final String LIST_DONE_INDEX  = "TasksListDone";
+    public static final int    DATABASE_VERSION = 8;
 
     // Create some useful table constants
     public static final String KEY_FIELD_ID = "_id";
     public static final String FIELD_DESCRIPTION = "description";
     public static final String FIELD_DONE = "done";
+    public static final String FIELD_DELETED = "deleted";
+    public static final String FIELD_POSITION = "position";
+    public static final String FIELD_DUE_AT = "due_at";
+    public static final String FIELD_LIST_ID = "list_id";
+
+    // Sync bookkeeping: the uuid every device knows a Task by, the sequence number of its
+    // last local change, and when each field was last set
+    public static final String FIELD_UUID = "uuid";
+    public static final String FIELD_SEQ = "seq";
+    public static final String FIELD_DESCRIPTION_TIME = "description_time";
+    public static final String FIELD_DONE_TIME = "done_time";
+    public static final String FIELD_DELETED_TIME = "deleted_time";
+
+    // SyncState key: every change up to this sequence number has been pushed
+    public static final String SYNC_PUSHED_SEQ = "pushedSeq";
+
+    // Which Tasks a query returns
+    public static final int FILTER_ALL       = 0;
+    public static final int FILTER_ACTIVE    = 1;
+    public static final int FILTER_COMPLETED = 2;
+
+    // Columns of the Lists table (besides _id); its done column is named FIELD_DONE too
+    public static final String FIELD_NAME = "name";
+    public static final String FIELD_TOTAL = "total";
+
+    // The list id that stands for every list, e.g. to clear them all
+    public static final int ALL_LISTS = 0;
+
+    // How many imported Tasks are inserted per transaction
+    public static final int IMPORT_BATCH_SIZE = 1000;
+
+    // How many matches a search ranks at most: a short prefix matches nearly every Task,
+    // and offsets() and the sort cost time for each match ranked, not each result
+    static final int SEARCH_RANK_LIMIT = 1000;
+
+    // The columns a Task is read from, in the order readTask() expects
+    private static final String[] TASK_COLUMNS = {KEY_FIELD_ID, FIELD_DESCRIPTION, FIELD_DONE, FIELD_DUE_AT,
+            FIELD_LIST_ID};
+
+    // The condition every query puts on a row to skip tombstones
+    private static final String LIVE = FIELD_DELETED + " = 0";
+    private static final String AND_LIVE = " AND " + LIVE;
+
+    // PRAGMA auto_vacuum's value for incremental vacuuming
+    private static final int AUTO_VACUUM_INCREMENTAL = 2;
+
+    // How many Tasks the point-lookup cache holds by default
+    public static final int DEFAULT_CACHE_SIZE = 512;
+
+    // Time spent in each operation, and what the queries read
+    private static final Metrics.Timer ADD_TIMER = Metrics.timer("db.addTask");
+    private static final Metrics.Timer ADD_BATCH_TIMER = Metrics.timer("db.addTasks");
+    private static final Metrics.Timer RESTORE_TIMER = Metrics.timer("db.restoreTasks");
+    private static final Metrics.Timer MOVE_TIMER = Metrics.timer("db.moveTask");
+    private static final Metrics.Timer REBALANCE_TIMER = Metrics.timer("db.rebalancePositions");
+    private static final Metrics.Timer GET_ALL_TIMER = Metrics.timer("db.getAllTasks");
+    private static final Metrics.Timer PAGE_TIMER = Metrics.timer("db.getTasksPage");
+    private static final Metrics.Timer COUNT_TIMER = Metrics.timer("db.getTaskCount");
+    private static final Metrics.Timer EXPORT_TIMER = Metrics.timer("db.exportTasks");
+    private static final Metrics.Timer IMPORT_TIMER = Metrics.timer("db.importTasks");
+    private static final Metrics.Timer SEARCH_TIMER = Metrics.timer("db.searchTasks");
+    private static final Metrics.Timer DELETE_TIMER = Metrics.timer("db.deleteTask");
+    private static final Metrics.Timer DELETE_BATCH_TIMER = Metrics.timer("db.deleteTasks");
+    private static final Metrics.Timer DELETE_ALL_TIMER = Metrics.timer("db.deleteAllTasks");
+    private static final Metrics.Timer UPDATE_TIMER = Metrics.timer("db.updateTask");
+    private static final Metrics.Timer UPDATE_BATCH_TIMER = Metrics.timer("db.updateTasks");
+    private static final Metrics.Timer UPDATE_DONE_TIMER = Metrics.timer("db.updateDoneStates");
+    private static final Metrics.Timer GET_SINGLE_TIMER = Metrics.timer("db.getSingleTask");
+    private static final Metrics.Timer PURGE_TIMER = Metrics.timer("db.purgeTombstones");
+    private static final Metrics.Timer VACUUM_TIMER = Metrics.timer("db.incrementalVacuum");
+    private static final Metrics.Timer SYNC_CHANGES_TIMER = Metrics.timer("db.getSyncChanges");
+    private static final Metrics.Timer APPLY_REMOTE_TIMER = Metrics.timer("db.applyRemoteChanges");
+    private static final Metrics.Timer DUE_TIMER = Metrics.timer("db.getDueTasks");
+    private static final Metrics.Timer LISTS_TIMER = Metrics.timer("db.getLists");
+    private static final Metrics.Timer ADD_LIST_TIMER = Metrics.timer("db.addList");
+    private static final Metrics.Timer QUERY_PAGE_TIMER = Metrics.timer("db.queryTasks");
+    private static final Metrics.Timer QUERY_SINGLE_TIMER = Metrics.timer("db.queryTask");
+    private static final Metrics.Timer QUERY_LISTS_TIMER = Metrics.timer("db.queryLists");
+    private static final Metrics.Timer DESCRIPTIONS_TIMER = Metrics.timer("db.getDescriptions");
+    private static final Metrics.Histogram ROWS_READ = Metrics.histogram("db.rowsPerQuery");
+    private static final Metrics.Counter WINDOW_FILLS = Metrics.counter("db.cursorWindowFills");
+    private static final Metrics.Counter CACHE_HITS = Metrics.counter("db.cacheHits");
+    private static final Metrics.Counter CACHE_MISSES = Metrics.counter("db.cacheMisses");
+
+    // How many rows around a crowded spot a rebalance first tries to spread out
+    private static final int REBALANCE_WINDOW = 32;
+
+    // The single instance shared by the whole app
+    private static DBHelper sInstance;
 
-    public DBHelper(Context context) {
+    // When true, using the database from the main thread throws
+    private static volatile boolean sMainThreadChecksEnabled;
+
+    // How the database is opened
+    private final DBConfig mConfig;
+
+    // Long-lived connection and the statements compiled against it
+    private volatile SQLiteDatabase mDatabase;
+    private SQLiteStatement mInsertStatement;
+    private SQLiteStatement mRestoreStatement;
+    private SQLiteStatement mUndeleteStatement;
+    private SQLiteStatement mUpdateStatement;
+    private SQLiteStatement mUpdateDoneStatement;
+    private SQLiteStatement mDeleteStatement;
+    private SQLiteStatement mTombstoneCountStatement;
+    private SQLiteStatement mPurgeStatement;
+    private SQLiteStatement mRemoteInsertStatement;
+    private SQLiteStatement mRemoteUpdateStatement;
+    private SQLiteStatement mMoveStatement;
+
+    // Sequence number of the latest local change, and the time it was made
+    // (both guarded by the DBHelper's lock, like every write)
+    private long mSeq;
+    private long mLastChangeTime;
+
+    // The highest position any row has, and a spot a move left crowded (TaskOrder.NONE if
+    // none), both guarded by the DBHelper's lock
+    private long mLastPosition;
+    private long mCrowdedPosition = TaskOrder.NONE;
+
+    // Recently read or written Tasks, by id
+    private final TaskCache mCache = new TaskCache(DEFAULT_CACHE_SIZE);
+
+    // Bumped, with mCache locked, each time a committed write updates the cache
+    private final AtomicLong mWriteGeneration = new AtomicLong();
+
+    // Told about every change to the Tasks table
+    private final List<TaskObserver> mObservers = new CopyOnWriteArrayList<>();
+
+    /**
+     * getInstance() returns the one DBHelper for the application, creating it on first use
+     * with DBConfig.defaults(), unless one was already created with another DBConfig.
+     * The application Context is kept rather than the one passed in, so an Activity
+     * is never leaked by the connection outliving it.
+     *
+     * @param context any Context from the app.
+     * @return the shared DBHelper.
+     */
+    public static synchronized DBHelper getInstance(Context context) {
+        if (sInstance == null)
+            sInstance = new DBHelper(context.getApplicationContext(), DBConfig.defaults());
+        return sInstance;
+    }
+
+    /**
+     * getInstance() returns the one DBHelper for the application, creating it with the
+     * given settings on first use.  The settings can't be changed once it exists.
+     *
+     * @param context any Context from the app.
+     * @param config how to open the database; it is copied.
+     * @return the shared DBHelper.
+     * @throws IllegalStateException if the DBHelper already exists with other settings.
+     */
+    public static synchronized DBHelper getInstance(Context context, DBConfig config) {
+        if (sInstance == null)
+            sInstance = new DBHelper(context.getApplicationContext(), new DBConfig(config));
+        else if (!sInstance.mConfig.equals(config))
+            throw new IllegalStateException("DBHelper already opened with " + sInstance.mConfig);
+        return sInstance;
+    }
+
+    private DBHelper(Context context, DBConfig config) {
         super(context, DATABASE_NAME, null, DATABASE_VERSION);
+        mConfig = config;
+        setWriteAheadLoggingEnabled(config.isWriteAheadLogging());
+    }
+
+    /**
+     * @return a copy of the settings the database is opened with.
+     */
+    public DBConfig getConfig() {
+        return new DBConfig(mConfig);
+    }
+
+    /**
+     * getCache() gives access to the point-lookup cache, to read its hit and miss
+     * counters or change its size with setMaxSize().
+     * @return the TaskCache in front of the database.
+     */
+    public TaskCache getCache() {
+        return mCache;
+    }
+
+    /**
+     * registerObserver() adds an observer to be told about every change from now on.
+     * Observers are called on the thread that made the change.
+     * @param observer the observer to add.
+     */
+    public void registerObserver(TaskObserver observer) {
+        mObservers.add(observer);
+    }
+
+    /**
+     * unregisterObserver() stops telling an observer about changes.
+     * @param observer the observer to remove.
+     */
+    public void unregisterObserver(TaskObserver observer) {
+        mObservers.remove(observer);
+    }
+
+    /**
+     * notifyObservers() hands the changes one operation made to every observer.
+     */
+    private void notifyObservers(List<TaskChange> changes)
+    {
+        if (changes.isEmpty())
+            return;
+        for (TaskObserver observer : mObservers)
+            observer.onTasksChanged(changes);
+    }
+
+    /**
+     * updateCache() applies a committed write's changes to the cache and moves the write
+     * generation on, so reads that began before the write do not cache what they read.
+     */
+    private void updateCache(List<TaskChange> changes)
+    {
+        synchronized (mCache) {
+            mWriteGeneration.incrementAndGet();
+            for (TaskChange change : changes)
+            {
+                switch (change.getType())
+                {
+                    case TaskChange.INSERTED:
+                    case TaskChange.UPDATED:
+                        mCache.put(change.getTask());
+                        break;
+                    case TaskChange.DONE_CHANGED:
+                        mCache.setDone(change.getId(), change.isDone());
+                        break;
+                    case TaskChange.DELETED:
+                        mCache.remove(change.getId());
+                        break;
+                    case TaskChange.CLEARED:
+                        mCache.clear();
+                        break;
+                }
+            }
+        }
+    }
+
+    /**
+     * cacheRead() caches Tasks a read returned, unless a write has committed since the
+     * read began (the read may have seen the rows as they were before it).
+     * @param tasks the Tasks read.
+     * @param generation mWriteGeneration when the read began.
+     */
+    private void cacheRead(List<Task> tasks, long generation)
+    {
+        synchronized (mCache) {
+            if (mWriteGeneration.get() != generation)
+                return;
+            for (Task task : tasks)
+                mCache.put(task);
+        }
+    }
+
+    /**
+     * setMainThreadChecksEnabled() turns the main thread check on or off for every
+     * DBHelper method.
+     * @param enabled true to throw when the database is used on the main thread.
+     */
+    public static void setMainThreadChecksEnabled(boolean enabled) {
+        sMainThreadChecksEnabled = enabled;
+    }
+
+    /**
+     * onConfigure() applies the DBConfig each time the database is opened, before it is
+     * created or upgraded: the page size (which only a new file takes), the journal mode
+     * when it is not write-ahead logging (which the constructor already turned on) and
+     * the synchronous level and cache size.
+     *
+     * auto_vacuum is set to INCREMENTAL too, so TaskCompactor can give free pages back to
+     * the file system a few at a time.  Like the page size, only a new file takes it; an
+     * older file is switched over by enableIncrementalVacuum().
+     *
+     * SQLite's other connections, which only ever read, keep their default cache size.
+     * @param db the database being opened.
+     */
+    @Override
+    public void onConfigure(SQLiteDatabase db) {
+        if (mConfig.getPageSize() != DBConfig.DEFAULT_SIZE)
+            db.setPageSize(mConfig.getPageSize());
+        db.execSQL("PRAGMA auto_vacuum = " + AUTO_VACUUM_INCREMENTAL);
+        if (!mConfig.isWriteAheadLogging())
+            // journal_mode answers with the new mode, so it has to be run as a query
+            DatabaseUtils.stringForQuery(db, "PRAGMA journal_mode = " + mConfig.getJournalMode(), null);
+        for (String pragma : mConfig.getConnectionPragmas())
+            db.execSQL(pragma);
     }
 
     /**
@@ -53,22 +454,16 @@ class DBHelper extends SQLiteOpenHelper{
      * It takes an SQLiteDatabase as a parameter.
      *
      * Inside the method we create any tables that the database requires.
-     * This is accomplished by calling execSQL on the database object passed into onCreate.
-     *
-     * Then an SQL statement to create a table is written and pass into the execSQL method being
-     * called on the database object.
+     * The original (version 1) Tasks table is created first, and then the same
+     * migrations an upgrading user would run bring it to DATABASE_VERSION,
+     * so every schema change is written down in exactly one place: DBMigrations.
      * @param db
      */
     @Override
     public void onCreate(SQLiteDatabase db) {
 
-        // Generate an SQL statement for creating a new table
-        // CREATE TABLE tasks ( _id INTEGER PRIMARY KEY, description TEXT, done INTEGER )
-        String createTable = "CREATE TABLE " + DATABASE_TABLE
-                + " ( " + KEY_FIELD_ID + " INTEGER PRIMARY KEY, "
-                + FIELD_DESCRIPTION + " TEXT, "
-                + FIELD_DONE + " INTEGER " + ")";
-        db.execSQL(createTable);
+        DBMigrations.createVersion1(db);
+        DBMigrations.migrate(db, 1, DATABASE_VERSION);
     }
 
     /**
@@ -76,150 +471,1739 @@ class DBHelper extends SQLiteOpenHelper{
      * This method must be implemented because it will be called any time
      * the database or its tables are update/upgraded.
      *
-     * Our current implementation drops a specified table from the database and then
-     * creates it anew with any changes made.
+     * Our implementation keeps the Tasks table and its data, and runs each
+     * migration step between the two versions in order (see DBMigrations).
      * @param db
-     * @param i
-     * @param i1
+     * @param oldVersion the version the database is at.
+     * @param newVersion the version it is upgraded to.
+     */
+    @Override
+    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+
+        DBMigrations.migrate(db, oldVersion, newVersion);
+    }
+
+    /**
+     * getDatabase() opens the connection the first time it is needed, along with every
+     * compiled statement the methods below reuse (see openDatabase()).  Every later call
+     * returns the same open connection.
+     *
+     * Every method goes through here, so this is also where the main thread check is made
+     * (see checkNotMainThread()).
+     * Once the database is open this takes no lock, so reads never wait for the writer
+     * to let go of the DBHelper.
+     *
+     * @return the open, writable database.
+     */
+    private SQLiteDatabase getDatabase()
+    {
+        checkNotMainThread();
+
+        SQLiteDatabase db = mDatabase;
+        if (db != null && db.isOpen())
+            return db;
+        return openDatabase();
+    }
+
+    /**
+     * checkNotMainThread() throws when main thread checks are on and this is the main
+     * thread.  Anything that can answer without getDatabase(), like a cache hit, calls it
+     * first, so a call that would block the UI on a miss fails on a hit too.
+     */
+    private static void checkNotMainThread()
+    {
+        if (sMainThreadChecksEnabled && Looper.myLooper() == Looper.getMainLooper())
+            throw new IllegalStateException("Database accessed on the main thread");
+    }
+
+    /**
+     * openDatabase() does the work of getDatabase() the first time.  mDatabase is set last,
+     * so another thread that sees it also sees the compiled statements.
+     */
+    private synchronized SQLiteDatabase openDatabase()
+    {
+        if (mDatabase == null || !mDatabase.isOpen())
+        {
+            SQLiteDatabase database = getWritableDatabase();
+            // INSERT INTO tasks ( description, done, uuid, seq, description_time, done_time, position,
+            // due_at, list_id ) VALUES ( ?, ?, <new uuid>, ?, ?, ?, ?, ?, ? )
+            mInsertStatement = database.compileStatement("INSERT INTO " + DATABASE_TABLE
+                    + " ( " + FIELD_DESCRIPTION + ", " + FIELD_DONE + ", " + FIELD_UUID + ", "
+                    + FIELD_SEQ + ", " + FIELD_DESCRIPTION_TIME + ", " + FIELD_DONE_TIME + ", "
+                    + FIELD_POSITION + ", " + FIELD_DUE_AT + ", " + FIELD_LIST_ID + " ) VALUES ( ?, ?, "
+                    + DBMigrations.NEW_UUID + ", ?, ?, ?, ?, ?, ? )");
+            // INSERT INTO tasks ( description, done, _id, uuid, seq, description_time, done_time, position,
+            // due_at, list_id ) VALUES ( ?, ?, ?, <new uuid>, ?, ?, ?, ?, ?, ? )
+            mRestoreStatement = database.compileStatement("INSERT INTO " + DATABASE_TABLE
+                    + " ( " + FIELD_DESCRIPTION + ", " + FIELD_DONE + ", " + KEY_FIELD_ID + ", "
+                    + FIELD_UUID + ", " + FIELD_SEQ + ", " + FIELD_DESCRIPTION_TIME + ", "
+                    + FIELD_DONE_TIME + ", " + FIELD_POSITION + ", " + FIELD_DUE_AT + ", " + FIELD_LIST_ID
+                    + " ) VALUES ( ?, ?, ?, " + DBMigrations.NEW_UUID + ", ?, ?, ?, ?, ?, ? )");
+            // UPDATE tasks SET <times of changed fields> = ?4, description = ?1, done = ?2,
+            // deleted = 0, deleted_time = ?4, seq = ?5, due_at = ?7, list_id = ?8,
+            // position = <?6 if a live row has since taken its position> WHERE _id = ?3
+            mUndeleteStatement = database.compileStatement("UPDATE " + DATABASE_TABLE
+                    + " SET " + changedTimes() + ", " + FIELD_DESCRIPTION + " = ?1, "
+                    + FIELD_DONE + " = ?2, " + FIELD_DELETED + " = 0, " + FIELD_DELETED_TIME
+                    + " = ?4, " + FIELD_SEQ + " = ?5, " + FIELD_DUE_AT + " = ?7, "
+                    + FIELD_LIST_ID + " = ?8, "
+                    + FIELD_POSITION + " = CASE WHEN EXISTS ("
+                    + " SELECT 1 FROM " + DATABASE_TABLE + " AS live WHERE live." + LIVE
+                    + " AND live." + FIELD_POSITION + " = " + DATABASE_TABLE + "." + FIELD_POSITION
+                    + " ) THEN ?6 ELSE " + FIELD_POSITION + " END WHERE " + KEY_FIELD_ID + " = ?3");
+            // UPDATE tasks SET <times of changed fields> = ?4, description = ?1, done = ?2,
+            // due_at = ?6, list_id = ?7, seq = <?5 if description or done changed>
+            // WHERE _id = ?3 AND deleted = 0
+            mUpdateStatement = database.compileStatement("UPDATE " + DATABASE_TABLE
+                    + " SET " + changedTimes() + ", " + FIELD_DESCRIPTION + " = ?1, "
+                    + FIELD_DONE + " = ?2, " + FIELD_DUE_AT + " = ?6, " + FIELD_LIST_ID + " = ?7, " + FIELD_SEQ + " = CASE WHEN " + FIELD_DESCRIPTION
+                    + " IS ?1 AND " + FIELD_DONE + " = ?2 THEN " + FIELD_SEQ + " ELSE ?5 END"
+                    + " WHERE " + KEY_FIELD_ID + " = ?3" + AND_LIVE);
+            // UPDATE tasks SET done_time = <?3 if changed>, seq = <?4 if changed>, done = ?1
+            // WHERE _id = ?2 AND deleted = 0
+            mUpdateDoneStatement = database.compileStatement("UPDATE " + DATABASE_TABLE
+                    + " SET " + FIELD_DONE_TIME + " = CASE WHEN " + FIELD_DONE + " = ?1 THEN "
+                    + FIELD_DONE_TIME + " ELSE ?3 END, " + FIELD_SEQ + " = CASE WHEN " + FIELD_DONE
+                    + " = ?1 THEN " + FIELD_SEQ + " ELSE ?4 END, " + FIELD_DONE + " = ?1"
+                    + " WHERE " + KEY_FIELD_ID + " = ?2" + AND_LIVE);
+            // UPDATE tasks SET deleted = 1, deleted_time = ?2, seq = ?3 WHERE _id = ?1 AND deleted = 0
+            mDeleteStatement = database.compileStatement("UPDATE " + DATABASE_TABLE
+                    + " SET " + FIELD_DELETED + " = 1, " + FIELD_DELETED_TIME + " = ?2, "
+                    + FIELD_SEQ + " = ?3 WHERE " + KEY_FIELD_ID + " = ?1" + AND_LIVE);
+            // SELECT COUNT(*) FROM tasks WHERE deleted = 1
+            mTombstoneCountStatement = database.compileStatement("SELECT COUNT(*) FROM "
+                    + DATABASE_TABLE + " WHERE " + FIELD_DELETED + " = 1");
+            // DELETE FROM tasks WHERE _id IN ( SELECT _id FROM tasks WHERE deleted = 1
+            //     AND seq <= <pushed seq, or any if sync was never set up> LIMIT ? )
+            mPurgeStatement = database.compileStatement("DELETE FROM " + DATABASE_TABLE
+                    + " WHERE " + KEY_FIELD_ID + " IN ( SELECT " + KEY_FIELD_ID + " FROM "
+                    + DATABASE_TABLE + " WHERE " + FIELD_DELETED + " = 1 AND " + FIELD_SEQ
+                    + " <= COALESCE(( SELECT CAST(value AS INTEGER) FROM " + SYNC_STATE_TABLE + " WHERE key = '"
+                    + SYNC_PUSHED_SEQ + "' ), " + Long.MAX_VALUE + ") LIMIT ? )");
+            // INSERT INTO tasks ( description, done, uuid, description_time, done_time, deleted_time,
+            // position ) VALUES ( ?, ?, ?, ?, ?, ?, ? )
+            mRemoteInsertStatement = database.compileStatement("INSERT INTO " + DATABASE_TABLE
+                    + " ( " + FIELD_DESCRIPTION + ", " + FIELD_DONE + ", " + FIELD_UUID + ", "
+                    + FIELD_DESCRIPTION_TIME + ", " + FIELD_DONE_TIME + ", " + FIELD_DELETED_TIME
+                    + ", " + FIELD_POSITION + " ) VALUES ( ?, ?, ?, ?, ?, ?, ? )");
+            // UPDATE tasks SET description = ?, done = ?, deleted = ?, description_time = ?,
+            // done_time = ?, deleted_time = ? WHERE _id = ?
+            mRemoteUpdateStatement = database.compileStatement("UPDATE " + DATABASE_TABLE
+                    + " SET " + FIELD_DESCRIPTION + " = ?, " + FIELD_DONE + " = ?, " + FIELD_DELETED
+                    + " = ?, " + FIELD_DESCRIPTION_TIME + " = ?, " + FIELD_DONE_TIME + " = ?, "
+                    + FIELD_DELETED_TIME + " = ? WHERE " + KEY_FIELD_ID + " = ?");
+            // UPDATE tasks SET position = ? WHERE _id = ?
+            mMoveStatement = database.compileStatement("UPDATE " + DATABASE_TABLE
+                    + " SET " + FIELD_POSITION + " = ? WHERE " + KEY_FIELD_ID + " = ?");
+
+            // Carry on numbering after the last change, even if it has since been purged
+            mSeq = Math.max(DatabaseUtils.longForQuery(database, "SELECT MAX(" + FIELD_SEQ
+                    + ") FROM " + DATABASE_TABLE, null), getPushedSeq(database));
+            mLastPosition = DatabaseUtils.longForQuery(database, "SELECT COALESCE(MAX("
+                    + FIELD_POSITION + "), 0) FROM " + DATABASE_TABLE, null);
+            mDatabase = database;
+        }
+        return mDatabase;
+    }
+
+    /**
+     * open() opens the connection (creating or migrating the database if needed) without
+     * running any query, so it can be done ahead of time on a background thread.
+     */
+    public void open()
+    {
+        getDatabase();
+    }
+
+    /**
+     * close() releases the compiled statements before closing the connection.
+     * It is only needed when the process is going away; the next call to any
+     * other method simply reopens the database.
      */
     @Override
-    public void onUpgrade(SQLiteDatabase db, int i, int i1) {
+    public synchronized void close()
+    {
+        if (mDatabase != null)
+        {
+            mInsertStatement.close();
+            mRestoreStatement.close();
+            mUndeleteStatement.close();
+            mUpdateStatement.close();
+            mUpdateDoneStatement.close();
+            mDeleteStatement.close();
+            mTombstoneCountStatement.close();
+            mPurgeStatement.close();
+            mRemoteInsertStatement.close();
+            mMoveStatement.close();
+            mRemoteUpdateStatement.close();
+            mDatabase = null;
+        }
+        super.close();
+    }
+
+    /**
+     * bindTask() binds a Task's description and done state to the first two
+     * parameters of the insert or update statement.
+     *
+     * @param statement the compiled statement to bind.
+     * @param task the Task whose values are bound.
+     */
+    private static void bindTask(SQLiteStatement statement, Task task)
+    {
+        statement.clearBindings();
+        if (task.getDescription() == null)
+            statement.bindNull(1);
+        else
+            statement.bindString(1, task.getDescription());
+        statement.bindLong(2, task.isDone() ? 1 : 0);
+    }
+
+    /**
+     * copyOf() copies a Task the caller passed in, so observers get values that the caller
+     * can't change under them.
+     */
+    private static Task copyOf(Task task)
+    {
+        return new Task(task.getId(), task.getDescription(), task.isDone(), task.getDueAt(), task.getListId());
+    }
+
+    /**
+     * changedTimes() is the SET clause that moves the timestamp of each of description
+     * (?1) and done (?2) on to ?4, but only if the value is really changing, so a field
+     * that was not edited keeps the time it was last set and can't overrule an edit made
+     * to it on another device.
+     */
+    private static String changedTimes()
+    {
+        return FIELD_DESCRIPTION_TIME + " = CASE WHEN " + FIELD_DESCRIPTION + " IS ?1 THEN "
+                + FIELD_DESCRIPTION_TIME + " ELSE ?4 END, " + FIELD_DONE_TIME + " = CASE WHEN "
+                + FIELD_DONE + " = ?2 THEN " + FIELD_DONE_TIME + " ELSE ?4 END";
+    }
+
+    /**
+     * bindChange() binds a new row's seq and then the time to stamp both of its fields
+     * with, starting at parameter index.
+     */
+    private static void bindChange(SQLiteStatement statement, int index, long seq, long time)
+    {
+        statement.bindLong(index, seq);
+        statement.bindLong(index + 1, time);
+        statement.bindLong(index + 2, time);
+    }
+
+    /**
+     * nextSeq() numbers a new local change.  Every row an operation writes gets the same
+     * number, and each operation a higher one than the last, so the rows changed since a
+     * push are exactly those with a greater seq.  Called with the DBHelper locked.
+     */
+    private long nextSeq()
+    {
+        return ++mSeq;
+    }
+
+    /**
+     * unusedSeq() gives back the number nextSeq() just handed out, when the write it was
+     * for matched no live row, so no row carries it.  Called with the DBHelper locked.
+     */
+    private void unusedSeq()
+    {
+        mSeq--;
+    }
+
+    /**
+     * changeTime() is the time a local change is stamped with: the wall clock, but always
+     * later than the previous change, so a device's own edits are ordered even within a
+     * millisecond.  Called with the DBHelper locked.
+     */
+    private long changeTime()
+    {
+        mLastChangeTime = Math.max(System.currentTimeMillis(), mLastChangeTime + 1);
+        return mLastChangeTime;
+    }
 
-        // 1) Drop the existing table
-        db.execSQL("DROP TABLE IF EXISTS " + DATABASE_TABLE);
-        // 2) Build (create) the new one
-        onCreate(db);
+    /**
+     * nextPosition() is the position of a row added at the end of the list, TaskOrder.GAP
+     * after the last one.  Called with the DBHelper locked.
+     */
+    private long nextPosition()
+    {
+        mLastPosition += TaskOrder.GAP;
+        return mLastPosition;
     }
 
     /**
      * This method is called on the database to insert a new Task.
      *
+     * The Task passed in is not changed; the _id the database gave the new row is returned,
+     * and observers are sent the inserted Task with that _id.
+     *
      * @param newTask is a Task object representing one of the Users tasks.
+     * @return the _id of the new row.
      */
-    public void addTask(Task newTask)
+    public synchronized int addTask(Task newTask)
     {
-        SQLiteDatabase db = getWritableDatabase();
-        // Specify the values (fields) to insert into the database
+        long start = ADD_TIMER.start();
+        getDatabase();
+        // Bind the values (fields) to insert into the database
         // Everything *except* the primary key _id (auto assigned)
-        ContentValues values = new ContentValues();
-        values.put(FIELD_DESCRIPTION, newTask.getDescription());
-        values.put(FIELD_DONE, newTask.isDone() ? 1 : 0);
-        db.insert(DATABASE_TABLE, null, values);
-        db.close();
+        bindTask(mInsertStatement, newTask);
+        bindChange(mInsertStatement, 3, nextSeq(), changeTime());
+        mInsertStatement.bindLong(6, nextPosition());
+        mInsertStatement.bindLong(7, newTask.getDueAt());
+        mInsertStatement.bindLong(8, newTask.getListId());
+        int id = (int) mInsertStatement.executeInsert();
+        List<TaskChange> changes = Collections.singletonList(TaskChange.inserted(
+                new Task(id, newTask.getDescription(), newTask.isDone(), newTask.getDueAt(),
+                        newTask.getListId())));
+        updateCache(changes);
+        ADD_TIMER.stop(start);
+        notifyObservers(changes);
+        return id;
     }
 
     /**
-     * getAllTasks() returns a List of all Tasks.
+     * addTasks() inserts every Task in the Collection inside a single transaction.
+     * Observers are sent every insert in one call.
      *
-     * The method instantiates an ArrayList,
-     * gets a readable reference to the database,
-     * instantiates a Cursor object which will be used like an iterable to collect
-     * all the Tasks from the database and add them to the ArrayList,
-     * close the Cursor and the database,
-     * returns the List.
+     * @param newTasks the Tasks to insert.
+     * @return the Tasks as inserted, with their new _ids, in the same order.
+     */
+    public synchronized List<Task> addTasks(Collection<Task> newTasks)
+    {
+        long start = ADD_BATCH_TIMER.start();
+        List<TaskChange> changes = new ArrayList<>(newTasks.size());
+        List<Task> inserted = new ArrayList<>(newTasks.size());
+        SQLiteDatabase db = getDatabase();
+        long seq = nextSeq();
+        long time = changeTime();
+        db.beginTransaction();
+        try {
+            for (Task newTask : newTasks)
+            {
+                bindTask(mInsertStatement, newTask);
+                bindChange(mInsertStatement, 3, seq, time);
+                mInsertStatement.bindLong(6, nextPosition());
+                mInsertStatement.bindLong(7, newTask.getDueAt());
+                mInsertStatement.bindLong(8, newTask.getListId());
+                int id = (int) mInsertStatement.executeInsert();
+                inserted.add(new Task(id, newTask.getDescription(), newTask.isDone(), newTask.getDueAt(),
+                        newTask.getListId()));
+                changes.add(TaskChange.inserted(inserted.get(inserted.size() - 1)));
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        updateCache(changes);
+        ADD_BATCH_TIMER.stop(start);
+        notifyObservers(changes);
+        return inserted;
+    }
+
+    /**
+     * restoreTasks() puts back Tasks that were deleted, with the _ids they already have,
+     * inside a single transaction.  A Task whose tombstone is still there is simply marked
+     * live again, with these values; one that has since been purged is inserted anew.
+     * Observers are sent one RESTORED change rather than a change per Task.
      *
-     * @return a list of all the Tasks contained in the database.
+     * @param tasks the Tasks to put back; none of them may be live.
      */
-    public List<Task> getAllTasks()
+    public synchronized void restoreTasks(Collection<Task> tasks)
     {
-        List<Task> allTasksList = new ArrayList<>();
-        SQLiteDatabase db = getReadableDatabase();
-        // To retrieve data from a database table, we use a Cursor
-        // Cursor stores the results of a query
-        Cursor cursor = db.query(DATABASE_TABLE,
-                new String[] {KEY_FIELD_ID, FIELD_DESCRIPTION, FIELD_DONE},
-                null, null, null, null, null);
+        long start = RESTORE_TIMER.start();
+        SQLiteDatabase db = getDatabase();
+        long seq = nextSeq();
+        long time = changeTime();
+        db.beginTransaction();
+        try {
+            for (Task task : tasks)
+            {
+                // UPDATE tasks SET ..., deleted = 0 WHERE _id = ?
+                bindTask(mUndeleteStatement, task);
+                mUndeleteStatement.bindLong(3, task.getId());
+                mUndeleteStatement.bindLong(4, time);
+                mUndeleteStatement.bindLong(5, seq);
+                mUndeleteStatement.bindLong(6, nextPosition());
+                mUndeleteStatement.bindLong(7, task.getDueAt());
+                mUndeleteStatement.bindLong(8, task.getListId());
+                if (mUndeleteStatement.executeUpdateDelete() > 0)
+                    continue;
+                // INSERT INTO tasks ( description, done, _id, ... ) VALUES ( ?, ?, ?, ... )
+                bindTask(mRestoreStatement, task);
+                mRestoreStatement.bindLong(3, task.getId());
+                bindChange(mRestoreStatement, 4, seq, time);
+                mRestoreStatement.bindLong(7, nextPosition());
+                mRestoreStatement.bindLong(8, task.getDueAt());
+                mRestoreStatement.bindLong(9, task.getListId());
+                mRestoreStatement.executeInsert();
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        List<TaskChange> changes = Collections.singletonList(TaskChange.restored());
+        updateCache(changes);
+        RESTORE_TIMER.stop(start);
+        notifyObservers(changes);
+    }
 
-        if ( cursor.moveToFirst() )
+    /**
+     * moveTask() moves a Task to just after another one in the user's order.
+     *
+     * Only the moved row is written: it gets a position halfway between its new neighbours
+     * (see TaskOrder).  If the move leaves that spot crowded, needsRebalance() becomes true
+     * so the rows around it can be spread out later with rebalancePositions().  Only if
+     * there is no room at all are they spread out first, in the same transaction.
+     *
+     * Observers are sent one MOVED change.
+     *
+     * @param id the _id of the Task to move.
+     * @param afterId the _id of the Task it should follow, or 0 to move it to the top.
+     * @return false if either Task is not in the list, so nothing was moved.
+     */
+    public synchronized boolean moveTask(int id, int afterId)
+    {
+        if (id == afterId)
+            return false;
+        long start = MOVE_TIMER.start();
+        SQLiteDatabase db = getDatabase();
+        boolean moved = false;
+        db.beginTransaction();
+        try {
+            long before = afterId == 0 ? TaskOrder.NONE : livePosition(db, afterId);
+            if (livePosition(db, id) != TaskOrder.NONE && (afterId == 0 || before != TaskOrder.NONE))
+            {
+                long after = positionAfter(db, before, id);
+                long position = TaskOrder.between(before, after);
+                if (position == TaskOrder.NONE)
+                {
+                    // Out of room: make some, then look again
+                    rebalance(db, before);
+                    before = livePosition(db, afterId);
+                    after = positionAfter(db, before, id);
+                    position = TaskOrder.between(before, after);
+                }
+                else if (TaskOrder.isCrowded(before, after))
+                    mCrowdedPosition = before;
+
+                // UPDATE tasks SET position = ? WHERE _id = ?
+                mMoveStatement.bindLong(1, position);
+                mMoveStatement.bindLong(2, id);
+                mMoveStatement.executeUpdateDelete();
+                mLastPosition = Math.max(mLastPosition, position);
+                moved = true;
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        if (moved)
         {
-            // Guaranteed at least one result from query
-            do {
-                Task task = new Task(cursor.getInt(0), cursor.getString(1), cursor.getInt(2) == 1);
-                allTasksList.add(task);
-            } while ( cursor.moveToNext() );
+            List<TaskChange> changes = Collections.singletonList(TaskChange.moved(id, afterId));
+            updateCache(changes);
+            MOVE_TIMER.stop(start);
+            notifyObservers(changes);
         }
-        cursor.close();
-        // Don't forget to close or else the apps performance will degrade and eventually crash
-        db.close();
-        return allTasksList;
+        return moved;
     }
 
     /**
-     * deleteTask() gets a writable reference to the database,
-     * deletes the specified Task,
-     * and closes the database.
-     * @param taskToDelete a Task object so we know which Task to delete from the database.
+     * needsRebalance() tells whether a move has left a spot crowded since the last
+     * rebalancePositions().
      */
-    public void deleteTask (Task taskToDelete)
+    public synchronized boolean needsRebalance()
     {
-        SQLiteDatabase db = getWritableDatabase();
-        // "DELETE FROM tasks WHERE _id = ?
-        db.delete(DATABASE_TABLE, KEY_FIELD_ID + "=" + taskToDelete.getId(), null);
-        db.close();
+        return mCrowdedPosition != TaskOrder.NONE;
     }
 
     /**
-     * deleteAllTasks() is used to .. so surprisingly... delete all the Tasks from the database.
+     * rebalancePositions() spreads out the rows around the spot a move left crowded, in one
+     * transaction, so later moves there find room again.  It starts with REBALANCE_WINDOW
+     * rows and doubles that until they can be spread over their range without crowding it;
+     * the order does not change, so nothing is published.
+     * @return the number of rows given new positions.
      */
-    public void deleteAllTasks()
+    public synchronized int rebalancePositions()
     {
-        SQLiteDatabase db = getWritableDatabase();
-        db.delete(DATABASE_TABLE, null, null);
-        db.close();
+        if (mCrowdedPosition == TaskOrder.NONE)
+            return 0;
+        long start = REBALANCE_TIMER.start();
+        SQLiteDatabase db = getDatabase();
+        int count;
+        db.beginTransaction();
+        try {
+            count = rebalance(db, mCrowdedPosition);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        mCrowdedPosition = TaskOrder.NONE;
+        REBALANCE_TIMER.stop(start);
+        return count;
     }
 
     /**
-     * updateTask() gets a writable reference to the database,
-     * instantiates a ContentValues object,
-     * the new values for the Task are put into the ContentValues object,
-     * the database is called and updates the specified Task,
-     * and closes the database.
-     * @param taskToEdit the Task to update/edit
+     * rebalance() gives the live rows nearest to a position (half at or before it, half
+     * after it) new, evenly spread positions between the rows either side of them, taking
+     * in more rows until TaskOrder.spread() finds enough room.  Called inside a transaction.
+     * @return the number of rows rewritten.
      */
-    public void updateTask (Task taskToEdit)
+    private int rebalance(SQLiteDatabase db, long around)
     {
-        SQLiteDatabase db = getWritableDatabase();
-        ContentValues values = new ContentValues();
-        values.put(FIELD_DESCRIPTION, taskToEdit.getDescription());
-        values.put(FIELD_DONE, taskToEdit.isDone() ? 1 : 0);
+        for (int half = REBALANCE_WINDOW / 2; ; half *= 2)
+        {
+            // One row more than needed on each side: that one keeps its position
+            List<long[]> below = liveRows(db, " <= ", around, " DESC", half + 1);
+            List<long[]> above = liveRows(db, " > ", around, " ASC", half + 1);
+            long before = below.size() > half ? below.remove(half)[1] : TaskOrder.NONE;
+            long after = above.size() > half ? above.remove(half)[1] : TaskOrder.NONE;
+            int count = below.size() + above.size();
+            long[] positions = TaskOrder.spread(before, after, count);
+            if (positions == null)
+                continue;
 
-        db.update(DATABASE_TABLE, values, KEY_FIELD_ID + "=" + taskToEdit.getId(), null);
-        db.close();
+            Collections.reverse(below);
+            below.addAll(above);
+            for (int i = 0; i < count; i++)
+            {
+                // UPDATE tasks SET position = ? WHERE _id = ?
+                mMoveStatement.bindLong(1, positions[i]);
+                mMoveStatement.bindLong(2, below.get(i)[0]);
+                mMoveStatement.executeUpdateDelete();
+            }
+            if (count > 0)
+                mLastPosition = Math.max(mLastPosition, positions[count - 1]);
+            return count;
+        }
     }
 
     /**
-     * getSingleTask() takes an int id parameter to find the specified Task.
+     * liveRows() reads the _id and position of up to limit live rows on one side of a
+     * position, nearest first, from the order index.
+     */
+    private static List<long[]> liveRows(SQLiteDatabase db, String comparison, long position,
+                                         String direction, int limit)
+    {
+        // SELECT _id, position FROM tasks WHERE deleted = 0 AND position <= | > ? ORDER BY position [DESC] LIMIT ?
+        Cursor cursor = db.query(DATABASE_TABLE, new String[] {KEY_FIELD_ID, FIELD_POSITION},
+                LIVE + " AND " + FIELD_POSITION + comparison + "?", new String[] {String.valueOf(position)},
+                null, null, FIELD_POSITION + direction, String.valueOf(limit));
+        List<long[]> rows = new ArrayList<>(cursor.getCount());
+        try {
+            while ( cursor.moveToNext() )
+                rows.add(new long[] {cursor.getLong(0), cursor.getLong(1)});
+        } finally {
+            cursor.close();
+        }
+        return rows;
+    }
+
+    /**
+     * livePosition() reads a live Task's position.
+     * @return the position, or TaskOrder.NONE if there is no such live Task.
+     */
+    private static long livePosition(SQLiteDatabase db, int id)
+    {
+        // SELECT position FROM tasks WHERE _id = ? AND deleted = 0
+        return queryPosition(db, "SELECT " + FIELD_POSITION + " FROM " + DATABASE_TABLE
+                + " WHERE " + KEY_FIELD_ID + " = ?" + AND_LIVE, String.valueOf(id));
+    }
+
+    /**
+     * positionAfter() finds the position of the live row following a position, leaving out
+     * the row being moved.
+     * @param position the position to look after, or TaskOrder.NONE for the top.
+     * @return the following row's position, or TaskOrder.NONE if there is none.
+     */
+    private static long positionAfter(SQLiteDatabase db, long position, int movingId)
+    {
+        // SELECT position FROM tasks WHERE deleted = 0 AND position > ? AND _id != ? ORDER BY position LIMIT 1
+        return queryPosition(db, "SELECT " + FIELD_POSITION + " FROM " + DATABASE_TABLE + " WHERE "
+                + LIVE + " AND " + FIELD_POSITION + " > ? AND " + KEY_FIELD_ID + " != ? ORDER BY "
+                + FIELD_POSITION + " LIMIT 1", String.valueOf(position), String.valueOf(movingId));
+    }
+
+    private static long queryPosition(SQLiteDatabase db, String sql, String... args)
+    {
+        Cursor cursor = db.rawQuery(sql, args);
+        try {
+            return cursor.moveToFirst() ? cursor.getLong(0) : TaskOrder.NONE;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * getAllTasks() returns a List of all Tasks, in the user's order.
      *
-     * Declares a new Task object, instantiated to null.
-     * A readable database reference is established.
-     * A Cursor object is instantiated and used to find the specified Task.
-     * The Cursor is first checked to be sure that the specified id exists,
-     * if it does, the declared new Task object gets the appropriate Task data.
-     * The Cursor and database connections are closed.
-     * The singleTask is returned.
+     * The method instantiates a TaskArray sized to the result, which stores the Tasks in a
+     * few flat arrays rather than one object per Task (see TaskArray),
+     * gets the shared database connection,
+     * instantiates a Cursor object which will be used like an iterable to collect
+     * all the Tasks from the database and add them to the TaskArray,
+     * copying each description straight from the Cursor into the TaskArray's buffer
+     * (no String is created per row),
+     * closes the Cursor (the database stays open for the next call),
+     * returns the List.
      *
-     * @param id an int which matches the id of the task being searched for.
-     * @return
+     * @return a list of all the Tasks contained in the database.
      */
-    public Task getSingleTask(int id)
+    public TaskArray getAllTasks()
     {
-        Task singleTask = null;
+        return getAllTasks(ALL_LISTS);
+    }
 
-        SQLiteDatabase db = getReadableDatabase();
+    /**
+     * getAllTasks() returns every Task of one list, in the user's order, as getAllTasks()
+     * does for every list.  The rows come off the list's order index.
+     *
+     * @param listId the list to read, or ALL_LISTS.
+     * @return the list's Tasks.
+     */
+    public TaskArray getAllTasks(int listId)
+    {
+        long start = GET_ALL_TIMER.start();
+        SQLiteDatabase db = getDatabase();
         // To retrieve data from a database table, we use a Cursor
         // Cursor stores the results of a query
-        Cursor cursor = db.query(DATABASE_TABLE,
-                new String[] {KEY_FIELD_ID, FIELD_DESCRIPTION, FIELD_DONE},
-                KEY_FIELD_ID + "=" + id, null, null, null, null);
+        Cursor cursor = listId == ALL_LISTS
+                ? db.query(DATABASE_TABLE, TASK_COLUMNS, LIVE, null, null, null, FIELD_POSITION)
+                : db.query(DATABASE_TABLE, TASK_COLUMNS, FIELD_LIST_ID + " = ?" + AND_LIVE,
+                        new String[] {String.valueOf(listId)}, null, null, FIELD_POSITION);
+        TaskArray allTasksList = new TaskArray(cursor.getCount());
+        CharArrayBuffer description = new CharArrayBuffer(TaskArray.DEFAULT_DESCRIPTION_LENGTH);
 
+        int windowStart = -1;
         if ( cursor.moveToFirst() )
         {
             // Guaranteed at least one result from query
-            singleTask = new Task(cursor.getInt(0), cursor.getString(1), cursor.getInt(2) == 1);
+            do {
+                if (Metrics.isEnabled())
+                    windowStart = countWindowFill(cursor, windowStart);
+                if (cursor.isNull(1))
+                    allTasksList.add(cursor.getInt(0), null, cursor.getInt(2) == 1);
+                else
+                {
+                    cursor.copyStringToBuffer(1, description);
+                    allTasksList.add(cursor.getInt(0), description.data, description.sizeCopied,
+                            cursor.getInt(2) == 1);
+                }
+                if (cursor.getLong(3) != Task.NO_DUE_DATE)
+                    allTasksList.setDueAt(allTasksList.size() - 1, cursor.getLong(3));
+                if (cursor.getInt(4) != Task.DEFAULT_LIST_ID)
+                    allTasksList.setListId(allTasksList.size() - 1, cursor.getInt(4));
+            } while ( cursor.moveToNext() );
         }
+        // Don't forget to close the Cursor or else the apps performance will degrade and eventually crash
         cursor.close();
-        // Don't forget to close or else the apps performance will degrade and eventually crash
-        db.close();
-        return singleTask;
+        ROWS_READ.record(allTasksList.size());
+        GET_ALL_TIMER.stop(start);
+        return allTasksList;
+    }
+
+    /**
+     * getTasksAfter() returns the next page of a list's Tasks: up to limit Tasks of the list
+     * that come after the Task afterId in the user's order.  Passing 0 returns the first page.
+     *
+     * Because the page starts from a known position rather than an OFFSET, SQLite seeks
+     * straight to it on the list order index, whose entries are ordered by ( list_id,
+     * deleted, position ), and the cost of a page depends neither on how deep it is nor on
+     * how many Tasks the other lists have.  With a filter the seek is on the list done index
+     * instead, ordered by ( list_id, deleted, done, position ), so the filtered page is just
+     * as cheap.  Neither needs a sort.  Tombstones are skipped, and there are only ever as
+     * many of them as TaskCompactor has yet to purge.
+     *
+     * The page is keyed on afterId's position, looked up in the same query, so it follows
+     * that Task wherever it has been moved to.  A Task that no longer exists at all counts
+     * as the top of the list.
+     *
+     * @param listId the list to read.
+     * @param filter FILTER_ALL, FILTER_ACTIVE or FILTER_COMPLETED.
+     * @param afterId the _id of the last Task of the previous page.
+     * @param limit the maximum number of Tasks to return.
+     * @return the page of Tasks, possibly empty.
+     */
+    public List<Task> getTasksAfter(int listId, int filter, int afterId, int limit)
+    {
+        return getPage(listId, filter, " > ", afterId, Long.MIN_VALUE, limit);
+    }
+
+    /**
+     * getTasksFrom() returns a page of Tasks starting with the Task fromId itself, as
+     * getTasksAfter() does for the Tasks after it.  TaskPagedList reloads its window with it.
+     *
+     * @param listId the list to read.
+     * @param filter FILTER_ALL, FILTER_ACTIVE or FILTER_COMPLETED.
+     * @param fromId the _id of the first Task of the page.
+     * @param limit the maximum number of Tasks to return.
+     * @return the page of Tasks, possibly empty.
+     */
+    public List<Task> getTasksFrom(int listId, int filter, int fromId, int limit)
+    {
+        return getPage(listId, filter, " >= ", fromId, Long.MIN_VALUE, limit);
+    }
+
+    /**
+     * getTasksBefore() returns the previous page of Tasks: up to limit Tasks that come
+     * before the Task beforeId, still in the user's order.
+     *
+     * @param listId the list to read.
+     * @param filter FILTER_ALL, FILTER_ACTIVE or FILTER_COMPLETED.
+     * @param beforeId the _id of the first Task of the following page.
+     * @param limit the maximum number of Tasks to return.
+     * @return the page of Tasks, possibly empty.
+     */
+    public List<Task> getTasksBefore(int listId, int filter, int beforeId, int limit)
+    {
+        return getPage(listId, filter, " < ", beforeId, Long.MAX_VALUE, limit);
+    }
+
+    /**
+     * getPage() reads the Tasks on one side of the Task anchorId, nearest first.
+     * @param comparison how a row's position compares with the anchor's, with spaces around.
+     * @param missing the position to use if the anchor does not exist.
+     */
+    private List<Task> getPage(int listId, int filter, String comparison, int anchorId, long missing, int limit)
+    {
+        long start = PAGE_TIMER.start();
+        long generation = mWriteGeneration.get();
+        boolean backwards = comparison.contains("<");
+        Cursor cursor = pageCursor(TASK_COLUMNS, listId, filter, comparison, anchorId, missing, limit);
+        List<Task> page = readTasks(cursor, limit, generation);
+        if (backwards)
+            Collections.reverse(page);
+        PAGE_TIMER.stop(start);
+        return page;
+    }
+
+    /**
+     * pageCursor() runs getPage()'s query for any of the Tasks table's columns.
+     */
+    private Cursor pageCursor(String[] columns, int listId, int filter, String comparison, int anchorId,
+                              long missing, int limit)
+    {
+        boolean backwards = comparison.contains("<");
+        // SELECT <columns> FROM tasks WHERE list_id = ? AND deleted = 0
+        //     [AND done = ?] AND position > | >= | < COALESCE(( SELECT position FROM tasks WHERE _id = ? ),
+        //     <missing>) ORDER BY position [DESC] LIMIT ?
+        return getDatabase().query(DATABASE_TABLE, columns,
+                filterSelection(filter, FIELD_POSITION + comparison + "COALESCE(( SELECT "
+                        + FIELD_POSITION + " FROM " + DATABASE_TABLE + " WHERE " + KEY_FIELD_ID
+                        + " = ? ), " + missing + ")"), filterArgs(listId, filter, anchorId),
+                null, null, FIELD_POSITION + (backwards ? " DESC" : " ASC"), String.valueOf(limit));
+    }
+
+    /**
+     * queryTasks() returns the same page of a list as getTasksAfter(), but as the Cursor
+     * itself, for TaskProvider to hand out: no Task is made and nothing is copied, the
+     * rows go straight from SQLite's cursor window to whoever reads them.  The first window
+     * is filled here, so the query runs (and is timed) on the calling thread.
+     *
+     * @param columns which of the Tasks table's columns to return.
+     * @param listId the list to read.
+     * @param filter FILTER_ALL, FILTER_ACTIVE or FILTER_COMPLETED.
+     * @param afterId the _id of the last Task of the previous page, or 0 for the first page.
+     * @param limit the maximum number of rows.
+     * @return the rows, in the user's order; the caller closes it.
+     */
+    public Cursor queryTasks(String[] columns, int listId, int filter, int afterId, int limit)
+    {
+        long start = QUERY_PAGE_TIMER.start();
+        Cursor cursor = pageCursor(columns, listId, filter, " > ", afterId, Long.MIN_VALUE, limit);
+        ROWS_READ.record(cursor.getCount());
+        QUERY_PAGE_TIMER.stop(start);
+        return cursor;
+    }
+
+    /**
+     * queryTask() returns one live Task's row as a Cursor, as getSingleTask() returns the
+     * Task: one primary key lookup.  It does not go through the cache, as the Cursor
+     * would have to be built from the Task anyway.
+     *
+     * @param columns which of the Tasks table's columns to return.
+     * @param id the Task's _id.
+     * @return the row, or no rows; the caller closes it.
+     */
+    public Cursor queryTask(String[] columns, int id)
+    {
+        long start = QUERY_SINGLE_TIMER.start();
+        Cursor cursor = getDatabase().query(DATABASE_TABLE, columns, KEY_FIELD_ID + " = ?" + AND_LIVE,
+                new String[] {String.valueOf(id)}, null, null, null);
+        ROWS_READ.record(cursor.getCount());
+        QUERY_SINGLE_TIMER.stop(start);
+        return cursor;
+    }
+
+    /**
+     * queryLists() returns every list with its counts, as getLists() does, as a Cursor over
+     * _id, name, total and done.
+     * @return the rows, in the order the lists were added; the caller closes it.
+     */
+    public Cursor queryLists()
+    {
+        long start = QUERY_LISTS_TIMER.start();
+        Cursor cursor = getDatabase().query(LISTS_TABLE,
+                new String[] {KEY_FIELD_ID, FIELD_NAME, FIELD_TOTAL, FIELD_DONE},
+                null, null, null, null, KEY_FIELD_ID);
+        ROWS_READ.record(cursor.getCount());
+        QUERY_LISTS_TIMER.stop(start);
+        return cursor;
+    }
+
+    /**
+     * getTaskCount() returns how many Tasks of every list match a filter.
+     * @param filter FILTER_ALL, FILTER_ACTIVE or FILTER_COMPLETED.
+     * @return the number of matching Tasks.
+     */
+    public int getTaskCount(int filter)
+    {
+        return getTaskCount(ALL_LISTS, filter);
+    }
+
+    /**
+     * getTaskCount() returns how many Tasks of a list match a filter, from the counters
+     * the list's row keeps rather than by reading any Tasks.
+     * @param listId the list, or ALL_LISTS.
+     * @param filter FILTER_ALL, FILTER_ACTIVE or FILTER_COMPLETED.
+     * @return the number of matching Tasks.
+     */
+    public int getTaskCount(int listId, int filter)
+    {
+        TaskCounts counts = getTaskCounts(listId);
+        if (filter == FILTER_ALL)
+            return counts.getTotal();
+        return filter == FILTER_COMPLETED ? counts.getDone() : counts.getActive();
+    }
+
+    /**
+     * getTaskCounts() returns the total number of Tasks in every list and how many of them
+     * are done.
+     * @return the counts by status.
+     */
+    public TaskCounts getTaskCounts()
+    {
+        return getTaskCounts(ALL_LISTS);
+    }
+
+    /**
+     * getTaskCounts() returns the total number of Tasks in a list and how many of them are
+     * done.  Both are the list row's counters, which the triggers keep in step with every
+     * write, so this is one primary key lookup however long the list is (a sum over the
+     * few rows of Lists for ALL_LISTS), and the two always agree.
+     * @param listId the list, or ALL_LISTS.
+     * @return the counts by status; zero for a list that does not exist.
+     */
+    public TaskCounts getTaskCounts(int listId)
+    {
+        long start = COUNT_TIMER.start();
+        // SELECT total, done FROM lists WHERE _id = ?
+        // or, for every list, SELECT TOTAL(total), TOTAL(done) FROM lists
+        Cursor cursor = listId == ALL_LISTS
+                ? getDatabase().rawQuery("SELECT TOTAL(" + FIELD_TOTAL + "), TOTAL(" + FIELD_DONE
+                        + ") FROM " + LISTS_TABLE, null)
+                : getDatabase().query(LISTS_TABLE, new String[] {FIELD_TOTAL, FIELD_DONE},
+                        KEY_FIELD_ID + " = ?", new String[] {String.valueOf(listId)}, null, null, null);
+        try {
+            if (!cursor.moveToFirst())
+                return new TaskCounts(0, 0);
+            return new TaskCounts(cursor.getInt(0), cursor.getInt(1));
+        } finally {
+            cursor.close();
+            COUNT_TIMER.stop(start);
+        }
+    }
+
+    /**
+     * getLists() returns every list, in the order they were added, with their counts.
+     * @return the lists; never empty, as the first list always exists.
+     */
+    public List<TaskList> getLists()
+    {
+        long start = LISTS_TIMER.start();
+        // SELECT _id, name, total, done FROM lists ORDER BY _id
+        Cursor cursor = getDatabase().query(LISTS_TABLE,
+                new String[] {KEY_FIELD_ID, FIELD_NAME, FIELD_TOTAL, FIELD_DONE},
+                null, null, null, null, KEY_FIELD_ID);
+        List<TaskList> lists = new ArrayList<>(cursor.getCount());
+        try {
+            while ( cursor.moveToNext() )
+                lists.add(new TaskList(cursor.getInt(0), cursor.getString(1),
+                        new TaskCounts(cursor.getInt(2), cursor.getInt(3))));
+        } finally {
+            cursor.close();
+            LISTS_TIMER.stop(start);
+        }
+        return lists;
+    }
+
+    /**
+     * getDescriptions() returns the description of every Task of a list, for BulkEntry to
+     * leave out lines the list already has.
+     *
+     * It is one range scan of the list order index (list_id, deleted, position), reading
+     * only the one column, straight into a HashSet sized from the list's counter, so it
+     * costs one pass over the list however many lines are then checked against it.
+     *
+     * @param listId the list to read.
+     * @return the descriptions; a Task without one is left out.
+     */
+    public Set<String> getDescriptions(int listId)
+    {
+        long start = DESCRIPTIONS_TIMER.start();
+        int total = getTaskCounts(listId).getTotal();
+        // SELECT description FROM tasks WHERE list_id = ? AND deleted = 0
+        Cursor cursor = getDatabase().query(DATABASE_TABLE, new String[] {FIELD_DESCRIPTION},
+                FIELD_LIST_ID + " = ?" + AND_LIVE, new String[] {String.valueOf(listId)}, null, null, null);
+        // Sized so the set never has to grow
+        Set<String> descriptions = new HashSet<>(Math.max(16, (int) (total / 0.75f) + 1));
+        try {
+            while ( cursor.moveToNext() )
+                if (!cursor.isNull(0))
+                    descriptions.add(cursor.getString(0));
+        } finally {
+            ROWS_READ.record(cursor.getCount());
+            cursor.close();
+            DESCRIPTIONS_TIMER.stop(start);
+        }
+        return descriptions;
+    }
+
+    /**
+     * addList() adds a new, empty list.  Names need not be unique.
+     * @param name what the user called it.
+     * @return the new list's _id.
+     */
+    public synchronized int addList(String name)
+    {
+        long start = ADD_LIST_TIMER.start();
+        ContentValues values = new ContentValues(1);
+        values.put(FIELD_NAME, name);
+        int id = (int) getDatabase().insert(LISTS_TABLE, null, values);
+        ADD_LIST_TIMER.stop(start);
+        return id;
+    }
+
+    /**
+     * filterSelection() puts the conditions on list_id and deleted and the filter's
+     * condition on done in front of a condition on position, so the whole WHERE clause
+     * matches the ( list_id, deleted, position ) order of the list order index or the
+     * ( list_id, deleted, done, position ) order of the list done index.
+     */
+    private static String filterSelection(int filter, String positionSelection)
+    {
+        if (filter == FILTER_ALL)
+            return FIELD_LIST_ID + " = ?" + AND_LIVE + " AND " + positionSelection;
+        return FIELD_LIST_ID + " = ?" + AND_LIVE + " AND " + FIELD_DONE + " = ? AND " + positionSelection;
+    }
+
+    /**
+     * filterArgs() returns the arguments matching filterSelection().
+     */
+    private static String[] filterArgs(int listId, int filter, int id)
+    {
+        if (filter == FILTER_ALL)
+            return new String[] {String.valueOf(listId), String.valueOf(id)};
+        return new String[] {String.valueOf(listId), filter == FILTER_COMPLETED ? "1" : "0", String.valueOf(id)};
+    }
+
+    /**
+     * exportTasks() writes every Task of every list, in the user's order, straight from the
+     * Cursor to the writer, so importing the file adds them back in that order, each with
+     * its due date and in its list.
+     * No Task objects are created; the Cursor's window is the only buffer.
+     *
+     * @param writer where to write the Tasks.
+     * @return the number of Tasks written.
+     * @throws IOException if writing fails.
+     */
+    public int exportTasks(TaskWriter writer) throws IOException
+    {
+        long start = EXPORT_TIMER.start();
+        Cursor cursor = getDatabase().query(DATABASE_TABLE, TASK_COLUMNS,
+                LIVE, null, null, null, FIELD_POSITION + " ASC");
+        int count = 0;
+        int windowStart = -1;
+        try {
+            while ( cursor.moveToNext() )
+            {
+                if (Metrics.isEnabled())
+                    windowStart = countWindowFill(cursor, windowStart);
+                writer.write(cursor.getInt(0), cursor.getString(1), cursor.getInt(2) == 1,
+                        cursor.getLong(3), cursor.getInt(4));
+                count++;
+            }
+            writer.finish();
+        } finally {
+            cursor.close();
+        }
+        ROWS_READ.record(count);
+        EXPORT_TIMER.stop(start);
+        return count;
+    }
+
+    /**
+     * importTasks() reads Tasks from the reader as they are parsed and inserts them
+     * IMPORT_BATCH_SIZE at a time, each batch in one transaction.  Imported Tasks
+     * are given new ids.  Each goes into the list it was exported from if this database
+     * has a list with that id, and into the first list otherwise (as do Tasks from files
+     * written before there were lists).
+     *
+     * @param reader where to read the Tasks from.
+     * @return the number of Tasks imported.
+     * @throws IOException if reading fails; batches already inserted are kept.
+     */
+    public int importTasks(TaskReader reader) throws IOException
+    {
+        long start = IMPORT_TIMER.start();
+        Set<Integer> listIds = new HashSet<>();
+        for (TaskList list : getLists())
+            listIds.add(list.getId());
+        List<Task> batch = new ArrayList<>(IMPORT_BATCH_SIZE);
+        int count = 0;
+        Task task;
+        while ( (task = reader.read()) != null )
+        {
+            if (!listIds.contains(task.getListId()))
+                task.setListId(Task.DEFAULT_LIST_ID);
+            batch.add(task);
+            if (batch.size() == IMPORT_BATCH_SIZE)
+            {
+                addTasks(batch);
+                count += batch.size();
+                batch.clear();
+            }
+        }
+        if (!batch.isEmpty())
+        {
+            addTasks(batch);
+            count += batch.size();
+        }
+        IMPORT_TIMER.stop(start);
+        return count;
+    }
+
+    /**
+     * searchTasks() finds the Tasks whose description contains every word of the query,
+     * where the last word of the query (and every other word) may be just the start of a
+     * word: "buy mi" finds "Buy milk".
+     *
+     * Results are ranked by how many times the query words occur in the description,
+     * and then shorter descriptions (closer matches) first.  Only the Tasks of one list
+     * are returned, the one being shown, unless listId is ALL_LISTS.
+     *
+     * Only the first SEARCH_RANK_LIMIT matches (or limit, if that is more), oldest first,
+     * are ranked: the match stops there, so offsets() runs and the sort orders at most
+     * that many rows however many Tasks match.  A query that matches more than that, like
+     * the first letter or two typed, is ranked among the oldest of its matches; each
+     * letter added narrows it until every match is ranked.
+     *
+     * @param query what the user typed.
+     * @param listId the list to search, or ALL_LISTS.
+     * @param limit the maximum number of Tasks to return.
+     * @return the matching Tasks, best first; empty if the query has no words.
+     */
+    public List<Task> searchTasks(String query, int listId, int limit)
+    {
+        String match = toPrefixQuery(query);
+        if (match.isEmpty())
+            return new ArrayList<>();
+
+        // offsets() returns four numbers per matched word, separated by spaces,
+        // so the number of spaces grows with the number of matches.  The live rows of the
+        // list are picked inside the match, so its LIMIT counts only those
+        String sql = "SELECT t." + KEY_FIELD_ID + ", t." + FIELD_DESCRIPTION + ", t." + FIELD_DONE
+                + ", t." + FIELD_DUE_AT + ", t." + FIELD_LIST_ID + " FROM " + DATABASE_TABLE + " t JOIN ( SELECT docid, offsets(" + SEARCH_TABLE
+                + ") AS hits FROM " + SEARCH_TABLE + " WHERE " + SEARCH_TABLE + " MATCH ?"
+                + " AND EXISTS ( SELECT 1 FROM " + DATABASE_TABLE + " l WHERE l." + KEY_FIELD_ID + " = docid"
+                + " AND l." + LIVE
+                + (listId == ALL_LISTS ? "" : " AND l." + FIELD_LIST_ID + " = ?")
+                + " ) LIMIT " + Math.max(limit, SEARCH_RANK_LIMIT) + " ) m"
+                + " ON t." + KEY_FIELD_ID + " = m.docid"
+                + " ORDER BY length(m.hits) - length(replace(m.hits, ' ', '')) DESC,"
+                + " length(t." + FIELD_DESCRIPTION + ")"
+                + " LIMIT " + limit;
+        long start = SEARCH_TIMER.start();
+        long generation = mWriteGeneration.get();
+        Cursor cursor = getDatabase().rawQuery(sql, listId == ALL_LISTS ? new String[] {match}
+                : new String[] {match, String.valueOf(listId)});
+        List<Task> results = readTasks(cursor, Math.min(limit, 64), generation);
+        SEARCH_TIMER.stop(start);
+        return results;
+    }
+
+    /**
+     * toPrefixQuery() turns what the user typed into an FTS MATCH expression: each word
+     * becomes a prefix term ("mi*") and the terms are implicitly ANDed.  Anything that is
+     * not a letter or digit is dropped so user input can never form FTS syntax.
+     *
+     * Only ASCII letters are lowercased.  The "simple" tokenizer (the only one at every API
+     * level the app runs on) folds nothing else when it indexes, so a word that starts with
+     * a capital umlaut is stored with that capital, and only a term with it finds the word.
+     *
+     * @param query the raw text.
+     * @return the MATCH expression, or an empty string if there are no words.
+     */
+    static String toPrefixQuery(String query)
+    {
+        StringBuilder match = new StringBuilder();
+        StringBuilder word = new StringBuilder();
+        for (int i = 0; i <= query.length(); i++)
+        {
+            char c = i < query.length() ? query.charAt(i) : ' ';
+            if (Character.isLetterOrDigit(c))
+                word.append(c < 0x80 ? Character.toLowerCase(c) : c);
+            else if (word.length() > 0)
+            {
+                if (match.length() > 0)
+                    match.append(' ');
+                match.append(word).append('*');
+                word.setLength(0);
+            }
+        }
+        return match.toString();
+    }
+
+    /**
+     * readTasks() turns the rows of a Cursor over TASK_COLUMNS into Tasks,
+     * caches them and closes the Cursor.
+     *
+     * @param cursor the query result.
+     * @param expectedSize a hint for the size of the list.
+     * @param generation mWriteGeneration from before the query was run.
+     * @return the Tasks read.
+     */
+    private List<Task> readTasks(Cursor cursor, int expectedSize, long generation)
+    {
+        List<Task> tasks = new ArrayList<>(expectedSize);
+        int windowStart = -1;
+        while ( cursor.moveToNext() )
+        {
+            if (Metrics.isEnabled())
+                windowStart = countWindowFill(cursor, windowStart);
+            tasks.add(readTask(cursor));
+        }
+        cursor.close();
+        // The UI is about to show these, so they are the likeliest point lookups
+        cacheRead(tasks, generation);
+        ROWS_READ.record(tasks.size());
+        return tasks;
+    }
+
+    /**
+     * readTask() builds a Task from the current row of a Cursor over TASK_COLUMNS.
+     */
+    private static Task readTask(Cursor cursor)
+    {
+        return new Task(cursor.getInt(0), cursor.getString(1), cursor.getInt(2) == 1, cursor.getLong(3),
+                cursor.getInt(4));
+    }
+
+    /**
+     * countWindowFill() counts one cursor window fill each time the window behind the
+     * Cursor has moved since the previous row, i.e. SQLite had to step the query again
+     * and copy the next chunk of rows across.
+     *
+     * @param cursor the Cursor being read.
+     * @param windowStart where its window started at the previous row, or -1 at first.
+     * @return where its window starts now.
+     */
+    private static int countWindowFill(Cursor cursor, int windowStart)
+    {
+        if (cursor instanceof AbstractWindowedCursor)
+        {
+            CursorWindow window = ((AbstractWindowedCursor) cursor).getWindow();
+            if (window != null && window.getStartPosition() != windowStart)
+            {
+                WINDOW_FILLS.increment();
+                return window.getStartPosition();
+            }
+        }
+        return windowStart;
+    }
+
+    /**
+     * deleteTask() binds the id of the specified Task to the compiled delete
+     * statement and executes it.
+     *
+     * Deleting only marks the row as a tombstone (one small UPDATE, which leaves the
+     * full-text index alone); from then on no query returns it, and TaskCompactor removes
+     * it for good later, in the background.  Deleting a Task that is already a tombstone
+     * changes nothing, and observers hear nothing of it.
+     * @param taskToDelete a Task object so we know which Task to delete from the database.
+     */
+    public synchronized void deleteTask (Task taskToDelete)
+    {
+        long start = DELETE_TIMER.start();
+        getDatabase();
+        // UPDATE tasks SET deleted = 1, deleted_time = ?, seq = ? WHERE _id = ? AND deleted = 0
+        mDeleteStatement.bindLong(1, taskToDelete.getId());
+        mDeleteStatement.bindLong(2, changeTime());
+        mDeleteStatement.bindLong(3, nextSeq());
+        if (mDeleteStatement.executeUpdateDelete() == 0)
+        {
+            // Already a tombstone (or never there): nothing changed, so nothing to report
+            unusedSeq();
+            DELETE_TIMER.stop(start);
+            return;
+        }
+        List<TaskChange> changes = Collections.singletonList(TaskChange.deleted(taskToDelete.getId()));
+        updateCache(changes);
+        DELETE_TIMER.stop(start);
+        notifyObservers(changes);
+    }
+
+    /**
+     * deleteTasks() deletes every Task in the Collection inside a single transaction.
+     * Like deleteTask() it leaves tombstones, and only the rows it really deleted are
+     * reported.
+     * @param tasksToDelete the Tasks to delete from the database.
+     */
+    public synchronized void deleteTasks(Collection<Task> tasksToDelete)
+    {
+        long start = DELETE_BATCH_TIMER.start();
+        List<TaskChange> changes = new ArrayList<>(tasksToDelete.size());
+        SQLiteDatabase db = getDatabase();
+        long seq = nextSeq();
+        long time = changeTime();
+        db.beginTransaction();
+        try {
+            for (Task taskToDelete : tasksToDelete)
+            {
+                mDeleteStatement.bindLong(1, taskToDelete.getId());
+                mDeleteStatement.bindLong(2, time);
+                mDeleteStatement.bindLong(3, seq);
+                if (mDeleteStatement.executeUpdateDelete() > 0)
+                    changes.add(TaskChange.deleted(taskToDelete.getId()));
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        if (changes.isEmpty())
+            unusedSeq();
+        else
+            updateCache(changes);
+        DELETE_BATCH_TIMER.stop(start);
+        notifyObservers(changes);
+    }
+
+    /**
+     * deleteAllTasks() is used to .. so surprisingly... delete all the Tasks from the database.
+     * Like the other bulk methods it runs inside one transaction, and like the other
+     * deletes it only turns the rows into tombstones.
+     */
+    public synchronized void deleteAllTasks()
+    {
+        deleteAllTasks(ALL_LISTS);
+    }
+
+    /**
+     * deleteAllTasks() deletes every Task of one list, as deleteAllTasks() does for every
+     * list, and reports it as a single CLEARED change for that list.  Clearing a list that
+     * has no live Tasks changes nothing and reports nothing.
+     * @param listId the list to clear, or ALL_LISTS.
+     */
+    public synchronized void deleteAllTasks(int listId)
+    {
+        long start = DELETE_ALL_TIMER.start();
+        SQLiteDatabase db = getDatabase();
+        int cleared;
+        db.beginTransaction();
+        try {
+            // UPDATE tasks SET deleted = 1, deleted_time = ?, seq = ? WHERE [list_id = ? AND] deleted = 0
+            ContentValues tombstone = new ContentValues(3);
+            tombstone.put(FIELD_DELETED, 1);
+            tombstone.put(FIELD_DELETED_TIME, changeTime());
+            tombstone.put(FIELD_SEQ, nextSeq());
+            if (listId == ALL_LISTS)
+                cleared = db.update(DATABASE_TABLE, tombstone, LIVE, null);
+            else
+                cleared = db.update(DATABASE_TABLE, tombstone, FIELD_LIST_ID + " = ?" + AND_LIVE,
+                        new String[] {String.valueOf(listId)});
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        List<TaskChange> changes;
+        if (cleared == 0)
+        {
+            unusedSeq();
+            changes = Collections.emptyList();
+        }
+        else
+        {
+            changes = Collections.singletonList(TaskChange.cleared(listId));
+            updateCache(changes);
+        }
+        DELETE_ALL_TIMER.stop(start);
+        notifyObservers(changes);
+    }
+
+    /**
+     * getTombstoneCount() counts the deleted rows still waiting to be purged.
+     * @return the number of tombstones.
+     */
+    public int getTombstoneCount()
+    {
+        getDatabase();
+        synchronized (mTombstoneCountStatement) {
+            // SELECT COUNT(*) FROM tasks WHERE deleted = 1
+            return (int) mTombstoneCountStatement.simpleQueryForLong();
+        }
+    }
+
+    /**
+     * purgeTombstones() removes up to limit tombstones for good, along with their
+     * full-text entries, in one short transaction.  The rows are already invisible, so
+     * nothing is published and the cache is not touched.  Tombstones not yet pushed by
+     * SyncEngine are kept until they are.
+     * @param limit the most rows to remove.
+     * @return the number of rows removed; less than limit once none are left.
+     */
+    public synchronized int purgeTombstones(int limit)
+    {
+        long start = PURGE_TIMER.start();
+        getDatabase();
+        // DELETE FROM tasks WHERE _id IN ( SELECT _id FROM tasks WHERE deleted = 1 AND seq <= ? LIMIT ? )
+        mPurgeStatement.bindLong(1, limit);
+        int purged = mPurgeStatement.executeUpdateDelete();
+        PURGE_TIMER.stop(start);
+        return purged;
+    }
+
+    /**
+     * @return the size of one database page, in bytes.
+     */
+    public long getPageSize()
+    {
+        return getDatabase().getPageSize();
+    }
+
+    /**
+     * getFreePageCount() returns how many pages of the file are unused, i.e. how much an
+     * incremental vacuum could give back.
+     * @return the number of free pages.
+     */
+    public long getFreePageCount()
+    {
+        return DatabaseUtils.longForQuery(getDatabase(), "PRAGMA freelist_count", null);
+    }
+
+    /**
+     * @return true if the file is in incremental auto_vacuum mode, so incrementalVacuum()
+     * can shrink it.
+     */
+    public boolean isIncrementalVacuumEnabled()
+    {
+        return DatabaseUtils.longForQuery(getDatabase(), "PRAGMA auto_vacuum", null)
+                == AUTO_VACUUM_INCREMENTAL;
+    }
+
+    /**
+     * enableIncrementalVacuum() switches a file created before auto_vacuum was set over to
+     * incremental mode.  That takes a full VACUUM, which rewrites the whole file, so
+     * TaskCompactor only does it once, when the app is idle.
+     * @return the number of bytes the file shrank by.
+     */
+    public synchronized long enableIncrementalVacuum()
+    {
+        SQLiteDatabase db = getDatabase();
+        long freePages = getFreePageCount();
+        db.execSQL("PRAGMA auto_vacuum = " + AUTO_VACUUM_INCREMENTAL);
+        db.execSQL("VACUUM");
+        return (freePages - getFreePageCount()) * db.getPageSize();
+    }
+
+    /**
+     * incrementalVacuum() gives up to pages free pages back to the file system, truncating
+     * the file.
+     * @param pages the most pages to free.
+     * @return the number of bytes the file shrank by.
+     */
+    public synchronized long incrementalVacuum(int pages)
+    {
+        long start = VACUUM_TIMER.start();
+        SQLiteDatabase db = getDatabase();
+        long freePages = getFreePageCount();
+        // Each page freed is one step of the pragma, so the Cursor must be run to its end
+        // (execSQL() would only take the first step)
+        Cursor cursor = db.rawQuery("PRAGMA incremental_vacuum(" + pages + ")", null);
+        try {
+            while ( cursor.moveToNext() ) { }
+        } finally {
+            cursor.close();
+        }
+        long reclaimed = (freePages - getFreePageCount()) * db.getPageSize();
+        VACUUM_TIMER.stop(start);
+        return reclaimed;
+    }
+
+    /**
+     * updateTask() binds the new values for the Task to the compiled update statement,
+     * along with the id of the Task to update, and executes it.
+     *
+     * A Task deleted meanwhile (by an undo, a clear, or another device) is not brought back:
+     * the statement only matches live rows, and when it matches none, nothing is cached
+     * and observers are not told of a change that never happened.
+     * @param taskToEdit the Task to update/edit
+     */
+    public synchronized void updateTask (Task taskToEdit)
+    {
+        long start = UPDATE_TIMER.start();
+        getDatabase();
+        bindTask(mUpdateStatement, taskToEdit);
+        mUpdateStatement.bindLong(3, taskToEdit.getId());
+        mUpdateStatement.bindLong(4, changeTime());
+        mUpdateStatement.bindLong(5, nextSeq());
+        mUpdateStatement.bindLong(6, taskToEdit.getDueAt());
+        mUpdateStatement.bindLong(7, taskToEdit.getListId());
+        if (mUpdateStatement.executeUpdateDelete() == 0)
+        {
+            // A tombstone (or no row at all): caching or reporting it would bring it back
+            unusedSeq();
+            UPDATE_TIMER.stop(start);
+            return;
+        }
+        List<TaskChange> changes = Collections.singletonList(TaskChange.updated(copyOf(taskToEdit)));
+        updateCache(changes);
+        UPDATE_TIMER.stop(start);
+        notifyObservers(changes);
+    }
+
+    /**
+     * updateTasks() updates every Task in the Collection inside a single transaction.
+     * As in updateTask(), only the rows still live are updated, cached and reported.
+     * @param tasksToEdit the Tasks to update/edit
+     */
+    public synchronized void updateTasks(Collection<Task> tasksToEdit)
+    {
+        long start = UPDATE_BATCH_TIMER.start();
+        List<TaskChange> changes = new ArrayList<>(tasksToEdit.size());
+        SQLiteDatabase db = getDatabase();
+        long seq = nextSeq();
+        long time = changeTime();
+        db.beginTransaction();
+        try {
+            for (Task taskToEdit : tasksToEdit)
+            {
+                bindTask(mUpdateStatement, taskToEdit);
+                mUpdateStatement.bindLong(3, taskToEdit.getId());
+                mUpdateStatement.bindLong(4, time);
+                mUpdateStatement.bindLong(5, seq);
+                mUpdateStatement.bindLong(6, taskToEdit.getDueAt());
+                mUpdateStatement.bindLong(7, taskToEdit.getListId());
+                if (mUpdateStatement.executeUpdateDelete() > 0)
+                    changes.add(TaskChange.updated(copyOf(taskToEdit)));
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        if (changes.isEmpty())
+            unusedSeq();
+        else
+            updateCache(changes);
+        UPDATE_BATCH_TIMER.stop(start);
+        notifyObservers(changes);
+    }
+
+    /**
+     * updateDoneStates() sets the done state of many Tasks inside a single transaction.
+     * Only the done column is written; descriptions are left untouched, and Tasks deleted
+     * meanwhile are skipped.
+     * @param doneStates the new done state of each Task, keyed by the Task's id.
+     */
+    public synchronized void updateDoneStates(SparseBooleanArray doneStates)
+    {
+        long start = UPDATE_DONE_TIMER.start();
+        List<TaskChange> changes = new ArrayList<>(doneStates.size());
+        SQLiteDatabase db = getDatabase();
+        long seq = nextSeq();
+        long time = changeTime();
+        db.beginTransaction();
+        try {
+            for (int i = 0; i < doneStates.size(); i++)
+            {
+                mUpdateDoneStatement.bindLong(1, doneStates.valueAt(i) ? 1 : 0);
+                mUpdateDoneStatement.bindLong(2, doneStates.keyAt(i));
+                mUpdateDoneStatement.bindLong(3, time);
+                mUpdateDoneStatement.bindLong(4, seq);
+                if (mUpdateDoneStatement.executeUpdateDelete() > 0)
+                    changes.add(TaskChange.doneChanged(doneStates.keyAt(i), doneStates.valueAt(i)));
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        if (changes.isEmpty())
+            unusedSeq();
+        else
+            updateCache(changes);
+        UPDATE_DONE_TIMER.stop(start);
+        notifyObservers(changes);
+    }
+
+    /**
+     * getSingleTask() takes an int id parameter to find the specified Task.
+     *
+     * If the Task is in the cache it is returned straight away.
+     * Otherwise:
+     * The shared database connection is retrieved.
+     * A Cursor object is instantiated and used to find the specified Task,
+     * with the id passed as a bound argument rather than pasted into the SQL.
+     * The Cursor is first checked to be sure that the specified id exists,
+     * if it does, the Task is built from the row and added to the cache.
+     * The Cursor is closed.
+     * The singleTask is returned.
+     *
+     * @param id an int which matches the id of the task being searched for.
+     * @return the Task with that id, or null if there is none.
+     */
+    public Task getSingleTask(int id)
+    {
+        long start = GET_SINGLE_TIMER.start();
+        checkNotMainThread();
+        // Answer from memory when we can
+        Task singleTask = mCache.get(id);
+        if (singleTask != null)
+        {
+            CACHE_HITS.increment();
+            GET_SINGLE_TIMER.stop(start);
+            return singleTask;
+        }
+        CACHE_MISSES.increment();
+
+        long generation = mWriteGeneration.get();
+        SQLiteDatabase db = getDatabase();
+        // To retrieve data from a database table, we use a Cursor
+        // Cursor stores the results of a query
+        Cursor cursor = db.query(DATABASE_TABLE, TASK_COLUMNS,
+                KEY_FIELD_ID + " = ?" + AND_LIVE, new String[] {String.valueOf(id)}, null, null, null);
+
+        if ( cursor.moveToFirst() )
+        {
+            // Guaranteed at least one result from query
+            singleTask = readTask(cursor);
+            cacheRead(Collections.singletonList(singleTask), generation);
+        }
+        // Don't forget to close the Cursor or else the apps performance will degrade and eventually crash
+        cursor.close();
+        GET_SINGLE_TIMER.stop(start);
+        return singleTask;
+    }
+
+    /**
+     * getDueTasks() returns the next Tasks to remind the user of: up to limit live Tasks
+     * that are not done and are due after a point, soonest first, in ( due_at, _id ) order
+     * following ( afterDueAt, afterId ).
+     *
+     * The range is one seek on the due index, whose entries are ordered by ( deleted, done,
+     * due_at, _id ), and the rows come out in that order, so only the rows returned are
+     * read and nothing is sorted, however many Tasks there are.  Tasks with no due date
+     * (due_at 0) are never in the range.
+     *
+     * @param afterDueAt the due time of the last Task already returned, or the time up to
+     *                   which reminders have gone out.
+     * @param afterId the _id of the last Task already returned, or Integer.MAX_VALUE to
+     *                start after every Task due at afterDueAt.
+     * @param limit the most Tasks to return.
+     * @return the Tasks, soonest first.
+     */
+    public List<Task> getDueTasks(long afterDueAt, int afterId, int limit)
+    {
+        long start = DUE_TIMER.start();
+        long generation = mWriteGeneration.get();
+        // SELECT _id, description, done, due_at, list_id FROM tasks WHERE deleted = 0 AND done = 0
+        //     AND due_at >= ?1 AND ( due_at > ?1 OR _id > ?2 ) ORDER BY due_at, _id LIMIT ?
+        Cursor cursor = getDatabase().query(DATABASE_TABLE, TASK_COLUMNS,
+                LIVE + " AND " + FIELD_DONE + " = 0 AND " + FIELD_DUE_AT + " >= ?1 AND ( "
+                        + FIELD_DUE_AT + " > ?1 OR " + KEY_FIELD_ID + " > ?2 )",
+                new String[] {String.valueOf(Math.max(afterDueAt, Task.NO_DUE_DATE + 1)),
+                        String.valueOf(afterId)},
+                null, null, FIELD_DUE_AT + ", " + KEY_FIELD_ID, String.valueOf(limit));
+        List<Task> tasks = readTasks(cursor, limit, generation);
+        DUE_TIMER.stop(start);
+        return tasks;
+    }
+
+    // The columns a SyncChange is read from, in the order readSyncChange() expects
+    private static final String[] SYNC_COLUMNS = {KEY_FIELD_ID, FIELD_UUID, FIELD_DESCRIPTION,
+            FIELD_DESCRIPTION_TIME, FIELD_DONE, FIELD_DONE_TIME, FIELD_DELETED, FIELD_DELETED_TIME,
+            FIELD_SEQ};
+
+    // What applyRemoteChanges() reads of a local row: SYNC_COLUMNS, then the due date and
+    // the list, which are kept on this device only
+    private static final String[] MERGE_COLUMNS = {KEY_FIELD_ID, FIELD_UUID, FIELD_DESCRIPTION,
+            FIELD_DESCRIPTION_TIME, FIELD_DONE, FIELD_DONE_TIME, FIELD_DELETED, FIELD_DELETED_TIME,
+            FIELD_SEQ, FIELD_DUE_AT, FIELD_LIST_ID};
+
+    /**
+     * getSyncChanges() returns the rows changed locally after a point, for SyncEngine to
+     * push: up to limit rows, tombstones included, in ( seq, _id ) order, following
+     * ( afterSeq, afterId ).  The seek is on the seq index.
+     *
+     * @param afterSeq the seq of the last row already returned, or the last pushed seq.
+     * @param afterId the _id of the last row already returned, or 0.
+     * @param limit the most rows to return.
+     * @return the changed rows.
+     */
+    public List<SyncChange> getSyncChanges(long afterSeq, int afterId, int limit)
+    {
+        long start = SYNC_CHANGES_TIMER.start();
+        // SELECT ... FROM tasks WHERE seq >= ?1 AND ( seq > ?1 OR _id > ?2 ) ORDER BY seq, _id LIMIT ?
+        Cursor cursor = getDatabase().query(DATABASE_TABLE, SYNC_COLUMNS,
+                FIELD_SEQ + " >= ?1 AND ( " + FIELD_SEQ + " > ?1 OR " + KEY_FIELD_ID + " > ?2 )",
+                new String[] {String.valueOf(afterSeq), String.valueOf(afterId)},
+                null, null, FIELD_SEQ + ", " + KEY_FIELD_ID, String.valueOf(limit));
+        List<SyncChange> changes = new ArrayList<>(Math.min(limit, 512));
+        try {
+            while ( cursor.moveToNext() )
+                changes.add(readSyncChange(cursor));
+        } finally {
+            cursor.close();
+        }
+        ROWS_READ.record(changes.size());
+        SYNC_CHANGES_TIMER.stop(start);
+        return changes;
+    }
+
+    private static SyncChange readSyncChange(Cursor cursor)
+    {
+        return new SyncChange(cursor.getString(1), cursor.getString(2), cursor.getLong(3),
+                cursor.getInt(4) == 1, cursor.getLong(5), cursor.getInt(6) == 1, cursor.getLong(7),
+                cursor.getLong(8), cursor.getInt(0));
+    }
+
+    /**
+     * applyRemoteChanges() merges Tasks pulled from the sync server into the table, field by
+     * field (see SyncChange.merge()), inside a single transaction.
+     *
+     * A Task not seen before is inserted, into the first list, unless it is already
+     * deleted.  The rows written keep their seq, so they are not pushed back; a row that
+     * also has local changes still to push keeps its own newer fields and is pushed as
+     * merged.
+     *
+     * Observers are told about each Task as it now looks: inserted (or back from the
+     * dead), updated or deleted.
+     *
+     * @param remoteChanges the Tasks as the server has them.
+     */
+    public synchronized void applyRemoteChanges(Collection<SyncChange> remoteChanges)
+    {
+        long start = APPLY_REMOTE_TIMER.start();
+        List<TaskChange> changes = new ArrayList<>(remoteChanges.size());
+        SQLiteDatabase db = getDatabase();
+        db.beginTransaction();
+        try {
+            for (SyncChange theirs : remoteChanges)
+            {
+                SyncChange mine = null;
+                long dueAt = Task.NO_DUE_DATE;
+                int listId = Task.DEFAULT_LIST_ID;
+                Cursor cursor = db.query(DATABASE_TABLE, MERGE_COLUMNS, FIELD_UUID + " = ?",
+                        new String[] {theirs.getUuid()}, null, null, null);
+                try {
+                    if (cursor.moveToFirst())
+                    {
+                        mine = readSyncChange(cursor);
+                        dueAt = cursor.getLong(9);
+                        listId = cursor.getInt(10);
+                    }
+                } finally {
+                    cursor.close();
+                }
+
+                if (mine == null)
+                {
+                    if (theirs.isDeleted())
+                        continue;
+                    // INSERT INTO tasks ( description, done, uuid, description_time, done_time, deleted_time )
+                    bindSyncValues(mRemoteInsertStatement, theirs);
+                    mRemoteInsertStatement.bindString(3, theirs.getUuid());
+                    mRemoteInsertStatement.bindLong(4, theirs.getDescriptionTime());
+                    mRemoteInsertStatement.bindLong(5, theirs.getDoneTime());
+                    mRemoteInsertStatement.bindLong(6, theirs.getDeletedTime());
+                    mRemoteInsertStatement.bindLong(7, nextPosition());
+                    int id = (int) mRemoteInsertStatement.executeInsert();
+                    changes.add(TaskChange.inserted(new Task(id, theirs.getDescription(), theirs.isDone())));
+                    continue;
+                }
+
+                SyncChange merged = SyncChange.merge(mine, theirs);
+                if (merged == mine)
+                    continue;
+                // UPDATE tasks SET description = ?, done = ?, deleted = ?, <times> = ? WHERE _id = ?
+                bindSyncValues(mRemoteUpdateStatement, merged);
+                mRemoteUpdateStatement.bindLong(3, merged.isDeleted() ? 1 : 0);
+                mRemoteUpdateStatement.bindLong(4, merged.getDescriptionTime());
+                mRemoteUpdateStatement.bindLong(5, merged.getDoneTime());
+                mRemoteUpdateStatement.bindLong(6, merged.getDeletedTime());
+                mRemoteUpdateStatement.bindLong(7, mine.getId());
+                mRemoteUpdateStatement.executeUpdateDelete();
+
+                Task task = new Task(mine.getId(), merged.getDescription(), merged.isDone(), dueAt, listId);
+                if (merged.isDeleted())
+                {
+                    if (!mine.isDeleted())
+                        changes.add(TaskChange.deleted(mine.getId()));
+                }
+                else if (mine.isDeleted())
+                    changes.add(TaskChange.inserted(task));
+                else
+                    changes.add(TaskChange.updated(task));
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        updateCache(changes);
+        APPLY_REMOTE_TIMER.stop(start);
+        notifyObservers(changes);
+    }
+
+    /**
+     * bindSyncValues() binds a SyncChange's description and done state to the first two
+     * parameters, as bindTask() does for a Task.
+     */
+    private static void bindSyncValues(SQLiteStatement statement, SyncChange change)
+    {
+        bindTask(statement, new Task(change.getDescription(), change.isDone()));
+    }
+
+    /**
+     * getSyncState() reads one of the values a sync keeps between runs.
+     * @param key its name.
+     * @return the value, or null if it has never been set.
+     */
+    public String getSyncState(String key)
+    {
+        Cursor cursor = getDatabase().query(SYNC_STATE_TABLE, new String[] {"value"}, "key = ?",
+                new String[] {key}, null, null, null);
+        try {
+            return cursor.moveToFirst() ? cursor.getString(0) : null;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * setSyncState() stores one of the values a sync keeps between runs.
+     * @param key its name.
+     * @param value the new value.
+     */
+    public synchronized void setSyncState(String key, String value)
+    {
+        // INSERT OR REPLACE INTO SyncState ( key, value ) VALUES ( ?, ? )
+        getDatabase().execSQL("INSERT OR REPLACE INTO " + SYNC_STATE_TABLE + " ( key, value )"
+                + " VALUES ( ?, ? )", new Object[] {key, value});
+    }
+
+    /**
+     * getPushedSeq() reads SYNC_PUSHED_SEQ while the database is being opened.
+     */
+    private static long getPushedSeq(SQLiteDatabase db)
+    {
+        return DatabaseUtils.longForQuery(db, "SELECT COALESCE(( SELECT CAST(value AS INTEGER) FROM " + SYNC_STATE_TABLE
+                + " WHERE key = '" + SYNC_PUSHED_SEQ + "' ), 0)", null);
     }
 }
@@ -0,0 +1,343 @@
+package com.example.balbert.todo2day;
+
+import android.database.sqlite.SQLiteDatabase;
+import android.os.SystemClock;
+import android.util.Log;
+
+import static com.example.balbert.todo2day.DBHelper.DATABASE_TABLE;
+import static com.example.balbert.todo2day.DBHelper.DONE_INDEX;
+import static com.example.balbert.todo2day.DBHelper.DUE_INDEX;
+import static com.example.balbert.todo2day.DBHelper.FIELD_DESCRIPTION;
+import static com.example.balbert.todo2day.DBHelper.FIELD_DELETED;
+import static com.example.balbert.todo2day.DBHelper.FIELD_DELETED_TIME;
+import static com.example.balbert.todo2day.DBHelper.FIELD_DESCRIPTION_TIME;
+import static com.example.balbert.todo2day.DBHelper.FIELD_DONE;
+import static com.example.balbert.todo2day.DBHelper.FIELD_DONE_TIME;
+import static com.example.balbert.todo2day.DBHelper.FIELD_DUE_AT;
+import static com.example.balbert.todo2day.DBHelper.FIELD_LIST_ID;
+import static com.example.balbert.todo2day.DBHelper.FIELD_NAME;
+import static com.example.balbert.todo2day.DBHelper.FIELD_POSITION;
+import static com.example.balbert.todo2day.DBHelper.FIELD_SEQ;
+import static com.example.balbert.todo2day.DBHelper.FIELD_TOTAL;
+import static com.example.balbert.todo2day.DBHelper.FIELD_UUID;
+import static com.example.balbert.todo2day.DBHelper.KEY_FIELD_ID;
+import static com.example.balbert.todo2day.DBHelper.LISTS_TABLE;
+import static com.example.balbert.todo2day.DBHelper.LIST_DONE_INDEX;
+import static com.example.balbert.todo2day.DBHelper.LIST_ORDER_INDEX;
+import static com.example.balbert.todo2day.DBHelper.LIVE_INDEX;
+import static com.example.balbert.todo2day.DBHelper.LIVE_ORDER_INDEX;
+import static com.example.balbert.todo2day.DBHelper.ORDER_INDEX;
+import static com.example.balbert.todo2day.DBHelper.SEARCH_TABLE;
+import static com.example.balbert.todo2day.DBHelper.SEQ_INDEX;
+import static com.example.balbert.todo2day.DBHelper.SYNC_STATE_TABLE;
+import static com.example.balbert.todo2day.DBHelper.UUID_INDEX;
+
+/**
+ * DBMigrations holds every change ever made to the database schema, in order, so that a
+ * database of any earlier version can be brought up to date without losing its Tasks.
+ *
+ * MIGRATIONS[0] takes a version 1 database to version 2, MIGRATIONS[1] takes version 2 to
+ * version 3, and so on.  A brand new database is created at version 1 by DBHelper.onCreate
+ * and then migrated like any other, so there is only one description of each schema change.
+ *
+ * Each step runs in its own transaction (nested inside SQLiteOpenHelper's, when called from
+ * onCreate or onUpgrade), so a step either applies completely or not at all.  How long each
+ * step took is logged and kept in getLastMigrationMillis(), which matters for steps that
+ * rewrite or index every row.
+ *
+ * To change the schema: add a step at the end of MIGRATIONS and bump DATABASE_VERSION.
+ * Never edit a step that has shipped.
+ */
+final class DBMigrations {
+
+    private static final String TAG = DBMigrations.class.getSimpleName();
+
+    /**
+     * Migration is one step, from version getToVersion() - 1 to getToVersion().
+     */
+    abstract static class Migration {
+        private final int mToVersion;
+
+        Migration(int toVersion) {
+            mToVersion = toVersion;
+        }
+
+        int getToVersion() { return mToVersion; }
+
+        abstract void migrate(SQLiteDatabase db);
+    }
+
+    static final Migration[] MIGRATIONS = {
+
+            // 1 -> 2: full-text search index over the descriptions
+            new Migration(2) {
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    createSearchIndex(db);
+                }
+            },
+
+            // 2 -> 3: index on done, for active / completed queries and counts
+            new Migration(3) {
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    // CREATE INDEX TasksDone ON tasks ( done )
+                    db.execSQL("CREATE INDEX " + DONE_INDEX + " ON " + DATABASE_TABLE
+                            + " ( " + FIELD_DONE + " )");
+                }
+            },
+
+            // 3 -> 4: soft delete.  Deleted rows stay behind as tombstones until
+            // TaskCompactor purges them, so every query now skips deleted = 1
+            new Migration(4) {
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    // A column with a constant default is added without rewriting any row
+                    db.execSQL("ALTER TABLE " + DATABASE_TABLE + " ADD COLUMN " + FIELD_DELETED
+                            + " INTEGER NOT NULL DEFAULT 0");
+
+                    // The done index becomes ( deleted, done ): live pages, counts and the
+                    // tombstones to purge are all ranges of it
+                    db.execSQL("DROP INDEX " + DONE_INDEX);
+                    db.execSQL("CREATE INDEX " + LIVE_INDEX + " ON " + DATABASE_TABLE
+                            + " ( " + FIELD_DELETED + ", " + FIELD_DONE + " )");
+
+                    // Only a new description needs reindexing, so toggling or tombstoning
+                    // a row no longer rewrites its full-text entry
+                    db.execSQL("DROP TRIGGER " + SEARCH_TABLE + "_before_update");
+                    db.execSQL("DROP TRIGGER " + SEARCH_TABLE + "_after_update");
+                    db.execSQL("CREATE TRIGGER " + SEARCH_TABLE + "_before_update BEFORE UPDATE OF "
+                            + FIELD_DESCRIPTION + " ON " + DATABASE_TABLE + " BEGIN DELETE FROM "
+                            + SEARCH_TABLE + " WHERE docid = old." + KEY_FIELD_ID + "; END");
+                    db.execSQL("CREATE TRIGGER " + SEARCH_TABLE + "_after_update AFTER UPDATE OF "
+                            + FIELD_DESCRIPTION + " ON " + DATABASE_TABLE + " BEGIN INSERT INTO "
+                            + SEARCH_TABLE + " ( docid, " + FIELD_DESCRIPTION + " ) VALUES ( new."
+                            + KEY_FIELD_ID + ", new." + FIELD_DESCRIPTION + " ); END");
+                }
+            },
+
+            // 4 -> 5: sync.  Each row gets a uuid shared by every device, the sequence
+            // number of the last local change to it and the time each field was last set
+            new Migration(5) {
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    db.execSQL("ALTER TABLE " + DATABASE_TABLE + " ADD COLUMN " + FIELD_UUID + " TEXT");
+                    for (String column : new String[] {FIELD_SEQ, FIELD_DESCRIPTION_TIME,
+                            FIELD_DONE_TIME, FIELD_DELETED_TIME})
+                        db.execSQL("ALTER TABLE " + DATABASE_TABLE + " ADD COLUMN " + column
+                                + " INTEGER NOT NULL DEFAULT 0");
+
+                    // Every existing row is new to the server, so gets a change to push.
+                    // Its fields keep time 0, so any edit made elsewhere wins over them.
+                    db.execSQL("UPDATE " + DATABASE_TABLE + " SET " + FIELD_UUID + " = "
+                            + NEW_UUID + ", " + FIELD_SEQ + " = " + KEY_FIELD_ID);
+                    db.execSQL("CREATE UNIQUE INDEX " + UUID_INDEX + " ON " + DATABASE_TABLE
+                            + " ( " + FIELD_UUID + " )");
+                    db.execSQL("CREATE INDEX " + SEQ_INDEX + " ON " + DATABASE_TABLE
+                            + " ( " + FIELD_SEQ + " )");
+
+                    // CREATE TABLE SyncState ( key TEXT PRIMARY KEY, value )
+                    db.execSQL("CREATE TABLE " + SYNC_STATE_TABLE
+                            + " ( key TEXT PRIMARY KEY, value )");
+                }
+            },
+
+            // 5 -> 6: the user's order.  Each row gets a position, TaskOrder.GAP apart, in
+            // the _id order the list had until now
+            new Migration(6) {
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    db.execSQL("ALTER TABLE " + DATABASE_TABLE + " ADD COLUMN " + FIELD_POSITION
+                            + " INTEGER NOT NULL DEFAULT 0");
+                    db.execSQL("UPDATE " + DATABASE_TABLE + " SET " + FIELD_POSITION + " = "
+                            + KEY_FIELD_ID + " * " + TaskOrder.GAP);
+
+                    // Pages are read in position order, so both indexes end in position and
+                    // neither read needs a sort.  ( deleted, done, position ) also serves the
+                    // counts, so it replaces ( deleted, done )
+                    db.execSQL("DROP INDEX " + LIVE_INDEX);
+                    db.execSQL("CREATE INDEX " + ORDER_INDEX + " ON " + DATABASE_TABLE
+                            + " ( " + FIELD_DELETED + ", " + FIELD_POSITION + " )");
+                    db.execSQL("CREATE INDEX " + LIVE_ORDER_INDEX + " ON " + DATABASE_TABLE
+                            + " ( " + FIELD_DELETED + ", " + FIELD_DONE + ", " + FIELD_POSITION + " )");
+                }
+            },
+
+            // 6 -> 7: due dates.  No Task has one yet, so nothing needs filling in
+            new Migration(7) {
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    db.execSQL("ALTER TABLE " + DATABASE_TABLE + " ADD COLUMN " + FIELD_DUE_AT
+                            + " INTEGER NOT NULL DEFAULT " + Task.NO_DUE_DATE);
+
+                    // Reminders are only for live Tasks that are not done yet, soonest first;
+                    // with those two columns first the range on due_at is one seek and the
+                    // entries come out in ( due_at, _id ) order with no sort
+                    db.execSQL("CREATE INDEX " + DUE_INDEX + " ON " + DATABASE_TABLE
+                            + " ( " + FIELD_DELETED + ", " + FIELD_DONE + ", " + FIELD_DUE_AT + " )");
+                }
+            },
+
+            // 7 -> 8: named lists.  Every Task so far goes into the first list, whose
+            // counters start from one last count of the table
+            new Migration(8) {
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    // CREATE TABLE lists ( _id INTEGER PRIMARY KEY, name TEXT NOT NULL,
+                    //     total INTEGER NOT NULL DEFAULT 0, done INTEGER NOT NULL DEFAULT 0 )
+                    db.execSQL("CREATE TABLE " + LISTS_TABLE
+                            + " ( " + KEY_FIELD_ID + " INTEGER PRIMARY KEY, "
+                            + FIELD_NAME + " TEXT NOT NULL, "
+                            + FIELD_TOTAL + " INTEGER NOT NULL DEFAULT 0, "
+                            + FIELD_DONE + " INTEGER NOT NULL DEFAULT 0 )");
+                    db.execSQL("INSERT INTO " + LISTS_TABLE + " ( " + KEY_FIELD_ID + ", "
+                            + FIELD_NAME + ", " + FIELD_TOTAL + ", " + FIELD_DONE + " ) SELECT "
+                            + Task.DEFAULT_LIST_ID + ", 'Tasks', COUNT(*), TOTAL(" + FIELD_DONE
+                            + " IS 1) FROM " + DATABASE_TABLE + " WHERE " + FIELD_DELETED + " = 0");
+                    db.execSQL("ALTER TABLE " + DATABASE_TABLE + " ADD COLUMN " + FIELD_LIST_ID
+                            + " INTEGER NOT NULL DEFAULT " + Task.DEFAULT_LIST_ID
+                            + " REFERENCES " + LISTS_TABLE + " ( " + KEY_FIELD_ID + " )");
+
+                    // A list's pages and filtered pages are ranges of these, in position
+                    // order, whatever the other lists hold.  The counts no longer come from
+                    // an index, so ( deleted, done, position ) goes; ( deleted, position )
+                    // stays for moves, rebalancing and reading every list at once
+                    db.execSQL("DROP INDEX " + LIVE_ORDER_INDEX);
+                    db.execSQL("CREATE INDEX " + LIST_ORDER_INDEX + " ON " + DATABASE_TABLE
+                            + " ( " + FIELD_LIST_ID + ", " + FIELD_DELETED + ", " + FIELD_POSITION + " )");
+                    db.execSQL("CREATE INDEX " + LIST_DONE_INDEX + " ON " + DATABASE_TABLE
+                            + " ( " + FIELD_LIST_ID + ", " + FIELD_DELETED + ", " + FIELD_DONE + ", "
+                            + FIELD_POSITION + " )");
+
+                    createListCounters(db);
+                }
+            },
+    };
+
+    // SQL for a new random uuid: 32 lowercase hex digits
+    static final String NEW_UUID = "lower(hex(randomblob(16)))";
+
+    // The version a database ends up at after every step
+    static final int LATEST_VERSION = MIGRATIONS.length + 1;
+
+    // Total time taken by the last call to migrate()
+    private static long sLastMigrationMillis;
+
+    private DBMigrations() { }
+
+    /**
+     * createVersion1() creates the original schema: just the Tasks table.
+     * @param db an empty database.
+     */
+    static void createVersion1(SQLiteDatabase db) {
+        // CREATE TABLE tasks ( _id INTEGER PRIMARY KEY, description TEXT, done INTEGER )
+        db.execSQL("CREATE TABLE " + DATABASE_TABLE
+                + " ( " + KEY_FIELD_ID + " INTEGER PRIMARY KEY, "
+                + FIELD_DESCRIPTION + " TEXT, "
+                + FIELD_DONE + " INTEGER " + ")");
+    }
+
+    /**
+     * migrate() runs every step needed to take the database from oldVersion to newVersion,
+     * in order, each in its own transaction.
+     *
+     * @param db the database to migrate.
+     * @param oldVersion the version it is at.
+     * @param newVersion the version it must reach.
+     */
+    static void migrate(SQLiteDatabase db, int oldVersion, int newVersion) {
+        if (newVersion > LATEST_VERSION)
+            throw new IllegalArgumentException("No migration to version " + newVersion);
+
+        long start = SystemClock.elapsedRealtime();
+        for (Migration migration : MIGRATIONS)
+        {
+            if (migration.getToVersion() <= oldVersion || migration.getToVersion() > newVersion)
+                continue;
+            long stepStart = SystemClock.elapsedRealtime();
+            db.beginTransaction();
+            try {
+                migration.migrate(db);
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+            Log.i(TAG, "Migrated to version " + migration.getToVersion() + " in "
+                    + (SystemClock.elapsedRealtime() - stepStart) + " ms");
+        }
+        sLastMigrationMillis = SystemClock.elapsedRealtime() - start;
+        Log.i(TAG, "Migrated from version " + oldVersion + " to " + newVersion + " in "
+                + sLastMigrationMillis + " ms");
+    }
+
+    /**
+     * @return how long, in milliseconds, the last call to migrate() took.
+     */
+    static long getLastMigrationMillis() { return sLastMigrationMillis; }
+
+    /**
+     * createListCounters() creates the triggers that keep each list's total and done
+     * counters in step with its live Tasks, by one each time a row comes, goes, changes
+     * its done state or moves to another list.  They run inside the statement that made
+     * the change, so the counters commit (or roll back) with it.
+     *
+     * A tombstone counts as gone; "done IS 1" is 1 or 0, even for the NULLs of old rows.
+     *
+     * @param db the database being migrated.
+     */
+    private static void createListCounters(SQLiteDatabase db) {
+        String countNew = "UPDATE " + LISTS_TABLE + " SET " + FIELD_TOTAL + " = " + FIELD_TOTAL
+                + " + 1, " + FIELD_DONE + " = " + FIELD_DONE + " + ( new." + FIELD_DONE + " IS 1 )"
+                + " WHERE " + KEY_FIELD_ID + " = new." + FIELD_LIST_ID + " AND new." + FIELD_DELETED + " = 0; ";
+        String uncountOld = "UPDATE " + LISTS_TABLE + " SET " + FIELD_TOTAL + " = " + FIELD_TOTAL
+                + " - 1, " + FIELD_DONE + " = " + FIELD_DONE + " - ( old." + FIELD_DONE + " IS 1 )"
+                + " WHERE " + KEY_FIELD_ID + " = old." + FIELD_LIST_ID + " AND old." + FIELD_DELETED + " = 0; ";
+
+        db.execSQL("CREATE TRIGGER " + LISTS_TABLE + "_after_insert AFTER INSERT ON "
+                + DATABASE_TABLE + " BEGIN " + countNew + "END");
+        // Only when one of the three columns really changed: most updates only touch the
+        // description, the due date or the position
+        db.execSQL("CREATE TRIGGER " + LISTS_TABLE + "_after_update AFTER UPDATE OF "
+                + FIELD_DONE + ", " + FIELD_DELETED + ", " + FIELD_LIST_ID + " ON " + DATABASE_TABLE
+                + " WHEN old." + FIELD_DONE + " IS NOT new." + FIELD_DONE
+                + " OR old." + FIELD_DELETED + " IS NOT new." + FIELD_DELETED
+                + " OR old." + FIELD_LIST_ID + " IS NOT new." + FIELD_LIST_ID
+                + " BEGIN " + uncountOld + countNew + "END");
+        db.execSQL("CREATE TRIGGER " + LISTS_TABLE + "_after_delete AFTER DELETE ON "
+                + DATABASE_TABLE + " BEGIN " + uncountOld + "END");
+    }
+
+    /**
+     * createSearchIndex() creates the FTS4 table over the descriptions and the triggers
+     * that keep it in step with the Tasks table, then indexes any Tasks already present.
+     *
+     * The FTS table is an external content table: it stores only the index, not a second
+     * copy of every description.  Its docid is the Task's _id.
+     *
+     * @param db the database being migrated.
+     */
+    private static void createSearchIndex(SQLiteDatabase db) {
+        // CREATE VIRTUAL TABLE TasksSearch USING fts4 ( content="Tasks", description )
+        db.execSQL("CREATE VIRTUAL TABLE " + SEARCH_TABLE + " USING fts4 ( content=\""
+                + DATABASE_TABLE + "\", " + FIELD_DESCRIPTION + " )");
+
+        // Old values must leave the index before the row changes, new values enter after
+        db.execSQL("CREATE TRIGGER " + SEARCH_TABLE + "_before_update BEFORE UPDATE ON "
+                + DATABASE_TABLE + " BEGIN DELETE FROM " + SEARCH_TABLE
+                + " WHERE docid = old." + KEY_FIELD_ID + "; END");
+        db.execSQL("CREATE TRIGGER " + SEARCH_TABLE + "_before_delete BEFORE DELETE ON "
+                + DATABASE_TABLE + " BEGIN DELETE FROM " + SEARCH_TABLE
+                + " WHERE docid = old." + KEY_FIELD_ID + "; END");
+        db.execSQL("CREATE TRIGGER " + SEARCH_TABLE + "_after_update AFTER UPDATE ON "
+                + DATABASE_TABLE + " BEGIN INSERT INTO " + SEARCH_TABLE
+                + " ( docid, " + FIELD_DESCRIPTION + " ) VALUES ( new." + KEY_FIELD_ID
+                + ", new." + FIELD_DESCRIPTION + " ); END");
+        db.execSQL("CREATE TRIGGER " + SEARCH_TABLE + "_after_insert AFTER INSERT ON "
+                + DATABASE_TABLE + " BEGIN INSERT INTO " + SEARCH_TABLE
+                + " ( docid, " + FIELD_DESCRIPTION + " ) VALUES ( new." + KEY_FIELD_ID
+                + ", new." + FIELD_DESCRIPTION + " ); END");
+
+        // Index whatever is already in the Tasks table
+        db.execSQL("INSERT INTO " + SEARCH_TABLE + " ( " + SEARCH_TABLE + " ) VALUES ( 'rebuild' )");
+    }
+}
@@ -0,0 +1,75 @@
+package com.example.balbert.todo2day;
+
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * DBSyncStore is the SyncStore SyncEngine uses on a device: the Tasks table through DBHelper,
+ * with the sync's own state kept in DBHelper's SyncState table, so it lives and dies with
+ * the Tasks it describes.
+ */
+final class DBSyncStore implements SyncStore {
+
+    static final String DEVICE_ID = "deviceId";
+    static final String PULL_CURSOR = "pullCursor";
+
+    private final DBHelper mDB;
+    private String mDeviceId;
+
+    DBSyncStore(DBHelper db) {
+        mDB = db;
+    }
+
+    /**
+     * The device id is made up the first time it is asked for: a random uuid without its
+     * dashes, like the Tasks' own.
+     */
+    @Override
+    public synchronized String getDeviceId() {
+        if (mDeviceId == null)
+        {
+            mDeviceId = mDB.getSyncState(DEVICE_ID);
+            if (mDeviceId == null)
+            {
+                mDeviceId = UUID.randomUUID().toString().replace("-", "");
+                mDB.setSyncState(DEVICE_ID, mDeviceId);
+            }
+        }
+        return mDeviceId;
+    }
+
+    @Override
+    public long getPushedSeq() {
+        return getLong(DBHelper.SYNC_PUSHED_SEQ);
+    }
+
+    @Override
+    public void setPushedSeq(long seq) {
+        mDB.setSyncState(DBHelper.SYNC_PUSHED_SEQ, String.valueOf(seq));
+    }
+
+    @Override
+    public long getPullCursor() {
+        return getLong(PULL_CURSOR);
+    }
+
+    @Override
+    public void setPullCursor(long cursor) {
+        mDB.setSyncState(PULL_CURSOR, String.valueOf(cursor));
+    }
+
+    @Override
+    public List<SyncChange> getChangesAfter(long afterSeq, int afterId, int limit) {
+        return mDB.getSyncChanges(afterSeq, afterId, limit);
+    }
+
+    @Override
+    public void applyRemoteChanges(List<SyncChange> changes) {
+        mDB.applyRemoteChanges(changes);
+    }
+
+    private long getLong(String key) {
+        String value = mDB.getSyncState(key);
+        return value == null ? 0 : Long.parseLong(value);
+    }
+}
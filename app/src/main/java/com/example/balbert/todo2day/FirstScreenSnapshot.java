@@ -0,0 +1,119 @@
+package com.example.balbert.todo2day;
+
+import android.util.Log;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * FirstScreenSnapshot is a small file holding the first screenful of Tasks and the total
+ * number of Tasks, as they were when the app was last paused.
+ *
+ * On a cold start MainActivity shows the snapshot straight away, before the database has
+ * even been opened, and then reconciles it with the real table.  The file is a version
+ * number and the Task count, followed by the Tasks in TaskWriter's binary format, and is
+ * only ever a few kilobytes, so reading it costs less than a frame.
+ *
+ * The file is written to a temporary name and renamed over the old one, so a crash while
+ * writing leaves the previous snapshot intact.  A snapshot that cannot be read is treated
+ * as missing.
+ */
+final class FirstScreenSnapshot {
+
+    private static final String TAG = FirstScreenSnapshot.class.getSimpleName();
+
+    static final String FILE_NAME = "first_screen.snapshot";
+
+    // Bumped whenever the file layout changes; older files are ignored
+    private static final int VERSION = 1;
+
+    // How many Tasks are kept: comfortably more than fit on one screen
+    static final int MAX_TASKS = 30;
+
+    private final List<Task> mTasks;
+    private final int mTotalCount;
+
+    FirstScreenSnapshot(List<Task> tasks, int totalCount) {
+        mTasks = tasks.size() > MAX_TASKS ? new ArrayList<>(tasks.subList(0, MAX_TASKS)) : tasks;
+        mTotalCount = totalCount;
+    }
+
+    List<Task> getTasks() { return Collections.unmodifiableList(mTasks); }
+
+    int getTotalCount() { return mTotalCount; }
+
+    /**
+     * read() loads a snapshot.
+     * @param file the snapshot file.
+     * @return the snapshot, or null if there is none or it cannot be read.
+     */
+    static FirstScreenSnapshot read(File file) {
+        if (!file.exists())
+            return null;
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new FileInputStream(file));
+            if (in.readInt() != VERSION)
+                return null;
+            int totalCount = in.readInt();
+            TaskReader reader = TaskReader.newReader(TaskWriter.FORMAT_BINARY, in);
+            List<Task> tasks = new ArrayList<>();
+            Task task;
+            while ( (task = reader.read()) != null && tasks.size() < MAX_TASKS )
+                tasks.add(task);
+            return new FirstScreenSnapshot(tasks, Math.max(totalCount, tasks.size()));
+        } catch (IOException e) {
+            Log.w(TAG, "Ignoring unreadable snapshot", e);
+            return null;
+        } finally {
+            if (in != null)
+            {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    // Nothing was written, so nothing can be lost
+                }
+            }
+        }
+    }
+
+    /**
+     * write() replaces the snapshot file with this snapshot.
+     * @param file the snapshot file.
+     * @throws IOException if it cannot be written; the old file is then left as it was.
+     */
+    void write(File file) throws IOException {
+        File temp = new File(file.getPath() + ".tmp");
+        FileOutputStream fileOut = new FileOutputStream(temp);
+        try {
+            DataOutputStream out = new DataOutputStream(fileOut);
+            out.writeInt(VERSION);
+            out.writeInt(mTotalCount);
+            out.flush();
+            TaskWriter writer = TaskWriter.newWriter(TaskWriter.FORMAT_BINARY, fileOut);
+            for (Task task : mTasks)
+                writer.write(task.getId(), task.getDescription(), task.isDone(), task.getDueAt(),
+                        task.getListId());
+            writer.finish();
+        } finally {
+            fileOut.close();
+        }
+        if (!temp.renameTo(file))
+            throw new IOException("Could not replace " + file);
+    }
+
+    /**
+     * delete() removes the snapshot, e.g. once every Task has been cleared.
+     */
+    static void delete(File file) {
+        if (file.exists() && !file.delete())
+            Log.w(TAG, "Could not delete " + file);
+    }
+}
@@ -1,15 +1,39 @@
 package com.example.balbert.todo2day;
 
+import android.app.DatePickerDialog;
+import android.app.TimePickerDialog;
+import android.content.DialogInterface;
+import android.content.Intent;
+import android.os.Build;
 import android.os.Bundle;
+import android.os.Handler;
+import android.support.v7.app.AlertDialog;
 import android.support.v7.app.AppCompatActivity;
+import android.support.v7.widget.LinearLayoutManager;
+import android.support.v7.widget.RecyclerView;
+import android.support.v7.widget.helper.ItemTouchHelper;
+import android.text.Editable;
 import android.text.TextUtils;
+import android.text.TextWatcher;
+import android.text.format.DateFormat;
+import android.view.Menu;
+import android.view.MenuItem;
 import android.view.View;
+import android.view.ViewTreeObserver;
+import android.widget.AdapterView;
+import android.widget.ArrayAdapter;
 import android.widget.CheckBox;
+import android.widget.DatePicker;
 import android.widget.EditText;
-import android.widget.ListView;
+import android.widget.RadioButton;
+import android.widget.RadioGroup;
+import android.widget.Spinner;
+import android.widget.TimePicker;
 import android.widget.Toast;
 
+import java.io.StringReader;
 import java.util.ArrayList;
+import java.util.Calendar;
 import java.util.List;
 
 /**
@@ -17,44 +41,481 @@ import java.util.List;
  *
  * MainActivity is the Controller and main entry point for ToDo2Day.
  *
- * This Controller creates a list to hold the Tasks.
+ * This Controller creates a paged list to hold the Tasks.  Only a window of a few pages
+ * is ever in memory, so opening the app costs the same with 100 Tasks or a million.
  *
- * References are created for the database, the various Views and the TaskListAdapter
+ * References are created for the TaskRepository, the various Views and the TaskListAdapter
  * which we use to inflate the Views for our custom Tasks, which appear as the text of
  * the description and a checkbox.
+ *
+ * While the user types a description, existing Tasks matching what they typed are searched
+ * for and shown in the list.  The search waits until typing pauses for SEARCH_DELAY_MS, and
+ * a new search cancels the one before it.
+ *
+ * The spinner at the top switches between the user's lists, and "New list" in the options
+ * menu adds one.  Only the list shown is loaded, a page at a time; switching back to a list
+ * shown recently shows the pages already loaded for it (see TaskPagedList.setList()).  New
+ * Tasks go into the list shown, and clearing clears only that list.  The app opens on the
+ * first list.
+ *
+ * The filter buttons switch between all, active and completed Tasks.  Each button shows
+ * how many Tasks of the list it would list.  The counts are read from the counters each
+ * list keeps and then kept up to date here as Tasks are added, toggled and cleared.
+ *
+ * The list and the counts are loaded once, in onCreate.  After that they only change
+ * through the TaskChanges the repository publishes: adding, toggling and clearing here ask
+ * the repository to make the change and the change feed updates the screen, with the _id
+ * the database gave a new Task.  Returning to the app does not reload anything.
+ *
+ * On a cold start the first screen is drawn from a FirstScreenSnapshot saved in onPause,
+ * without waiting for the database; the reload that follows replaces it with the table's
+ * contents and only rebinds the rows that changed.  StartupTrace marks the first frame
+ * and the moment the real list is in place.
+ *
+ * Many Tasks can be added at once by pasting a list, one per line, from the menu, or by
+ * sharing text to the app from elsewhere.  Lines the list already has are left out, and
+ * the rest go in with one transaction off the UI thread (see BulkEntry).
+ *
+ * A Task is moved by long-pressing it and dragging it to its new place.  The row moves as
+ * it is dragged, and the new order is stored when it is dropped, as a single row update.
+ *
+ * Tapping the due date at the end of a row picks a date and then a time for the Task to be
+ * due; the user is reminded of it then (see ReminderScheduler).
+ *
+ * Adding, toggling and clearing can be undone and redone from the options menu; the
+ * repository keeps the log and the change feed updates the list as usual.
+ *
+ * All database work goes through TaskRepository, which runs it on a background thread,
+ * so nothing here blocks the UI thread on disk.
  */
 public class MainActivity extends AppCompatActivity {
 
-    // Reference to the list of all tasks
-    private List<Task> mAllTasksList = new ArrayList<>();
-
     public static final String TAG = MainActivity.class.getSimpleName();
 
-    // Reference to the database:
-    private DBHelper mDB;
+    // How many Tasks are loaded per query, and how many pages are kept in memory
+    private static final int PAGE_SIZE = 50;
+    private static final int MAX_PAGES = 4;
+
+    // Searching starts once typing pauses this long, and needs at least this many characters
+    private static final long SEARCH_DELAY_MS = 300;
+    private static final int SEARCH_MIN_LENGTH = 2;
+    private static final int SEARCH_LIMIT = 100;
+
+    // Main thread time spent in onResume
+    private static final Metrics.Timer RESUME_TIMER = Metrics.timer("ui.onResume");
+
+    private final Handler mHandler = new Handler();
+
+    // Searches for whatever is in the EditText when it runs
+    private final Runnable mSearchRunnable = new Runnable() {
+        @Override
+        public void run() {
+            searchTasks(mDescriptionEditText.getText().toString().trim());
+        }
+    };
+
+    // Applies every change made to the Tasks to the list and the counts
+    private final TaskObserver mTaskObserver = new TaskObserver() {
+        @Override
+        public void onTasksChanged(List<TaskChange> changes) {
+            // Whether a toggled Task is in this list is known while its row is loaded
+            boolean[] shown = new boolean[changes.size()];
+            for (int i = 0; i < changes.size(); i++)
+                shown[i] = mTaskList.isShown(changes.get(i).getId());
+            mTaskList.applyChanges(changes);
+            if (mTaskCounts == null)
+                return;
+            boolean recount = false;
+            for (int i = 0; i < changes.size(); i++)
+            {
+                TaskChange change = changes.get(i);
+                if (change.getType() == TaskChange.INSERTED)
+                {
+                    if (change.getTask().getListId() == mListId)
+                        mTaskCounts.taskAdded(change.isDone());
+                }
+                else if (change.getType() == TaskChange.DONE_CHANGED && shown[i])
+                    mTaskCounts.taskToggled(change.isDone());
+                else if (change.getType() == TaskChange.CLEARED)
+                {
+                    if (change.getListId() == mListId || change.getListId() == DBHelper.ALL_LISTS)
+                        mTaskCounts.clear();
+                }
+                else if (change.getType() == TaskChange.MOVED)
+                    continue;
+                else
+                    // Which list, and which way, a change moves the counts is not known
+                    // here; reading them again is one primary key lookup
+                    recount = true;
+            }
+            if (recount)
+                loadTaskCounts();
+            else
+                showTaskCounts();
+        }
+    };
+
+    // Reference to the paged list of tasks
+    private TaskPagedList mTaskList;
+
+    // Reference to the database (through the background repository):
+    private TaskRepository mRepository;
+
+    // Number of Tasks in total and done, null until first loaded
+    private TaskCounts mTaskCounts;
+
+    // The list shown
+    private int mListId = Task.DEFAULT_LIST_ID;
 
     // References to the widgets needed
     private EditText mDescriptionEditText;
-    private ListView mTaskListView;
+    RecyclerView mTaskListView;
+    private RadioButton mFilterAllRadioButton;
+    private RadioButton mFilterActiveRadioButton;
+    private RadioButton mFilterCompletedRadioButton;
+    private Spinner mListSpinner;
+    private ArrayAdapter<TaskList> mListAdapter;
 
     // Reference to the custom list adapter
     TaskListAdapter mTaskListAdapter;
 
+    // Where the row being dragged started, or -1
+    private int mDragFrom = -1;
+
+    // Moves a row while it is dragged and stores the move when it is dropped
+    private final ItemTouchHelper.SimpleCallback mDragCallback =
+            new ItemTouchHelper.SimpleCallback(ItemTouchHelper.UP | ItemTouchHelper.DOWN, 0) {
+        @Override
+        public int getDragDirs(RecyclerView recyclerView, RecyclerView.ViewHolder viewHolder) {
+            // Search results are not in the user's order
+            return mTaskList.isSearching() ? 0 : super.getDragDirs(recyclerView, viewHolder);
+        }
+
+        @Override
+        public boolean onMove(RecyclerView recyclerView, RecyclerView.ViewHolder viewHolder,
+                              RecyclerView.ViewHolder target) {
+            return mTaskList.move(viewHolder.getAdapterPosition(), target.getAdapterPosition());
+        }
+
+        @Override
+        public void onSwiped(RecyclerView.ViewHolder viewHolder, int direction) { }
+
+        @Override
+        public void onSelectedChanged(RecyclerView.ViewHolder viewHolder, int actionState) {
+            super.onSelectedChanged(viewHolder, actionState);
+            if (actionState == ItemTouchHelper.ACTION_STATE_DRAG)
+                mDragFrom = viewHolder.getAdapterPosition();
+        }
+
+        @Override
+        public void clearView(RecyclerView recyclerView, RecyclerView.ViewHolder viewHolder) {
+            super.clearView(recyclerView, viewHolder);
+            int position = viewHolder.getAdapterPosition();
+            if (mDragFrom >= 0 && position >= 0 && position != mDragFrom)
+            {
+                Task task = mTaskList.get(position);
+                Task after = position == 0 ? null : mTaskList.get(position - 1);
+                if (task != null && (position == 0 || after != null))
+                    mRepository.moveTask(task, after);
+                else
+                    mTaskList.reload();
+            }
+            mDragFrom = -1;
+        }
+    };
+
     /**
      * The onCreate method sets the content view.
-     * The database is initialized and Views are referenced.
+     * The repository is initialized and Views are referenced.
+     * The paged list of Tasks is created and connected to the ListView through
+     * the custom list Adapter.  The RecyclerView recycles row Views as the list scrolls.
+     * If a snapshot of the first screen was saved it is shown straight away, and the
+     * list is then reloaded from the database behind it.
      *
      * @param savedInstanceState recovers any previous state if applicable.
      */
     @Override
     protected void onCreate(Bundle savedInstanceState) {
+        StartupTrace.beginSection("MainActivity.onCreate");
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_main);
 
-        mDB = new DBHelper(this);
+        mRepository = TaskRepository.getInstance(this);
         mDescriptionEditText = (EditText) findViewById(R.id.taskEditText);
-        mTaskListView = (ListView) findViewById(R.id.taskListView);
+        mTaskListView = (RecyclerView) findViewById(R.id.taskListView);
+        mTaskListView.setLayoutManager(new LinearLayoutManager(this));
+
+        // Connect the RecyclerView with the custom list Adapter
+        mTaskList = new TaskPagedList(mRepository, PAGE_SIZE, MAX_PAGES);
+        mTaskListAdapter = new TaskListAdapter(this, R.layout.task_item, mTaskList);
+        mTaskListView.setAdapter(mTaskListAdapter);
+        new ItemTouchHelper(mDragCallback).attachToRecyclerView(mTaskListView);
+
+        // Switch filters without reloading the other views
+        mFilterAllRadioButton = (RadioButton) findViewById(R.id.filterAllRadioButton);
+        mFilterActiveRadioButton = (RadioButton) findViewById(R.id.filterActiveRadioButton);
+        mFilterCompletedRadioButton = (RadioButton) findViewById(R.id.filterCompletedRadioButton);
+        RadioGroup filterRadioGroup = (RadioGroup) findViewById(R.id.filterRadioGroup);
+        filterRadioGroup.setOnCheckedChangeListener(new RadioGroup.OnCheckedChangeListener() {
+            @Override
+            public void onCheckedChanged(RadioGroup group, int checkedId) {
+                if (checkedId == R.id.filterActiveRadioButton)
+                    mTaskList.setFilter(DBHelper.FILTER_ACTIVE);
+                else if (checkedId == R.id.filterCompletedRadioButton)
+                    mTaskList.setFilter(DBHelper.FILTER_COMPLETED);
+                else
+                    mTaskList.setFilter(DBHelper.FILTER_ALL);
+            }
+        });
+
+        // Switch lists from the spinner; the lists are read once, and again when one is added
+        mListSpinner = (Spinner) findViewById(R.id.listSpinner);
+        mListAdapter = new ArrayAdapter<>(this, android.R.layout.simple_spinner_item, new ArrayList<TaskList>());
+        mListAdapter.setDropDownViewResource(android.R.layout.simple_spinner_dropdown_item);
+        mListSpinner.setAdapter(mListAdapter);
+        mListSpinner.setOnItemSelectedListener(new AdapterView.OnItemSelectedListener() {
+            @Override
+            public void onItemSelected(AdapterView<?> parent, View view, int position, long id) {
+                showList(mListAdapter.getItem(position).getId());
+            }
+
+            @Override
+            public void onNothingSelected(AdapterView<?> parent) { }
+        });
+        loadLists(mListId);
+
+        // Show the last first screen right away, if there is one
+        FirstScreenSnapshot snapshot = mRepository.readFirstScreen();
+        if (snapshot != null)
+            mTaskList.showSnapshot(snapshot.getTasks(), snapshot.getTotalCount());
+        mTaskListView.getViewTreeObserver().addOnPreDrawListener(new ViewTreeObserver.OnPreDrawListener() {
+            @Override
+            public boolean onPreDraw() {
+                mTaskListView.getViewTreeObserver().removeOnPreDrawListener(this);
+                StartupTrace.firstFrame();
+                return true;
+            }
+        });
 
+        // Load the list and counts once; from now on they follow the change feed
+        mRepository.registerObserver(mTaskObserver);
+        mTaskList.reload(new Runnable() {
+            @Override
+            public void run() {
+                StartupTrace.fullList();
+                if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT)
+                    reportFullyDrawn();
+            }
+        });
+        loadTaskCounts();
+
+        // Search as the user types, once they pause
+        mDescriptionEditText.addTextChangedListener(new TextWatcher() {
+            @Override
+            public void beforeTextChanged(CharSequence s, int start, int count, int after) { }
+
+            @Override
+            public void onTextChanged(CharSequence s, int start, int before, int count) { }
+
+            @Override
+            public void afterTextChanged(Editable s) {
+                mHandler.removeCallbacks(mSearchRunnable);
+                mHandler.postDelayed(mSearchRunnable, SEARCH_DELAY_MS);
+            }
+        });
+
+        // Text shared from another app becomes Tasks; only once, not again on rotation
+        if (savedInstanceState == null)
+            addSharedText(getIntent());
+        StartupTrace.endSection();
+    }
+
+    /**
+     * onNewIntent() is called instead of onCreate() when text is shared while the
+     * Activity is already on top.
+     */
+    @Override
+    protected void onNewIntent(Intent intent) {
+        super.onNewIntent(intent);
+        setIntent(intent);
+        addSharedText(intent);
+    }
+
+    /**
+     * onDestroy() stops listening for changes, so the repository does not keep the
+     * Activity alive.
+     */
+    @Override
+    protected void onDestroy() {
+        mRepository.unregisterObserver(mTaskObserver);
+        super.onDestroy();
+    }
+
+    /**
+     * loadTaskCounts() reads the list's counts by status, in the background, for the filter
+     * buttons.  Counts that arrive after the user switched to another list are dropped.
+     */
+    private void loadTaskCounts()
+    {
+        final int listId = mListId;
+        mRepository.getTaskCounts(listId, new TaskRepository.Callback<TaskCounts>() {
+            @Override
+            public void onResult(TaskCounts counts) {
+                if (listId != mListId)
+                    return;
+                mTaskCounts = counts;
+                showTaskCounts();
+            }
+        });
+    }
+
+    /**
+     * loadLists() reads the user's lists, in the background, into the spinner, and selects
+     * one of them.
+     * @param selectedListId the _id of the list to select.
+     */
+    private void loadLists(final int selectedListId)
+    {
+        mRepository.getLists(new TaskRepository.Callback<List<TaskList>>() {
+            @Override
+            public void onResult(List<TaskList> lists) {
+                mListAdapter.clear();
+                mListAdapter.addAll(lists);
+                for (int i = 0; i < lists.size(); i++)
+                    if (lists.get(i).getId() == selectedListId)
+                        mListSpinner.setSelection(i);
+            }
+        });
+    }
+
+    /**
+     * showList() switches the screen to another list: its Tasks, from the pages already
+     * loaded for it if there are any, and its counts.
+     * @param listId the list's _id.
+     */
+    private void showList(int listId)
+    {
+        if (listId == mListId)
+            return;
+        mListId = listId;
+        mTaskList.setList(listId);
+        mTaskCounts = null;
+        loadTaskCounts();
+    }
+
+    /**
+     * newList() asks the user for the name of a new list, adds it and switches to it.
+     */
+    private void newList()
+    {
+        final EditText nameEditText = new EditText(this);
+        nameEditText.setHint(R.string.list_name);
+        nameEditText.setSingleLine();
+        new AlertDialog.Builder(this)
+                .setTitle(R.string.new_list)
+                .setView(nameEditText)
+                .setPositiveButton(R.string.add_list, new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialog, int which) {
+                        String name = nameEditText.getText().toString().trim();
+                        if (TextUtils.isEmpty(name))
+                            return;
+                        mRepository.addList(name, new TaskRepository.Callback<Integer>() {
+                            @Override
+                            public void onResult(Integer listId) {
+                                loadLists(listId);
+                            }
+                        });
+                    }
+                })
+                .setNegativeButton(android.R.string.cancel, null)
+                .show();
+    }
+
+    /**
+     * bulkAdd() lets the user paste a list, one Task per line, into the list shown.
+     */
+    private void bulkAdd()
+    {
+        final EditText linesEditText = new EditText(this);
+        linesEditText.setHint(R.string.bulk_add_hint);
+        linesEditText.setMinLines(4);
+        new AlertDialog.Builder(this)
+                .setTitle(R.string.bulk_add)
+                .setView(linesEditText)
+                .setPositiveButton(R.string.add_list, new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialog, int which) {
+                        addLines(linesEditText.getText().toString());
+                    }
+                })
+                .setNegativeButton(android.R.string.cancel, null)
+                .show();
+    }
+
+    /**
+     * addSharedText() adds the lines of plain text another app shared, if that is what
+     * started the Activity.
+     */
+    private void addSharedText(Intent intent)
+    {
+        if (intent == null || !Intent.ACTION_SEND.equals(intent.getAction())
+                || !"text/plain".equals(intent.getType()))
+            return;
+        CharSequence text = intent.getCharSequenceExtra(Intent.EXTRA_TEXT);
+        if (text != null)
+            addLines(text.toString());
+    }
+
+    /**
+     * addLines() adds a Task to the list shown for each new line of the text.  All of it
+     * happens on the repository's writer thread (see TaskRepository.addTasksFromText()),
+     * and the new Tasks arrive through the change feed together, as one inserted range.
+     */
+    private void addLines(String text)
+    {
+        if (TextUtils.isEmpty(text))
+            return;
+        mRepository.addTasksFromText(mListId, new StringReader(text), new TaskRepository.Callback<Integer>() {
+            @Override
+            public void onResult(Integer count) {
+                Toast.makeText(MainActivity.this, count == null ? getString(R.string.bulk_add_failed)
+                        : getString(R.string.bulk_added, count), Toast.LENGTH_SHORT).show();
+            }
+        });
+    }
+
+    /**
+     * showTaskCounts() puts the current counts on the filter buttons.
+     */
+    private void showTaskCounts()
+    {
+        if (mTaskCounts == null)
+            return;
+        mFilterAllRadioButton.setText(getString(R.string.filter_all_count, mTaskCounts.getTotal()));
+        mFilterActiveRadioButton.setText(getString(R.string.filter_active_count, mTaskCounts.getActive()));
+        mFilterCompletedRadioButton.setText(getString(R.string.filter_completed_count, mTaskCounts.getDone()));
+    }
+
+    /**
+     * searchTasks() shows the Tasks of the list being shown that match the query, or goes
+     * back to showing every Task of it when the query is too short.
+     * @param query the text to search for.
+     */
+    private void searchTasks(String query)
+    {
+        if (query.length() < SEARCH_MIN_LENGTH)
+        {
+            mRepository.cancelSearch();
+            mTaskList.endSearch();
+            return;
+        }
+        mRepository.searchTasks(query, mListId, SEARCH_LIMIT, new TaskRepository.Callback<List<Task>>() {
+            @Override
+            public void onResult(List<Task> results) {
+                mTaskList.showSearchResults(results);
+            }
+        });
     }
 
     /**
@@ -74,23 +535,97 @@ public class MainActivity extends AppCompatActivity {
      *
      * The onResume method of onResume's super class is called.
      *
-     * Our list of Tasks is filled by making a call to getAllTasks() from the database.
-     *
-     * mTaskListAdapter is the custom adapter we made which is used to render each Task
-     * with a checkbox.  It is initialized and set.
+     * Nothing is reloaded here: the list was loaded in onCreate and every change since
+     * has already been applied to it by the change feed, even while the app was paused.
      */
     @Override
     protected void onResume() {
+        long start = RESUME_TIMER.start();
         super.onResume();
-        // Database related "stuff"
+        RESUME_TIMER.stop(start);
+    }
+
+    /**
+     * In debug builds the menu has an entry for the Metrics screen.
+     */
+    @Override
+    public boolean onCreateOptionsMenu(Menu menu) {
+        getMenuInflater().inflate(R.menu.menu_main, menu);
+        menu.findItem(R.id.action_metrics).setVisible(BuildConfig.DEBUG);
+        return true;
+    }
 
-        // 1) Populate the list from the database (using DBHelper)
-        mAllTasksList = mDB.getAllTasks();
+    /**
+     * onPrepareOptionsMenu() only enables Undo and Redo when there is something to undo or redo.
+     */
+    @Override
+    public boolean onPrepareOptionsMenu(Menu menu) {
+        menu.findItem(R.id.action_undo).setEnabled(mRepository.canUndo());
+        menu.findItem(R.id.action_redo).setEnabled(mRepository.canRedo());
+        return super.onPrepareOptionsMenu(menu);
+    }
 
-        // 2) Connect the ListView with the custom list Adapter
-        mTaskListAdapter = new TaskListAdapter(this, R.layout.task_item, mAllTasksList);
-        mTaskListView.setAdapter(mTaskListAdapter);
+    @Override
+    public boolean onOptionsItemSelected(MenuItem item) {
+        if (item.getItemId() == R.id.action_undo)
+        {
+            mRepository.undo(new UndoCallback(R.string.nothing_to_undo));
+            return true;
+        }
+        if (item.getItemId() == R.id.action_redo)
+        {
+            mRepository.redo(new UndoCallback(R.string.nothing_to_redo));
+            return true;
+        }
+        if (item.getItemId() == R.id.action_new_list)
+        {
+            newList();
+            return true;
+        }
+        if (item.getItemId() == R.id.action_bulk_add)
+        {
+            bulkAdd();
+            return true;
+        }
+        if (item.getItemId() == R.id.action_metrics)
+        {
+            startActivity(new Intent(this, MetricsActivity.class));
+            return true;
+        }
+        return super.onOptionsItemSelected(item);
+    }
 
+    /**
+     * UndoCallback tells the user when there was nothing to undo or redo after all (the
+     * menu can be a step behind a change still being written).
+     */
+    private class UndoCallback implements TaskRepository.Callback<Boolean> {
+        private final int mNothingMessage;
+
+        UndoCallback(int nothingMessage) {
+            mNothingMessage = nothingMessage;
+        }
+
+        @Override
+        public void onResult(Boolean done) {
+            if (!done)
+                Toast.makeText(MainActivity.this, mNothingMessage, Toast.LENGTH_SHORT).show();
+        }
+    }
+
+    /**
+     * onPause() makes sure every checkbox toggle still waiting to be written behind is
+     * sent to the database before the user leaves the app, and saves the first screen of
+     * Tasks for the next cold start to show.
+     */
+    @Override
+    protected void onPause() {
+        super.onPause();
+        mHandler.removeCallbacks(mSearchRunnable);
+        mRepository.flushPendingToggles();
+        List<Task> firstScreen = mTaskList.getFirstScreen(FirstScreenSnapshot.MAX_TASKS);
+        if (firstScreen != null)
+            mRepository.saveFirstScreen(firstScreen, mTaskList.size());
     }
 
     /**
@@ -101,9 +636,10 @@ public class MainActivity extends AppCompatActivity {
      * a Toast to remind them to enter a description.
      *
      * If they did enter a description then we instantiate a new Task with it.
-     * The Task is then added to the database and the Task-list.
+     * The Task is then added to the database; once it is in, the change feed adds it to
+     * the Task-list with its new _id and counts it.
      *
-     * We inform the adapter of the change and then set the EditText field back to an empty string.
+     * We then set the EditText field back to an empty string.
      * @param v
      */
     public void addTask(View v)
@@ -116,12 +652,9 @@ public class MainActivity extends AppCompatActivity {
         {
             // Create the Task
             Task newTask = new Task(description, false);
-            // Add it to the database
-            mDB.addTask(newTask);
-            // Add it to the List
-            mAllTasksList.add(newTask);
-            // Notify the list adapter that it has been changed
-            mTaskListAdapter.notifyDataSetChanged();
+            newTask.setListId(mListId);
+            // Add it to the database (the change feed adds it to the List)
+            mRepository.addTask(newTask);
             // Clear out the EditText
             mDescriptionEditText.setText("");
         }
@@ -129,18 +662,17 @@ public class MainActivity extends AppCompatActivity {
 
     /**
      *  clearAllTask() is called when the user taps the CLEAR ALL TASKS button.
-     *  All the Tasks are deleted from the database, the list of Tasks is cleared,
-     *  the adapter is notified of the change so the View matches the Model/database.
-     *  Finally, a Toast pops up to inform the user of their action.
+     *  All the Tasks of the list shown are deleted from the database, and the change feed then clears the
+     *  list of Tasks, which notifies the adapter so the View matches the Model/database.
+     *  Finally, a Toast pops up to inform the user of their action.  The clear can be
+     *  undone from the menu.
      *
      * @param v
      */
     public void clearAllTasks(View v)
     {
-        mDB.deleteAllTasks();
-        mAllTasksList.clear();
-        mTaskListAdapter.notifyDataSetChanged();
-        Toast.makeText(this, "All tasks have been cleared.", Toast.LENGTH_LONG).show();
+        mRepository.deleteAllTasks(mListId);
+        Toast.makeText(this, "All tasks have been cleared. Use Undo to bring them back.", Toast.LENGTH_LONG).show();
     }
 
     /**
@@ -152,9 +684,9 @@ public class MainActivity extends AppCompatActivity {
      *
      *  Behind each Task is a Tag, we create a Task object called selectedTask from that Tag.
      *
-     *  We use this newly created selectedTask and update its isDone property.
-     *
-     *  Lastly the database is informed of the Task's updated isDone state.
+     *  The repository is given the selectedTask's id and new isDone state.  It announces
+     *  the change straight away, which updates the Task, its row and the counts, and writes
+     *  it behind: the repository collects toggles and writes them in one transaction.
      *
      * @param v
      */
@@ -162,9 +694,64 @@ public class MainActivity extends AppCompatActivity {
     {
         CheckBox selectedCheckBox = (CheckBox) v;
         Task selectedTask = (Task) selectedCheckBox.getTag();
-        // Update the Task
-        selectedTask.setDone(selectedCheckBox.isChecked());
-        // Update the database
-        mDB.updateTask(selectedTask);
+        // Placeholder rows have no Task behind them
+        if (selectedTask == null)
+            return;
+        // Update the database (written behind); the change feed updates the list
+        mRepository.setTaskDone(selectedTask.getId(), selectedCheckBox.isChecked());
+    }
+
+    /**
+     *  pickDueDate() is called when the user taps the due date of a Task.  A date is picked
+     *  first and then a time, starting from the Task's due date, or from an hour from now if
+     *  it has none.  A Task that has a due date can also have it taken away.
+     *
+     *  Like the CheckBox, the due date's Tag is the Task of its row.
+     *
+     * @param v
+     */
+    public void pickDueDate(View v)
+    {
+        final Task selectedTask = (Task) v.getTag();
+        // Placeholder rows have no Task behind them
+        if (selectedTask == null)
+            return;
+        final Calendar due = Calendar.getInstance();
+        if (selectedTask.hasDueDate())
+            due.setTimeInMillis(selectedTask.getDueAt());
+        else
+        {
+            due.add(Calendar.HOUR_OF_DAY, 1);
+            due.set(Calendar.MINUTE, 0);
+        }
+        due.set(Calendar.SECOND, 0);
+        due.set(Calendar.MILLISECOND, 0);
+
+        DatePickerDialog datePicker = new DatePickerDialog(this, new DatePickerDialog.OnDateSetListener() {
+            @Override
+            public void onDateSet(DatePicker view, int year, int month, int dayOfMonth) {
+                due.set(year, month, dayOfMonth);
+                new TimePickerDialog(MainActivity.this, new TimePickerDialog.OnTimeSetListener() {
+                    @Override
+                    public void onTimeSet(TimePicker view, int hourOfDay, int minute) {
+                        due.set(Calendar.HOUR_OF_DAY, hourOfDay);
+                        due.set(Calendar.MINUTE, minute);
+                        mRepository.setDueDate(selectedTask, due.getTimeInMillis());
+                    }
+                }, due.get(Calendar.HOUR_OF_DAY), due.get(Calendar.MINUTE),
+                        DateFormat.is24HourFormat(MainActivity.this)).show();
+            }
+        }, due.get(Calendar.YEAR), due.get(Calendar.MONTH), due.get(Calendar.DAY_OF_MONTH));
+        if (selectedTask.hasDueDate())
+        {
+            datePicker.setButton(DialogInterface.BUTTON_NEUTRAL, getString(R.string.no_due_date),
+                    new DialogInterface.OnClickListener() {
+                        @Override
+                        public void onClick(DialogInterface dialog, int which) {
+                            mRepository.setDueDate(selectedTask, Task.NO_DUE_DATE);
+                        }
+                    });
+        }
+        datePicker.show();
     }
 }
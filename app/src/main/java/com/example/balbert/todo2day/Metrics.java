@@ -0,0 +1,320 @@
+package com.example.balbert.todo2day;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Metrics is a small registry of named counters, timers and histograms for the app's hot
+ * paths: every DBHelper operation, rows read per query, cursor window fills, row
+ * inflations versus rebinds and time spent in onResume.
+ *
+ * Callers look a metric up once and keep it in a static final field:
+ *
+ *     private static final Metrics.Timer ADD_TIMER = Metrics.timer("db.addTask");
+ *     ...
+ *     long start = ADD_TIMER.start();
+ *     ...
+ *     ADD_TIMER.stop(start);
+ *
+ * While metrics are disabled (the default, and always in release builds) every record
+ * call is a single volatile read and a return: no clock is read, nothing is allocated and
+ * no map is touched.  ToDo2DayApplication enables them in debug builds.
+ *
+ * Histograms use power-of-two buckets, so recording is a few atomic adds and percentiles
+ * are accurate to within a factor of two, which is plenty for telling a slow device from
+ * a fast one.
+ *
+ * dump() writes every metric as one line of text, sorted by name.  MetricsActivity shows
+ * the same text and can save it with dumpToFile().
+ */
+public final class Metrics {
+
+    // Returned by Timer.start() while disabled, so stop() knows to do nothing
+    public static final long NOT_TIMING = Long.MIN_VALUE;
+
+    // Where MetricsActivity saves dumps, inside the app's files directory
+    public static final String DUMP_FILE_NAME = "metrics.txt";
+
+    private static volatile boolean sEnabled;
+
+    private static final Map<String, Counter> sCounters = new TreeMap<>();
+    private static final Map<String, Histogram> sHistograms = new TreeMap<>();
+    private static final Map<String, Timer> sTimers = new TreeMap<>();
+
+    private Metrics() { }
+
+    /**
+     * setEnabled() turns recording on or off for every metric.  Values already recorded
+     * are kept.
+     * @param enabled true to record.
+     */
+    public static void setEnabled(boolean enabled) { sEnabled = enabled; }
+
+    /**
+     * @return true if metrics are being recorded.
+     */
+    public static boolean isEnabled() { return sEnabled; }
+
+    /**
+     * Counter counts events, e.g. how many row Views were inflated.
+     */
+    public static final class Counter {
+        private final AtomicLong mCount = new AtomicLong();
+
+        private Counter() { }
+
+        public void increment() {
+            if (sEnabled)
+                mCount.incrementAndGet();
+        }
+
+        public void add(long delta) {
+            if (sEnabled)
+                mCount.addAndGet(delta);
+        }
+
+        public long getCount() { return mCount.get(); }
+
+        void reset() { mCount.set(0); }
+    }
+
+    /**
+     * Histogram records the distribution of non-negative values, e.g. rows read per query.
+     * Bucket i holds values from 2^(i-1) up to 2^i - 1 (bucket 0 holds zero).
+     */
+    public static final class Histogram {
+        private static final int BUCKETS = 64;
+
+        private final AtomicLongArray mBuckets = new AtomicLongArray(BUCKETS);
+        private final AtomicLong mCount = new AtomicLong();
+        private final AtomicLong mSum = new AtomicLong();
+        private final AtomicLong mMax = new AtomicLong();
+
+        private Histogram() { }
+
+        public void record(long value) {
+            if (sEnabled)
+                recordAlways(value);
+        }
+
+        void recordAlways(long value) {
+            if (value < 0)
+                value = 0;
+            mBuckets.incrementAndGet(64 - Long.numberOfLeadingZeros(value));
+            mCount.incrementAndGet();
+            mSum.addAndGet(value);
+            long max;
+            while (value > (max = mMax.get()) && !mMax.compareAndSet(max, value)) {
+                // Another thread raised the max first; try again
+            }
+        }
+
+        public long getCount() { return mCount.get(); }
+
+        public long getSum() { return mSum.get(); }
+
+        public long getMax() { return mMax.get(); }
+
+        public double getMean() {
+            long count = mCount.get();
+            return count == 0 ? 0 : (double) mSum.get() / count;
+        }
+
+        /**
+         * getPercentile() returns the upper bound of the bucket the percentile falls in,
+         * but never more than the largest value recorded.
+         * @param percentile between 0 and 100.
+         * @return an upper estimate of the value, or 0 if nothing was recorded.
+         */
+        public long getPercentile(double percentile) {
+            long count = mCount.get();
+            if (count == 0)
+                return 0;
+            long rank = Math.max(1, (long) Math.ceil(percentile / 100.0 * count));
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++)
+            {
+                seen += mBuckets.get(i);
+                if (seen >= rank)
+                    return Math.min(i == 0 ? 0 : (1L << i) - 1, mMax.get());
+            }
+            return mMax.get();
+        }
+
+        void reset() {
+            for (int i = 0; i < BUCKETS; i++)
+                mBuckets.set(i, 0);
+            mCount.set(0);
+            mSum.set(0);
+            mMax.set(0);
+        }
+    }
+
+    /**
+     * Timer records how long an operation took, in nanoseconds, into a Histogram.
+     */
+    public static final class Timer {
+        private final Histogram mHistogram = new Histogram();
+
+        private Timer() { }
+
+        /**
+         * @return the time to pass to stop(), or NOT_TIMING while disabled.
+         */
+        public long start() {
+            return sEnabled ? System.nanoTime() : NOT_TIMING;
+        }
+
+        /**
+         * stop() records the time since start, unless the timer was started while disabled.
+         * @param start what start() returned.
+         */
+        public void stop(long start) {
+            if (start != NOT_TIMING)
+                mHistogram.recordAlways(System.nanoTime() - start);
+        }
+
+        public Histogram getHistogram() { return mHistogram; }
+    }
+
+    /**
+     * counter() returns the Counter with this name, creating it on first use.
+     */
+    public static Counter counter(String name) {
+        synchronized (sCounters) {
+            Counter counter = sCounters.get(name);
+            if (counter == null)
+            {
+                counter = new Counter();
+                sCounters.put(name, counter);
+            }
+            return counter;
+        }
+    }
+
+    /**
+     * histogram() returns the Histogram with this name, creating it on first use.
+     */
+    public static Histogram histogram(String name) {
+        synchronized (sHistograms) {
+            Histogram histogram = sHistograms.get(name);
+            if (histogram == null)
+            {
+                histogram = new Histogram();
+                sHistograms.put(name, histogram);
+            }
+            return histogram;
+        }
+    }
+
+    /**
+     * timer() returns the Timer with this name, creating it on first use.
+     */
+    public static Timer timer(String name) {
+        synchronized (sTimers) {
+            Timer timer = sTimers.get(name);
+            if (timer == null)
+            {
+                timer = new Timer();
+                sTimers.put(name, timer);
+            }
+            return timer;
+        }
+    }
+
+    /**
+     * reset() sets every metric back to zero.  The metrics themselves stay registered.
+     */
+    public static void reset() {
+        synchronized (sCounters) {
+            for (Counter counter : sCounters.values())
+                counter.reset();
+        }
+        synchronized (sHistograms) {
+            for (Histogram histogram : sHistograms.values())
+                histogram.reset();
+        }
+        synchronized (sTimers) {
+            for (Timer timer : sTimers.values())
+                timer.getHistogram().reset();
+        }
+    }
+
+    /**
+     * dump() writes one line per metric: counters first, then histograms, then timers
+     * (in microseconds), each group sorted by name.  Metrics that recorded nothing are
+     * left out.
+     *
+     * @param writer where to write; it is not closed.
+     * @throws IOException if writing fails.
+     */
+    public static void dump(Writer writer) throws IOException {
+        synchronized (sCounters) {
+            for (Map.Entry<String, Counter> entry : sCounters.entrySet())
+                if (entry.getValue().getCount() != 0)
+                    writer.write(String.format(Locale.US, "counter %s count=%d\n",
+                            entry.getKey(), entry.getValue().getCount()));
+        }
+        synchronized (sHistograms) {
+            for (Map.Entry<String, Histogram> entry : sHistograms.entrySet())
+            {
+                Histogram histogram = entry.getValue();
+                if (histogram.getCount() != 0)
+                    writer.write(String.format(Locale.US,
+                            "histogram %s count=%d mean=%.1f p50=%d p90=%d p99=%d max=%d\n",
+                            entry.getKey(), histogram.getCount(), histogram.getMean(),
+                            histogram.getPercentile(50), histogram.getPercentile(90),
+                            histogram.getPercentile(99), histogram.getMax()));
+            }
+        }
+        synchronized (sTimers) {
+            for (Map.Entry<String, Timer> entry : sTimers.entrySet())
+            {
+                Histogram histogram = entry.getValue().getHistogram();
+                if (histogram.getCount() != 0)
+                    writer.write(String.format(Locale.US,
+                            "timer %s count=%d totalUs=%d meanUs=%.1f p50Us=%d p90Us=%d p99Us=%d maxUs=%d\n",
+                            entry.getKey(), histogram.getCount(), histogram.getSum() / 1000,
+                            histogram.getMean() / 1000, histogram.getPercentile(50) / 1000,
+                            histogram.getPercentile(90) / 1000, histogram.getPercentile(99) / 1000,
+                            histogram.getMax() / 1000));
+            }
+        }
+    }
+
+    /**
+     * @return the dump() text as a String.
+     */
+    public static String dumpToString() {
+        StringWriter writer = new StringWriter();
+        try {
+            dump(writer);
+        } catch (IOException e) {
+            // A StringWriter never throws
+        }
+        return writer.toString();
+    }
+
+    /**
+     * dumpToFile() writes the dump() text to a file, replacing it.
+     * @param file where to write.
+     * @throws IOException if the file can't be written.
+     */
+    public static void dumpToFile(File file) throws IOException {
+        Writer writer = new OutputStreamWriter(new FileOutputStream(file), TaskWriter.UTF_8);
+        try {
+            dump(writer);
+        } finally {
+            writer.close();
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package com.example.balbert.todo2day;
+
+import android.os.Bundle;
+import android.support.v7.app.AppCompatActivity;
+import android.view.View;
+import android.widget.TextView;
+import android.widget.Toast;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * MetricsActivity is a debug screen showing everything recorded in Metrics, so slow
+ * devices can be looked into without attaching a profiler.
+ *
+ * The text is the same as Metrics.dump(), under a line on how far TaskCompactor has got.  It can be refreshed, reset to zero, or saved to
+ * DUMP_FILE_NAME in the app's files directory (and pulled with adb run-as).
+ */
+public class MetricsActivity extends AppCompatActivity {
+
+    private TextView mMetricsTextView;
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setContentView(R.layout.activity_metrics);
+        mMetricsTextView = (TextView) findViewById(R.id.metricsTextView);
+    }
+
+    @Override
+    protected void onResume() {
+        super.onResume();
+        showMetrics();
+    }
+
+    private void showMetrics()
+    {
+        String text = Metrics.dumpToString();
+        TaskCompactor compactor = TaskRepository.getInstance(this).getCompactor();
+        String compaction = getString(compactor.isRunning() ? R.string.compaction_running
+                        : R.string.compaction_idle, compactor.getRowsPurged(),
+                compactor.getTombstoneCount(), compactor.getBytesReclaimed() / 1024);
+        mMetricsTextView.setText(compaction + "\n\n"
+                + (text.isEmpty() ? getString(R.string.metrics_empty) : text));
+    }
+
+    /**
+     * refreshMetrics() is called when the user taps the REFRESH button.
+     * @param v
+     */
+    public void refreshMetrics(View v)
+    {
+        showMetrics();
+    }
+
+    /**
+     * resetMetrics() is called when the user taps the RESET button.
+     * @param v
+     */
+    public void resetMetrics(View v)
+    {
+        Metrics.reset();
+        showMetrics();
+    }
+
+    /**
+     * saveMetrics() is called when the user taps the SAVE button.  The file is written on
+     * a background thread and a Toast tells the user where it went.
+     * @param v
+     */
+    public void saveMetrics(View v)
+    {
+        final File file = new File(getFilesDir(), Metrics.DUMP_FILE_NAME);
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                String message;
+                try {
+                    Metrics.dumpToFile(file);
+                    message = getString(R.string.metrics_saved, file.getPath());
+                } catch (IOException e) {
+                    message = e.getMessage();
+                }
+                final String toast = message;
+                runOnUiThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        Toast.makeText(MetricsActivity.this, toast, Toast.LENGTH_LONG).show();
+                    }
+                });
+            }
+        }, "MetricsDump").start();
+    }
+}
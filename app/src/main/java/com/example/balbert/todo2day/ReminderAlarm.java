@@ -0,0 +1,116 @@
+package com.example.balbert.todo2day;
+
+import android.app.AlarmManager;
+import android.app.NotificationChannel;
+import android.app.NotificationManager;
+import android.app.PendingIntent;
+import android.content.Context;
+import android.content.Intent;
+import android.content.SharedPreferences;
+import android.os.Build;
+import android.support.v4.app.NotificationCompat;
+
+import java.util.List;
+
+/**
+ * ReminderAlarm is ReminderScheduler's link to the platform: its one wakeup is a single
+ * AlarmManager alarm that starts ReminderReceiver, and its reminders are notifications,
+ * one per Task, which open MainActivity when tapped.
+ *
+ * The alarm is set to go off at the exact time, even while the device dozes, since a
+ * reminder that comes late is no use.  Setting it again replaces the one there is, as it
+ * is always the same PendingIntent.
+ *
+ * The time up to which reminders have gone out is kept in SharedPreferences, so after the
+ * process (or the device) restarts nothing is reminded of twice.
+ */
+final class ReminderAlarm implements ReminderScheduler.Alarm, ReminderScheduler.Listener {
+
+    static final String ACTION_REMIND = "com.example.balbert.todo2day.action.REMIND";
+
+    private static final String CHANNEL_ID = "reminders";
+    private static final String PREFERENCES_NAME = "reminders";
+    private static final String KEY_REMINDED_UP_TO = "remindedUpTo";
+
+    private final Context mContext;
+    private final SharedPreferences mPreferences;
+    private boolean mChannelCreated;
+
+    ReminderAlarm(Context context) {
+        mContext = context.getApplicationContext();
+        mPreferences = mContext.getSharedPreferences(PREFERENCES_NAME, Context.MODE_PRIVATE);
+    }
+
+    /**
+     * getRemindedUpTo() reads the time up to which reminders went out, as last given to
+     * onReminders().  The first time there is none, and the current time is used, so Tasks
+     * that were overdue before reminders existed are not all reminded of at once.
+     */
+    long getRemindedUpTo() {
+        long remindedUpTo = mPreferences.getLong(KEY_REMINDED_UP_TO, -1);
+        if (remindedUpTo < 0)
+        {
+            remindedUpTo = System.currentTimeMillis();
+            mPreferences.edit().putLong(KEY_REMINDED_UP_TO, remindedUpTo).apply();
+        }
+        return remindedUpTo;
+    }
+
+    @Override
+    public void set(long timeMillis) {
+        AlarmManager alarms = (AlarmManager) mContext.getSystemService(Context.ALARM_SERVICE);
+        PendingIntent wakeup = wakeupIntent();
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M)
+            alarms.setExactAndAllowWhileIdle(AlarmManager.RTC_WAKEUP, timeMillis, wakeup);
+        else if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT)
+            alarms.setExact(AlarmManager.RTC_WAKEUP, timeMillis, wakeup);
+        else
+            alarms.set(AlarmManager.RTC_WAKEUP, timeMillis, wakeup);
+    }
+
+    @Override
+    public void cancel() {
+        AlarmManager alarms = (AlarmManager) mContext.getSystemService(Context.ALARM_SERVICE);
+        alarms.cancel(wakeupIntent());
+    }
+
+    @Override
+    public void onReminders(List<Task> dueTasks, long remindedUpTo) {
+        NotificationManager notifications =
+                (NotificationManager) mContext.getSystemService(Context.NOTIFICATION_SERVICE);
+        createChannel(notifications);
+        Intent open = new Intent(mContext, MainActivity.class)
+                .addFlags(Intent.FLAG_ACTIVITY_CLEAR_TOP | Intent.FLAG_ACTIVITY_SINGLE_TOP);
+        PendingIntent openList = PendingIntent.getActivity(mContext, 0, open, PendingIntent.FLAG_UPDATE_CURRENT);
+        for (Task task : dueTasks)
+        {
+            // Keyed by _id, so a Task's reminder replaces any earlier one for it
+            notifications.notify(task.getId(), new NotificationCompat.Builder(mContext, CHANNEL_ID)
+                    .setSmallIcon(R.mipmap.ic_launcher)
+                    .setContentTitle(task.getDescription())
+                    .setContentText(mContext.getString(R.string.reminder_due))
+                    .setWhen(task.getDueAt())
+                    .setShowWhen(true)
+                    .setCategory(NotificationCompat.CATEGORY_REMINDER)
+                    .setDefaults(NotificationCompat.DEFAULT_ALL)
+                    .setContentIntent(openList)
+                    .setAutoCancel(true)
+                    .build());
+        }
+        mPreferences.edit().putLong(KEY_REMINDED_UP_TO, remindedUpTo).apply();
+    }
+
+    private PendingIntent wakeupIntent() {
+        Intent intent = new Intent(mContext, ReminderReceiver.class).setAction(ACTION_REMIND);
+        return PendingIntent.getBroadcast(mContext, 0, intent, PendingIntent.FLAG_UPDATE_CURRENT);
+    }
+
+    // Android 8 only shows notifications posted to a channel
+    private void createChannel(NotificationManager notifications) {
+        if (mChannelCreated || Build.VERSION.SDK_INT < Build.VERSION_CODES.O)
+            return;
+        notifications.createNotificationChannel(new NotificationChannel(CHANNEL_ID,
+                mContext.getString(R.string.reminders), NotificationManager.IMPORTANCE_DEFAULT));
+        mChannelCreated = true;
+    }
+}
@@ -0,0 +1,27 @@
+package com.example.balbert.todo2day;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+
+/**
+ * ReminderReceiver is started by ReminderAlarm's alarm, and when the device has booted
+ * (which clears every alarm).  Either way it has TaskRepository remind the user of
+ * whatever has come due and set the alarm for the next Task.
+ *
+ * That reads the database, so it runs on the repository's background thread; goAsync()
+ * keeps the process alive until it is done.
+ */
+public class ReminderReceiver extends BroadcastReceiver {
+
+    @Override
+    public void onReceive(Context context, Intent intent) {
+        final PendingResult result = goAsync();
+        TaskRepository.getInstance(context).checkReminders(new Runnable() {
+            @Override
+            public void run() {
+                result.finish();
+            }
+        });
+    }
+}
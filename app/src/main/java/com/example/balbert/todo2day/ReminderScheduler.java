@@ -0,0 +1,348 @@
+package com.example.balbert.todo2day;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * ReminderScheduler decides when the user is reminded of Tasks that are due, with one
+ * wakeup for all of them rather than an alarm per Task.
+ *
+ * It keeps only the next getCapacity() Tasks due in a min-heap, soonest first, read with
+ * one range query on the due index (DBHelper.getDueTasks()), and asks its Alarm for a
+ * single wakeup at the time the first of them is due.  When the Alarm goes off, onAlarm()
+ * reminds the user of every Task due by then and moves the wakeup on to the next one.
+ *
+ * The heap always holds every Task due after getRemindedUpTo() up to the last one it read
+ * (its horizon); there may be more after that, still in the table.  As a TaskObserver it
+ * keeps the heap right as Tasks change, without querying again:
+ *
+ *   - a Task added or edited with a due date inside the horizon goes into the heap (the
+ *     latest one drops out if that makes the heap too big, and becomes the new horizon);
+ *     one due beyond the horizon is left in the table until the heap gets to it,
+ *   - a Task whose due date is taken away, or that is done or deleted, leaves the heap,
+ *   - a Task marked not done again is looked up, as the change does not carry its due date,
+ *   - clearing or restoring Tasks, which may change any number of them, reads the heap again.
+ *
+ * Once the heap runs out and there may be more Tasks due, the next ones are read.  The
+ * wakeup is only asked for again when the time of the first Task due changes.
+ *
+ * Time comes from a Clock, the Tasks from a Source, and reminders go to a Listener, so
+ * everything here runs on a plain JVM; ReminderAlarm connects it to AlarmManager and
+ * notifications.  Every method is synchronized: changes arrive on whichever thread made
+ * them, and the alarm on another.
+ */
+public final class ReminderScheduler implements TaskObserver {
+
+    public static final int DEFAULT_CAPACITY = 32;
+
+    // What getWakeupTime() returns when nothing is due
+    public static final long NO_WAKEUP = -1;
+
+    /**
+     * Clock tells the time, in milliseconds since the epoch.
+     */
+    public interface Clock {
+        long currentTimeMillis();
+    }
+
+    public static final Clock SYSTEM_CLOCK = new Clock() {
+        @Override
+        public long currentTimeMillis() {
+            return System.currentTimeMillis();
+        }
+    };
+
+    /**
+     * Source reads Tasks from the table.
+     */
+    public interface Source {
+        /**
+         * getDueTasks() returns up to limit live Tasks that are not done and are due
+         * after ( afterDueAt, afterId ), in ( due time, _id ) order.
+         */
+        List<Task> getDueTasks(long afterDueAt, int afterId, int limit);
+
+        /**
+         * @return the live Task with this _id, or null.
+         */
+        Task getTask(int id);
+    }
+
+    /**
+     * Alarm wakes the scheduler up, by calling onAlarm(), at one time.
+     */
+    public interface Alarm {
+        /**
+         * set() replaces the wakeup there is with one at this time.
+         */
+        void set(long timeMillis);
+
+        /**
+         * cancel() takes the wakeup away.
+         */
+        void cancel();
+    }
+
+    /**
+     * Listener reminds the user.
+     */
+    public interface Listener {
+        /**
+         * onReminders() is given the Tasks that have come due, soonest first, and the time
+         * up to which reminders have now gone out (to be passed to the next
+         * ReminderScheduler made, e.g. after the process restarts, so nothing is repeated).
+         */
+        void onReminders(List<Task> dueTasks, long remindedUpTo);
+    }
+
+    // Soonest first; Tasks due at the same time in _id order, as the query returns them
+    private static final Comparator<Task> DUE_ORDER = new Comparator<Task>() {
+        @Override
+        public int compare(Task a, Task b) {
+            return compareDue(a.getDueAt(), a.getId(), b.getDueAt(), b.getId());
+        }
+    };
+
+    private final Source mSource;
+    private final Clock mClock;
+    private final Alarm mAlarm;
+    private final Listener mListener;
+    private final int mCapacity;
+
+    private final PriorityQueue<Task> mHeap;
+
+    // Every Task due up to here has been reminded of
+    private long mRemindedUpTo;
+
+    // The last Task read into the heap: every Task due up to it is in the heap, unless
+    // mExhausted, in which case every Task due at all is
+    private long mHorizonDueAt;
+    private int mHorizonId;
+    private boolean mExhausted;
+
+    private boolean mStarted;
+    private long mWakeupTime = NO_WAKEUP;
+
+    /**
+     * @param source where the Tasks are read from.
+     * @param clock what time it is.
+     * @param alarm the one wakeup.
+     * @param listener who reminds the user.
+     * @param remindedUpTo the time up to which reminders went out before, or the current
+     *                     time the first time, so Tasks already overdue are not reminded of.
+     */
+    public ReminderScheduler(Source source, Clock clock, Alarm alarm, Listener listener, long remindedUpTo) {
+        this(source, clock, alarm, listener, remindedUpTo, DEFAULT_CAPACITY);
+    }
+
+    public ReminderScheduler(Source source, Clock clock, Alarm alarm, Listener listener, long remindedUpTo,
+                             int capacity) {
+        if (capacity < 1)
+            throw new IllegalArgumentException("Capacity must be at least 1: " + capacity);
+        mSource = source;
+        mClock = clock;
+        mAlarm = alarm;
+        mListener = listener;
+        mCapacity = capacity;
+        mRemindedUpTo = remindedUpTo;
+        mHeap = new PriorityQueue<>(capacity + 1, DUE_ORDER);
+    }
+
+    public int getCapacity() { return mCapacity; }
+
+    /**
+     * @return the time up to which every Task due has been reminded of.
+     */
+    public synchronized long getRemindedUpTo() { return mRemindedUpTo; }
+
+    /**
+     * @return the time the wakeup is set for, or NO_WAKEUP.
+     */
+    public synchronized long getWakeupTime() { return mWakeupTime; }
+
+    /**
+     * @return how many Tasks the heap holds right now.
+     */
+    public synchronized int getQueuedCount() { return mHeap.size(); }
+
+    /**
+     * start() reads the first Tasks due and sets the wakeup.  Changes that arrive before
+     * it are ignored, as it reads everything afresh.
+     */
+    public synchronized void start() {
+        mStarted = true;
+        reload();
+        reschedule();
+    }
+
+    /**
+     * onAlarm() reminds the user of every Task due by now, then sets the wakeup for the
+     * next one.  It is harmless to call it early, or more than once.
+     */
+    public synchronized void onAlarm() {
+        if (!mStarted)
+        {
+            mStarted = true;
+            reload();
+        }
+        long now = mClock.currentTimeMillis();
+        List<Task> due = new ArrayList<>();
+        while (true)
+        {
+            while (!mHeap.isEmpty() && mHeap.peek().getDueAt() <= now)
+                due.add(mHeap.poll());
+            if (!mHeap.isEmpty() || mExhausted)
+                break;
+            // Everything read has come due; there may be more to read that has too
+            readAfter(mHorizonDueAt, mHorizonId);
+        }
+        if (now > mRemindedUpTo)
+            mRemindedUpTo = now;
+        if (!due.isEmpty())
+            mListener.onReminders(due, mRemindedUpTo);
+        // The wakeup that called this is used up, so set one even for the same time
+        mWakeupTime = NO_WAKEUP;
+        reschedule();
+    }
+
+    @Override
+    public synchronized void onTasksChanged(List<TaskChange> changes) {
+        if (!mStarted)
+            return;
+        boolean reload = false;
+        for (TaskChange change : changes)
+        {
+            switch (change.getType())
+            {
+                case TaskChange.INSERTED:
+                case TaskChange.UPDATED:
+                    put(change.getTask());
+                    break;
+                case TaskChange.DONE_CHANGED:
+                    if (change.isDone())
+                        remove(change.getId());
+                    else
+                    {
+                        Task task = mSource.getTask(change.getId());
+                        if (task != null)
+                            put(task);
+                    }
+                    break;
+                case TaskChange.DELETED:
+                    remove(change.getId());
+                    break;
+                case TaskChange.CLEARED:
+                case TaskChange.RESTORED:
+                    reload = true;
+                    break;
+                default:
+                    // Moves don't change when anything is due
+                    break;
+            }
+        }
+        if (reload)
+            reload();
+        else if (mHeap.isEmpty() && !mExhausted)
+            readAfter(mHorizonDueAt, mHorizonId);
+        reschedule();
+    }
+
+    /**
+     * put() brings the heap up to date with a Task's new values.
+     */
+    private void put(Task task) {
+        remove(task.getId());
+        if (task.isDone() || !task.hasDueDate() || task.getDueAt() <= mRemindedUpTo)
+            return;
+        if (!mExhausted && compareDue(task.getDueAt(), task.getId(), mHorizonDueAt, mHorizonId) > 0)
+            return;
+        mHeap.add(copyOf(task));
+        if (mHeap.size() > mCapacity)
+        {
+            // The latest one goes back to being only in the table
+            Task latest = latest();
+            mHeap.remove(latest);
+            Task horizon = latest();
+            mHorizonDueAt = horizon.getDueAt();
+            mHorizonId = horizon.getId();
+            mExhausted = false;
+        }
+    }
+
+    private void remove(int id) {
+        Iterator<Task> tasks = mHeap.iterator();
+        while (tasks.hasNext())
+        {
+            if (tasks.next().getId() == id)
+            {
+                tasks.remove();
+                return;
+            }
+        }
+    }
+
+    /**
+     * latest() finds the Task due last in the heap; a linear scan, as the heap is small.
+     */
+    private Task latest() {
+        Task latest = null;
+        for (Task task : mHeap)
+            if (latest == null || DUE_ORDER.compare(task, latest) > 0)
+                latest = task;
+        return latest;
+    }
+
+    private void reload() {
+        mHeap.clear();
+        readAfter(mRemindedUpTo, Integer.MAX_VALUE);
+    }
+
+    /**
+     * readAfter() reads the next Tasks due after a point into the heap, and moves the
+     * horizon to the last of them.
+     */
+    private void readAfter(long dueAt, int id) {
+        int wanted = mCapacity - mHeap.size();
+        List<Task> tasks = mSource.getDueTasks(dueAt, id, wanted);
+        mHeap.addAll(tasks);
+        mExhausted = tasks.size() < wanted;
+        if (!tasks.isEmpty())
+        {
+            Task last = tasks.get(tasks.size() - 1);
+            mHorizonDueAt = last.getDueAt();
+            mHorizonId = last.getId();
+        }
+        else
+        {
+            mHorizonDueAt = dueAt;
+            mHorizonId = id;
+        }
+    }
+
+    /**
+     * reschedule() sets the wakeup for the first Task due, if that has changed.
+     */
+    private void reschedule() {
+        long next = mHeap.isEmpty() ? NO_WAKEUP : mHeap.peek().getDueAt();
+        if (next == mWakeupTime)
+            return;
+        mWakeupTime = next;
+        if (next == NO_WAKEUP)
+            mAlarm.cancel();
+        else
+            mAlarm.set(next);
+    }
+
+    private static int compareDue(long dueAtA, int idA, long dueAtB, int idB) {
+        if (dueAtA != dueAtB)
+            return dueAtA < dueAtB ? -1 : 1;
+        return idA < idB ? -1 : (idA == idB ? 0 : 1);
+    }
+
+    private static Task copyOf(Task task) {
+        return new Task(task.getId(), task.getDescription(), task.isDone(), task.getDueAt(), task.getListId());
+    }
+}
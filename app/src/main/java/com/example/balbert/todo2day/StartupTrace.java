@@ -0,0 +1,73 @@
+package com.example.balbert.todo2day;
+
+import android.support.v4.os.TraceCompat;
+import android.util.Log;
+
+/**
+ * StartupTrace measures a cold start from the moment the process starts running our code
+ * (ToDo2DayApplication.onCreate) to two milestones:
+ *
+ *   - first frame: the first time the list is drawn, normally showing the FirstScreenSnapshot,
+ *   - full list: the list has been reconciled with the database and is complete.
+ *
+ * Each milestone is logged, recorded in Metrics ("startup.timeToFirstFrameUs" and
+ * "startup.timeToFullListUs") and only counted once per process.  The synchronous steps in
+ * between (creating the Application and MainActivity, reading the snapshot) are wrapped in
+ * trace sections named SECTION_PREFIX + step, so they show up in systrace.
+ */
+final class StartupTrace {
+
+    private static final String TAG = StartupTrace.class.getSimpleName();
+
+    static final String SECTION_PREFIX = "ToDo2Day.";
+
+    private static final Metrics.Histogram FIRST_FRAME = Metrics.histogram("startup.timeToFirstFrameUs");
+    private static final Metrics.Histogram FULL_LIST = Metrics.histogram("startup.timeToFullListUs");
+
+    private static long sProcessStart;
+    private static boolean sFirstFrameMarked;
+    private static boolean sFullListMarked;
+
+    private StartupTrace() { }
+
+    /**
+     * processStarted() notes when startup began.  Called once, as early as possible.
+     */
+    static void processStarted() {
+        sProcessStart = System.nanoTime();
+    }
+
+    static void beginSection(String step) {
+        TraceCompat.beginSection(SECTION_PREFIX + step);
+    }
+
+    static void endSection() {
+        TraceCompat.endSection();
+    }
+
+    /**
+     * firstFrame() marks the first time the list was drawn.
+     */
+    static void firstFrame() {
+        if (sFirstFrameMarked || sProcessStart == 0)
+            return;
+        sFirstFrameMarked = true;
+        record("first frame", FIRST_FRAME);
+    }
+
+    /**
+     * fullList() marks the list as reconciled with the database.
+     */
+    static void fullList() {
+        if (sFullListMarked || sProcessStart == 0)
+            return;
+        sFullListMarked = true;
+        record("full list", FULL_LIST);
+    }
+
+    private static void record(String milestone, Metrics.Histogram histogram) {
+        long nanos = System.nanoTime() - sProcessStart;
+        histogram.record(nanos / 1000);
+        Log.i(TAG, "Time to " + milestone + ": " + nanos / 1000000 + " ms");
+    }
+}
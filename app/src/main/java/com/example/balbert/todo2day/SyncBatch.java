@@ -0,0 +1,178 @@
+package com.example.balbert.todo2day;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * SyncBatch is what one sync request or response carries: some SyncChanges and, coming
+ * back from a pull, where the next pull should start (getCursor()) and whether there is
+ * more to pull right away (hasMore()).
+ *
+ * On the wire a batch is the MAGIC header followed by a gzip stream of:
+ * the cursor (8 bytes), the more flag (1 byte), the number of changes (varint), and then
+ * for each change its uuid as 16 raw bytes, a flags byte (done, deleted, null description),
+ * the description as a varint length and its UTF-8 bytes, and the three field timestamps.
+ * Each timestamp is written as a zigzag varint of its difference from the timestamp written
+ * before it, so the timestamps of changes made close together take a byte or two each
+ * rather than eight.
+ *
+ * A batch only ever holds what changed since the last sync, never the whole list.
+ */
+final class SyncBatch {
+
+    // First bytes of a batch: "T2S" and the format version
+    static final byte[] MAGIC = {'T', '2', 'S', 1};
+
+    private static final int FLAG_DONE = 1;
+    private static final int FLAG_DELETED = 2;
+    private static final int FLAG_NULL_DESCRIPTION = 4;
+
+    private final List<SyncChange> mChanges;
+    private final long mCursor;
+    private final boolean mHasMore;
+
+    SyncBatch(List<SyncChange> changes) {
+        this(changes, 0, false);
+    }
+
+    SyncBatch(List<SyncChange> changes, long cursor, boolean hasMore) {
+        mChanges = Collections.unmodifiableList(changes);
+        mCursor = cursor;
+        mHasMore = hasMore;
+    }
+
+    List<SyncChange> getChanges() { return mChanges; }
+
+    long getCursor() { return mCursor; }
+
+    boolean hasMore() { return mHasMore; }
+
+    /**
+     * writeTo() writes the batch, compressed.  The stream is not closed.
+     * @param out where to write.
+     */
+    void writeTo(OutputStream out) throws IOException {
+        out.write(MAGIC);
+        GZIPOutputStream gzip = new GZIPOutputStream(out);
+        DataOutputStream data = new DataOutputStream(new BufferedOutputStream(gzip));
+        data.writeLong(mCursor);
+        data.writeBoolean(mHasMore);
+        writeVarint(data, mChanges.size());
+        long previousTime = 0;
+        for (SyncChange change : mChanges)
+        {
+            writeUuid(data, change.getUuid());
+            String description = change.getDescription();
+            data.writeByte((change.isDone() ? FLAG_DONE : 0) | (change.isDeleted() ? FLAG_DELETED : 0)
+                    | (description == null ? FLAG_NULL_DESCRIPTION : 0));
+            if (description != null)
+            {
+                byte[] bytes = description.getBytes(TaskWriter.UTF_8);
+                writeVarint(data, bytes.length);
+                data.write(bytes);
+            }
+            writeVarint(data, zigzag(change.getDescriptionTime() - previousTime));
+            writeVarint(data, zigzag(change.getDoneTime() - change.getDescriptionTime()));
+            writeVarint(data, zigzag(change.getDeletedTime() - change.getDoneTime()));
+            previousTime = change.getDeletedTime();
+        }
+        data.flush();
+        gzip.finish();
+    }
+
+    /**
+     * readFrom() reads a batch written by writeTo().  The stream is not closed.
+     * @param in where to read.
+     * @return the batch.
+     * @throws IOException if the stream is not a batch or is cut short.
+     */
+    static SyncBatch readFrom(InputStream in) throws IOException {
+        byte[] magic = new byte[MAGIC.length];
+        new DataInputStream(in).readFully(magic);
+        for (int i = 0; i < MAGIC.length; i++)
+            if (magic[i] != MAGIC[i])
+                throw new IOException("Not a sync batch");
+        DataInputStream data = new DataInputStream(new BufferedInputStream(new GZIPInputStream(in)));
+        long cursor = data.readLong();
+        boolean hasMore = data.readBoolean();
+        int count = (int) readVarint(data);
+        List<SyncChange> changes = new ArrayList<>(Math.min(count, 4096));
+        long previousTime = 0;
+        for (int i = 0; i < count; i++)
+        {
+            String uuid = readUuid(data);
+            int flags = data.readUnsignedByte();
+            String description = null;
+            if ((flags & FLAG_NULL_DESCRIPTION) == 0)
+            {
+                byte[] bytes = new byte[(int) readVarint(data)];
+                data.readFully(bytes);
+                description = new String(bytes, TaskWriter.UTF_8);
+            }
+            long descriptionTime = previousTime + unzigzag(readVarint(data));
+            long doneTime = descriptionTime + unzigzag(readVarint(data));
+            long deletedTime = doneTime + unzigzag(readVarint(data));
+            previousTime = deletedTime;
+            changes.add(new SyncChange(uuid, description, descriptionTime,
+                    (flags & FLAG_DONE) != 0, doneTime, (flags & FLAG_DELETED) != 0, deletedTime));
+        }
+        return new SyncBatch(changes, cursor, hasMore);
+    }
+
+    private static void writeUuid(DataOutputStream out, String uuid) throws IOException {
+        if (uuid.length() != 32)
+            throw new IllegalArgumentException("Not a uuid: " + uuid);
+        for (int i = 0; i < 32; i += 2)
+            out.writeByte(Character.digit(uuid.charAt(i), 16) << 4 | Character.digit(uuid.charAt(i + 1), 16));
+    }
+
+    private static String readUuid(DataInputStream in) throws IOException {
+        char[] hex = new char[32];
+        for (int i = 0; i < 32; i += 2)
+        {
+            int b = in.readUnsignedByte();
+            hex[i] = Character.forDigit(b >> 4, 16);
+            hex[i + 1] = Character.forDigit(b & 0xF, 16);
+        }
+        return new String(hex);
+    }
+
+    private static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private static void writeVarint(DataOutputStream out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0)
+        {
+            out.writeByte((int) (value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    private static long readVarint(DataInputStream in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7)
+        {
+            int b = in.readUnsignedByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0)
+                return value;
+        }
+        throw new IOException("Malformed varint");
+    }
+}
@@ -0,0 +1,137 @@
+package com.example.balbert.todo2day;
+
+/**
+ * SyncChange is one Task as it travels between a device and the sync server: its values,
+ * and for each value the time it was last set.
+ *
+ * A Task is known everywhere by its uuid (32 lowercase hex digits), since each device
+ * numbers its own _ids.  Every field carries its own timestamp, so edits made on two
+ * devices to different fields of the same Task both survive; see merge().
+ *
+ * getSeq() and getId() only mean something on the side that made the SyncChange: on a
+ * device they are the row's change sequence number and _id, which the push pages through;
+ * on the server the sequence number the pull pages through.  Neither is sent.
+ */
+final class SyncChange {
+
+    private final String mUuid;
+    private final String mDescription;
+    private final long mDescriptionTime;
+    private final boolean mDone;
+    private final long mDoneTime;
+    private final boolean mDeleted;
+    private final long mDeletedTime;
+    private final long mSeq;
+    private final int mId;
+
+    SyncChange(String uuid, String description, long descriptionTime, boolean done, long doneTime,
+               boolean deleted, long deletedTime) {
+        this(uuid, description, descriptionTime, done, doneTime, deleted, deletedTime, 0, 0);
+    }
+
+    SyncChange(String uuid, String description, long descriptionTime, boolean done, long doneTime,
+               boolean deleted, long deletedTime, long seq, int id) {
+        mUuid = uuid;
+        mDescription = description;
+        mDescriptionTime = descriptionTime;
+        mDone = done;
+        mDoneTime = doneTime;
+        mDeleted = deleted;
+        mDeletedTime = deletedTime;
+        mSeq = seq;
+        mId = id;
+    }
+
+    String getUuid() { return mUuid; }
+
+    String getDescription() { return mDescription; }
+
+    long getDescriptionTime() { return mDescriptionTime; }
+
+    boolean isDone() { return mDone; }
+
+    long getDoneTime() { return mDoneTime; }
+
+    boolean isDeleted() { return mDeleted; }
+
+    long getDeletedTime() { return mDeletedTime; }
+
+    long getSeq() { return mSeq; }
+
+    int getId() { return mId; }
+
+    /**
+     * withSeq() returns the same values with other bookkeeping numbers.
+     */
+    SyncChange withSeq(long seq, int id) {
+        return new SyncChange(mUuid, mDescription, mDescriptionTime, mDone, mDoneTime,
+                mDeleted, mDeletedTime, seq, id);
+    }
+
+    /**
+     * merge() resolves two versions of the same Task field by field: for each field the
+     * value set last wins.  When both were set at the same millisecond the greater value
+     * wins, so every device and the server pick the same one whichever way round they
+     * merge.
+     *
+     * @param mine the version already here; its seq and _id are kept.
+     * @param theirs the version that arrived.
+     * @return the merged version, or mine itself if theirs changes nothing.
+     */
+    static SyncChange merge(SyncChange mine, SyncChange theirs) {
+        boolean description = wins(theirs.mDescriptionTime, compare(theirs.mDescription, mine.mDescription),
+                mine.mDescriptionTime);
+        boolean done = wins(theirs.mDoneTime, compare(theirs.mDone, mine.mDone), mine.mDoneTime);
+        boolean deleted = wins(theirs.mDeletedTime, compare(theirs.mDeleted, mine.mDeleted),
+                mine.mDeletedTime);
+        if (!description && !done && !deleted)
+            return mine;
+        return new SyncChange(mine.mUuid,
+                description ? theirs.mDescription : mine.mDescription,
+                description ? theirs.mDescriptionTime : mine.mDescriptionTime,
+                done ? theirs.mDone : mine.mDone,
+                done ? theirs.mDoneTime : mine.mDoneTime,
+                deleted ? theirs.mDeleted : mine.mDeleted,
+                deleted ? theirs.mDeletedTime : mine.mDeletedTime,
+                mine.mSeq, mine.mId);
+    }
+
+    /**
+     * wins() is true if their value should replace mine: it was set later, or at the same
+     * time and is greater.  An identical value never wins, so merging is idempotent.
+     */
+    private static boolean wins(long theirTime, int comparison, long myTime) {
+        if (comparison == 0)
+            return theirTime > myTime;
+        return theirTime > myTime || (theirTime == myTime && comparison > 0);
+    }
+
+    // Boolean.compare() only arrived in API 19
+    private static int compare(boolean a, boolean b) {
+        return a == b ? 0 : (a ? 1 : -1);
+    }
+
+    private static int compare(String a, String b) {
+        if (a == null)
+            return b == null ? 0 : -1;
+        return b == null ? 1 : a.compareTo(b);
+    }
+
+    /**
+     * sameValues() is true if both have the same uuid, values and timestamps, whatever
+     * their seq and _id.
+     */
+    boolean sameValues(SyncChange other) {
+        return mUuid.equals(other.mUuid)
+                && compare(mDescription, other.mDescription) == 0
+                && mDescriptionTime == other.mDescriptionTime
+                && mDone == other.mDone && mDoneTime == other.mDoneTime
+                && mDeleted == other.mDeleted && mDeletedTime == other.mDeletedTime;
+    }
+
+    @Override
+    public String toString() {
+        return "SyncChange{" + mUuid + " \"" + mDescription + "\"@" + mDescriptionTime
+                + " done=" + mDone + "@" + mDoneTime + " deleted=" + mDeleted + "@" + mDeletedTime + "}";
+    }
+}
@@ -0,0 +1,329 @@
+package com.example.balbert.todo2day;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * SyncEngine keeps a device's Tasks in step with a sync server, sending and fetching only
+ * what changed.
+ *
+ * A sync is a push followed by a pull:
+ *
+ * The push sends every row whose change sequence number is above the last one pushed,
+ * tombstones included, BATCH_SIZE rows per request (POST push?device=...).  The server
+ * merges each row into its copy field by field (SyncChange.merge()).
+ *
+ * The pull then fetches, from the server's cursor onwards, the rows other devices changed
+ * (GET pull?device=...&since=...&limit=...), BATCH_SIZE per request until the server says
+ * there is no more, and merges them into the local rows the same way.  Rows this device
+ * pushed and that the server took as they were are not sent back.
+ *
+ * Every request and response body is a SyncBatch, gzip compressed.  How many bytes each
+ * sync sent and received (bodies only) is returned in its Result and recorded in Metrics
+ * ("sync.bytesSent", "sync.bytesReceived").
+ *
+ * A request that fails to connect, times out or gets a 5xx or 429 answer is retried up to
+ * MAX_ATTEMPTS times in all, waiting INITIAL_BACKOFF_MS, then twice as long each time (up
+ * to MAX_BACKOFF_MS), with random jitter so devices that failed together don't all retry
+ * together.  Any other answer fails the sync straight away.  Both sides merge the same way
+ * whatever order changes arrive in, so a batch sent twice does no harm, and a sync that
+ * fails part way simply carries on from its last recorded position next time.
+ *
+ * sync() does network I/O and blocks; TaskRepository runs it on a thread of its own.
+ */
+public final class SyncEngine {
+
+    public static final int BATCH_SIZE = 500;
+    public static final int MAX_ATTEMPTS = 5;
+    public static final long INITIAL_BACKOFF_MS = 500;
+    public static final long MAX_BACKOFF_MS = 30000;
+
+    static final String CONTENT_TYPE = "application/x-todo2day-sync";
+
+    private static final int CONNECT_TIMEOUT_MS = 15000;
+    private static final int READ_TIMEOUT_MS = 30000;
+
+    private static final Metrics.Timer SYNC_TIMER = Metrics.timer("sync.sync");
+    private static final Metrics.Histogram BYTES_SENT = Metrics.histogram("sync.bytesSent");
+    private static final Metrics.Histogram BYTES_RECEIVED = Metrics.histogram("sync.bytesReceived");
+    private static final Metrics.Counter RETRIES = Metrics.counter("sync.retries");
+
+    /**
+     * Sleeper waits between attempts; tests replace it to avoid really waiting.
+     */
+    interface Sleeper {
+        void sleep(long millis) throws InterruptedException;
+    }
+
+    private static final Sleeper THREAD_SLEEPER = new Sleeper() {
+        @Override
+        public void sleep(long millis) throws InterruptedException {
+            Thread.sleep(millis);
+        }
+    };
+
+    /**
+     * Result says what one sync did.
+     */
+    public static final class Result {
+        private int mPushed;
+        private int mPulled;
+        private int mRequests;
+        private int mRetries;
+        private long mBytesSent;
+        private long mBytesReceived;
+
+        /** @return the rows sent to the server. */
+        public int getPushed() { return mPushed; }
+
+        /** @return the rows fetched from the server. */
+        public int getPulled() { return mPulled; }
+
+        /** @return the requests that succeeded. */
+        public int getRequests() { return mRequests; }
+
+        /** @return the attempts that failed and were retried. */
+        public int getRetries() { return mRetries; }
+
+        /** @return the compressed bytes sent, bodies only. */
+        public long getBytesSent() { return mBytesSent; }
+
+        /** @return the compressed bytes received, bodies only. */
+        public long getBytesReceived() { return mBytesReceived; }
+
+        @Override
+        public String toString() {
+            return "pushed " + mPushed + " pulled " + mPulled + " in " + mRequests + " requests ("
+                    + mRetries + " retries), " + mBytesSent + " bytes sent, "
+                    + mBytesReceived + " bytes received";
+        }
+    }
+
+    /**
+     * HttpStatusException is an answer other than 200 OK.
+     */
+    static final class HttpStatusException extends IOException {
+        private final int mStatus;
+
+        HttpStatusException(int status) {
+            super("Sync server answered " + status);
+            mStatus = status;
+        }
+
+        int getStatus() { return mStatus; }
+
+        boolean isRetryable() { return mStatus >= 500 || mStatus == 429; }
+    }
+
+    private final SyncStore mStore;
+    private final String mServer;
+    private final Sleeper mSleeper;
+    private final Random mRandom;
+
+    /**
+     * @param store the device's rows.
+     * @param server the sync server's base URL, e.g. https://example.com/sync/
+     */
+    public SyncEngine(SyncStore store, URL server) {
+        this(store, server, THREAD_SLEEPER, new Random());
+    }
+
+    SyncEngine(SyncStore store, URL server, Sleeper sleeper, Random random) {
+        mStore = store;
+        String base = server.toString();
+        mServer = base.endsWith("/") ? base : base + "/";
+        mSleeper = sleeper;
+        mRandom = random;
+    }
+
+    /**
+     * sync() pushes local changes and then pulls remote ones.
+     * @return what was done.
+     * @throws IOException if a request still failed after every retry.
+     */
+    public synchronized Result sync() throws IOException {
+        long start = SYNC_TIMER.start();
+        Result result = new Result();
+        try {
+            push(result);
+            pull(result);
+        } finally {
+            BYTES_SENT.record(result.mBytesSent);
+            BYTES_RECEIVED.record(result.mBytesReceived);
+            SYNC_TIMER.stop(start);
+        }
+        return result;
+    }
+
+    private void push(Result result) throws IOException {
+        String device = mStore.getDeviceId();
+        // Rows at the pushed seq itself went out last time, and rows at seq 0 were pulled and
+        // never changed here, so start after all of them
+        long seq = mStore.getPushedSeq();
+        int id = Integer.MAX_VALUE;
+        while (true)
+        {
+            List<SyncChange> changes = mStore.getChangesAfter(seq, id, BATCH_SIZE);
+            if (changes.isEmpty())
+                break;
+            exchange("push?device=" + device, new SyncBatch(changes), result);
+            result.mPushed += changes.size();
+            SyncChange last = changes.get(changes.size() - 1);
+            seq = last.getSeq();
+            id = last.getId();
+            if (changes.size() < BATCH_SIZE)
+                break;
+        }
+        // Recorded even when nothing was pushed: from now on, tombstones are only purged
+        // once they have been pushed
+        mStore.setPushedSeq(seq);
+    }
+
+    private void pull(Result result) throws IOException {
+        String device = mStore.getDeviceId();
+        long cursor = mStore.getPullCursor();
+        while (true)
+        {
+            SyncBatch batch = exchange("pull?device=" + device + "&since=" + cursor
+                    + "&limit=" + BATCH_SIZE, null, result);
+            if (!batch.getChanges().isEmpty())
+                mStore.applyRemoteChanges(batch.getChanges());
+            result.mPulled += batch.getChanges().size();
+            cursor = batch.getCursor();
+            mStore.setPullCursor(cursor);
+            if (!batch.hasMore())
+                break;
+        }
+    }
+
+    /**
+     * exchange() makes one request, retrying with backoff as needed.
+     * @param path the request's path and query, relative to the server's URL.
+     * @param body what to POST, or null to GET.
+     * @return the batch that came back, or null for a POST.
+     */
+    private SyncBatch exchange(String path, SyncBatch body, Result result) throws IOException {
+        URL url = new URL(mServer + path);
+        for (int attempt = 0; ; attempt++)
+        {
+            try {
+                SyncBatch response = attempt(url, body, result);
+                result.mRequests++;
+                return response;
+            } catch (IOException e) {
+                if (e instanceof HttpStatusException && !((HttpStatusException) e).isRetryable())
+                    throw e;
+                if (attempt + 1 >= MAX_ATTEMPTS)
+                    throw e;
+                result.mRetries++;
+                RETRIES.increment();
+                try {
+                    mSleeper.sleep(backoffMillis(attempt, mRandom));
+                } catch (InterruptedException interrupted) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Sync interrupted");
+                }
+            }
+        }
+    }
+
+    private SyncBatch attempt(URL url, SyncBatch body, Result result) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        try {
+            connection.setConnectTimeout(CONNECT_TIMEOUT_MS);
+            connection.setReadTimeout(READ_TIMEOUT_MS);
+            if (body != null)
+            {
+                // Encoded up front so the length is known and nothing is chunked
+                ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+                body.writeTo(encoded);
+                connection.setRequestMethod("POST");
+                connection.setDoOutput(true);
+                connection.setRequestProperty("Content-Type", CONTENT_TYPE);
+                connection.setFixedLengthStreamingMode(encoded.size());
+                OutputStream out = connection.getOutputStream();
+                try {
+                    encoded.writeTo(out);
+                } finally {
+                    out.close();
+                }
+                result.mBytesSent += encoded.size();
+            }
+
+            int status = connection.getResponseCode();
+            if (status != HttpURLConnection.HTTP_OK)
+                throw new HttpStatusException(status);
+
+            CountingInputStream in = new CountingInputStream(connection.getInputStream());
+            try {
+                SyncBatch response = body == null ? SyncBatch.readFrom(in) : null;
+                // Read to the end so the connection can be reused
+                byte[] skip = new byte[512];
+                while (in.read(skip) != -1) { }
+                return response;
+            } finally {
+                in.close();
+                result.mBytesReceived += in.getCount();
+            }
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    /**
+     * backoffMillis() is how long to wait after a failed attempt: INITIAL_BACKOFF_MS
+     * doubled for each earlier failure, at most MAX_BACKOFF_MS, of which a random part
+     * (up to half) is taken off.
+     * @param attempt how many attempts had failed before this one, from 0.
+     * @param random where the jitter comes from.
+     * @return the wait in milliseconds.
+     */
+    static long backoffMillis(int attempt, Random random) {
+        long delay = Math.min(MAX_BACKOFF_MS, INITIAL_BACKOFF_MS << Math.min(attempt, 16));
+        return delay - (long) (random.nextDouble() * (delay / 2));
+    }
+
+    /**
+     * CountingInputStream counts the bytes read through it.
+     */
+    private static final class CountingInputStream extends FilterInputStream {
+        private long mCount;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b != -1)
+                mCount++;
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int read = super.read(buffer, offset, length);
+            if (read > 0)
+                mCount += read;
+            return read;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            mCount += skipped;
+            return skipped;
+        }
+
+        long getCount() { return mCount; }
+    }
+}
@@ -0,0 +1,48 @@
+package com.example.balbert.todo2day;
+
+import java.util.List;
+
+/**
+ * SyncStore is the device's side of a sync, as SyncEngine sees it: the rows changed since
+ * the last push, a way to merge in what was pulled, and the little state a sync keeps
+ * between runs.  DBSyncStore implements it over DBHelper.
+ */
+interface SyncStore {
+
+    /**
+     * @return the id this device syncs as, the same every time.
+     */
+    String getDeviceId();
+
+    /**
+     * @return the sequence number up to which every change has been pushed, 0 at first.
+     */
+    long getPushedSeq();
+
+    /**
+     * setPushedSeq() records that every change up to seq has been pushed.
+     */
+    void setPushedSeq(long seq);
+
+    /**
+     * @return the server's cursor the next pull starts from, 0 at first.
+     */
+    long getPullCursor();
+
+    /**
+     * setPullCursor() records where the next pull starts from.
+     */
+    void setPullCursor(long cursor);
+
+    /**
+     * getChangesAfter() returns up to limit changed rows, tombstones included, ordered by
+     * ( seq, _id ) and following ( afterSeq, afterId ) in that order.
+     */
+    List<SyncChange> getChangesAfter(long afterSeq, int afterId, int limit);
+
+    /**
+     * applyRemoteChanges() merges pulled changes into the local rows (see
+     * SyncChange.merge()), all in one transaction, without making them changes to push.
+     */
+    void applyRemoteChanges(List<SyncChange> changes);
+}
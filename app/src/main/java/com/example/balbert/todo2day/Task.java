@@ -7,9 +7,13 @@ package com.example.balbert.todo2day;
  * or have been completed.  Each task is represented by a Task object.
  *
  * Task's have an id, a description and keep track of whether they are done or not.
+ * A Task may also be due at a certain time (getDueAt(), in milliseconds since the epoch,
+ * or NO_DUE_DATE), which is when ReminderScheduler reminds the user of it.  Every Task
+ * belongs to one of the user's named lists (getListId()); unless told otherwise, the
+ * first one, DEFAULT_LIST_ID.
  *
- * There are three constructors.  The first constructor takes all three private
- * member variables as its parameters.  The second constructor takes two parameters,
+ * There are three constructors, plus two that also take the due time and the list.  The first
+ * constructor takes the id, description and done state as its parameters.  The second constructor takes two parameters,
  * the excluded parameter is the id.  We want the database helper class to determine
  * the id for us.  The third constructor is a default constructor.  It takes no parameters
  * and assigns -1 for the id, empty string for the description and false for if it's done.
@@ -24,9 +28,18 @@ package com.example.balbert.todo2day;
  * Created by balbert on 9/28/2017.
  */
 public class Task {
+
+    // getDueAt() of a Task with no due date
+    public static final long NO_DUE_DATE = 0;
+
+    // getListId() of a Task in the first list, which every database has
+    public static final int DEFAULT_LIST_ID = 1;
+
     private int mId;
     private String mDescription;
     private boolean mIsDone;
+    private long mDueAt;
+    private int mListId;
 
     /**
      * Task has three constructors. This is the 3 parameter version.
@@ -35,9 +48,34 @@ public class Task {
      * @param isDone
      */
     public Task(int id, String description, boolean isDone) {
+        this( id, description, isDone, NO_DUE_DATE );
+    }
+
+    /**
+     * This version also takes the time the Task is due.
+     * @param id
+     * @param description
+     * @param isDone
+     * @param dueAt milliseconds since the epoch, or NO_DUE_DATE.
+     */
+    public Task(int id, String description, boolean isDone, long dueAt) {
+        this( id, description, isDone, dueAt, DEFAULT_LIST_ID );
+    }
+
+    /**
+     * This version also takes the list the Task is in.
+     * @param id
+     * @param description
+     * @param isDone
+     * @param dueAt milliseconds since the epoch, or NO_DUE_DATE.
+     * @param listId the _id of the list.
+     */
+    public Task(int id, String description, boolean isDone, long dueAt, int listId) {
         mId = id;
         mDescription = description;
         mIsDone = isDone;
+        mDueAt = dueAt;
+        mListId = listId;
     }
 
     /**
@@ -89,6 +127,37 @@ public class Task {
      */
     public void setDone(boolean done) { mIsDone = done; }
 
+    /**
+     *
+     * @return when the Task is due, in milliseconds since the epoch, or NO_DUE_DATE.
+     */
+    public long getDueAt() { return mDueAt; }
+
+    /**
+     *
+     * @param dueAt when the Task is due, in milliseconds since the epoch, or NO_DUE_DATE
+     *              to take its due date away.
+     */
+    public void setDueAt(long dueAt) { mDueAt = dueAt; }
+
+    /**
+     *
+     * @return true if the Task has a due date.
+     */
+    public boolean hasDueDate() { return getDueAt() != NO_DUE_DATE; }
+
+    /**
+     *
+     * @return the _id of the list the Task is in.
+     */
+    public int getListId() { return mListId; }
+
+    /**
+     *
+     * @param listId the _id of the list the Task goes in.
+     */
+    public void setListId(int listId) { mListId = listId; }
+
     /**
      * Override the toString() method so that when a Task object is logged
      * we can view the state of its member variables rather than its memory address.
@@ -98,9 +167,11 @@ public class Task {
     @Override
     public String toString() {
         return "Task{" +
-                "id=" + mId +
-                ", description='" + mDescription + '\'' +
-                ", isDone=" + mIsDone +
+                "id=" + getId() +
+                ", description='" + getDescription() + '\'' +
+                ", isDone=" + isDone() +
+                ", dueAt=" + getDueAt() +
+                ", listId=" + getListId() +
                 '}';
     }
 }
@@ -0,0 +1,347 @@
+package com.example.balbert.todo2day;
+
+import java.nio.charset.Charset;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * TaskArray is a compact, struct-of-arrays list of Tasks for holding a large number of
+ * them in memory.
+ *
+ * An ArrayList of Tasks costs a Task object, a String and its char array for every row,
+ * each with its own object header.  TaskArray keeps the same data in a few flat arrays
+ * instead:
+ *
+ *   - the ids in an int[],
+ *   - the done flags in a BitSet (one bit per Task),
+ *   - every description's characters one after another in a single shared byte[],
+ *     with an int[] of where each one starts and an int[] of its length (-1 for null),
+ *   - the due times in a long[], which is only allocated once a row has a due date, as
+ *     most Tasks have none,
+ *   - the list ids in an int[], likewise only allocated once a row is in a list other
+ *     than the first,
+ *
+ * so a million Tasks are a handful of objects however many rows there are, and the
+ * garbage collector has almost nothing to trace.
+ *
+ * Most descriptions only use Latin-1 characters, so those are stored one byte per
+ * character; a description with any other character is stored two bytes per character
+ * and flagged in a second BitSet.  (A Java String on Android always spends two bytes per
+ * character, plus its own header and the header of its char[].)
+ *
+ * TaskArray is a List of Tasks, so it can be handed to anything that takes one.  get()
+ * returns a small flyweight Task that reads and writes through to the arrays; it is
+ * created on demand and may be thrown away as soon as the caller is done with it.  Its
+ * description String is only built when asked for.
+ *
+ * Descriptions changed with setDescription() are appended to the end of the buffer and the
+ * old characters are left unused, so TaskArray suits lists that are mostly read.
+ */
+public class TaskArray extends AbstractList<Task> {
+
+    // Descriptions whose characters all fit in one byte are decoded as Latin-1
+    private static final Charset LATIN_1 = Charset.forName("ISO-8859-1");
+
+    // Starting capacity (rows) and average description length (chars) when none is given
+    public static final int DEFAULT_CAPACITY = 16;
+    public static final int DEFAULT_DESCRIPTION_LENGTH = 32;
+
+    private int[] mIds;
+    private final BitSet mDone = new BitSet();
+    private final BitSet mWide = new BitSet();
+    private int[] mStarts;
+    private int[] mLengths;
+    private long[] mDueAts;
+    private int[] mListIds;
+    private byte[] mBytes;
+    private int mByteCount;
+    private int mSize;
+
+    public TaskArray() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param capacity how many Tasks to make room for up front.
+     */
+    public TaskArray(int capacity) {
+        capacity = Math.max(capacity, 1);
+        mIds = new int[capacity];
+        mStarts = new int[capacity];
+        mLengths = new int[capacity];
+        mBytes = new byte[capacity * DEFAULT_DESCRIPTION_LENGTH];
+    }
+
+    @Override
+    public int size() { return mSize; }
+
+    /**
+     * add() copies a Task's values into the arrays.  The Task itself is not kept.
+     * @return true, as required by List.
+     */
+    @Override
+    public boolean add(Task task) {
+        add(task.getId(), task.getDescription(), task.isDone());
+        if (task.hasDueDate())
+            setDueAt(mSize - 1, task.getDueAt());
+        if (task.getListId() != Task.DEFAULT_LIST_ID)
+            setListId(mSize - 1, task.getListId());
+        return true;
+    }
+
+    /**
+     * add() appends a row.
+     * @param id the Task's id.
+     * @param description the description, which may be null.
+     * @param done whether the Task is done.
+     */
+    public void add(int id, String description, boolean done) {
+        int index = appendRow(id, done);
+        storeDescription(index, description);
+    }
+
+    /**
+     * add() appends a row whose description is given as characters, e.g. straight from a
+     * Cursor's CharArrayBuffer, so no String is created for it.
+     * @param id the Task's id.
+     * @param chars holds the description.
+     * @param length how many of chars make up the description.
+     * @param done whether the Task is done.
+     */
+    public void add(int id, char[] chars, int length, boolean done) {
+        int index = appendRow(id, done);
+        boolean wide = false;
+        for (int i = 0; i < length && !wide; i++)
+            wide = chars[i] > 0xFF;
+        int start = reserveBytes(wide ? length * 2 : length);
+        mStarts[index] = start;
+        mLengths[index] = length;
+        mWide.set(index, wide);
+        for (int i = 0; i < length; i++)
+            start = putChar(chars[i], start, wide);
+    }
+
+    /**
+     * get() returns a flyweight Task for the row at index.  Changes made through it are
+     * written to this TaskArray.
+     */
+    @Override
+    public Task get(int index) {
+        checkIndex(index);
+        return new Row(this, index);
+    }
+
+    public int getId(int index) {
+        checkIndex(index);
+        return mIds[index];
+    }
+
+    public boolean isDone(int index) {
+        checkIndex(index);
+        return mDone.get(index);
+    }
+
+    public void setDone(int index, boolean done) {
+        checkIndex(index);
+        mDone.set(index, done);
+    }
+
+    /**
+     * @return when the row's Task is due, or Task.NO_DUE_DATE.
+     */
+    public long getDueAt(int index) {
+        checkIndex(index);
+        return mDueAts == null ? Task.NO_DUE_DATE : mDueAts[index];
+    }
+
+    public void setDueAt(int index, long dueAt) {
+        checkIndex(index);
+        if (mDueAts == null)
+        {
+            if (dueAt == Task.NO_DUE_DATE)
+                return;
+            mDueAts = new long[mIds.length];
+        }
+        mDueAts[index] = dueAt;
+    }
+
+    /**
+     * @return the _id of the list the row's Task is in.
+     */
+    public int getListId(int index) {
+        checkIndex(index);
+        return mListIds == null ? Task.DEFAULT_LIST_ID : mListIds[index];
+    }
+
+    public void setListId(int index, int listId) {
+        checkIndex(index);
+        if (mListIds == null)
+        {
+            if (listId == Task.DEFAULT_LIST_ID)
+                return;
+            mListIds = new int[mIds.length];
+            Arrays.fill(mListIds, Task.DEFAULT_LIST_ID);
+        }
+        mListIds[index] = listId;
+    }
+
+    /**
+     * getDescription() builds the description String of a row.
+     * @return the description, or null if it was null.
+     */
+    public String getDescription(int index) {
+        checkIndex(index);
+        int length = mLengths[index];
+        if (length < 0)
+            return null;
+        int start = mStarts[index];
+        if (!mWide.get(index))
+            return new String(mBytes, start, length, LATIN_1);
+        char[] chars = new char[length];
+        for (int i = 0; i < length; i++, start += 2)
+            chars[i] = (char) (((mBytes[start] & 0xFF) << 8) | (mBytes[start + 1] & 0xFF));
+        return new String(chars);
+    }
+
+    public void setDescription(int index, String description) {
+        checkIndex(index);
+        storeDescription(index, description);
+    }
+
+    /**
+     * trimToSize() shrinks the arrays to exactly what the rows use.
+     */
+    public void trimToSize() {
+        mIds = Arrays.copyOf(mIds, Math.max(mSize, 1));
+        mStarts = Arrays.copyOf(mStarts, Math.max(mSize, 1));
+        mLengths = Arrays.copyOf(mLengths, Math.max(mSize, 1));
+        if (mDueAts != null)
+            mDueAts = Arrays.copyOf(mDueAts, Math.max(mSize, 1));
+        if (mListIds != null)
+            mListIds = Arrays.copyOf(mListIds, Math.max(mSize, 1));
+        mBytes = Arrays.copyOf(mBytes, Math.max(mByteCount, 1));
+    }
+
+    @Override
+    public void clear() {
+        mSize = 0;
+        mByteCount = 0;
+        mDueAts = null;
+        mListIds = null;
+        mDone.clear();
+        mWide.clear();
+        modCount++;
+    }
+
+    private int appendRow(int id, boolean done) {
+        if (mSize == mIds.length)
+        {
+            int capacity = mSize + (mSize >> 1) + 1;
+            mIds = Arrays.copyOf(mIds, capacity);
+            mStarts = Arrays.copyOf(mStarts, capacity);
+            mLengths = Arrays.copyOf(mLengths, capacity);
+            if (mDueAts != null)
+                mDueAts = Arrays.copyOf(mDueAts, capacity);
+            if (mListIds != null)
+                mListIds = Arrays.copyOf(mListIds, capacity);
+        }
+        int index = mSize++;
+        mIds[index] = id;
+        if (mDueAts != null)
+            mDueAts[index] = Task.NO_DUE_DATE;
+        if (mListIds != null)
+            mListIds[index] = Task.DEFAULT_LIST_ID;
+        mDone.set(index, done);
+        modCount++;
+        return index;
+    }
+
+    /**
+     * storeDescription() appends a description to the buffer and points the row at it.
+     */
+    private void storeDescription(int index, String description) {
+        if (description == null)
+        {
+            mLengths[index] = -1;
+            mWide.clear(index);
+            return;
+        }
+        int length = description.length();
+        boolean wide = false;
+        for (int i = 0; i < length && !wide; i++)
+            wide = description.charAt(i) > 0xFF;
+        int start = reserveBytes(wide ? length * 2 : length);
+        mStarts[index] = start;
+        mLengths[index] = length;
+        mWide.set(index, wide);
+        for (int i = 0; i < length; i++)
+            start = putChar(description.charAt(i), start, wide);
+    }
+
+    /**
+     * putChar() writes one character at position, as one byte or (if wide) two.
+     * @return the position after it.
+     */
+    private int putChar(char c, int position, boolean wide) {
+        if (wide)
+            mBytes[position++] = (byte) (c >> 8);
+        mBytes[position++] = (byte) c;
+        return position;
+    }
+
+    private int reserveBytes(int length) {
+        if (mByteCount + length > mBytes.length)
+            mBytes = Arrays.copyOf(mBytes, Math.max(mByteCount + length, mBytes.length + (mBytes.length >> 1)));
+        int start = mByteCount;
+        mByteCount += length;
+        return start;
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= mSize)
+            throw new IndexOutOfBoundsException("Index " + index + ", size " + mSize);
+    }
+
+    /**
+     * Row is the flyweight Task returned by get(): just a reference to the TaskArray and
+     * a row index.  Task's own fields are left at their defaults and never used.
+     */
+    private static final class Row extends Task {
+        private final TaskArray mArray;
+        private final int mIndex;
+
+        Row(TaskArray array, int index) {
+            super(-1, null, false);
+            mArray = array;
+            mIndex = index;
+        }
+
+        @Override
+        public int getId() { return mArray.getId(mIndex); }
+
+        @Override
+        public String getDescription() { return mArray.getDescription(mIndex); }
+
+        @Override
+        public void setDescription(String description) { mArray.setDescription(mIndex, description); }
+
+        @Override
+        public boolean isDone() { return mArray.isDone(mIndex); }
+
+        @Override
+        public void setDone(boolean done) { mArray.setDone(mIndex, done); }
+
+        @Override
+        public long getDueAt() { return mArray.getDueAt(mIndex); }
+
+        @Override
+        public void setDueAt(long dueAt) { mArray.setDueAt(mIndex, dueAt); }
+
+        @Override
+        public int getListId() { return mArray.getListId(mIndex); }
+
+        @Override
+        public void setListId(int listId) { mArray.setListId(mIndex, listId); }
+    }
+}
@@ -0,0 +1,239 @@
+package com.example.balbert.todo2day;
+
+import java.util.Arrays;
+
+/**
+ * TaskCache keeps recently used Tasks in memory, looked up by id, so that DBHelper can
+ * answer getSingleTask() without running a query.
+ *
+ * The index is built from plain int arrays rather than a Map<Integer, Task>, so a lookup
+ * never boxes the id.  Each cached Task sits in an entry slot; a bucket array hashes ids
+ * to the first slot of a chain, and every slot also sits in a doubly linked list ordered
+ * from most to least recently used.  When the cache is full the least recently used Task
+ * is evicted.
+ *
+ * The cache stores its own copies of Tasks and hands out copies, so a Task being changed
+ * by the UI can never change what the cache (and therefore the database) holds.
+ *
+ * Hits and misses are counted so it is easy to check that point lookups stay off the disk.
+ */
+public class TaskCache {
+
+    private static final int NONE = -1;
+
+    private int mMaxSize;
+    private int mSize;
+
+    // Hash buckets: index of the first slot in each chain
+    private int[] mBuckets;
+
+    // Per slot: the Task's id, the Task, the next slot in the same chain,
+    // and the neighbours in the recency list
+    private int[] mIds;
+    private Task[] mTasks;
+    private int[] mChainNext;
+    private int[] mNewer;
+    private int[] mOlder;
+
+    // Most and least recently used slots, and the first free slot
+    private int mNewest = NONE;
+    private int mOldest = NONE;
+    private int mFree;
+
+    private long mHitCount;
+    private long mMissCount;
+
+    /**
+     * @param maxSize the most Tasks the cache may hold.
+     */
+    public TaskCache(int maxSize) {
+        allocate(maxSize);
+    }
+
+    /**
+     * get() returns a copy of the cached Task with this id and marks it most recently used.
+     * @param id the Task's id.
+     * @return a copy of the Task, or null if it is not cached.
+     */
+    public synchronized Task get(int id) {
+        int slot = find(id);
+        if (slot == NONE)
+        {
+            mMissCount++;
+            return null;
+        }
+        mHitCount++;
+        moveToNewest(slot);
+        return copyOf(mTasks[slot]);
+    }
+
+    /**
+     * put() caches a copy of a Task, replacing any cached Task with the same id.
+     * @param task the Task to cache; ignored if it has no id yet.
+     */
+    public synchronized void put(Task task) {
+        if (task.getId() < 0 || mMaxSize == 0)
+            return;
+        int slot = find(task.getId());
+        if (slot != NONE)
+        {
+            mTasks[slot] = copyOf(task);
+            moveToNewest(slot);
+            return;
+        }
+        if (mSize == mMaxSize)
+            removeSlot(mOldest);
+
+        slot = mFree;
+        mFree = mChainNext[slot];
+        int bucket = bucketOf(task.getId());
+        mIds[slot] = task.getId();
+        mTasks[slot] = copyOf(task);
+        mChainNext[slot] = mBuckets[bucket];
+        mBuckets[bucket] = slot;
+        linkNewest(slot);
+        mSize++;
+    }
+
+    /**
+     * setDone() changes the done state of a cached Task, if it is cached.
+     * @param id the Task's id.
+     * @param done its new done state.
+     */
+    public synchronized void setDone(int id, boolean done) {
+        int slot = find(id);
+        if (slot != NONE)
+            mTasks[slot].setDone(done);
+    }
+
+    /**
+     * remove() drops the Task with this id from the cache.
+     * @param id the Task's id.
+     */
+    public synchronized void remove(int id) {
+        int slot = find(id);
+        if (slot != NONE)
+            removeSlot(slot);
+    }
+
+    /**
+     * clear() empties the cache.  The hit and miss counters are kept.
+     */
+    public synchronized void clear() {
+        allocate(mMaxSize);
+    }
+
+    /**
+     * setMaxSize() changes how many Tasks the cache may hold, keeping the most
+     * recently used ones that still fit.
+     * @param maxSize the new limit.
+     */
+    public synchronized void setMaxSize(int maxSize) {
+        // Collect the Tasks to keep, oldest first, so re-adding them keeps their order
+        Task[] kept = new Task[Math.min(mSize, maxSize)];
+        int slot = mNewest;
+        for (int i = kept.length - 1; i >= 0; i--)
+        {
+            kept[i] = mTasks[slot];
+            slot = mOlder[slot];
+        }
+        allocate(maxSize);
+        for (Task task : kept)
+            put(task);
+    }
+
+    public synchronized int size() { return mSize; }
+
+    public synchronized int getMaxSize() { return mMaxSize; }
+
+    public synchronized long getHitCount() { return mHitCount; }
+
+    public synchronized long getMissCount() { return mMissCount; }
+
+    private void allocate(int maxSize) {
+        if (maxSize < 0)
+            throw new IllegalArgumentException("maxSize must not be negative");
+        mMaxSize = maxSize;
+        mSize = 0;
+        mBuckets = new int[Integer.highestOneBit(Math.max(1, maxSize)) * 2];
+        Arrays.fill(mBuckets, NONE);
+        mIds = new int[maxSize];
+        mTasks = new Task[maxSize];
+        mChainNext = new int[maxSize];
+        mNewer = new int[maxSize];
+        mOlder = new int[maxSize];
+        mNewest = NONE;
+        mOldest = NONE;
+        // Thread every slot onto the free list through mChainNext
+        for (int i = 0; i < maxSize; i++)
+            mChainNext[i] = i + 1 < maxSize ? i + 1 : NONE;
+        mFree = maxSize > 0 ? 0 : NONE;
+    }
+
+    private int bucketOf(int id) {
+        // Spread the bits; ids are sequential so the low bits alone would be fine,
+        // but this keeps chains short for any pattern of ids
+        int h = id * 0x9E3779B9;
+        return (h ^ (h >>> 16)) & (mBuckets.length - 1);
+    }
+
+    private int find(int id) {
+        int slot = mBuckets[bucketOf(id)];
+        while (slot != NONE && mIds[slot] != id)
+            slot = mChainNext[slot];
+        return slot;
+    }
+
+    private void removeSlot(int slot) {
+        // Unlink from its hash chain
+        int bucket = bucketOf(mIds[slot]);
+        if (mBuckets[bucket] == slot)
+            mBuckets[bucket] = mChainNext[slot];
+        else
+        {
+            int previous = mBuckets[bucket];
+            while (mChainNext[previous] != slot)
+                previous = mChainNext[previous];
+            mChainNext[previous] = mChainNext[slot];
+        }
+        unlink(slot);
+        mTasks[slot] = null;
+        mChainNext[slot] = mFree;
+        mFree = slot;
+        mSize--;
+    }
+
+    private void moveToNewest(int slot) {
+        if (slot == mNewest)
+            return;
+        unlink(slot);
+        linkNewest(slot);
+    }
+
+    private void linkNewest(int slot) {
+        mNewer[slot] = NONE;
+        mOlder[slot] = mNewest;
+        if (mNewest != NONE)
+            mNewer[mNewest] = slot;
+        mNewest = slot;
+        if (mOldest == NONE)
+            mOldest = slot;
+    }
+
+    private void unlink(int slot) {
+        int newer = mNewer[slot];
+        int older = mOlder[slot];
+        if (newer != NONE)
+            mOlder[newer] = older;
+        else
+            mNewest = older;
+        if (older != NONE)
+            mNewer[older] = newer;
+        else
+            mOldest = newer;
+    }
+
+    private static Task copyOf(Task task) {
+        return new Task(task.getId(), task.getDescription(), task.isDone(), task.getDueAt(), task.getListId());
+    }
+}
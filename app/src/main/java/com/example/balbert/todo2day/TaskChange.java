@@ -0,0 +1,127 @@
+package com.example.balbert.todo2day;
+
+/**
+ * TaskChange describes one change DBHelper made to the Tasks table: a Task was inserted
+ * (with the _id the database assigned it), updated, had only its done state changed, or
+ * was deleted, or every Task of a list (or of every list) was deleted at once, or Tasks deleted earlier were restored
+ * with their old _ids (by undo or redo), or a Task was moved to another place in the list.
+ *
+ * A restore is reported as a single RESTORED change however many Tasks it put back: the
+ * Tasks go back in the middle of the table rather than at the end, so anything built from
+ * the table is simply reloaded.
+ *
+ * TaskChanges are delivered to a TaskObserver in the order they were made.
+ */
+public final class TaskChange {
+
+    // What kind of change it was
+    public static final int INSERTED     = 0;
+    public static final int UPDATED      = 1;
+    public static final int DONE_CHANGED = 2;
+    public static final int DELETED      = 3;
+    public static final int CLEARED      = 4;
+    public static final int RESTORED     = 5;
+    public static final int MOVED        = 6;
+
+    private final int mType;
+    private final int mId;
+    private final Task mTask;
+    private final boolean mDone;
+    private final int mAfterId;
+    private final int mListId;
+
+    private TaskChange(int type, int id, Task task, boolean done) {
+        this(type, id, task, done, 0, DBHelper.ALL_LISTS);
+    }
+
+    private TaskChange(int type, int id, Task task, boolean done, int afterId, int listId) {
+        mType = type;
+        mId = id;
+        mTask = task;
+        mDone = done;
+        mAfterId = afterId;
+        mListId = listId;
+    }
+
+    /**
+     * @param task the Task as inserted, with its new _id.
+     */
+    public static TaskChange inserted(Task task) {
+        return new TaskChange(INSERTED, task.getId(), task, task.isDone());
+    }
+
+    /**
+     * @param task the Task's new values.
+     */
+    public static TaskChange updated(Task task) {
+        return new TaskChange(UPDATED, task.getId(), task, task.isDone());
+    }
+
+    public static TaskChange doneChanged(int id, boolean done) {
+        return new TaskChange(DONE_CHANGED, id, null, done);
+    }
+
+    public static TaskChange deleted(int id) {
+        return new TaskChange(DELETED, id, null, false);
+    }
+
+    public static TaskChange cleared() {
+        return cleared(DBHelper.ALL_LISTS);
+    }
+
+    /**
+     * @param listId the list whose Tasks were all deleted, or DBHelper.ALL_LISTS.
+     */
+    public static TaskChange cleared(int listId) {
+        return new TaskChange(CLEARED, -1, null, false, 0, listId);
+    }
+
+    public static TaskChange restored() {
+        return new TaskChange(RESTORED, -1, null, false);
+    }
+
+    /**
+     * @param id the Task that was moved.
+     * @param afterId the Task it now follows, or 0 if it is now at the top.
+     */
+    public static TaskChange moved(int id, int afterId) {
+        return new TaskChange(MOVED, id, null, false, afterId, DBHelper.ALL_LISTS);
+    }
+
+    /**
+     * @return INSERTED, UPDATED, DONE_CHANGED, DELETED, CLEARED, RESTORED or MOVED.
+     */
+    public int getType() { return mType; }
+
+    /**
+     * @return the _id of the Task that changed, or -1 for CLEARED and RESTORED.
+     */
+    public int getId() { return mId; }
+
+    /**
+     * @return the Task's new values for INSERTED and UPDATED, otherwise null.
+     *         The same Task is given to every observer, so it must not be changed.
+     */
+    public Task getTask() { return mTask; }
+
+    /**
+     * @return the Task's new done state (not meaningful for DELETED, CLEARED, RESTORED and MOVED).
+     */
+    public boolean isDone() { return mDone; }
+
+    /**
+     * @return for MOVED, the _id of the Task the moved one now follows, or 0 for the top.
+     */
+    public int getAfterId() { return mAfterId; }
+
+    /**
+     * @return for CLEARED, the list that was cleared, or DBHelper.ALL_LISTS for every list.
+     *         For INSERTED and UPDATED the list is getTask().getListId().
+     */
+    public int getListId() { return mListId; }
+
+    @Override
+    public String toString() {
+        return "TaskChange{type=" + mType + ", id=" + mId + ", done=" + mDone + '}';
+    }
+}
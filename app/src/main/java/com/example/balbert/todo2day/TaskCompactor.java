@@ -0,0 +1,227 @@
+package com.example.balbert.todo2day;
+
+import android.database.sqlite.SQLiteException;
+import android.os.SystemClock;
+import android.util.Log;
+
+/**
+ * TaskCompactor cleans up after deletes.  DBHelper only marks deleted rows as tombstones,
+ * which keeps every delete a single small UPDATE; TaskCompactor then removes them for good
+ * and gives the space they took back to the file system.
+ *
+ * The work is done in small steps, each one short transaction on TaskRepository's writer
+ * thread, so a user's write never waits long behind it.  A pass first purges tombstones
+ * getChunkSize() rows at a time, then runs an incremental vacuum getVacuumPages() pages at
+ * a time until no free pages are left.  A database created before auto_vacuum was set is
+ * switched over with one full VACUUM instead, which is only worth doing once there are at
+ * least MIN_FREE_PAGES free pages.
+ *
+ * The rate is limited: after each step, step() says how long to wait before the next so
+ * that no more than getMaxRowsPerSecond() rows are purged and getMaxPagesPerSecond() pages
+ * vacuumed each second.  Zero means no limit.
+ *
+ * Progress is kept for the pass under way (or the last one) and the totals are counted in
+ * Metrics as "compaction.rowsPurged" and "compaction.bytesReclaimed".
+ *
+ * step() must only be called from one thread at a time; the settings and the progress can
+ * be read and changed from any thread.
+ */
+public final class TaskCompactor {
+
+    private static final String TAG = TaskCompactor.class.getSimpleName();
+
+    // What step() returns when the pass is over
+    public static final long FINISHED = -1;
+
+    public static final int DEFAULT_CHUNK_SIZE = 500;
+    public static final int DEFAULT_MAX_ROWS_PER_SECOND = 5000;
+    public static final int DEFAULT_VACUUM_PAGES = 64;
+    public static final int DEFAULT_MAX_PAGES_PER_SECOND = 512;
+
+    // Fewest free pages that make a full VACUUM worth running
+    public static final int MIN_FREE_PAGES = 256;
+
+    private static final Metrics.Counter ROWS_PURGED = Metrics.counter("compaction.rowsPurged");
+    private static final Metrics.Counter BYTES_RECLAIMED = Metrics.counter("compaction.bytesReclaimed");
+    private static final Metrics.Counter PASSES = Metrics.counter("compaction.passes");
+
+    // Where a pass is
+    private static final int IDLE   = 0;
+    private static final int PURGE  = 1;
+    private static final int VACUUM = 2;
+
+    private final DBHelper mDB;
+
+    private volatile int mChunkSize = DEFAULT_CHUNK_SIZE;
+    private volatile int mMaxRowsPerSecond = DEFAULT_MAX_ROWS_PER_SECOND;
+    private volatile int mVacuumPages = DEFAULT_VACUUM_PAGES;
+    private volatile int mMaxPagesPerSecond = DEFAULT_MAX_PAGES_PER_SECOND;
+
+    // Progress of the current (or last) pass
+    private volatile int mState = IDLE;
+    private volatile int mTombstones;
+    private volatile int mRowsPurged;
+    private volatile long mBytesReclaimed;
+
+    TaskCompactor(DBHelper db) {
+        mDB = db;
+    }
+
+    public int getChunkSize() { return mChunkSize; }
+
+    /**
+     * @param rows how many tombstones each step purges, at least 1.
+     * @return this TaskCompactor.
+     */
+    public TaskCompactor setChunkSize(int rows) {
+        if (rows < 1)
+            throw new IllegalArgumentException("Chunk size must be at least 1: " + rows);
+        mChunkSize = rows;
+        return this;
+    }
+
+    public int getMaxRowsPerSecond() { return mMaxRowsPerSecond; }
+
+    /**
+     * @param rows the most tombstones to purge per second, or 0 for no limit.
+     * @return this TaskCompactor.
+     */
+    public TaskCompactor setMaxRowsPerSecond(int rows) {
+        if (rows < 0)
+            throw new IllegalArgumentException("Rate limit can't be negative: " + rows);
+        mMaxRowsPerSecond = rows;
+        return this;
+    }
+
+    public int getVacuumPages() { return mVacuumPages; }
+
+    /**
+     * @param pages how many free pages each vacuum step gives back, at least 1.
+     * @return this TaskCompactor.
+     */
+    public TaskCompactor setVacuumPages(int pages) {
+        if (pages < 1)
+            throw new IllegalArgumentException("Vacuum step must be at least 1 page: " + pages);
+        mVacuumPages = pages;
+        return this;
+    }
+
+    public int getMaxPagesPerSecond() { return mMaxPagesPerSecond; }
+
+    /**
+     * @param pages the most pages to vacuum per second, or 0 for no limit.
+     * @return this TaskCompactor.
+     */
+    public TaskCompactor setMaxPagesPerSecond(int pages) {
+        if (pages < 0)
+            throw new IllegalArgumentException("Rate limit can't be negative: " + pages);
+        mMaxPagesPerSecond = pages;
+        return this;
+    }
+
+    /**
+     * @return true while a pass has been started and not finished.
+     */
+    public boolean isRunning() { return mState != IDLE; }
+
+    /**
+     * @return how many tombstones there were when the pass started.
+     */
+    public int getTombstoneCount() { return mTombstones; }
+
+    /**
+     * @return how many tombstones the pass has purged so far.
+     */
+    public int getRowsPurged() { return mRowsPurged; }
+
+    /**
+     * @return how many bytes the pass has given back to the file system so far.
+     */
+    public long getBytesReclaimed() { return mBytesReclaimed; }
+
+    /**
+     * getProgress() says how far through purging the pass is.  Vacuuming comes after and
+     * is not counted, as how much there is to free is only known as it goes.
+     * @return between 0 and 1.
+     */
+    public float getProgress() {
+        int tombstones = mTombstones;
+        if (tombstones == 0)
+            return mState == PURGE ? 0f : 1f;
+        return Math.min(1f, mRowsPurged / (float) tombstones);
+    }
+
+    /**
+     * step() does the next piece of the pass, starting one if none is under way.
+     * @return how long to wait, in milliseconds, before calling step() again, or FINISHED
+     * if the pass is over.
+     */
+    long step() {
+        if (mState == IDLE)
+        {
+            mTombstones = mDB.getTombstoneCount();
+            mRowsPurged = 0;
+            mBytesReclaimed = 0;
+            mState = PURGE;
+            PASSES.increment();
+        }
+
+        long start = SystemClock.elapsedRealtime();
+        try {
+            if (mState == PURGE)
+            {
+                int chunkSize = mChunkSize;
+                int purged = mDB.purgeTombstones(chunkSize);
+                mRowsPurged += purged;
+                ROWS_PURGED.add(purged);
+                if (purged == chunkSize)
+                    return delayMillis(purged, SystemClock.elapsedRealtime() - start, mMaxRowsPerSecond);
+                mState = VACUUM;
+            }
+
+            if (!mDB.isIncrementalVacuumEnabled())
+            {
+                // One full rewrite, after which the file can be vacuumed a step at a time
+                if (mDB.getFreePageCount() >= MIN_FREE_PAGES)
+                    reclaimed(mDB.enableIncrementalVacuum());
+                return finish();
+            }
+            if (mDB.getFreePageCount() == 0)
+                return finish();
+            int pages = mVacuumPages;
+            reclaimed(mDB.incrementalVacuum(pages));
+            return delayMillis(pages, SystemClock.elapsedRealtime() - start, mMaxPagesPerSecond);
+        } catch (SQLiteException e) {
+            // e.g. the VACUUM could not get the database to itself; try again next pass
+            Log.w(TAG, "Compaction stopped", e);
+            return finish();
+        }
+    }
+
+    private void reclaimed(long bytes) {
+        mBytesReclaimed += bytes;
+        BYTES_RECLAIMED.add(bytes);
+    }
+
+    private long finish() {
+        mState = IDLE;
+        Log.i(TAG, "Purged " + mRowsPurged + " tombstones and reclaimed " + mBytesReclaimed + " bytes");
+        return FINISHED;
+    }
+
+    /**
+     * delayMillis() works out how long to wait after a step so the work done stays
+     * within the rate limit: a step that took less than its share of a second waits out
+     * the rest of it.
+     * @param work rows purged or pages vacuumed by the step.
+     * @param elapsedMillis how long the step took.
+     * @param maxPerSecond the rate limit, or 0 for none.
+     * @return the wait in milliseconds, 0 if the next step can start straight away.
+     */
+    static long delayMillis(int work, long elapsedMillis, int maxPerSecond) {
+        if (maxPerSecond <= 0)
+            return 0;
+        long budget = work * 1000L / maxPerSecond;
+        return Math.max(0, budget - elapsedMillis);
+    }
+}
@@ -0,0 +1,50 @@
+package com.example.balbert.todo2day;
+
+/**
+ * TaskCounts holds how many Tasks there are in total and how many of them are done.
+ *
+ * The counts are read once from the database, where each list keeps its own (see
+ * DBHelper.getTaskCounts()), and then kept up to date by MainActivity as Tasks are added,
+ * toggled and cleared, so showing them never means counting the list again.
+ */
+public class TaskCounts {
+    private int mTotal;
+    private int mDone;
+
+    public TaskCounts(int total, int done) {
+        mTotal = total;
+        mDone = done;
+    }
+
+    public int getTotal() { return mTotal; }
+
+    public int getDone() { return mDone; }
+
+    public int getActive() { return mTotal - mDone; }
+
+    /**
+     * taskAdded() counts a new Task.
+     * @param done whether the new Task is already done.
+     */
+    public void taskAdded(boolean done) {
+        mTotal++;
+        if (done)
+            mDone++;
+    }
+
+    /**
+     * taskToggled() moves one Task between active and done.
+     * @param done the Task's new done state.
+     */
+    public void taskToggled(boolean done) {
+        mDone += done ? 1 : -1;
+    }
+
+    /**
+     * clear() counts the list as empty.
+     */
+    public void clear() {
+        mTotal = 0;
+        mDone = 0;
+    }
+}
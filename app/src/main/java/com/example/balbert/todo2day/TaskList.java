@@ -0,0 +1,34 @@
+package com.example.balbert.todo2day;
+
+/**
+ * TaskList is one of the user's named lists of Tasks, as DBHelper.getLists() reads it:
+ * its _id (what Task.getListId() refers to), its name, and how many Tasks it holds.
+ *
+ * The counts are the ones the Lists table keeps, so reading every list never counts a
+ * Task.  toString() returns the name, so a TaskList can go straight into an ArrayAdapter.
+ */
+public final class TaskList {
+    private final int mId;
+    private final String mName;
+    private final TaskCounts mCounts;
+
+    public TaskList(int id, String name, TaskCounts counts) {
+        mId = id;
+        mName = name;
+        mCounts = counts;
+    }
+
+    public int getId() { return mId; }
+
+    public String getName() { return mName; }
+
+    /**
+     * @return how many live Tasks the list has and how many are done, as last read.
+     */
+    public TaskCounts getCounts() { return mCounts; }
+
+    @Override
+    public String toString() {
+        return mName;
+    }
+}
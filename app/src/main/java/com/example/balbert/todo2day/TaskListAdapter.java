@@ -1,15 +1,15 @@
 package com.example.balbert.todo2day;
 
-import android.app.Activity;
 import android.content.Context;
 import android.support.annotation.LayoutRes;
 import android.support.annotation.NonNull;
-import android.support.annotation.Nullable;
+import android.support.v7.widget.RecyclerView;
+import android.text.format.DateUtils;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
-import android.widget.ArrayAdapter;
 import android.widget.CheckBox;
+import android.widget.TextView;
 
 import java.util.List;
 
@@ -17,67 +17,167 @@ import java.util.List;
  *
  * The TaskListAdapter class is for creating a custom way to display each Task.
  *
- * The heavy lifting of this class takes place in the getView method.
- * getView retrieves a selected Task, inflates the View for that Task,
- * gets a reference to its CheckBox and provides the appropriate
- * description text and isDone state (checked or unchecked).
+ * It is a RecyclerView adapter, so row Views are inflated only as many times as there are
+ * rows on screen (plus a few spares) and then recycled as the list scrolls.  Each row's
+ * CheckBox is looked up once and kept in a TaskViewHolder, and the LayoutInflater is
+ * fetched once when the adapter is created.
+ *
+ * onBindViewHolder gives a recycled row the appropriate description text and isDone
+ * state (checked or unchecked) of the Task at its position.
  *
  * A new feature of this app from the others worked on before is setting a tag.
  * A tag is an invisible locker behind the select View where we can store
  * properties or data for retrieval.
  *
- * getView then returns the inflated View.
+ * The Tasks come from a TaskPagedList, which only holds a window of them.  A row whose
+ * Task has not been loaded yet is shown as an empty, disabled placeholder until its page
+ * arrives.  The TaskPagedList reports exactly which positions changed, and the adapter
+ * passes that on to the RecyclerView so only those rows are rebound.
+ *
+ * Next to the CheckBox each row shows when its Task is due, or "Due date" when it has
+ * none; tapping it lets the user pick one (MainActivity.pickDueDate()), so it is
+ * tagged with the Task too.
+ *
+ * Inflations, full binds, checkbox-only rebinds and bind time are recorded in Metrics
+ * ("ui.*") so a slow device can be checked for rows being inflated instead of recycled.
  *
  * Created by balbert on 10/3/2017.
  */
 
-public class TaskListAdapter extends ArrayAdapter<Task> {
+public class TaskListAdapter extends RecyclerView.Adapter<TaskListAdapter.TaskViewHolder>
+        implements TaskPagedList.Listener {
+
+    private static final Metrics.Counter INFLATIONS = Metrics.counter("ui.inflations");
+    private static final Metrics.Counter BINDS = Metrics.counter("ui.binds");
+    private static final Metrics.Counter PAYLOAD_BINDS = Metrics.counter("ui.payloadBinds");
+    private static final Metrics.Timer BIND_TIMER = Metrics.timer("ui.bind");
 
     private Context mContext;
+    private LayoutInflater mInflater;
     private int mResourceId;
-    private List<Task> mTaskList;
+    private TaskPagedList mTaskList;
+
+    // Number of row Views inflated so far; stays small however far the list scrolls
+    private int mInflationCount;
 
-    public TaskListAdapter(@NonNull Context context, @LayoutRes int resource, @NonNull List<Task> objects) {
-        super(context, resource, objects);
+    public TaskListAdapter(@NonNull Context context, @LayoutRes int resource, @NonNull TaskPagedList tasks) {
         mContext = context;
+        mInflater = LayoutInflater.from(context);
         mResourceId = resource;
-        mTaskList = objects;
+        mTaskList = tasks;
+        mTaskList.setListener(this);
     }
 
     /**
-     *
-     *  getView() takes three parameters.
-     *  The first parameter, which is also the only one being used, is the position in the list
-     *  of the View which is being inflated.
-     *  The other two parameters, convertView and parent, are used to reuse the old view if
-     *  possible or necessary, and the parent is where this View will be attached.
-     *
-     *  The View is inflated and looks like a CheckBox with text from the user-provided
-     *  description alongside the CheckBox.
-     *
-     * @param position is the particular Task the user tapped on
-     * @param convertView is not used for the purposes of this app.
-     * @param parent is the parent on which this View will be attached.
-     * @return
+     * TaskViewHolder keeps a reference to the CheckBox and due date of a row so they
+     * are not looked up again every time the row is rebound.
      */
-    @NonNull
+    static class TaskViewHolder extends RecyclerView.ViewHolder {
+        final CheckBox mCheckBox;
+        final TextView mDueTextView;
+
+        TaskViewHolder(View itemView) {
+            super(itemView);
+            mCheckBox = itemView.findViewById(R.id.isDoneCheckBox);
+            mDueTextView = itemView.findViewById(R.id.dueTextView);
+        }
+    }
+
     @Override
-    public View getView(int position, @Nullable View convertView, @NonNull ViewGroup parent) {
+    public int getItemCount() { return mTaskList.size(); }
 
-        // Retrieve the selectedTask
-        Task selectedTask = mTaskList.get(position);
+    /**
+     * onCreateViewHolder() is only called when there is no row left to recycle.
+     * The View is inflated and looks like a CheckBox with text from the user-provided
+     * description alongside the CheckBox.
+     */
+    @Override
+    public TaskViewHolder onCreateViewHolder(ViewGroup parent, int viewType) {
+        mInflationCount++;
+        INFLATIONS.increment();
+        return new TaskViewHolder(mInflater.inflate(mResourceId, parent, false));
+    }
 
-        // Use LayoutInflater to inflate View for this specific task:
-        LayoutInflater inflater = (LayoutInflater) mContext.getSystemService(Activity.LAYOUT_INFLATER_SERVICE);
-        View view = inflater.inflate(mResourceId, null);
+    /**
+     * onBindViewHolder() fills a (possibly recycled) row with the Task at position.
+     *
+     * @param holder the row to fill.
+     * @param position is the position of the Task in the list.
+     */
+    @Override
+    public void onBindViewHolder(TaskViewHolder holder, int position) {
+        long start = BIND_TIMER.start();
+        BINDS.increment();
+        // Retrieve the selectedTask (null while its page is still loading)
+        Task selectedTask = mTaskList.get(position);
+        CheckBox selectedCheckBox = holder.mCheckBox;
+        TextView dueTextView = holder.mDueTextView;
 
-        // Get reference to the checkbox
-        CheckBox selectedCheckBox = view.findViewById(R.id.isDoneCheckBox);
-        selectedCheckBox.setChecked(selectedTask.isDone());
-        selectedCheckBox.setText(selectedTask.getDescription());
+        if (selectedTask == null)
+        {
+            // Placeholder row
+            selectedCheckBox.setChecked(false);
+            selectedCheckBox.setText("");
+            selectedCheckBox.setEnabled(false);
+            dueTextView.setText("");
+            dueTextView.setEnabled(false);
+        }
+        else
+        {
+            selectedCheckBox.setChecked(selectedTask.isDone());
+            selectedCheckBox.setText(selectedTask.getDescription());
+            selectedCheckBox.setEnabled(true);
+            dueTextView.setText(formatDueDate(selectedTask));
+            dueTextView.setEnabled(true);
+        }
 
         // Tag is an invisible locker behind each view (store anything in tag)
         selectedCheckBox.setTag(selectedTask);
-        return view;
+        dueTextView.setTag(selectedTask);
+        BIND_TIMER.stop(start);
+    }
+
+    /**
+     * When the only change is the done state, just the CheckBox's checked state
+     * is updated; the text is left alone.
+     */
+    @Override
+    public void onBindViewHolder(TaskViewHolder holder, int position, List<Object> payloads) {
+        Task selectedTask = mTaskList.get(position);
+        if (selectedTask != null && !payloads.isEmpty() && payloads.get(0) == TaskPagedList.PAYLOAD_DONE)
+        {
+            PAYLOAD_BINDS.increment();
+            holder.mCheckBox.setChecked(selectedTask.isDone());
+            holder.mCheckBox.setTag(selectedTask);
+            holder.mDueTextView.setTag(selectedTask);
+        }
+        else
+            onBindViewHolder(holder, position);
+    }
+
+    private String formatDueDate(Task task) {
+        if (!task.hasDueDate())
+            return mContext.getString(R.string.due_date);
+        return DateUtils.formatDateTime(mContext, task.getDueAt(),
+                DateUtils.FORMAT_SHOW_DATE | DateUtils.FORMAT_SHOW_TIME | DateUtils.FORMAT_ABBREV_MONTH);
+    }
+
+    /**
+     * @return how many row Views have been inflated by this adapter.
+     */
+    int getInflationCount() { return mInflationCount; }
+
+    @Override
+    public void onInserted(int position, int count) { notifyItemRangeInserted(position, count); }
+
+    @Override
+    public void onRemoved(int position, int count) { notifyItemRangeRemoved(position, count); }
+
+    @Override
+    public void onMoved(int fromPosition, int toPosition) { notifyItemMoved(fromPosition, toPosition); }
+
+    @Override
+    public void onChanged(int position, int count, Object payload) {
+        notifyItemRangeChanged(position, count, payload);
     }
 }
@@ -0,0 +1,107 @@
+package com.example.balbert.todo2day;
+
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * TaskNotifier turns the TaskChanges DBHelper publishes into change notifications for
+ * TaskProvider's URIs, scoped as narrowly as the change allows, so whoever observes them
+ * (the home-screen widget, another app's cursor) reads again only what changed:
+ *
+ *   - a Task inserted, edited, toggled, deleted or moved is one notification for its own
+ *     row (tasks/<_id>), however many observers there are and whatever they show,
+ *   - each list whose counts may have changed gets one notification (lists/<_id>), or, when
+ *     the change does not say which list the Task was in, the lists as a whole,
+ *   - clearing or restoring Tasks, or one operation changing more than getMaxRows() rows,
+ *     is a single notification for everything (tasks and lists), as reading a small window
+ *     again is then cheaper than looking up each row.
+ *
+ * A row is notified once per operation, however many of its changes the operation made.
+ *
+ * The notifications go to a Target, so all of this runs on a plain JVM; TaskProvider's
+ * Target sends them through the ContentResolver.  Like every TaskObserver it is called on
+ * the thread that made the change, after the transaction committed.
+ */
+final class TaskNotifier implements TaskObserver {
+
+    // The most rows one operation is notified row by row
+    static final int DEFAULT_MAX_ROWS = 64;
+
+    /**
+     * Target is where the notifications go.
+     */
+    interface Target {
+        /**
+         * rowChanged() says one Task's row was inserted, changed or deleted.
+         */
+        void rowChanged(int id);
+
+        /**
+         * listChanged() says a list's counts may have changed; DBHelper.ALL_LISTS for any list.
+         */
+        void listChanged(int listId);
+
+        /**
+         * everythingChanged() says any Task and any list may have changed.
+         */
+        void everythingChanged();
+    }
+
+    private final Target mTarget;
+    private final int mMaxRows;
+
+    TaskNotifier(Target target) {
+        this(target, DEFAULT_MAX_ROWS);
+    }
+
+    TaskNotifier(Target target, int maxRows) {
+        mTarget = target;
+        mMaxRows = maxRows;
+    }
+
+    int getMaxRows() { return mMaxRows; }
+
+    @Override
+    public void onTasksChanged(List<TaskChange> changes) {
+        Set<Integer> rows = new LinkedHashSet<>();
+        Set<Integer> lists = new LinkedHashSet<>();
+        for (TaskChange change : changes)
+        {
+            switch (change.getType())
+            {
+                case TaskChange.INSERTED:
+                    rows.add(change.getId());
+                    lists.add(change.getTask().getListId());
+                    break;
+                case TaskChange.UPDATED:
+                case TaskChange.DONE_CHANGED:
+                case TaskChange.DELETED:
+                    // An edit may have moved the Task out of a list the change does not name
+                    rows.add(change.getId());
+                    lists.add(DBHelper.ALL_LISTS);
+                    break;
+                case TaskChange.MOVED:
+                    // Only its position changed, so no list's counts did
+                    rows.add(change.getId());
+                    break;
+                default:
+                    // Cleared or restored: any number of rows, anywhere
+                    mTarget.everythingChanged();
+                    return;
+            }
+            if (rows.size() > mMaxRows)
+            {
+                mTarget.everythingChanged();
+                return;
+            }
+        }
+        for (int id : rows)
+            mTarget.rowChanged(id);
+        if (lists.contains(DBHelper.ALL_LISTS))
+            mTarget.listChanged(DBHelper.ALL_LISTS);
+        else
+            for (int listId : lists)
+                mTarget.listChanged(listId);
+    }
+}
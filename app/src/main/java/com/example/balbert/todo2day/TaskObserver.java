@@ -0,0 +1,18 @@
+package com.example.balbert.todo2day;
+
+import java.util.List;
+
+/**
+ * TaskObserver is told about every change made to the Tasks table.
+ *
+ * Each DBHelper operation reports all the rows it changed in one call, once its
+ * transaction has committed, so a bulk insert of a thousand Tasks is one call with a
+ * thousand TaskChanges rather than a thousand calls.
+ *
+ * Observers registered with DBHelper are called on the thread that made the change
+ * (TaskRepository's background thread); observers registered with TaskRepository are
+ * called on the main thread.
+ */
+public interface TaskObserver {
+    void onTasksChanged(List<TaskChange> changes);
+}
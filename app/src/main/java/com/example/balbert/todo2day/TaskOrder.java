@@ -0,0 +1,95 @@
+package com.example.balbert.todo2day;
+
+/**
+ * TaskOrder does the arithmetic behind the order of the list.
+ *
+ * Every Task has a position, a long, and the list is sorted by it.  Positions are handed
+ * out GAP apart, so there is room between any two neighbours: moving a Task just gives it
+ * a position halfway between its new neighbours (between()), and no other row changes.
+ *
+ * Each move into the same spot halves the room left there, so after about 16 moves into
+ * one spot there is none.  isCrowded() says when a spot is getting close to that, so the
+ * rows around it can be spread out again in the background with spread(), well before a
+ * move finds no room at all.  Only a run of neighbouring rows is rewritten, not the list.
+ *
+ * NONE stands for "no neighbour" at the top or bottom of the list.
+ *
+ * There is nothing Android specific here, so the benchmark module shares this class.
+ */
+public final class TaskOrder {
+
+    /**
+     * The space left between positions handed out in order.
+     */
+    public static final long GAP = 1L << 16;
+
+    /**
+     * A move that leaves less room than this either side of it asks for a rebalance.
+     */
+    public static final long CROWDED_GAP = 1L << 6;
+
+    /**
+     * No neighbour: the top or the bottom of the list.
+     */
+    public static final long NONE = Long.MIN_VALUE;
+
+    private TaskOrder() { }
+
+    /**
+     * between() picks the position for a Task going between two neighbours.
+     * @param before the position of the Task it goes after, or NONE for the top.
+     * @param after the position of the Task it goes before, or NONE for the bottom.
+     * @return the position, or NONE if there is no room left between the two.
+     */
+    public static long between(long before, long after) {
+        if (before == NONE)
+            return after == NONE ? GAP : after - GAP;
+        if (after == NONE)
+            return before + GAP;
+        if (after - before < 2)
+            return NONE;
+        return before + (after - before) / 2;
+    }
+
+    /**
+     * isCrowded() tells whether a Task put between two neighbours with between() leaves
+     * so little room that the spot should be rebalanced.
+     */
+    public static boolean isCrowded(long before, long after) {
+        return before != NONE && after != NONE && after - before < 2 * CROWDED_GAP;
+    }
+
+    /**
+     * spread() gives count rows new positions, evenly spaced and in order, strictly
+     * between two neighbours that keep theirs.  With NONE on one side the rows are
+     * spaced GAP apart from the other side; with NONE on both they start at GAP.
+     *
+     * @param before the position of the row before the first one, or NONE.
+     * @param after the position of the row after the last one, or NONE.
+     * @param count how many rows to place.
+     * @return the new positions, or null if the rows would end up less than GAP / 16
+     *         apart; the caller should then spread more rows over a wider range.
+     */
+    public static long[] spread(long before, long after, int count) {
+        long[] positions = new long[count];
+        if (before == NONE || after == NONE)
+        {
+            for (int i = 0; i < count; i++)
+            {
+                if (before != NONE)
+                    positions[i] = before + (i + 1) * GAP;
+                else if (after != NONE)
+                    positions[i] = after - (count - i) * GAP;
+                else
+                    positions[i] = (i + 1) * GAP;
+            }
+            return positions;
+        }
+        long step = (after - before) / (count + 1);
+        if (step < GAP / 16)
+            return null;
+        for (int i = 0; i < count; i++)
+            positions[i] = before + (i + 1) * step;
+        return positions;
+    }
+}
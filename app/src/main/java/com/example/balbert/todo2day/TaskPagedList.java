@@ -0,0 +1,870 @@
+package com.example.balbert.todo2day;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.support.v7.util.DiffUtil;
+import android.support.v7.util.ListUpdateCallback;
+import android.text.TextUtils;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * TaskPagedList is the data source behind the task list.  Rather than holding every Task,
+ * it keeps a bounded window of consecutive Tasks and loads more a page at a time as the
+ * list scrolls towards either edge of the window.
+ *
+ * Tasks are listed in the user's order.  Pages are fetched by keyset: the next page is
+ * "the pageSize Tasks after the last one we have" and the previous page is "the pageSize
+ * Tasks before the first one we have".  Each page is an index range scan on the order
+ * index from that Task's position, so loading page 1,000 costs the same as loading page 1.
+ *
+ * Positions are absolute: size() is the number of Tasks in the list, and get() returns
+ * null for a position outside the current window (a placeholder row) while the page
+ * holding it is fetched.  When the window grows past its maximum size the Tasks furthest
+ * from the one just loaded are dropped.
+ *
+ * Every change is reported to the Listener as an insert, remove, move or change of a range
+ * of positions, never as "everything changed".  When the list is reloaded the old and new
+ * windows are compared with DiffUtil on a background thread, so only the rows that really
+ * changed are rebound.
+ *
+ * The list shows the Tasks of one of the user's lists (see TaskList) matching a filter
+ * (DBHelper.FILTER_ALL, FILTER_ACTIVE or FILTER_COMPLETED); setFilter() switches to another
+ * filter by loading just its first page.
+ *
+ * setList() switches to another list.  The window, count and position of the list being
+ * left are kept, for the last MAX_CACHED_LISTS lists, so switching back shows them straight
+ * away without a query.  applyChanges() marks a kept list stale when a change may have
+ * touched it (a Task added to it, or a change to a Task it holds or might hold); a stale
+ * list is still shown straight away, and then reloaded, which rebinds only what differs.
+ *
+ * applyChanges() keeps the list in step with the table from the TaskChanges TaskRepository
+ * publishes: a change to a loaded Task rebinds or removes just its row, an insert is added
+ * at the end (a run of inserts as one range), a move within the window moves just its row, and only a change whose
+ * position cannot be known (a Task outside the window entering or leaving the filter, being
+ * deleted or being moved) falls back to reload(), which itself only rebinds what differs.
+ *
+ * move() moves a row right away while the user drags it; TaskRepository.moveTask() then
+ * stores the move, and the MOVED change it publishes finds the row already in place.
+ *
+ * The list can also show search results instead: showSearchResults() replaces the window
+ * with the results (no paging while searching) and endSearch() goes back to paging.
+ *
+ * All loading goes through TaskRepository and results come back on the main thread, so
+ * every method here is meant to be called on the main thread.
+ */
+public class TaskPagedList {
+
+    /**
+     * Listener is told which positions were inserted, removed, moved or changed.
+     */
+    public interface Listener extends ListUpdateCallback {
+    }
+
+    /**
+     * Payload sent with onChanged() when only a Task's done state changed.
+     */
+    public static final Object PAYLOAD_DONE = new Object();
+
+    // How many lists other than the one shown keep their window
+    public static final int MAX_CACHED_LISTS = 4;
+
+    // Shared by every TaskPagedList; diffing must not hold up database work
+    private static final ExecutorService sDiffExecutor = Executors.newSingleThreadExecutor();
+
+    /**
+     * ListState is what is kept of a list while another one is shown.
+     */
+    private static final class ListState {
+        final List<Task> mWindow;
+        final int mWindowStart;
+        final int mTotalCount;
+        final int mFilter;
+        boolean mStale;
+
+        ListState(List<Task> window, int windowStart, int totalCount, int filter, boolean stale) {
+            mWindow = window;
+            mWindowStart = windowStart;
+            mTotalCount = totalCount;
+            mFilter = filter;
+            mStale = stale;
+        }
+
+        boolean holds(int id) {
+            for (Task task : mWindow)
+                if (task.getId() == id)
+                    return true;
+            return false;
+        }
+    }
+
+    private final TaskRepository mRepository;
+    private final int mPageSize;
+    private final int mMaxWindowSize;
+    private final int mPrefetchDistance;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private Listener mListener;
+
+    // The loaded Tasks, and the absolute position of the first of them
+    private final List<Task> mWindow = new ArrayList<>();
+    private int mWindowStart;
+
+    // Number of Tasks in the list
+    private int mTotalCount;
+
+    // Only one page is fetched at a time
+    private boolean mLoading;
+
+    // Bumped on every reload so answers to older requests are ignored
+    private int mGeneration;
+
+    // Which Tasks are listed
+    private int mListId = Task.DEFAULT_LIST_ID;
+    private int mFilter = DBHelper.FILTER_ALL;
+
+    // The lists not shown, by _id, least recently shown first
+    private final Map<Integer, ListState> mCachedLists =
+            new LinkedHashMap<Integer, ListState>(MAX_CACHED_LISTS + 1, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Integer, ListState> eldest) {
+                    return size() > MAX_CACHED_LISTS;
+                }
+            };
+
+    // True while the window holds search results rather than a page of the table
+    private boolean mSearching;
+
+    /**
+     * @param repository where pages are loaded from.
+     * @param pageSize how many Tasks are fetched per query.
+     * @param maxPages how many pages the window may hold before old ones are dropped.
+     */
+    public TaskPagedList(TaskRepository repository, int pageSize, int maxPages) {
+        if (pageSize <= 0 || maxPages < 2)
+            throw new IllegalArgumentException("pageSize must be positive and maxPages at least 2");
+        mRepository = repository;
+        mPageSize = pageSize;
+        mMaxWindowSize = pageSize * maxPages;
+        mPrefetchDistance = pageSize / 2;
+    }
+
+    public void setListener(Listener listener) { mListener = listener; }
+
+    /**
+     * @return the number of Tasks in the list (not just in the window).
+     */
+    public int size() { return mTotalCount; }
+
+    /**
+     * get() returns the Task at a position, or null if it has not been loaded yet.
+     * Asking for a position near the edge of the window, or outside it, starts
+     * loading the next page in that direction.
+     *
+     * @param position absolute position in the list.
+     * @return the Task, or null while it is being loaded.
+     */
+    public Task get(int position) {
+        int windowEnd = mWindowStart + mWindow.size();
+
+        if (position >= windowEnd - mPrefetchDistance && windowEnd < mTotalCount)
+            loadNext();
+        else if (position < mWindowStart + mPrefetchDistance && mWindowStart > 0)
+            loadPrevious();
+
+        if (position < mWindowStart || position >= windowEnd)
+            return null;
+        return mWindow.get(position - mWindowStart);
+    }
+
+    /**
+     * indexOf() finds the position of a loaded Task.
+     * @param task the Task to look for.
+     * @return its absolute position, or -1 if it is not in the window.
+     */
+    public int indexOf(Task task) {
+        int index = mWindow.indexOf(task);
+        return index < 0 ? -1 : mWindowStart + index;
+    }
+
+    /**
+     * reload() fetches the count and the Tasks currently in the window again, compares
+     * them with what is shown on a background thread, and reports only the differences.
+     */
+    public void reload() {
+        reload(null);
+    }
+
+    /**
+     * reload() reloads the window as above.
+     * @param whenLoaded run on the main thread once the reloaded window has been applied,
+     *                   unless another reload, filter or search replaced it first.  May be null.
+     */
+    public void reload(final Runnable whenLoaded) {
+        if (mSearching)
+            return;
+        final int generation = ++mGeneration;
+        mLoading = true;
+        // Re-read the window from its first Task onwards, or from the very start if the
+        // window is at the top of the list
+        final int fromId = mWindow.isEmpty() || mWindowStart == 0 ? 0 : mWindow.get(0).getId();
+        final int limit = Math.max(mWindow.size(), mPageSize);
+        mRepository.getTaskCount(mListId, mFilter, new TaskRepository.Callback<Integer>() {
+            @Override
+            public void onResult(final Integer count) {
+                if (generation != mGeneration)
+                    return;
+                TaskRepository.Callback<List<Task>> onPage = new TaskRepository.Callback<List<Task>>() {
+                    @Override
+                    public void onResult(List<Task> page) {
+                        if (generation != mGeneration)
+                            return;
+                        diffWindow(generation, count, page, limit, whenLoaded);
+                    }
+                };
+                if (fromId == 0)
+                    mRepository.getTasksAfter(mListId, mFilter, 0, limit, onPage);
+                else
+                    mRepository.getTasksFrom(mListId, mFilter, fromId, limit, onPage);
+            }
+        });
+    }
+
+    /**
+     * diffWindow() runs DiffUtil between the current window and a freshly loaded one in the
+     * background, then applies the new window and dispatches the result on the main thread.
+     */
+    private void diffWindow(final int generation, final int count, final List<Task> newWindow, final int limit,
+                            final Runnable whenLoaded) {
+        final List<Task> oldWindow = new ArrayList<>(mWindow);
+        sDiffExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                final DiffUtil.DiffResult result = DiffUtil.calculateDiff(new WindowDiff(oldWindow, newWindow), false);
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (generation != mGeneration)
+                            return;
+                        applyWindow(count, newWindow, limit, result);
+                        if (whenLoaded != null)
+                            whenLoaded.run();
+                    }
+                });
+            }
+        });
+    }
+
+    private void applyWindow(int count, List<Task> newWindow, int limit, DiffUtil.DiffResult result) {
+        mLoading = false;
+        if (newWindow.isEmpty() && mWindowStart > 0)
+        {
+            // Everything from our window onwards is gone; start again from the top
+            int oldCount = mTotalCount;
+            mWindow.clear();
+            mWindowStart = 0;
+            mTotalCount = count;
+            dispatchRemoved(0, oldCount);
+            dispatchInserted(0, count);
+            if (count > 0)
+                loadNext();
+            return;
+        }
+
+        int oldWindowSize = mWindow.size();
+        mWindow.clear();
+        mWindow.addAll(newWindow);
+        if (mListener != null)
+            result.dispatchUpdatesTo(new OffsetCallback(mListener, mWindowStart));
+
+        // Rows past the window are placeholders; only their number can change
+        int currentCount = mTotalCount - oldWindowSize + newWindow.size();
+        int newCount = newWindow.size() < limit ? mWindowStart + newWindow.size() : count;
+        newCount = Math.max(newCount, mWindowStart + newWindow.size());
+        mTotalCount = newCount;
+        if (newCount > currentCount)
+            dispatchInserted(currentCount, newCount - currentCount);
+        else if (newCount < currentCount)
+            dispatchRemoved(newCount, currentCount - newCount);
+    }
+
+    /**
+     * showSnapshot() fills an empty list with a saved first screen of the first list's Tasks and the total
+     * they were part of, so something can be drawn before the database answers.  The rest
+     * of the list shows as placeholders.  A reload() afterwards reconciles the snapshot
+     * with the table, rebinding only the rows that differ.
+     * @param tasks the first Tasks of the list.
+     * @param totalCount how many Tasks there were in all.
+     */
+    public void showSnapshot(List<Task> tasks, int totalCount) {
+        if (!mWindow.isEmpty() || mTotalCount > 0 || mSearching || mFilter != DBHelper.FILTER_ALL
+                || mListId != Task.DEFAULT_LIST_ID)
+            return;
+        for (Task task : tasks)
+            mWindow.add(copyOf(task));
+        mWindowStart = 0;
+        mTotalCount = Math.max(totalCount, tasks.size());
+        dispatchInserted(0, mTotalCount);
+    }
+
+    /**
+     * getFirstScreen() returns the first Tasks of the list, for a snapshot.
+     * @param max the most Tasks to return.
+     * @return the Tasks, or null if they are not all loaded, the list is filtered or
+     *         showing search results, or it is not the first list.
+     */
+    public List<Task> getFirstScreen(int max) {
+        if (mSearching || mLoading || mFilter != DBHelper.FILTER_ALL || mWindowStart != 0
+                || mListId != Task.DEFAULT_LIST_ID)
+            return null;
+        if (mWindow.size() < Math.min(max, mTotalCount))
+            return null;
+        return new ArrayList<>(mWindow.subList(0, Math.min(max, mWindow.size())));
+    }
+
+    /**
+     * setFilter() switches the list to the Tasks matching another filter.  Only the
+     * count and first page for that filter are loaded.
+     * @param filter DBHelper.FILTER_ALL, FILTER_ACTIVE or FILTER_COMPLETED.
+     */
+    public void setFilter(int filter) {
+        if (filter == mFilter)
+            return;
+        mFilter = filter;
+        if (mSearching)
+            return;
+        clear();
+        reload();
+    }
+
+    public int getFilter() { return mFilter; }
+
+    /**
+     * setList() switches to another of the user's lists.  The list being left is kept as
+     * it is.  If the list switched to was kept, with the same filter, it is shown again
+     * straight away, and reloaded only if a change may have touched it since; otherwise
+     * its count and first page are loaded.
+     * While searching, only the list to go back to changes.
+     * @param listId the list's _id.
+     */
+    public void setList(int listId) {
+        if (listId == mListId)
+            return;
+        if (!mSearching)
+            mCachedLists.put(mListId, new ListState(new ArrayList<>(mWindow), mWindowStart, mTotalCount,
+                    mFilter, mLoading));
+        mListId = listId;
+        ListState state = mCachedLists.remove(listId);
+        if (mSearching)
+            return;
+        if (state == null || state.mFilter != mFilter)
+        {
+            clear();
+            reload();
+            return;
+        }
+        mGeneration++;
+        mLoading = false;
+        int oldCount = mTotalCount;
+        mWindow.clear();
+        mWindow.addAll(state.mWindow);
+        mWindowStart = state.mWindowStart;
+        mTotalCount = state.mTotalCount;
+        dispatchRemoved(0, oldCount);
+        dispatchInserted(0, mTotalCount);
+        if (state.mStale)
+            reload();
+    }
+
+    public int getListId() { return mListId; }
+
+    /**
+     * isCached() tells whether a list that is not shown has kept its window.
+     */
+    boolean isCached(int listId) { return mCachedLists.containsKey(listId); }
+
+    /**
+     * add() records a Task that was just inserted.  New Tasks are put at the end of the
+     * user's order; the Task is kept in the window only if the window
+     * already reaches the end, otherwise it will be loaded like any other page.
+     * A Task of another list, or one the current filter does not show, is ignored.
+     *
+     * The Task must have the _id the database gave it (as the INSERTED changes from the
+     * repository do): the window pages on from its last Task's _id, so a Task without one
+     * would make the next page start over from the top of the list.
+     *
+     * @param newTask the Task that was inserted.
+     * @throws IllegalArgumentException if the Task has no _id yet.
+     */
+    public void add(Task newTask) {
+        List<Task> inserted = new ArrayList<>(1);
+        inserted.add(newTask);
+        addAll(inserted);
+    }
+
+    /**
+     * addAll() records Tasks that were just inserted together, as add() does for one, and
+     * reports them to the Listener as one inserted range.  The window takes them only up to
+     * its maximum size; the rest are placeholders until scrolled to, so adding 10,000 Tasks
+     * neither grows the window nor rebinds more than one range.
+     *
+     * @param newTasks the Tasks that were inserted, in order.
+     */
+    private void addAll(List<Task> newTasks) {
+        int start = mTotalCount;
+        for (Task newTask : newTasks)
+        {
+            if (newTask.getId() < 0)
+                throw new IllegalArgumentException("Task was not inserted yet: " + newTask.getDescription());
+            if (newTask.getListId() != mListId || !shows(newTask.isDone()))
+                continue;
+            if (!mLoading && mWindowStart + mWindow.size() == mTotalCount && mWindow.size() < mMaxWindowSize)
+                mWindow.add(newTask);
+            mTotalCount++;
+        }
+        dispatchInserted(start, mTotalCount - start);
+    }
+
+    /**
+     * isShown() tells whether a Task of the list is loaded in the window right now, and so
+     * belongs to the list shown.  Search results, which may come from any list, don't count.
+     * @param id the Task's _id.
+     */
+    public boolean isShown(int id) {
+        return !mSearching && indexOfId(id) >= 0;
+    }
+
+    /**
+     * taskChanged() tells the list that a loaded Task's done state was changed in place.
+     * @param task the Task that changed.
+     */
+    public void taskChanged(Task task) {
+        int position = indexOf(task);
+        if (position >= 0 && mListener != null)
+            mListener.onChanged(position, 1, PAYLOAD_DONE);
+    }
+
+    /**
+     * applyChanges() applies changes made to the table to the list.
+     * @param changes the changes, in the order they were made.
+     */
+    public void applyChanges(List<TaskChange> changes) {
+        boolean stale = false;
+        // Tasks inserted one after another, added together as one range
+        List<Task> inserted = new ArrayList<>();
+        for (TaskChange change : changes)
+        {
+            if (change.getType() != TaskChange.INSERTED && !inserted.isEmpty())
+            {
+                addAll(inserted);
+                inserted.clear();
+            }
+            if (!mCachedLists.isEmpty())
+                markCachedLists(change, change.getType() != TaskChange.INSERTED && indexOfId(change.getId()) >= 0);
+            if (change.getType() == TaskChange.INSERTED)
+            {
+                // Search results are a snapshot; ending the search reloads anyway
+                if (!mSearching)
+                    inserted.add(copyOf(change.getTask()));
+                continue;
+            }
+            int index = indexOfId(change.getId());
+            switch (change.getType())
+            {
+                case TaskChange.UPDATED:
+                    if (index < 0)
+                        stale |= !mSearching && change.getTask().getListId() == mListId;
+                    else if (!mSearching && change.getTask().getListId() != mListId)
+                        stale |= removeAt(index);
+                    else if (!shows(change.isDone()))
+                        stale |= removeAt(index);
+                    else
+                    {
+                        Task oldTask = mWindow.set(index, copyOf(change.getTask()));
+                        if (mListener != null)
+                            mListener.onChanged(mWindowStart + index, 1,
+                                    sameText(oldTask, change.getTask()) ? PAYLOAD_DONE : null);
+                    }
+                    break;
+                case TaskChange.DONE_CHANGED:
+                    if (index < 0)
+                        stale |= mFilter != DBHelper.FILTER_ALL;
+                    else if (!shows(change.isDone()))
+                        stale |= removeAt(index);
+                    else if (mWindow.get(index).isDone() != change.isDone())
+                    {
+                        mWindow.get(index).setDone(change.isDone());
+                        if (mListener != null)
+                            mListener.onChanged(mWindowStart + index, 1, PAYLOAD_DONE);
+                    }
+                    break;
+                case TaskChange.DELETED:
+                    if (index >= 0)
+                        stale |= removeAt(index);
+                    else
+                        stale = true;
+                    break;
+                case TaskChange.CLEARED:
+                    // Search results may hold Tasks of any list
+                    if (change.getListId() == DBHelper.ALL_LISTS || change.getListId() == mListId || mSearching)
+                    {
+                        clear();
+                        stale = false;
+                    }
+                    break;
+                case TaskChange.RESTORED:
+                    // Restored Tasks can land anywhere in the order
+                    stale = true;
+                    break;
+                case TaskChange.MOVED:
+                    // Search results are not in the user's order
+                    if (!mSearching)
+                        stale |= !moveAfter(index, change.getAfterId());
+                    break;
+            }
+        }
+        addAll(inserted);
+        // reload() does nothing while searching
+        if (stale)
+            reload();
+    }
+
+    /**
+     * markCachedLists() marks the kept lists a change may have touched as stale, and forgets
+     * the ones it cleared.  A change to a Task shown right now can't touch another list,
+     * unless it is an update that moves the Task to one.
+     * @param shown whether the Task changed is in the window.
+     */
+    private void markCachedLists(TaskChange change, boolean shown) {
+        switch (change.getType())
+        {
+            case TaskChange.INSERTED:
+            case TaskChange.UPDATED:
+                ListState target = mCachedLists.get(change.getTask().getListId());
+                if (target != null)
+                    target.mStale = true;
+                for (ListState state : mCachedLists.values())
+                    if (state.holds(change.getId()))
+                        state.mStale = true;
+                break;
+            case TaskChange.CLEARED:
+                if (change.getListId() == DBHelper.ALL_LISTS)
+                    mCachedLists.clear();
+                else
+                    mCachedLists.remove(change.getListId());
+                break;
+            case TaskChange.RESTORED:
+                for (ListState state : mCachedLists.values())
+                    state.mStale = true;
+                break;
+            default:
+                if (shown && !mSearching)
+                    break;
+                // Whichever list holds the Task; if none has it loaded, it may be in any of them
+                boolean held = false;
+                for (ListState state : mCachedLists.values())
+                {
+                    if (state.holds(change.getId()))
+                    {
+                        state.mStale = true;
+                        held = true;
+                    }
+                }
+                if (!held)
+                    for (ListState state : mCachedLists.values())
+                        state.mStale = true;
+                break;
+        }
+    }
+
+    /**
+     * copyOf() copies a Task from a TaskChange, which every observer shares, since the
+     * window's Tasks are changed in place.
+     */
+    private static Task copyOf(Task task) {
+        return new Task(task.getId(), task.getDescription(), task.isDone(), task.getDueAt(), task.getListId());
+    }
+
+    /**
+     * sameText() tells whether two versions of a Task show the same text in a row: the
+     * same description and the same due date.
+     */
+    private static boolean sameText(Task oldTask, Task newTask) {
+        return TextUtils.equals(oldTask.getDescription(), newTask.getDescription())
+                && oldTask.getDueAt() == newTask.getDueAt();
+    }
+
+    /**
+     * shows() tells whether a Task with this done state belongs in the list.
+     * Search results are shown whatever the filter.
+     */
+    private boolean shows(boolean done) {
+        if (mSearching)
+            return true;
+        return mFilter == DBHelper.FILTER_ALL
+                || mFilter == DBHelper.FILTER_COMPLETED && done
+                || mFilter == DBHelper.FILTER_ACTIVE && !done;
+    }
+
+    /**
+     * indexOfId() finds a loaded Task by _id.
+     * @return its index in the window, or -1.
+     */
+    private int indexOfId(int id) {
+        for (int i = 0; i < mWindow.size(); i++)
+            if (mWindow.get(i).getId() == id)
+                return i;
+        return -1;
+    }
+
+    /**
+     * removeAt() removes a loaded Task from the list.
+     * @return true if a reload was in flight, which now has to start again.
+     */
+    private boolean removeAt(int index) {
+        mWindow.remove(index);
+        mTotalCount--;
+        dispatchRemoved(mWindowStart + index, 1);
+        return mLoading;
+    }
+
+    /**
+     * moveAfter() puts a loaded Task straight after another loaded one (or at the top, if
+     * the window starts there), as a MOVED change says it now is.
+     * @param index the Task's index in the window, or -1.
+     * @param afterId the _id of the Task it follows, or 0 for the top.
+     * @return false if the move could not be applied here and the list must be reloaded.
+     */
+    private boolean moveAfter(int index, int afterId) {
+        int afterIndex = afterId == 0 ? (mWindowStart == 0 ? -1 : -2) : indexOfId(afterId);
+        if (index < 0 || afterIndex == -2 || afterId != 0 && afterIndex < 0)
+            return false;
+        int newIndex = afterIndex < index ? afterIndex + 1 : afterIndex;
+        if (newIndex != index)
+            moveInWindow(index, newIndex);
+        return !mLoading;
+    }
+
+    /**
+     * move() moves a row from one position to another straight away, while it is being
+     * dragged.  Both positions must be loaded; search results can't be reordered.
+     * @param from the row's position.
+     * @param to where it goes.
+     * @return true if it was moved.
+     */
+    public boolean move(int from, int to) {
+        if (mSearching || from == to)
+            return false;
+        int fromIndex = from - mWindowStart;
+        int toIndex = to - mWindowStart;
+        if (fromIndex < 0 || toIndex < 0 || fromIndex >= mWindow.size() || toIndex >= mWindow.size())
+            return false;
+        moveInWindow(fromIndex, toIndex);
+        return true;
+    }
+
+    private void moveInWindow(int fromIndex, int toIndex) {
+        mWindow.add(toIndex, mWindow.remove(fromIndex));
+        if (mListener != null)
+            mListener.onMoved(mWindowStart + fromIndex, mWindowStart + toIndex);
+    }
+
+    /**
+     * showSearchResults() replaces the list with the results of a search.
+     * @param results the matching Tasks, in the order to show them.
+     */
+    public void showSearchResults(List<Task> results) {
+        mSearching = true;
+        mGeneration++;
+        mLoading = false;
+        int oldCount = mTotalCount;
+        mWindow.clear();
+        mWindow.addAll(results);
+        mWindowStart = 0;
+        mTotalCount = results.size();
+        dispatchRemoved(0, oldCount);
+        dispatchInserted(0, mTotalCount);
+    }
+
+    /**
+     * endSearch() leaves search results and pages the list again from the top.
+     */
+    public void endSearch() {
+        if (!mSearching)
+            return;
+        mSearching = false;
+        clear();
+        reload();
+    }
+
+    public boolean isSearching() { return mSearching; }
+
+    /**
+     * clear() empties the list after all its Tasks were deleted.
+     */
+    public void clear() {
+        mGeneration++;
+        mLoading = false;
+        mWindow.clear();
+        mWindowStart = 0;
+        int oldCount = mTotalCount;
+        mTotalCount = 0;
+        dispatchRemoved(0, oldCount);
+    }
+
+    private void loadNext() {
+        if (mLoading)
+            return;
+        mLoading = true;
+        final int generation = mGeneration;
+        int afterId = mWindow.isEmpty() ? 0 : mWindow.get(mWindow.size() - 1).getId();
+        mRepository.getTasksAfter(mListId, mFilter, afterId, mPageSize, new TaskRepository.Callback<List<Task>>() {
+            @Override
+            public void onResult(List<Task> page) {
+                if (generation != mGeneration)
+                    return;
+                mLoading = false;
+                int positionStart = mWindowStart + mWindow.size();
+                mWindow.addAll(page);
+                // Drop the oldest Tasks from the front if the window is now too big
+                int excess = mWindow.size() - mMaxWindowSize;
+                if (excess > 0)
+                {
+                    mWindow.subList(0, excess).clear();
+                    mWindowStart += excess;
+                    dispatchChanged(mWindowStart - excess, excess);
+                }
+                if (page.size() < mPageSize)
+                    fixCountAtEnd();
+                dispatchChanged(positionStart, page.size());
+            }
+        });
+    }
+
+    private void loadPrevious() {
+        if (mLoading || mWindow.isEmpty())
+            return;
+        mLoading = true;
+        final int generation = mGeneration;
+        int beforeId = mWindow.get(0).getId();
+        mRepository.getTasksBefore(mListId, mFilter, beforeId, mPageSize, new TaskRepository.Callback<List<Task>>() {
+            @Override
+            public void onResult(List<Task> page) {
+                if (generation != mGeneration)
+                    return;
+                mLoading = false;
+                mWindow.addAll(0, page);
+                mWindowStart = Math.max(0, mWindowStart - page.size());
+                // Drop the newest Tasks from the end if the window is now too big
+                int excess = mWindow.size() - mMaxWindowSize;
+                if (excess > 0)
+                {
+                    mWindow.subList(mWindow.size() - excess, mWindow.size()).clear();
+                    dispatchChanged(mWindowStart + mWindow.size(), excess);
+                }
+                dispatchChanged(mWindowStart, page.size());
+            }
+        });
+    }
+
+    /**
+     * fixCountAtEnd() is called when a page came back short, meaning the window
+     * now reaches the last Task.  If rows were deleted behind our back the count
+     * is corrected so the list does not keep asking for Tasks that are gone.
+     */
+    private void fixCountAtEnd() {
+        int windowEnd = mWindowStart + mWindow.size();
+        if (windowEnd < mTotalCount)
+        {
+            int removed = mTotalCount - windowEnd;
+            mTotalCount = windowEnd;
+            dispatchRemoved(windowEnd, removed);
+        }
+    }
+
+    private void dispatchChanged(int positionStart, int count) {
+        if (mListener != null && count > 0)
+            mListener.onChanged(positionStart, count, null);
+    }
+
+    private void dispatchInserted(int positionStart, int count) {
+        if (mListener != null && count > 0)
+            mListener.onInserted(positionStart, count);
+    }
+
+    private void dispatchRemoved(int positionStart, int count) {
+        if (mListener != null && count > 0)
+            mListener.onRemoved(positionStart, count);
+    }
+
+    /**
+     * WindowDiff compares two windows of Tasks: the same _id means the same item,
+     * and the same description and done state means nothing to rebind.
+     */
+    private static class WindowDiff extends DiffUtil.Callback {
+        private final List<Task> mOld;
+        private final List<Task> mNew;
+
+        WindowDiff(List<Task> oldWindow, List<Task> newWindow) {
+            mOld = oldWindow;
+            mNew = newWindow;
+        }
+
+        @Override
+        public int getOldListSize() { return mOld.size(); }
+
+        @Override
+        public int getNewListSize() { return mNew.size(); }
+
+        @Override
+        public boolean areItemsTheSame(int oldPosition, int newPosition) {
+            return mOld.get(oldPosition).getId() == mNew.get(newPosition).getId();
+        }
+
+        @Override
+        public boolean areContentsTheSame(int oldPosition, int newPosition) {
+            Task oldTask = mOld.get(oldPosition);
+            Task newTask = mNew.get(newPosition);
+            return oldTask.isDone() == newTask.isDone() && sameText(oldTask, newTask);
+        }
+
+        @Override
+        public Object getChangePayload(int oldPosition, int newPosition) {
+            // Only the checkbox needs rebinding if the description and due date are unchanged
+            return sameText(mOld.get(oldPosition), mNew.get(newPosition)) ? PAYLOAD_DONE : null;
+        }
+    }
+
+    /**
+     * OffsetCallback shifts positions reported for the window by where the window starts.
+     */
+    private static class OffsetCallback implements ListUpdateCallback {
+        private final ListUpdateCallback mTarget;
+        private final int mOffset;
+
+        OffsetCallback(ListUpdateCallback target, int offset) {
+            mTarget = target;
+            mOffset = offset;
+        }
+
+        @Override
+        public void onInserted(int position, int count) { mTarget.onInserted(position + mOffset, count); }
+
+        @Override
+        public void onRemoved(int position, int count) { mTarget.onRemoved(position + mOffset, count); }
+
+        @Override
+        public void onMoved(int fromPosition, int toPosition) {
+            mTarget.onMoved(fromPosition + mOffset, toPosition + mOffset);
+        }
+
+        @Override
+        public void onChanged(int position, int count, Object payload) {
+            mTarget.onChanged(position + mOffset, count, payload);
+        }
+    }
+}
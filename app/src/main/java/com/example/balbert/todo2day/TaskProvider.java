@@ -0,0 +1,266 @@
+package com.example.balbert.todo2day;
+
+import android.content.ContentProvider;
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.UriMatcher;
+import android.database.Cursor;
+import android.net.Uri;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * TaskProvider lets other processes (the home-screen widget's host, a share target, any
+ * app holding the TASKS permission) read and write Tasks without going through
+ * MainActivity.  Queries return DBHelper's Cursors as they are, so no Task is made for a
+ * row that is only going to be sent across to another process.
+ *
+ *   content://com.example.balbert.todo2day.tasks/tasks
+ *       one page of a list's Tasks, in the user's order.  The query parameters say which:
+ *       list (default Task.DEFAULT_LIST_ID), filter (DBHelper.FILTER_*), after (the _id of
+ *       the last Task of the previous page; the first page without it) and limit (at most
+ *       MAX_LIMIT).  Inserting here adds a Task.
+ *   content://com.example.balbert.todo2day.tasks/tasks/<_id>
+ *       one Task.  It can be updated (description, done, due_at, list_id) or deleted.
+ *   content://com.example.balbert.todo2day.tasks/lists
+ *       every list with its counts.
+ *
+ * Pages are keyed on the last Task of the previous page and always bounded, so every
+ * query is one seek on a list index whatever the size of the table; there is no
+ * selection or sort order to pass, as either could turn it into a scan.
+ *
+ * Change notifications are per row: each Task a write changed is notified on its own URI
+ * (tasks/<_id>), and each list whose counts changed on lists/<_id>, so an observer
+ * registered on a row, or on tasks and told which row changed, reads again only that row
+ * (see TaskNotifier, and TaskWindow for how the widget uses them).  Clearing a list,
+ * restoring Tasks, or a write of many rows is notified once on tasks and lists.
+ *
+ * The notifications come from the TaskNotifier TaskRepository registers with DBHelper,
+ * so writes made in the app, by sync, by undo or through this provider are all notified
+ * the same way, after they commit.  Toggles the repository is still holding back (see
+ * TaskRepository.setTaskDone()) are neither read nor notified until they are written.
+ */
+public class TaskProvider extends ContentProvider {
+
+    public static final String AUTHORITY = "com.example.balbert.todo2day.tasks";
+
+    public static final Uri TASKS_URI = Uri.parse("content://" + AUTHORITY + "/tasks");
+    public static final Uri LISTS_URI = Uri.parse("content://" + AUTHORITY + "/lists");
+
+    public static final String PARAM_LIST = "list";
+    public static final String PARAM_FILTER = "filter";
+    public static final String PARAM_AFTER = "after";
+    public static final String PARAM_LIMIT = "limit";
+
+    public static final int DEFAULT_LIMIT = 50;
+    public static final int MAX_LIMIT = 500;
+
+    // The columns a Task's rows can be asked for; every one of them by default
+    public static final String[] TASK_COLUMNS = {DBHelper.KEY_FIELD_ID, DBHelper.FIELD_DESCRIPTION,
+            DBHelper.FIELD_DONE, DBHelper.FIELD_DUE_AT, DBHelper.FIELD_LIST_ID, DBHelper.FIELD_POSITION};
+
+    private static final String TASK_TYPE = "vnd.com.example.balbert.todo2day.task";
+    private static final String LIST_TYPE = "vnd.com.example.balbert.todo2day.list";
+
+    private static final int MATCH_TASKS = 1;
+    private static final int MATCH_TASK = 2;
+    private static final int MATCH_LISTS = 3;
+
+    private static final UriMatcher MATCHER = new UriMatcher(UriMatcher.NO_MATCH);
+
+    static {
+        MATCHER.addURI(AUTHORITY, "tasks", MATCH_TASKS);
+        MATCHER.addURI(AUTHORITY, "tasks/#", MATCH_TASK);
+        MATCHER.addURI(AUTHORITY, "lists", MATCH_LISTS);
+    }
+
+    private static final List<String> TASK_COLUMN_LIST = Arrays.asList(TASK_COLUMNS);
+
+    /**
+     * newNotifier() makes the TaskNotifier that sends DBHelper's changes out as this
+     * provider's change notifications.
+     *
+     * @param context any Context from the app.
+     * @return the observer to register with DBHelper.
+     */
+    static TaskNotifier newNotifier(Context context) {
+        final ContentResolver resolver = context.getApplicationContext().getContentResolver();
+        return new TaskNotifier(new TaskNotifier.Target() {
+            @Override
+            public void rowChanged(int id) {
+                resolver.notifyChange(ContentUris.withAppendedId(TASKS_URI, id), null);
+            }
+
+            @Override
+            public void listChanged(int listId) {
+                resolver.notifyChange(listId == DBHelper.ALL_LISTS
+                        ? LISTS_URI : ContentUris.withAppendedId(LISTS_URI, listId), null);
+            }
+
+            @Override
+            public void everythingChanged() {
+                resolver.notifyChange(TASKS_URI, null);
+                resolver.notifyChange(LISTS_URI, null);
+            }
+        });
+    }
+
+    @Override
+    public boolean onCreate() {
+        // Providers are created before the Application, which settles how DBHelper is
+        // opened, so it is only asked for once a call comes in
+        return true;
+    }
+
+    private DBHelper getDB() {
+        return DBHelper.getInstance(getContext());
+    }
+
+    @Override
+    public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs, String sortOrder) {
+        if (selection != null || sortOrder != null)
+            throw new IllegalArgumentException("Selection and sort order are not supported: " + uri);
+        Cursor cursor;
+        switch (MATCHER.match(uri))
+        {
+            case MATCH_TASKS:
+                int limit = intParameter(uri, PARAM_LIMIT, DEFAULT_LIMIT);
+                if (limit < 1 || limit > MAX_LIMIT)
+                    throw new IllegalArgumentException("Limit must be from 1 to " + MAX_LIMIT + ": " + uri);
+                cursor = getDB().queryTasks(checkColumns(projection),
+                        intParameter(uri, PARAM_LIST, Task.DEFAULT_LIST_ID),
+                        intParameter(uri, PARAM_FILTER, DBHelper.FILTER_ALL),
+                        intParameter(uri, PARAM_AFTER, 0), limit);
+                // Any row changing may change the page
+                cursor.setNotificationUri(getContext().getContentResolver(), TASKS_URI);
+                return cursor;
+            case MATCH_TASK:
+                cursor = getDB().queryTask(checkColumns(projection), (int) ContentUris.parseId(uri));
+                cursor.setNotificationUri(getContext().getContentResolver(), uri);
+                return cursor;
+            case MATCH_LISTS:
+                if (projection != null)
+                    throw new IllegalArgumentException("Lists are only read whole: " + uri);
+                cursor = getDB().queryLists();
+                cursor.setNotificationUri(getContext().getContentResolver(), LISTS_URI);
+                return cursor;
+            default:
+                throw new IllegalArgumentException("Unknown URI: " + uri);
+        }
+    }
+
+    @Override
+    public String getType(Uri uri) {
+        switch (MATCHER.match(uri))
+        {
+            case MATCH_TASKS:
+                return ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + TASK_TYPE;
+            case MATCH_TASK:
+                return ContentResolver.CURSOR_ITEM_BASE_TYPE + "/" + TASK_TYPE;
+            case MATCH_LISTS:
+                return ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + LIST_TYPE;
+            default:
+                return null;
+        }
+    }
+
+    @Override
+    public Uri insert(Uri uri, ContentValues values) {
+        if (MATCHER.match(uri) != MATCH_TASKS)
+            throw new IllegalArgumentException("Tasks can only be inserted into " + TASKS_URI + ": " + uri);
+        if (values == null || values.getAsString(DBHelper.FIELD_DESCRIPTION) == null)
+            throw new IllegalArgumentException("A Task needs a description");
+        Task task = new Task("", false);
+        applyValues(task, values);
+        int id = getDB().addTask(task);
+        return ContentUris.withAppendedId(TASKS_URI, id);
+    }
+
+    @Override
+    public int update(Uri uri, ContentValues values, String selection, String[] selectionArgs) {
+        int id = taskId(uri, selection);
+        Task task = getDB().getSingleTask(id);
+        if (task == null)
+            return 0;
+        applyValues(task, values);
+        getDB().updateTask(task);
+        return 1;
+    }
+
+    @Override
+    public int delete(Uri uri, String selection, String[] selectionArgs) {
+        int id = taskId(uri, selection);
+        Task task = getDB().getSingleTask(id);
+        if (task == null)
+            return 0;
+        getDB().deleteTask(task);
+        return 1;
+    }
+
+    /**
+     * taskId() returns the _id of the one Task a URI names; updates and deletes are only
+     * ever of one Task.
+     */
+    private static int taskId(Uri uri, String selection) {
+        if (MATCHER.match(uri) != MATCH_TASK || selection != null)
+            throw new IllegalArgumentException("Only one Task, by its URI, can be changed: " + uri);
+        return (int) ContentUris.parseId(uri);
+    }
+
+    /**
+     * applyValues() copies the columns a caller may write onto a Task.
+     */
+    private static void applyValues(Task task, ContentValues values) {
+        if (values == null)
+            return;
+        int known = 0;
+        if (values.containsKey(DBHelper.FIELD_DESCRIPTION))
+        {
+            task.setDescription(values.getAsString(DBHelper.FIELD_DESCRIPTION));
+            known++;
+        }
+        if (values.containsKey(DBHelper.FIELD_DONE))
+        {
+            Boolean done = values.getAsBoolean(DBHelper.FIELD_DONE);
+            task.setDone(done != null && done);
+            known++;
+        }
+        if (values.containsKey(DBHelper.FIELD_DUE_AT))
+        {
+            Long dueAt = values.getAsLong(DBHelper.FIELD_DUE_AT);
+            task.setDueAt(dueAt == null ? Task.NO_DUE_DATE : dueAt);
+            known++;
+        }
+        if (values.containsKey(DBHelper.FIELD_LIST_ID))
+        {
+            Integer listId = values.getAsInteger(DBHelper.FIELD_LIST_ID);
+            task.setListId(listId == null ? Task.DEFAULT_LIST_ID : listId);
+            known++;
+        }
+        if (known != values.size())
+            throw new IllegalArgumentException("Only description, done, due_at and list_id can be written");
+    }
+
+    private static String[] checkColumns(String[] projection) {
+        if (projection == null)
+            return TASK_COLUMNS;
+        for (String column : projection)
+            if (!TASK_COLUMN_LIST.contains(column))
+                throw new IllegalArgumentException("Unknown column: " + column);
+        return projection;
+    }
+
+    private static int intParameter(Uri uri, String name, int missing) {
+        String value = uri.getQueryParameter(name);
+        if (value == null)
+            return missing;
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Not a number: " + name + "=" + value);
+        }
+    }
+}
@@ -0,0 +1,260 @@
+package com.example.balbert.todo2day;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.Arrays;
+
+/**
+ * TaskReader reads back, one Task at a time, what a TaskWriter wrote.  Nothing is read
+ * ahead beyond the stream's buffer, so an import can feed Tasks to the database in batches
+ * while memory use stays flat.
+ *
+ * The ids in the file are read but imported Tasks are given new ids by the database,
+ * so importing never collides with Tasks that are already there.  A file from before
+ * Tasks had a due date and a list gives Tasks with no due date, in the first list.
+ */
+public abstract class TaskReader {
+
+    /**
+     * newReader() creates a reader for the given format.
+     * @param format TaskWriter.FORMAT_NDJSON or TaskWriter.FORMAT_BINARY.
+     * @param in where to read from; it is buffered here, so need not be already.
+     * @return the reader.
+     * @throws IOException if a binary stream does not start with the expected header.
+     */
+    public static TaskReader newReader(int format, InputStream in) throws IOException {
+        if (format == TaskWriter.FORMAT_BINARY)
+            return new BinaryReader(in);
+        if (format == TaskWriter.FORMAT_NDJSON)
+            return new NdjsonReader(in);
+        throw new IllegalArgumentException("Unknown format " + format);
+    }
+
+    /**
+     * read() reads the next Task.
+     * @return the Task, or null at the end of the stream.
+     * @throws IOException if the stream cannot be read or is malformed.
+     */
+    public abstract Task read() throws IOException;
+
+    private static class BinaryReader extends TaskReader {
+        private final DataInputStream mIn;
+        private final int mVersion;
+
+        BinaryReader(InputStream in) throws IOException {
+            mIn = new DataInputStream(new BufferedInputStream(in));
+            byte[] magic = new byte[TaskWriter.MAGIC.length];
+            mIn.readFully(magic);
+            // "T2D" and then the version; every version so far can be read
+            mVersion = magic[magic.length - 1];
+            magic[magic.length - 1] = TaskWriter.VERSION;
+            if (!Arrays.equals(magic, TaskWriter.MAGIC) || mVersion < TaskWriter.VERSION_1
+                    || mVersion > TaskWriter.VERSION)
+                throw new IOException("Not a ToDo2Day binary export");
+        }
+
+        @Override
+        public Task read() throws IOException {
+            int id;
+            try {
+                id = mIn.readInt();
+            } catch (EOFException e) {
+                return null;
+            }
+            boolean done = mIn.readBoolean();
+            long dueAt = Task.NO_DUE_DATE;
+            int listId = Task.DEFAULT_LIST_ID;
+            if (mVersion > TaskWriter.VERSION_1)
+            {
+                dueAt = readVarint();
+                listId = (int) readVarint();
+            }
+            int length = (int) readVarint();
+            String description = null;
+            if (length > 0)
+            {
+                byte[] bytes = new byte[length - 1];
+                mIn.readFully(bytes);
+                description = new String(bytes, TaskWriter.UTF_8);
+            }
+            return new Task(id, description, done, dueAt, listId);
+        }
+
+        private long readVarint() throws IOException {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7)
+            {
+                int b = mIn.readUnsignedByte();
+                value |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0)
+                    return value;
+            }
+            throw new IOException("Malformed varint");
+        }
+    }
+
+    /**
+     * NdjsonReader parses each line as a flat JSON object and picks out the
+     * "id", "description", "done", "dueAt" and "listId" members; any other members are
+     * skipped, and any of these that is missing keeps its default.
+     */
+    private static class NdjsonReader extends TaskReader {
+        private final BufferedReader mIn;
+        private String mLine;
+        private int mPos;
+
+        NdjsonReader(InputStream in) {
+            mIn = new BufferedReader(new InputStreamReader(in, TaskWriter.UTF_8));
+        }
+
+        @Override
+        public Task read() throws IOException {
+            do {
+                mLine = mIn.readLine();
+                if (mLine == null)
+                    return null;
+                mLine = mLine.trim();
+            } while (mLine.isEmpty());
+            mPos = 0;
+
+            int id = -1;
+            String description = null;
+            boolean done = false;
+            long dueAt = Task.NO_DUE_DATE;
+            int listId = Task.DEFAULT_LIST_ID;
+
+            expect('{');
+            skipWhitespace();
+            if (peek() != '}')
+            {
+                do {
+                    skipWhitespace();
+                    String key = readString();
+                    skipWhitespace();
+                    expect(':');
+                    skipWhitespace();
+                    if ("id".equals(key))
+                        id = Integer.parseInt(readLiteral());
+                    else if ("description".equals(key))
+                        description = peek() == '"' ? readString() : nullLiteral();
+                    else if ("done".equals(key))
+                        done = Boolean.parseBoolean(readLiteral());
+                    else if ("dueAt".equals(key))
+                        dueAt = Long.parseLong(readLiteral());
+                    else if ("listId".equals(key))
+                        listId = Integer.parseInt(readLiteral());
+                    else
+                        skipValue();
+                    skipWhitespace();
+                } while (tryConsume(','));
+            }
+            expect('}');
+            return new Task(id, description, done, dueAt, listId);
+        }
+
+        private char peek() throws IOException {
+            if (mPos >= mLine.length())
+                throw new IOException("Unexpected end of line: " + mLine);
+            return mLine.charAt(mPos);
+        }
+
+        private void expect(char c) throws IOException {
+            if (peek() != c)
+                throw new IOException("Expected '" + c + "' at " + mPos + ": " + mLine);
+            mPos++;
+        }
+
+        private boolean tryConsume(char c) throws IOException {
+            if (peek() != c)
+                return false;
+            mPos++;
+            return true;
+        }
+
+        private void skipWhitespace() {
+            while (mPos < mLine.length() && Character.isWhitespace(mLine.charAt(mPos)))
+                mPos++;
+        }
+
+        private String nullLiteral() throws IOException {
+            if (!"null".equals(readLiteral()))
+                throw new IOException("Expected a string or null: " + mLine);
+            return null;
+        }
+
+        // A number, true, false or null
+        private String readLiteral() throws IOException {
+            int start = mPos;
+            while (mPos < mLine.length() && ",}] \t".indexOf(mLine.charAt(mPos)) < 0)
+                mPos++;
+            if (start == mPos)
+                throw new IOException("Expected a value at " + start + ": " + mLine);
+            return mLine.substring(start, mPos);
+        }
+
+        private String readString() throws IOException {
+            expect('"');
+            StringBuilder value = new StringBuilder();
+            while (true)
+            {
+                char c = peek();
+                mPos++;
+                if (c == '"')
+                    return value.toString();
+                if (c != '\\')
+                {
+                    value.append(c);
+                    continue;
+                }
+                char escaped = peek();
+                mPos++;
+                switch (escaped)
+                {
+                    case 'n': value.append('\n'); break;
+                    case 'r': value.append('\r'); break;
+                    case 't': value.append('\t'); break;
+                    case 'b': value.append('\b'); break;
+                    case 'f': value.append('\f'); break;
+                    case 'u':
+                        if (mPos + 4 > mLine.length())
+                            throw new IOException("Bad escape: " + mLine);
+                        value.append((char) Integer.parseInt(mLine.substring(mPos, mPos + 4), 16));
+                        mPos += 4;
+                        break;
+                    default: value.append(escaped);
+                }
+            }
+        }
+
+        // Skips a value of a member we do not know, including nested objects and arrays
+        private void skipValue() throws IOException {
+            char c = peek();
+            if (c == '"')
+                readString();
+            else if (c == '{' || c == '[')
+            {
+                int depth = 0;
+                do {
+                    c = peek();
+                    if (c == '"')
+                    {
+                        readString();
+                        continue;
+                    }
+                    if (c == '{' || c == '[')
+                        depth++;
+                    else if (c == '}' || c == ']')
+                        depth--;
+                    mPos++;
+                } while (depth > 0);
+            }
+            else
+                readLiteral();
+        }
+    }
+}
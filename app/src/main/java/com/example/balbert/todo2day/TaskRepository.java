@@ -0,0 +1,1174 @@
+package com.example.balbert.todo2day;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.StrictMode;
+import android.util.Log;
+import android.util.SparseBooleanArray;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.net.URL;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * TaskRepository sits between the Controller (MainActivity) and the DBHelper Model.
+ *
+ * Every write is handed to a single background thread, so the UI thread never touches
+ * the SQLite file.  Using exactly one thread keeps the writes in the order they were
+ * requested and matches DBHelper's single writer.
+ *
+ * Reads go to the same thread unless the database allows concurrent readers (write-ahead
+ * logging, see DBConfig).  Then a read runs on one of DBConfig.getReaderCount() reader
+ * threads, so a long read such as an export never holds up the next write, and a write
+ * never holds up a read.  A read is only sent to the readers when no write is waiting or
+ * running; otherwise it queues behind the writes, so a read requested after a write
+ * always sees that write.
+ *
+ * Results of reads are delivered back on the main thread through a Callback.
+ *
+ * Updates are coalesced: if the same Task is updated again before its first update reached
+ * the database, only the latest values are written.  Tapping a checkbox several times in a
+ * row therefore costs one UPDATE rather than one per tap.
+ *
+ * Checkbox toggles go one step further and are written behind: setTaskDone() only records
+ * the new state in memory (repeated flips of one Task collapse into its latest state) and in
+ * a ToggleJournal.  The recorded states are written in one transaction when FLUSH_DELAY_MS
+ * has passed since the first of them, when FLUSH_THRESHOLD Tasks are waiting, when
+ * flushPendingToggles() is called (MainActivity does so in onPause) and before any read, so
+ * reads never see stale done states.  Whatever is still in the journal when the app starts,
+ * because the process died before a flush, is applied before anything else runs.
+ *
+ * moveTask() changes the user's order by rewriting the moved row only.  When moves have
+ * crowded a spot of the list, the rows around it are spread out again on the writer thread
+ * REBALANCE_IDLE_MS after the last move, or later if writes are waiting.
+ *
+ * Deleted Tasks are left behind as tombstones (see DBHelper.deleteTask()).  COMPACTION_IDLE_MS
+ * after the last delete (or after startup), a TaskCompactor purges them and vacuums the file
+ * in small, rate-limited steps on the writer thread; a step that comes due while writes are
+ * waiting is put off for another COMPACTION_IDLE_MS.  getCompactor() gives its progress and
+ * settings.
+ *
+ * sync() runs a SyncEngine against a sync server on a thread of its own, once every write
+ * requested before it has been made, so the network never holds up the writer thread.
+ * Pulled changes reach the TaskObservers like any other.
+ *
+ * Tasks that are due are reminded of by a ReminderScheduler, which follows every change
+ * made to the Tasks and keeps a single alarm set, through ReminderAlarm, for the next one.
+ * checkReminders() is what the alarm calls.  setDueDate() is an update like any other.
+ *
+ * Every change DBHelper makes is also sent out as TaskProvider's change notifications,
+ * one per changed row (see TaskNotifier), for the widget and other processes.
+ *
+ * The reads that page through Tasks or count them take the list to read (see TaskList);
+ * addTask() puts a Task in whichever list its getListId() names, and addTasksFromText()
+ * adds a Task for each new line of pasted or shared text in one transaction.
+ *
+ * Changes made here, other than moves and imports, are recorded in an UndoLog, with the values the Tasks had
+ * before, so undo() and redo() can reverse and repeat them one at a time, each in one transaction.
+ * Imports can run to millions of rows, more than the UndoLog keeps, and changes that reach the
+ * database some other way (sync pulls, TaskProvider) are not recorded either.
+ *
+ * Every change DBHelper makes is passed on to the TaskObservers registered here, on the
+ * main thread, one call per database operation.  A toggle is announced as soon as
+ * setTaskDone() records it, and is not announced a second time when it is flushed.
+ */
+public class TaskRepository {
+
+    /**
+     * Callback receives the result of an asynchronous read on the main thread.
+     * @param <T> the type of the result.
+     */
+    public interface Callback<T> {
+        void onResult(T result);
+    }
+
+    private static final String TAG = TaskRepository.class.getSimpleName();
+
+    // Write-behind toggles are flushed after this long, or once this many are waiting
+    private static final long FLUSH_DELAY_MS = 2000;
+    private static final int FLUSH_THRESHOLD = 64;
+
+    private static final String JOURNAL_FILE_NAME = "toggles.journal";
+
+    // Tombstones are compacted this long after the last delete, when the writer is free
+    public static final long COMPACTION_IDLE_MS = 10000;
+
+    // A spot moves have crowded is rebalanced this long after the last move, when the writer is free
+    public static final long REBALANCE_IDLE_MS = 1000;
+
+    // The single instance shared by the whole app
+    private static TaskRepository sInstance;
+
+    private final DBHelper mDB;
+    private final ExecutorService mExecutor;
+
+    // Runs reads alongside the writer; null when the database only allows one reader
+    private final ExecutorService mReadExecutor;
+
+    // Writes handed to mExecutor that have not finished yet
+    private final AtomicInteger mQueuedWrites = new AtomicInteger();
+    private final Handler mMainHandler;
+
+    // Latest values of Tasks whose update has been queued but not yet written, keyed by id.
+    // Each is the slot its queued write reads; a slot is only here while no other write
+    // that could touch the Task has been queued behind it (see updateTask()).
+    private final Map<Integer, AtomicReference<Task>> mPendingUpdates = new HashMap<>();
+
+    // Done states set with setTaskDone() that are not in the database yet, keyed by id.
+    // Only touched on the main thread.
+    private SparseBooleanArray mPendingToggles = new SparseBooleanArray();
+    private final ToggleJournal mJournal;
+    // Appends to mJournal in the order of the taps, so the main thread never waits on the file
+    private final ExecutorService mJournalExecutor;
+
+    // The first screen of Tasks as it was last shown, for the next cold start
+    private final File mSnapshotFile;
+
+    // How to reverse (and then redo) recent changes; used on the writer thread
+    private final UndoLog mUndoLog = new UndoLog();
+
+    // Purges tombstones and vacuums the file; stepped on the writer thread
+    private final TaskCompactor mCompactor;
+
+    // Runs syncs, which wait on the network; the SyncEngine and its store are made on first use
+    private final ExecutorService mSyncExecutor;
+    private SyncEngine mSyncEngine;
+    private String mSyncServer;
+
+    // Keeps the alarm for the next Task due; told about changes on the thread that made them
+    private final ReminderScheduler mReminders;
+
+    // Identifies the latest search; older searches still queued are skipped
+    private final AtomicInteger mLatestSearch = new AtomicInteger();
+
+    // Told on the main thread about every change
+    private final List<TaskObserver> mObservers = new ArrayList<>();
+
+    // True on the writer thread while pending toggles are being written.
+    // Only touched on the writer thread.
+    private boolean mFlushingToggles;
+
+    // Passes DBHelper's changes on to the main thread
+    private final TaskObserver mDatabaseObserver = new TaskObserver() {
+        @Override
+        public void onTasksChanged(List<TaskChange> changes) {
+            if (mFlushingToggles)
+            {
+                // These toggles were announced when setTaskDone() recorded them
+                List<TaskChange> unannounced = new ArrayList<>();
+                for (TaskChange change : changes)
+                    if (change.getType() != TaskChange.DONE_CHANGED)
+                        unannounced.add(change);
+                changes = unannounced;
+            }
+            if (changes.isEmpty())
+                return;
+            final List<TaskChange> delivered = changes;
+            mMainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    publish(delivered);
+                }
+            });
+        }
+    };
+
+    private final Runnable mFlushRunnable = new Runnable() {
+        @Override
+        public void run() {
+            flushPendingToggles();
+        }
+    };
+
+    // Posted on the main thread; rebalances positions on the writer thread
+    private final Runnable mRebalanceRunnable = new Runnable() {
+        @Override
+        public void run() {
+            mExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    if (mQueuedWrites.get() > 0)
+                        scheduleRebalance();
+                    else
+                        mDB.rebalancePositions();
+                }
+            });
+        }
+    };
+
+    // Posted on the main thread; runs the next compaction step on the writer thread
+    private final Runnable mCompactRunnable = new Runnable() {
+        @Override
+        public void run() {
+            // Not counted as a write: nothing is waiting to see what it does
+            mExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    if (mQueuedWrites.get() > 0)
+                    {
+                        scheduleCompaction(COMPACTION_IDLE_MS);
+                        return;
+                    }
+                    long delay = mCompactor.step();
+                    if (delay != TaskCompactor.FINISHED)
+                        scheduleCompaction(delay);
+                }
+            });
+        }
+    };
+
+    /**
+     * getInstance() returns the one TaskRepository for the application, creating it on first use.
+     *
+     * @param context any Context from the app.
+     * @return the shared TaskRepository.
+     */
+    public static synchronized TaskRepository getInstance(Context context) {
+        if (sInstance == null)
+            sInstance = new TaskRepository(DBHelper.getInstance(context),
+                    new File(context.getFilesDir(), JOURNAL_FILE_NAME),
+                    new File(context.getFilesDir(), FirstScreenSnapshot.FILE_NAME),
+                    new ReminderAlarm(context), TaskProvider.newNotifier(context));
+        return sInstance;
+    }
+
+    private TaskRepository(final DBHelper db, File journalFile, File snapshotFile, ReminderAlarm alarm,
+                           TaskNotifier providerNotifier) {
+        mDB = db;
+        mSnapshotFile = snapshotFile;
+        mJournal = new ToggleJournal(journalFile);
+        mMainHandler = new Handler(Looper.getMainLooper());
+        mExecutor = newExecutor(1, "TaskRepository");
+        int readers = db.getConfig().getConcurrentReaders();
+        mReadExecutor = readers > 1 ? newExecutor(readers, "TaskRepository-reader") : null;
+        mCompactor = new TaskCompactor(db);
+        mSyncExecutor = newExecutor(1, "TaskRepository-sync");
+        mJournalExecutor = newExecutor(1, "TaskRepository-journal");
+        mReminders = new ReminderScheduler(new ReminderScheduler.Source() {
+            @Override
+            public List<Task> getDueTasks(long afterDueAt, int afterId, int limit) {
+                return db.getDueTasks(afterDueAt, afterId, limit);
+            }
+
+            @Override
+            public Task getTask(int id) {
+                return db.getSingleTask(id);
+            }
+        }, ReminderScheduler.SYSTEM_CLOCK, alarm, alarm, alarm.getRemindedUpTo());
+
+        mDB.registerObserver(mDatabaseObserver);
+        mDB.registerObserver(mReminders);
+        mDB.registerObserver(providerNotifier);
+
+        // Apply toggles a previous process recorded but never flushed
+        write(new Runnable() {
+            @Override
+            public void run() {
+                long recorded = mJournal.mark();
+                SparseBooleanArray unflushed = mJournal.replay(recorded);
+                if (unflushed.size() > 0)
+                    mDB.updateDoneStates(unflushed);
+                mJournal.clear(recorded);
+            }
+        });
+
+        // Read the next Tasks due and set the alarm for the first of them
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                mReminders.start();
+            }
+        });
+
+        // Clean up whatever an earlier process deleted but never purged
+        scheduleCompaction(COMPACTION_IDLE_MS);
+    }
+
+    private static ExecutorService newExecutor(int threads, final String name) {
+        return new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, name);
+                thread.setPriority(Thread.MIN_PRIORITY);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * write() runs a write on the writer thread, after every write requested before it.
+     */
+    private void write(final Runnable write) {
+        mQueuedWrites.incrementAndGet();
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    write.run();
+                } finally {
+                    mQueuedWrites.decrementAndGet();
+                }
+            }
+        });
+    }
+
+    /**
+     * read() runs a read on a reader thread if there are any and no write is outstanding,
+     * otherwise on the writer thread behind the outstanding writes.
+     */
+    private void read(Runnable read) {
+        if (mReadExecutor != null && mQueuedWrites.get() == 0)
+            mReadExecutor.execute(read);
+        else
+            mExecutor.execute(read);
+    }
+
+    /**
+     * scheduleCompaction() (re)starts the wait before the next compaction step.  There is
+     * only ever one step waiting, however often this is called.
+     * @param delayMillis how long to wait.
+     */
+    private void scheduleCompaction(long delayMillis) {
+        mMainHandler.removeCallbacks(mCompactRunnable);
+        mMainHandler.postDelayed(mCompactRunnable, delayMillis);
+    }
+
+    /**
+     * sync() pushes this device's changes to a sync server and pulls everyone else's, in
+     * the background, after every write requested before it.
+     * @param server the sync server's base URL.
+     * @param callback receives what the sync did, or null if it failed.
+     */
+    public void sync(final URL server, final Callback<SyncEngine.Result> callback) {
+        flushPendingToggles();
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                // The writes before it are done; hand over so the writer thread is free again
+                mSyncExecutor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        SyncEngine.Result result = null;
+                        try {
+                            result = getSyncEngine(server).sync();
+                            Log.i(TAG, "Sync " + result);
+                        } catch (IOException e) {
+                            Log.e(TAG, "Sync failed", e);
+                        }
+                        deliver(callback, result);
+                    }
+                });
+            }
+        });
+    }
+
+    // Only called on mSyncExecutor's thread
+    private SyncEngine getSyncEngine(URL server) {
+        if (mSyncEngine == null || !server.toString().equals(mSyncServer))
+        {
+            mSyncEngine = new SyncEngine(new DBSyncStore(mDB), server);
+            mSyncServer = server.toString();
+        }
+        return mSyncEngine;
+    }
+
+    /**
+     * checkReminders() reminds the user of every Task that has come due and sets the alarm
+     * for the next one, on the background thread.  Toggles waiting to be written are
+     * flushed first, so a Task just ticked off is not reminded of.  Must be called on the
+     * main thread.
+     * @param done run on the background thread once the reminders are out.
+     */
+    public void checkReminders(final Runnable done) {
+        flushPendingToggles();
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    mReminders.onAlarm();
+                } finally {
+                    done.run();
+                }
+            }
+        });
+    }
+
+    /**
+     * scheduleRebalance() (re)starts the wait before rebalancing positions.  May be called
+     * from any thread.
+     */
+    private void scheduleRebalance() {
+        mMainHandler.removeCallbacks(mRebalanceRunnable);
+        mMainHandler.postDelayed(mRebalanceRunnable, REBALANCE_IDLE_MS);
+    }
+
+    /**
+     * getCompactor() gives access to the TaskCompactor, to follow its progress or change
+     * its chunk sizes and rate limits.
+     * @return the TaskCompactor cleaning up after deletes.
+     */
+    public TaskCompactor getCompactor() {
+        return mCompactor;
+    }
+
+    /**
+     * openDatabase() opens the database on the background thread, ahead of the first
+     * query, so the first page does not also have to wait for the file to be opened and
+     * migrated.  ToDo2DayApplication calls it as the process starts.
+     */
+    public void openDatabase() {
+        write(new Runnable() {
+            @Override
+            public void run() {
+                StartupTrace.beginSection("openDatabase");
+                try {
+                    mDB.open();
+                } finally {
+                    StartupTrace.endSection();
+                }
+            }
+        });
+    }
+
+    /**
+     * readFirstScreen() reads the snapshot of the first screen saved by saveFirstScreen().
+     *
+     * Unlike everything else here it reads on the calling thread, which is the main thread
+     * during startup: the file is a few kilobytes and is needed before the first frame.
+     *
+     * @return the snapshot, or null if there is none.
+     */
+    FirstScreenSnapshot readFirstScreen() {
+        StrictMode.ThreadPolicy policy = StrictMode.allowThreadDiskReads();
+        StartupTrace.beginSection("readFirstScreen");
+        try {
+            return FirstScreenSnapshot.read(mSnapshotFile);
+        } finally {
+            StartupTrace.endSection();
+            StrictMode.setThreadPolicy(policy);
+        }
+    }
+
+    /**
+     * saveFirstScreen() writes a snapshot of the first screen in the background, for the
+     * next cold start to show before the database is open.  With no Tasks at all the
+     * snapshot is removed instead.
+     * @param tasks the first Tasks of the list, in order.
+     * @param totalCount the number of Tasks in the list.
+     */
+    void saveFirstScreen(List<Task> tasks, int totalCount) {
+        final FirstScreenSnapshot snapshot = new FirstScreenSnapshot(copyOf(tasks), totalCount);
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (snapshot.getTotalCount() == 0)
+                {
+                    FirstScreenSnapshot.delete(mSnapshotFile);
+                    return;
+                }
+                try {
+                    snapshot.write(mSnapshotFile);
+                } catch (IOException e) {
+                    Log.e(TAG, "Could not save first screen", e);
+                }
+            }
+        });
+    }
+
+    /**
+     * registerObserver() adds an observer to be told, on the main thread, about every
+     * change made to the Tasks from now on.  Must be called on the main thread.
+     * @param observer the observer to add.
+     */
+    public void registerObserver(TaskObserver observer) {
+        mObservers.add(observer);
+    }
+
+    /**
+     * unregisterObserver() stops telling an observer about changes.
+     * Must be called on the main thread.
+     * @param observer the observer to remove.
+     */
+    public void unregisterObserver(TaskObserver observer) {
+        mObservers.remove(observer);
+    }
+
+    /**
+     * publish() tells every observer about changes.  Called on the main thread.
+     */
+    private void publish(List<TaskChange> changes) {
+        for (TaskObserver observer : new ArrayList<>(mObservers))
+            observer.onTasksChanged(changes);
+    }
+
+    /**
+     * deliver() posts a result to the callback on the main thread.
+     * A null callback means the caller is not interested in the result.
+     */
+    private <T> void deliver(final Callback<T> callback, final T result) {
+        if (callback == null)
+            return;
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                callback.onResult(result);
+            }
+        });
+    }
+
+    /**
+     * getAllTasks() loads every Task in the background and returns the list on the main thread.
+     * @param callback receives the list of all Tasks.
+     */
+    public void getAllTasks(final Callback<List<Task>> callback) {
+        flushPendingToggles();
+        read(new Runnable() {
+            @Override
+            public void run() {
+                deliver(callback, mDB.getAllTasks());
+            }
+        });
+    }
+
+    /**
+     * getTasksAfter() loads, in the background, the page of a list's Tasks following afterId.
+     * @param listId the list.
+     * @param filter DBHelper.FILTER_ALL, FILTER_ACTIVE or FILTER_COMPLETED.
+     * @param afterId the _id of the last Task already loaded, or 0 for the first page.
+     * @param limit the page size.
+     * @param callback receives the page.
+     */
+    public void getTasksAfter(final int listId, final int filter, final int afterId, final int limit,
+                              final Callback<List<Task>> callback) {
+        flushPendingToggles();
+        read(new Runnable() {
+            @Override
+            public void run() {
+                deliver(callback, mDB.getTasksAfter(listId, filter, afterId, limit));
+            }
+        });
+    }
+
+    /**
+     * getTasksFrom() loads, in the background, the page of a list's Tasks starting with fromId.
+     * @param listId the list.
+     * @param filter DBHelper.FILTER_ALL, FILTER_ACTIVE or FILTER_COMPLETED.
+     * @param fromId the _id of the first Task of the page.
+     * @param limit the page size.
+     * @param callback receives the page.
+     */
+    public void getTasksFrom(final int listId, final int filter, final int fromId, final int limit,
+                             final Callback<List<Task>> callback) {
+        flushPendingToggles();
+        read(new Runnable() {
+            @Override
+            public void run() {
+                deliver(callback, mDB.getTasksFrom(listId, filter, fromId, limit));
+            }
+        });
+    }
+
+    /**
+     * getTasksBefore() loads, in the background, the page of a list's Tasks preceding beforeId.
+     * @param listId the list.
+     * @param filter DBHelper.FILTER_ALL, FILTER_ACTIVE or FILTER_COMPLETED.
+     * @param beforeId the _id of the first Task already loaded.
+     * @param limit the page size.
+     * @param callback receives the page.
+     */
+    public void getTasksBefore(final int listId, final int filter, final int beforeId, final int limit,
+                               final Callback<List<Task>> callback) {
+        flushPendingToggles();
+        read(new Runnable() {
+            @Override
+            public void run() {
+                deliver(callback, mDB.getTasksBefore(listId, filter, beforeId, limit));
+            }
+        });
+    }
+
+    /**
+     * getTaskCount() reads, in the background, how many of a list's Tasks match a filter.
+     * @param listId the list, or DBHelper.ALL_LISTS.
+     * @param filter DBHelper.FILTER_ALL, FILTER_ACTIVE or FILTER_COMPLETED.
+     * @param callback receives the number of Tasks.
+     */
+    public void getTaskCount(final int listId, final int filter, final Callback<Integer> callback) {
+        flushPendingToggles();
+        read(new Runnable() {
+            @Override
+            public void run() {
+                deliver(callback, mDB.getTaskCount(listId, filter));
+            }
+        });
+    }
+
+    /**
+     * getTaskCounts() reads, in the background, how many Tasks a list has and how many of
+     * them are done.
+     * @param listId the list, or DBHelper.ALL_LISTS.
+     * @param callback receives the counts.
+     */
+    public void getTaskCounts(final int listId, final Callback<TaskCounts> callback) {
+        flushPendingToggles();
+        read(new Runnable() {
+            @Override
+            public void run() {
+                deliver(callback, mDB.getTaskCounts(listId));
+            }
+        });
+    }
+
+    /**
+     * getLists() reads every list, with its counts, in the background.
+     * @param callback receives the lists, in the order they were added.
+     */
+    public void getLists(final Callback<List<TaskList>> callback) {
+        flushPendingToggles();
+        read(new Runnable() {
+            @Override
+            public void run() {
+                deliver(callback, mDB.getLists());
+            }
+        });
+    }
+
+    /**
+     * addList() adds a new, empty list in the background.  Adding a list is not recorded
+     * in the UndoLog: there is nothing in it to lose.
+     * @param name what the user called it.
+     * @param callback receives the new list's _id.  May be null.
+     */
+    public void addList(final String name, final Callback<Integer> callback) {
+        write(new Runnable() {
+            @Override
+            public void run() {
+                deliver(callback, mDB.addList(name));
+            }
+        });
+    }
+
+    /**
+     * searchTasks() runs a full-text search in the background.  Starting a new search
+     * cancels the previous one: if it has not run yet it is skipped, and if it has,
+     * its result is never delivered.
+     * @param query what the user typed.
+     * @param listId the list being shown, or DBHelper.ALL_LISTS.
+     * @param limit the maximum number of results.
+     * @param callback receives the matching Tasks, best first.
+     */
+    public void searchTasks(final String query, final int listId, final int limit,
+                            final Callback<List<Task>> callback) {
+        flushPendingToggles();
+        final int search = mLatestSearch.incrementAndGet();
+        read(new Runnable() {
+            @Override
+            public void run() {
+                if (search != mLatestSearch.get())
+                    return;
+                final List<Task> results = mDB.searchTasks(query, listId, limit);
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (search == mLatestSearch.get())
+                            callback.onResult(results);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * cancelSearch() makes sure no search started so far delivers its result.
+     */
+    public void cancelSearch() {
+        mLatestSearch.incrementAndGet();
+    }
+
+    /**
+     * getSingleTask() looks up one Task in the background.
+     * @param id the id of the Task to find.
+     * @param callback receives the Task, or null if there is none with that id.
+     */
+    public void getSingleTask(final int id, final Callback<Task> callback) {
+        flushPendingToggles();
+        read(new Runnable() {
+            @Override
+            public void run() {
+                deliver(callback, mDB.getSingleTask(id));
+            }
+        });
+    }
+
+    /**
+     * addTask() inserts a new Task in the background.  Observers are sent the inserted
+     * Task, with the _id the database gave it.
+     * @param newTask the Task to insert.
+     */
+    public void addTask(Task newTask) {
+        addTask(newTask, null);
+    }
+
+    /**
+     * addTask() inserts a new Task in the background.
+     * @param newTask the Task to insert.
+     * @param callback receives the inserted Task with its new _id.
+     */
+    public void addTask(Task newTask, final Callback<Task> callback) {
+        final Task snapshot = copyOf(newTask);
+        write(new Runnable() {
+            @Override
+            public void run() {
+                int id = mDB.addTask(snapshot);
+                Task inserted = new Task(id, snapshot.getDescription(), snapshot.isDone(),
+                        snapshot.getDueAt(), snapshot.getListId());
+                mUndoLog.record(UndoLog.inserted(inserted));
+                deliver(callback, inserted);
+            }
+        });
+    }
+
+    /**
+     * addTasks() inserts a whole Collection of Tasks in the background, in one transaction,
+     * which one undo takes away again.
+     * @param newTasks the Tasks to insert.
+     */
+    public void addTasks(Collection<Task> newTasks) {
+        final List<Task> snapshot = copyOf(newTasks);
+        write(new Runnable() {
+            @Override
+            public void run() {
+                mUndoLog.record(UndoLog.inserted(mDB.addTasks(snapshot)));
+            }
+        });
+    }
+
+    /**
+     * addTasksFromText() adds a Task to a list for every line of some text, in the
+     * background (see BulkEntry).  The list's descriptions are read in one scan, the text is
+     * read a line at a time and checked against them, and every new Task is inserted in one
+     * transaction, so observers hear about all of them in one call however many lines there
+     * were.  One undo takes them all away again.
+     *
+     * Reading the list and inserting both happen on the writer thread, one straight after
+     * the other, so no other change of the app's can slip in between.
+     *
+     * @param listId the list to add to.
+     * @param text the lines; it is not closed.
+     * @param callback receives the number of Tasks added, or null if reading the text failed.
+     */
+    public void addTasksFromText(final int listId, final Reader text, final Callback<Integer> callback) {
+        write(new Runnable() {
+            @Override
+            public void run() {
+                Integer count = null;
+                try {
+                    List<Task> tasks = BulkEntry.parse(text, mDB.getDescriptions(listId), listId);
+                    if (!tasks.isEmpty())
+                        mUndoLog.record(UndoLog.inserted(mDB.addTasks(tasks)));
+                    count = tasks.size();
+                } catch (IOException e) {
+                    Log.e(TAG, "Bulk entry failed", e);
+                }
+                deliver(callback, count);
+            }
+        });
+    }
+
+    /**
+     * updateTasks() updates a whole Collection of Tasks in the background, in one transaction.
+     * @param tasksToEdit the Tasks to update.
+     */
+    public void updateTasks(Collection<Task> tasksToEdit) {
+        flushPendingToggles();
+        final List<Task> snapshot = copyOf(tasksToEdit);
+        dropPendingUpdates();
+        write(new Runnable() {
+            @Override
+            public void run() {
+                recordUpdates(snapshot);
+                mDB.updateTasks(snapshot);
+            }
+        });
+    }
+
+    /**
+     * deleteTasks() deletes a whole Collection of Tasks in the background, in one transaction.
+     * @param tasksToDelete the Tasks to delete.
+     */
+    public void deleteTasks(Collection<Task> tasksToDelete) {
+        flushPendingToggles();
+        final List<Task> snapshot = copyOf(tasksToDelete);
+        dropPendingUpdates();
+        write(new Runnable() {
+            @Override
+            public void run() {
+                mUndoLog.record(UndoLog.deleted(currentValues(snapshot)));
+                mDB.deleteTasks(snapshot);
+            }
+        });
+        scheduleCompaction(COMPACTION_IDLE_MS);
+    }
+
+    /**
+     * updateTask() records the Task's current values and schedules a write for them.
+     * If a write for the same id is already waiting, and is still the last write queued
+     * that could touch the Task, it simply picks up these newer values and no second write
+     * is scheduled, so typing into a Task costs one write however fast the edits come.
+     *
+     * Once anything else that writes Tasks (a batch, a delete, a flush of toggles, an
+     * undo or a redo) has been queued behind that write, these values must land after it,
+     * so they get a write of their own instead: see dropPendingUpdates().
+     * @param taskToEdit the Task to update.
+     */
+    public void updateTask(Task taskToEdit) {
+        flushPendingToggles();
+        final int id = taskToEdit.getId();
+        final AtomicReference<Task> pending;
+        synchronized (mPendingUpdates) {
+            AtomicReference<Task> queued = mPendingUpdates.get(id);
+            if (queued != null)
+            {
+                queued.set(copyOf(taskToEdit));
+                return;
+            }
+            pending = new AtomicReference<>(copyOf(taskToEdit));
+            mPendingUpdates.put(id, pending);
+        }
+        write(new Runnable() {
+            @Override
+            public void run() {
+                Task latest;
+                synchronized (mPendingUpdates) {
+                    // Edits from now on need a write of their own
+                    if (mPendingUpdates.get(id) == pending)
+                        mPendingUpdates.remove(id);
+                    latest = pending.get();
+                }
+                recordUpdates(Collections.singletonList(latest));
+                mDB.updateTask(latest);
+            }
+        });
+    }
+
+    /**
+     * dropPendingUpdates() stops updateTask() from adding newer values to the writes already
+     * queued, which still write what they hold.  Called before queuing any other write that
+     * can change a Task's values, so an edit made after it is written after it too.
+     */
+    private void dropPendingUpdates() {
+        synchronized (mPendingUpdates) {
+            mPendingUpdates.clear();
+        }
+    }
+
+    /**
+     * setDueDate() gives a Task a due date, or takes it away, as an updateTask() with the
+     * Task's other values as they are.
+     * @param task the Task to change; it is not changed itself.
+     * @param dueAt when the Task is due, or Task.NO_DUE_DATE.
+     */
+    public void setDueDate(Task task, long dueAt) {
+        Task changed = copyOf(task);
+        changed.setDueAt(dueAt);
+        updateTask(changed);
+    }
+
+    /**
+     * setTaskDone() records a Task's new done state to be written behind.
+     * Must be called on the main thread.
+     * @param task the Task whose done state changed.
+     */
+    public void setTaskDone(Task task) {
+        setTaskDone(task.getId(), task.isDone());
+    }
+
+    /**
+     * setTaskDone() records a new done state for the Task with this id, to be written
+     * behind, and tells the observers straight away.  Must be called on the main thread.
+     * The state is appended to the journal on its own thread (see ToggleJournal), so a crash
+     * before the flush only delays it to the next start, unless it comes before that append.
+     * @param id the id of the Task.
+     * @param done its new done state.
+     */
+    public void setTaskDone(final int id, final boolean done) {
+        mPendingToggles.put(id, done);
+        mJournalExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                mJournal.append(id, done);
+            }
+        });
+        write(new Runnable() {
+            @Override
+            public void run() {
+                mUndoLog.record(UndoLog.doneChanged(id, done));
+            }
+        });
+
+        if (mPendingToggles.size() >= FLUSH_THRESHOLD)
+            flushPendingToggles();
+        else if (mPendingToggles.size() == 1)
+            mMainHandler.postDelayed(mFlushRunnable, FLUSH_DELAY_MS);
+
+        publish(Collections.singletonList(TaskChange.doneChanged(id, done)));
+    }
+
+    /**
+     * flushPendingToggles() writes every recorded done state in one transaction and then
+     * removes their records from the journal.  Must be called on the main thread.
+     */
+    public void flushPendingToggles() {
+        mMainHandler.removeCallbacks(mFlushRunnable);
+        if (mPendingToggles.size() == 0)
+            return;
+
+        final SparseBooleanArray toggles = mPendingToggles;
+        mPendingToggles = new SparseBooleanArray();
+        // Taps from now on are not part of this flush and must stay in the journal.  The mark
+        // is taken on the journal's thread, behind the appends of the taps being flushed.
+        final Future<Long> recorded = mJournalExecutor.submit(new Callable<Long>() {
+            @Override
+            public Long call() {
+                return mJournal.mark();
+            }
+        });
+        dropPendingUpdates();
+        write(new Runnable() {
+            @Override
+            public void run() {
+                mFlushingToggles = true;
+                try {
+                    mDB.updateDoneStates(toggles);
+                } finally {
+                    mFlushingToggles = false;
+                }
+                // Every record up to the mark is now in the database
+                try {
+                    mJournal.clear(recorded.get());
+                } catch (InterruptedException | ExecutionException e) {
+                    // The records stay, to be replayed (again) on the next start
+                    Log.e(TAG, "Could not mark toggle journal", e);
+                }
+            }
+        });
+    }
+
+    /**
+     * exportTasks() streams every Task to out in the background.  The stream is not closed.
+     * @param format TaskWriter.FORMAT_NDJSON or TaskWriter.FORMAT_BINARY.
+     * @param out where to write.
+     * @param callback receives the number of Tasks exported, or null if the export failed.
+     */
+    public void exportTasks(final int format, final OutputStream out, final Callback<Integer> callback) {
+        flushPendingToggles();
+        read(new Runnable() {
+            @Override
+            public void run() {
+                Integer count = null;
+                try {
+                    count = mDB.exportTasks(TaskWriter.newWriter(format, out));
+                } catch (IOException e) {
+                    Log.e(TAG, "Export failed", e);
+                }
+                deliver(callback, count);
+            }
+        });
+    }
+
+    /**
+     * importTasks() streams Tasks from in into the database in the background.
+     * The stream is not closed.
+     * @param format TaskWriter.FORMAT_NDJSON or TaskWriter.FORMAT_BINARY.
+     * @param in where to read.
+     * @param callback receives the number of Tasks imported, or null if the import failed.
+     */
+    public void importTasks(final int format, final InputStream in, final Callback<Integer> callback) {
+        write(new Runnable() {
+            @Override
+            public void run() {
+                Integer count = null;
+                try {
+                    count = mDB.importTasks(TaskReader.newReader(format, in));
+                } catch (IOException e) {
+                    Log.e(TAG, "Import failed", e);
+                }
+                deliver(callback, count);
+            }
+        });
+    }
+
+    /**
+     * moveTask() moves a Task to just after another one, in the background.
+     * @param task the Task to move.
+     * @param after the Task it should follow, or null to move it to the top.
+     */
+    public void moveTask(final Task task, final Task after) {
+        write(new Runnable() {
+            @Override
+            public void run() {
+                mDB.moveTask(task.getId(), after == null ? 0 : after.getId());
+                if (mDB.needsRebalance())
+                    scheduleRebalance();
+            }
+        });
+    }
+
+    /**
+     * deleteTask() deletes a Task in the background.
+     * @param taskToDelete the Task to delete.
+     */
+    public void deleteTask(final Task taskToDelete) {
+        flushPendingToggles();
+        dropPendingUpdates();
+        write(new Runnable() {
+            @Override
+            public void run() {
+                mUndoLog.record(UndoLog.deleted(currentValues(Collections.singletonList(taskToDelete))));
+                mDB.deleteTask(taskToDelete);
+            }
+        });
+        scheduleCompaction(COMPACTION_IDLE_MS);
+    }
+
+    /**
+     * deleteAllTasks() deletes every Task of a list in the background.  The list's Tasks
+     * are read first, off its order index, into a compact TaskArray, so the clear can be undone.
+     * A list with no Tasks is left alone, and nothing is recorded.
+     * @param listId the list to clear, or DBHelper.ALL_LISTS.
+     */
+    public void deleteAllTasks(final int listId) {
+        flushPendingToggles();
+        dropPendingUpdates();
+        write(new Runnable() {
+            @Override
+            public void run() {
+                TaskArray cleared = mDB.getAllTasks(listId);
+                if (cleared.size() == 0)
+                    return;
+                mUndoLog.record(UndoLog.cleared(cleared));
+                mDB.deleteAllTasks(listId);
+            }
+        });
+        scheduleCompaction(COMPACTION_IDLE_MS);
+    }
+
+    /**
+     * undo() reverses the latest change made through the repository, in the background and
+     * in one transaction.  Observers hear about it like any other change.
+     * @param callback receives true if there was a change to undo.  May be null.
+     */
+    public void undo(final Callback<Boolean> callback) {
+        flushPendingToggles();
+        dropPendingUpdates();
+        write(new Runnable() {
+            @Override
+            public void run() {
+                deliver(callback, mUndoLog.undo(mDB));
+            }
+        });
+    }
+
+    /**
+     * redo() makes the latest undone change again, in the background and in one transaction.
+     * @param callback receives true if there was a change to redo.  May be null.
+     */
+    public void redo(final Callback<Boolean> callback) {
+        flushPendingToggles();
+        dropPendingUpdates();
+        write(new Runnable() {
+            @Override
+            public void run() {
+                deliver(callback, mUndoLog.redo(mDB));
+            }
+        });
+    }
+
+    /**
+     * @return true if there is a change to undo, counting only changes already made.
+     */
+    public boolean canUndo() {
+        return mUndoLog.canUndo();
+    }
+
+    /**
+     * @return true if there is an undone change to redo.
+     */
+    public boolean canRedo() {
+        return mUndoLog.canRedo();
+    }
+
+    /**
+     * recordUpdates() records an update of these Tasks, with their values as they are now
+     * in the database.  Runs on the writer thread, just before the update.
+     */
+    private void recordUpdates(List<Task> newValues) {
+        List<Task> before = new ArrayList<>(newValues.size());
+        List<Task> after = new ArrayList<>(newValues.size());
+        for (Task newValue : newValues)
+        {
+            Task oldValue = mDB.getSingleTask(newValue.getId());
+            if (oldValue == null)
+                continue;
+            before.add(oldValue);
+            after.add(newValue);
+        }
+        if (!before.isEmpty())
+            mUndoLog.record(UndoLog.updated(before, after));
+    }
+
+    /**
+     * currentValues() reads these Tasks as they are now in the database, leaving out any
+     * that do not exist.  Runs on the writer thread; most are answered by DBHelper's cache.
+     */
+    private List<Task> currentValues(List<Task> tasks) {
+        List<Task> values = new ArrayList<>(tasks.size());
+        for (Task task : tasks)
+        {
+            Task value = mDB.getSingleTask(task.getId());
+            if (value != null)
+                values.add(value);
+        }
+        return values;
+    }
+
+    /**
+     * copyOf() takes a snapshot of a Task so later changes made by the UI thread
+     * cannot race with the background write.
+     */
+    private static Task copyOf(Task task) {
+        return new Task(task.getId(), task.getDescription(), task.isDone(), task.getDueAt(), task.getListId());
+    }
+
+    /**
+     * copyOf() takes a snapshot of every Task in a Collection.
+     */
+    private static List<Task> copyOf(Collection<Task> tasks) {
+        List<Task> snapshot = new ArrayList<>(tasks.size());
+        for (Task task : tasks)
+            snapshot.add(copyOf(task));
+        return snapshot;
+    }
+}
@@ -0,0 +1,42 @@
+package com.example.balbert.todo2day;
+
+import android.app.PendingIntent;
+import android.appwidget.AppWidgetManager;
+import android.appwidget.AppWidgetProvider;
+import android.content.Context;
+import android.content.Intent;
+import android.net.Uri;
+import android.widget.RemoteViews;
+
+/**
+ * TaskWidgetProvider is the home-screen widget: the first Tasks of the first list, with
+ * the title opening MainActivity.
+ *
+ * The rows come from TaskWidgetService, which reads them through TaskProvider and keeps
+ * them up to date from its change notifications, so the widget has no update period of
+ * its own and onUpdate() only has to connect each widget to the service.
+ */
+public class TaskWidgetProvider extends AppWidgetProvider {
+
+    @Override
+    public void onUpdate(Context context, AppWidgetManager appWidgetManager, int[] appWidgetIds) {
+        for (int appWidgetId : appWidgetIds)
+        {
+            RemoteViews views = new RemoteViews(context.getPackageName(), R.layout.widget_tasks);
+
+            Intent adapter = new Intent(context, TaskWidgetService.class)
+                    .putExtra(AppWidgetManager.EXTRA_APPWIDGET_ID, appWidgetId);
+            // Makes each widget's Intent distinct, so each gets a factory of its own
+            adapter.setData(Uri.parse(adapter.toUri(Intent.URI_INTENT_SCHEME)));
+            views.setRemoteAdapter(R.id.widgetListView, adapter);
+            views.setEmptyView(R.id.widgetListView, R.id.widgetEmptyView);
+
+            Intent open = new Intent(context, MainActivity.class)
+                    .addFlags(Intent.FLAG_ACTIVITY_CLEAR_TOP | Intent.FLAG_ACTIVITY_SINGLE_TOP);
+            views.setOnClickPendingIntent(R.id.widgetTitle,
+                    PendingIntent.getActivity(context, 0, open, PendingIntent.FLAG_UPDATE_CURRENT));
+
+            appWidgetManager.updateAppWidget(appWidgetId, views);
+        }
+    }
+}
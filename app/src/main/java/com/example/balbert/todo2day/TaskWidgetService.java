@@ -0,0 +1,190 @@
+package com.example.balbert.todo2day;
+
+import android.appwidget.AppWidgetManager;
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.Context;
+import android.content.Intent;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.graphics.Paint;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.widget.RemoteViews;
+import android.widget.RemoteViewsService;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * TaskWidgetService gives each home-screen widget (see TaskWidgetProvider) the rows it
+ * shows: the first WIDGET_LIMIT Tasks of the first list, held in a TaskWindow.
+ *
+ * Each widget's factory observes TaskProvider's notifications on a background thread of
+ * its own.  A notification for one row costs a primary key lookup of that row, and the
+ * widget is only told to redraw when the window actually changed; the window itself is
+ * read again only when a Task comes into it, leaves it or moves inside it (see
+ * TaskWindow), so editing a Task the widget does not show costs one row however many
+ * Tasks there are.  Notifications that arrive together are handled in one go.
+ */
+public class TaskWidgetService extends RemoteViewsService {
+
+    // How many Tasks a widget shows
+    static final int WIDGET_LIMIT = 20;
+
+    @Override
+    public RemoteViewsFactory onGetViewFactory(Intent intent) {
+        return new TaskWidgetFactory(getApplicationContext(),
+                intent.getIntExtra(AppWidgetManager.EXTRA_APPWIDGET_ID, AppWidgetManager.INVALID_APPWIDGET_ID));
+    }
+
+    /**
+     * ProviderSource reads a TaskWindow's rows through TaskProvider.
+     */
+    static final class ProviderSource implements TaskWindow.Source {
+        private final ContentResolver mResolver;
+
+        ProviderSource(ContentResolver resolver) {
+            mResolver = resolver;
+        }
+
+        @Override
+        public List<TaskWindow.Row> readWindow(int listId, int limit) {
+            Uri page = Uri.parse(TaskProvider.TASKS_URI + "?" + TaskProvider.PARAM_LIST + "=" + listId
+                    + "&" + TaskProvider.PARAM_LIMIT + "=" + limit);
+            return readRows(mResolver.query(page, TaskProvider.TASK_COLUMNS, null, null, null), limit);
+        }
+
+        @Override
+        public TaskWindow.Row readRow(int id) {
+            List<TaskWindow.Row> rows = readRows(mResolver.query(ContentUris.withAppendedId(TaskProvider.TASKS_URI, id),
+                    TaskProvider.TASK_COLUMNS, null, null, null), 1);
+            return rows.isEmpty() ? null : rows.get(0);
+        }
+
+        // Reads and closes a Cursor over TaskProvider.TASK_COLUMNS
+        private static List<TaskWindow.Row> readRows(Cursor cursor, int expectedSize) {
+            List<TaskWindow.Row> rows = new ArrayList<>(expectedSize);
+            if (cursor == null)
+                return rows;
+            try {
+                while (cursor.moveToNext())
+                    rows.add(new TaskWindow.Row(new Task(cursor.getInt(0), cursor.getString(1),
+                            cursor.getInt(2) == 1, cursor.getLong(3), cursor.getInt(4)), cursor.getLong(5)));
+            } finally {
+                cursor.close();
+            }
+            return rows;
+        }
+    }
+
+    /**
+     * TaskWidgetFactory makes one widget's rows from its TaskWindow.
+     */
+    private static final class TaskWidgetFactory implements RemoteViewsFactory {
+        private final Context mContext;
+        private final int mAppWidgetId;
+        private final TaskWindow mWindow;
+
+        private HandlerThread mThread;
+        private Handler mHandler;
+        private ContentObserver mObserver;
+
+        private final Runnable mRefresh = new Runnable() {
+            @Override
+            public void run() {
+                if (mWindow.refresh())
+                    AppWidgetManager.getInstance(mContext)
+                            .notifyAppWidgetViewDataChanged(new int[] {mAppWidgetId}, R.id.widgetListView);
+            }
+        };
+
+        TaskWidgetFactory(Context context, int appWidgetId) {
+            mContext = context;
+            mAppWidgetId = appWidgetId;
+            mWindow = new TaskWindow(new ProviderSource(context.getContentResolver()),
+                    Task.DEFAULT_LIST_ID, WIDGET_LIMIT);
+        }
+
+        @Override
+        public void onCreate() {
+            mThread = new HandlerThread("TaskWidget-" + mAppWidgetId);
+            mThread.start();
+            mHandler = new Handler(mThread.getLooper());
+            mObserver = new ContentObserver(mHandler) {
+                @Override
+                public void onChange(boolean selfChange) {
+                    onChange(selfChange, null);
+                }
+
+                @Override
+                public void onChange(boolean selfChange, Uri uri) {
+                    // tasks/<_id> is one row; tasks itself (or no URI at all) is everything
+                    if (uri != null && uri.getPathSegments().size() == 2)
+                        mWindow.rowChanged((int) ContentUris.parseId(uri));
+                    else
+                        mWindow.everythingChanged();
+                    // Handle this together with whatever else arrived meanwhile
+                    mHandler.removeCallbacks(mRefresh);
+                    mHandler.post(mRefresh);
+                }
+            };
+            mContext.getContentResolver().registerContentObserver(TaskProvider.TASKS_URI, true, mObserver);
+        }
+
+        @Override
+        public void onDataSetChanged() {
+            // The first time, and whenever the host asks, read whatever is outstanding
+            mWindow.refresh();
+        }
+
+        @Override
+        public void onDestroy() {
+            mContext.getContentResolver().unregisterContentObserver(mObserver);
+            mThread.quit();
+        }
+
+        @Override
+        public int getCount() {
+            return mWindow.size();
+        }
+
+        @Override
+        public RemoteViews getViewAt(int position) {
+            RemoteViews row = new RemoteViews(mContext.getPackageName(), R.layout.widget_task_item);
+            Task task;
+            synchronized (mWindow) {
+                if (position >= mWindow.size())
+                    return null;
+                task = mWindow.get(position);
+            }
+            row.setTextViewText(R.id.widgetTaskText, task.getDescription());
+            row.setInt(R.id.widgetTaskText, "setPaintFlags", task.isDone()
+                    ? Paint.ANTI_ALIAS_FLAG | Paint.STRIKE_THRU_TEXT_FLAG : Paint.ANTI_ALIAS_FLAG);
+            return row;
+        }
+
+        @Override
+        public RemoteViews getLoadingView() {
+            return null;
+        }
+
+        @Override
+        public int getViewTypeCount() {
+            return 1;
+        }
+
+        @Override
+        public long getItemId(int position) {
+            synchronized (mWindow) {
+                return position < mWindow.size() ? mWindow.get(position).getId() : position;
+            }
+        }
+
+        @Override
+        public boolean hasStableIds() {
+            return true;
+        }
+    }
+}
@@ -0,0 +1,159 @@
+package com.example.balbert.todo2day;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * TaskWindow holds the first few Tasks of one list, as the home-screen widget shows them,
+ * and keeps them right from TaskProvider's change notifications while reading as little as
+ * it can.
+ *
+ * Notifications only mark what changed (rowChanged(), everythingChanged()); refresh() then
+ * reads, once for all of them:
+ *
+ *   - for each changed row, that one row by its _id (a primary key lookup).  A row the
+ *     window shows is replaced in place, as long as it is still in the list and still
+ *     between its neighbours.  A row it does not show is left alone, unless it is now in
+ *     the list ahead of the window's last row, or the window has room for it,
+ *   - the whole window (one page off the list order index), only when a changed row has
+ *     to go in, come out or move, when everything changed, or when more rows changed than
+ *     the window holds.
+ *
+ * So a Task edited or toggled on screen costs one row, one edited anywhere else in a list
+ * of 10,000 costs one row and no window, and nothing ever costs more than one window.
+ * getRowsRead() counts what was read.
+ *
+ * The rows come from a Source, so all of this runs on a plain JVM; TaskWidgetService's
+ * Source queries TaskProvider.  Every method is synchronized: notifications arrive on a
+ * binder thread and refresh() is called on another.
+ */
+final class TaskWindow {
+
+    /**
+     * Row is a Task read with its position in the user's order.
+     */
+    static final class Row {
+        private final Task mTask;
+        private final long mPosition;
+
+        Row(Task task, long position) {
+            mTask = task;
+            mPosition = position;
+        }
+
+        Task getTask() { return mTask; }
+
+        long getPosition() { return mPosition; }
+    }
+
+    /**
+     * Source reads rows from the table.
+     */
+    interface Source {
+        /**
+         * readWindow() returns the first limit live Tasks of a list, in the user's order.
+         */
+        List<Row> readWindow(int listId, int limit);
+
+        /**
+         * @return the live Task with this _id, in whatever list, or null.
+         */
+        Row readRow(int id);
+    }
+
+    private final Source mSource;
+    private final int mListId;
+    private final int mLimit;
+
+    private final List<Row> mRows = new ArrayList<>();
+    private final Set<Integer> mChanged = new LinkedHashSet<>();
+    private boolean mLoaded;
+    private boolean mEverythingChanged;
+    private long mRowsRead;
+
+    TaskWindow(Source source, int listId, int limit) {
+        if (limit < 1)
+            throw new IllegalArgumentException("Limit must be at least 1: " + limit);
+        mSource = source;
+        mListId = listId;
+        mLimit = limit;
+    }
+
+    int getListId() { return mListId; }
+
+    synchronized int size() { return mRows.size(); }
+
+    synchronized Task get(int index) { return mRows.get(index).getTask(); }
+
+    /**
+     * @return how many rows refresh() has read in all.
+     */
+    synchronized long getRowsRead() { return mRowsRead; }
+
+    synchronized void rowChanged(int id) {
+        mChanged.add(id);
+    }
+
+    synchronized void everythingChanged() {
+        mEverythingChanged = true;
+    }
+
+    /**
+     * refresh() reads whatever the notifications since the last refresh() call for; the
+     * first call reads the window.
+     * @return whether the window changed.
+     */
+    synchronized boolean refresh() {
+        if (!mLoaded || mEverythingChanged || mChanged.size() > mLimit)
+            return reload();
+        boolean changed = false;
+        for (int id : mChanged)
+        {
+            Row row = mSource.readRow(id);
+            mRowsRead += row == null ? 0 : 1;
+            int index = indexOf(id);
+            if (index >= 0)
+            {
+                if (row == null || row.getTask().getListId() != mListId || !fitsAt(index, row.getPosition()))
+                    return reload();
+                mRows.set(index, row);
+                changed = true;
+            }
+            else if (row != null && row.getTask().getListId() == mListId
+                    && (mRows.size() < mLimit || row.getPosition() < mRows.get(mRows.size() - 1).getPosition()))
+                return reload();
+        }
+        mChanged.clear();
+        return changed;
+    }
+
+    private boolean reload() {
+        List<Row> rows = mSource.readWindow(mListId, mLimit);
+        mRowsRead += rows.size();
+        mRows.clear();
+        mRows.addAll(rows);
+        mChanged.clear();
+        mEverythingChanged = false;
+        mLoaded = true;
+        return true;
+    }
+
+    private int indexOf(int id) {
+        for (int i = 0; i < mRows.size(); i++)
+            if (mRows.get(i).getTask().getId() == id)
+                return i;
+        return -1;
+    }
+
+    // Whether a row at this position still belongs between the rows either side of index
+    private boolean fitsAt(int index, long position) {
+        if (index > 0 && mRows.get(index - 1).getPosition() >= position)
+            return false;
+        if (index < mRows.size() - 1)
+            return mRows.get(index + 1).getPosition() > position;
+        // The last row of a full window that moved down may have passed rows not shown
+        return mRows.size() < mLimit || position <= mRows.get(index).getPosition();
+    }
+}
@@ -0,0 +1,162 @@
+package com.example.balbert.todo2day;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.Locale;
+
+/**
+ * TaskWriter streams Tasks to an OutputStream one row at a time, so an export never needs
+ * more memory than a single row, however many Tasks there are.
+ *
+ * There are two formats:
+ *
+ * FORMAT_NDJSON writes one JSON object per line:
+ * {"id":1,"description":"Buy milk","done":false,"dueAt":0,"listId":1}
+ *
+ * FORMAT_BINARY writes the MAGIC header followed by one record per Task: the id (4 bytes),
+ * the done flag (1 byte), the due time and the list id as varints, and the description as
+ * a varint length followed by its UTF-8 bytes.  The length is stored plus one so that 0
+ * can stand for a null description.  Most Tasks have no due date and are in one of the
+ * first lists, so the two varints are usually a byte each.
+ *
+ * TaskReader reads both formats back, including files written before Tasks had a due
+ * date and a list (version 1 binary files, and JSON without those members).
+ */
+public abstract class TaskWriter {
+
+    public static final int FORMAT_NDJSON = 0;
+    public static final int FORMAT_BINARY = 1;
+
+    // The binary format's version, and the one before due dates and lists, which
+    // TaskReader still reads
+    static final int VERSION = 2;
+    static final int VERSION_1 = 1;
+
+    // First bytes of a binary export: "T2D" and the format version
+    static final byte[] MAGIC = {'T', '2', 'D', VERSION};
+
+    static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /**
+     * newWriter() creates a writer for the given format.
+     * @param format FORMAT_NDJSON or FORMAT_BINARY.
+     * @param out where to write; it is buffered here, so need not be already.
+     * @return the writer.
+     */
+    public static TaskWriter newWriter(int format, OutputStream out) throws IOException {
+        if (format == FORMAT_BINARY)
+            return new BinaryWriter(out);
+        if (format == FORMAT_NDJSON)
+            return new NdjsonWriter(out);
+        throw new IllegalArgumentException("Unknown format " + format);
+    }
+
+    /**
+     * write() writes one Task.
+     */
+    public abstract void write(int id, String description, boolean done, long dueAt, int listId)
+            throws IOException;
+
+    /**
+     * finish() flushes everything written.  It does not close the OutputStream.
+     */
+    public abstract void finish() throws IOException;
+
+    private static class BinaryWriter extends TaskWriter {
+        private final DataOutputStream mOut;
+
+        BinaryWriter(OutputStream out) throws IOException {
+            mOut = new DataOutputStream(new BufferedOutputStream(out));
+            mOut.write(MAGIC);
+        }
+
+        @Override
+        public void write(int id, String description, boolean done, long dueAt, int listId)
+                throws IOException {
+            mOut.writeInt(id);
+            mOut.writeBoolean(done);
+            writeVarint(dueAt);
+            writeVarint(listId);
+            if (description == null)
+                writeVarint(0);
+            else
+            {
+                byte[] bytes = description.getBytes(UTF_8);
+                writeVarint(bytes.length + 1);
+                mOut.write(bytes);
+            }
+        }
+
+        private void writeVarint(long value) throws IOException {
+            while ((value & ~0x7FL) != 0)
+            {
+                mOut.writeByte((int) (value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            mOut.writeByte((int) value);
+        }
+
+        @Override
+        public void finish() throws IOException {
+            mOut.flush();
+        }
+    }
+
+    private static class NdjsonWriter extends TaskWriter {
+        private final Writer mOut;
+
+        NdjsonWriter(OutputStream out) {
+            mOut = new OutputStreamWriter(new BufferedOutputStream(out), UTF_8);
+        }
+
+        @Override
+        public void write(int id, String description, boolean done, long dueAt, int listId)
+                throws IOException {
+            mOut.write("{\"id\":");
+            mOut.write(Integer.toString(id));
+            mOut.write(",\"description\":");
+            if (description == null)
+                mOut.write("null");
+            else
+                writeString(description);
+            mOut.write(done ? ",\"done\":true" : ",\"done\":false");
+            mOut.write(",\"dueAt\":");
+            mOut.write(Long.toString(dueAt));
+            mOut.write(",\"listId\":");
+            mOut.write(Integer.toString(listId));
+            mOut.write("}\n");
+        }
+
+        private void writeString(String value) throws IOException {
+            mOut.write('"');
+            for (int i = 0; i < value.length(); i++)
+            {
+                char c = value.charAt(i);
+                switch (c)
+                {
+                    case '"':  mOut.write("\\\""); break;
+                    case '\\': mOut.write("\\\\"); break;
+                    case '\n': mOut.write("\\n"); break;
+                    case '\r': mOut.write("\\r"); break;
+                    case '\t': mOut.write("\\t"); break;
+                    default:
+                        if (c < 0x20)
+                            mOut.write(String.format(Locale.US, "\\u%04x", (int) c));
+                        else
+                            mOut.write(c);
+                }
+            }
+            mOut.write('"');
+        }
+
+        @Override
+        public void finish() throws IOException {
+            mOut.flush();
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package com.example.balbert.todo2day;
+
+import android.app.Application;
+import android.os.StrictMode;
+
+/**
+ * ToDo2DayApplication is created once per process, before any Activity.
+ *
+ * In debug builds it turns on StrictMode for disk access on the main thread and
+ * DBHelper's own main thread check, so any database call that slips past
+ * TaskRepository onto the UI thread is caught during development.
+ *
+ * Debug builds also record Metrics, which can be viewed from MainActivity's menu.
+ *
+ * This is also where a cold start begins: StartupTrace starts its clock here, and the
+ * database is opened on TaskRepository's background thread straight away, so by the time
+ * MainActivity asks for the first page the file is usually already open.  The DBHelper
+ * is created here with DBConfig.defaults(), i.e. in write-ahead logging mode.
+ */
+public class ToDo2DayApplication extends Application {
+
+    @Override
+    public void onCreate() {
+        StartupTrace.processStarted();
+        StartupTrace.beginSection("Application.onCreate");
+        super.onCreate();
+
+        if (BuildConfig.DEBUG)
+        {
+            StrictMode.setThreadPolicy(new StrictMode.ThreadPolicy.Builder()
+                    .detectDiskReads()
+                    .detectDiskWrites()
+                    .penaltyLog()
+                    .build());
+            DBHelper.setMainThreadChecksEnabled(true);
+            Metrics.setEnabled(true);
+        }
+
+        // Settle how the database is opened before anything else asks for it
+        DBHelper.getInstance(this, DBConfig.defaults());
+
+        // Start opening the database now, while the Activity is being created
+        TaskRepository.getInstance(this).openDatabase();
+        StartupTrace.endSection();
+    }
+}
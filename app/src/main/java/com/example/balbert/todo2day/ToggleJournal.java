@@ -0,0 +1,174 @@
+package com.example.balbert.todo2day;
+
+import android.util.Log;
+import android.util.SparseBooleanArray;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+/**
+ * ToggleJournal is a small append-only file of done-state changes that have been made in
+ * the UI but not yet written to the database.
+ *
+ * Each record is five bytes: the Task's id (an int) followed by its new done state (a byte).
+ * Records are appended as the user taps, and the records a flush covered are removed once
+ * it has committed them to the database.  If the process dies before that, replay()
+ * returns the changes on the next start so they can be applied then.
+ *
+ * append() is called on a thread of its own, in the order of the taps, so the main thread
+ * never waits on the file, not even while clear() is copying it.  Each record is one
+ * write() of five bytes straight to the operating system, with no buffer in between, so a
+ * crash of the app can only lose the taps whose append had not run yet: normally just the
+ * latest tap, within a few milliseconds of it, or the taps made while a clear() was copying
+ * the journal.  The file is not fsync'd per record, so a sudden power loss can still drop
+ * the records the kernel had not yet written out (in practice the last few seconds of taps).
+ *
+ * replay() and clear() do the rest of the file I/O on TaskRepository's background thread.
+ * A flush takes a mark() of the journal behind the appends it covers and clears only up to
+ * it, so taps made while it is being written stay in the journal.
+ */
+class ToggleJournal {
+
+    private static final String TAG = ToggleJournal.class.getSimpleName();
+
+    // An int id and a done byte
+    static final int RECORD_SIZE = 5;
+
+    private final File mFile;
+    private final byte[] mRecord = new byte[RECORD_SIZE];
+    private FileOutputStream mOut;
+
+    // Bytes in the file, or -1 until it has been looked at
+    private long mLength = -1;
+
+    ToggleJournal(File file) {
+        mFile = file;
+    }
+
+    /**
+     * append() records that the Task with this id is now done (or not), in one write.
+     * @param id the Task's id.
+     * @param done its new done state.
+     */
+    synchronized void append(int id, boolean done) {
+        mRecord[0] = (byte) (id >>> 24);
+        mRecord[1] = (byte) (id >>> 16);
+        mRecord[2] = (byte) (id >>> 8);
+        mRecord[3] = (byte) id;
+        mRecord[4] = (byte) (done ? 1 : 0);
+        try {
+            if (mOut == null)
+            {
+                mOut = new FileOutputStream(mFile, true);
+                mLength = mFile.length();
+            }
+            mOut.write(mRecord);
+            mLength += RECORD_SIZE;
+        } catch (IOException e) {
+            Log.e(TAG, "Could not append to toggle journal", e);
+        }
+    }
+
+    /**
+     * mark() is where the journal ends now: everything before it has been appended.
+     * @return the journal's length in bytes.
+     */
+    synchronized long mark() {
+        if (mLength < 0)
+            mLength = mFile.length();
+        return mLength;
+    }
+
+    /**
+     * replay() reads back the changes in the journal up to a mark.  When the same Task was
+     * toggled several times only its last state is kept.  A record cut short by a crash is
+     * ignored.
+     *
+     * @param upTo a mark() taken before; records after it are not read.
+     * @return the done state of each Task id read.
+     */
+    SparseBooleanArray replay(long upTo) {
+        SparseBooleanArray changes = new SparseBooleanArray();
+        if (!mFile.exists())
+            return changes;
+
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(mFile)));
+            for (long read = RECORD_SIZE; read <= upTo; read += RECORD_SIZE)
+            {
+                int id = in.readInt();
+                boolean done = in.readBoolean();
+                changes.put(id, done);
+            }
+        } catch (EOFException e) {
+            // End of the journal (possibly in the middle of a torn record)
+        } catch (IOException e) {
+            Log.e(TAG, "Could not read toggle journal", e);
+        } finally {
+            closeQuietly(in);
+        }
+        return changes;
+    }
+
+    /**
+     * clear() removes the records up to a mark once their changes are safely in the
+     * database.  Usually that is every record and the file is just deleted; records
+     * appended after the mark are copied into a new file first, which replaces the old one
+     * in a single rename.
+     * @param upTo a mark() taken before the changes were written.
+     */
+    synchronized void clear(long upTo) {
+        long length = mark();
+        closeQuietly(mOut);
+        mOut = null;
+        if (length <= upTo)
+        {
+            if (mFile.exists() && !mFile.delete())
+                Log.w(TAG, "Could not delete toggle journal");
+            mLength = 0;
+            return;
+        }
+
+        File kept = new File(mFile.getPath() + ".tmp");
+        RandomAccessFile in = null;
+        FileOutputStream out = null;
+        try {
+            byte[] tail = new byte[(int) (length - upTo)];
+            in = new RandomAccessFile(mFile, "r");
+            in.seek(upTo);
+            in.readFully(tail);
+            out = new FileOutputStream(kept);
+            out.write(tail);
+            out.close();
+            out = null;
+            if (!kept.renameTo(mFile))
+                throw new IOException("Could not replace " + mFile);
+            mLength = tail.length;
+        } catch (IOException e) {
+            // The old journal stays, to be replayed whole, like one that was never cleared
+            Log.e(TAG, "Could not clear toggle journal", e);
+            mLength = -1;
+        } finally {
+            closeQuietly(in);
+            closeQuietly(out);
+        }
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable == null)
+            return;
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            // Nothing useful to do
+        }
+    }
+}
@@ -0,0 +1,268 @@
+package com.example.balbert.todo2day;
+
+import android.util.SparseBooleanArray;
+
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.Iterator;
+
+/**
+ * UndoLog remembers how to reverse the user's recent changes (adding, editing, toggling and
+ * deleting Tasks, and clearing a list) and how to make them again.
+ *
+ * Rather than snapshotting the list, each Entry keeps only the rows its change touched:
+ * the Tasks as they were before and as they are after.  Adding a Task keeps one row,
+ * and clearing 100k Tasks keeps those 100k rows, in a TaskArray, so they take about as
+ * much memory as their descriptions do on disk.  Nothing is kept for rows a change did not
+ * touch.
+ *
+ * Undoing or redoing applies the Entry's rows with one DBHelper call, and so one
+ * transaction: undoing a clear puts every row back with its old _id in a single
+ * restoreTasks(), and redoing it deletes those same rows again, not whatever the list holds
+ * by then.
+ *
+ * The log is bounded: it keeps at most MAX_ENTRIES changes and MAX_ROWS rows, forgetting the
+ * oldest changes first.  A single change bigger than MAX_ROWS is not kept at all.  Making a
+ * new change forgets everything that could have been redone.
+ *
+ * UndoLog is used from TaskRepository's writer thread; its methods are synchronized so the
+ * UI can ask canUndo() and canRedo() at any time.
+ */
+final class UndoLog {
+
+    // Bounds on what is remembered
+    static final int MAX_ENTRIES = 100;
+    static final int MAX_ROWS = 250000;
+
+    /**
+     * Entry is one change: what kind it was, and the rows it touched before and after.
+     */
+    static final class Entry {
+        static final int INSERTED     = 0;
+        static final int UPDATED      = 1;
+        static final int DONE_CHANGED = 2;
+        static final int DELETED      = 3;
+        static final int CLEARED      = 4;
+
+        final int mType;
+        // The rows as they were before the change, and as they are after it
+        final TaskArray mBefore;
+        final TaskArray mAfter;
+
+        private Entry(int type, TaskArray before, TaskArray after) {
+            mType = type;
+            mBefore = before;
+            mAfter = after;
+            mBefore.trimToSize();
+            mAfter.trimToSize();
+        }
+
+        int getRowCount() { return mBefore.size() + mAfter.size(); }
+    }
+
+    /**
+     * @param inserted the Task as inserted, with its _id.
+     */
+    static Entry inserted(Task inserted) {
+        return new Entry(Entry.INSERTED, new TaskArray(0), rows(inserted));
+    }
+
+    /**
+     * @param inserted the Tasks as inserted in one transaction, with their _ids.
+     */
+    static Entry inserted(Collection<Task> inserted) {
+        return new Entry(Entry.INSERTED, new TaskArray(0), rows(inserted));
+    }
+
+    /**
+     * @param before the Tasks as they were before being updated.
+     * @param after the same Tasks with their new values.
+     */
+    static Entry updated(Collection<Task> before, Collection<Task> after) {
+        return new Entry(Entry.UPDATED, rows(before), rows(after));
+    }
+
+    /**
+     * @param id the Task whose done state changed.
+     * @param done its new done state.
+     */
+    static Entry doneChanged(int id, boolean done) {
+        TaskArray before = new TaskArray(1);
+        before.add(id, null, !done);
+        TaskArray after = new TaskArray(1);
+        after.add(id, null, done);
+        return new Entry(Entry.DONE_CHANGED, before, after);
+    }
+
+    /**
+     * @param deleted the Tasks as they were before being deleted.
+     */
+    static Entry deleted(Collection<Task> deleted) {
+        return new Entry(Entry.DELETED, rows(deleted), new TaskArray(0));
+    }
+
+    /**
+     * @param cleared every Task the table or list had before it was cleared, e.g. the
+     *                TaskArray DBHelper.getAllTasks(listId) returns, which is kept as it is.
+     */
+    static Entry cleared(TaskArray cleared) {
+        return new Entry(Entry.CLEARED, cleared, new TaskArray(0));
+    }
+
+    private static TaskArray rows(Task task) {
+        TaskArray rows = new TaskArray(1);
+        rows.add(task);
+        return rows;
+    }
+
+    private static TaskArray rows(Collection<Task> tasks) {
+        if (tasks instanceof TaskArray)
+            return (TaskArray) tasks;
+        TaskArray rows = new TaskArray(tasks.size());
+        rows.addAll(tasks);
+        return rows;
+    }
+
+    private final Deque<Entry> mUndo = new ArrayDeque<>();
+    private final Deque<Entry> mRedo = new ArrayDeque<>();
+    private final int mMaxEntries;
+    private final int mMaxRows;
+    private int mRowCount;
+
+    UndoLog() {
+        this(MAX_ENTRIES, MAX_ROWS);
+    }
+
+    UndoLog(int maxEntries, int maxRows) {
+        mMaxEntries = maxEntries;
+        mMaxRows = maxRows;
+    }
+
+    /**
+     * record() remembers a change that has just been made, and forgets whatever could
+     * have been redone.
+     *
+     * Toggling the same Task back again simply forgets the first toggle, so tapping a
+     * checkbox on and off leaves nothing to undo.
+     * @param entry the change.
+     */
+    synchronized void record(Entry entry) {
+        for (Entry redo : mRedo)
+            mRowCount -= redo.getRowCount();
+        mRedo.clear();
+
+        Entry last = mUndo.peekLast();
+        if (entry.mType == Entry.DONE_CHANGED && last != null && last.mType == Entry.DONE_CHANGED
+                && last.mAfter.size() == 1 && last.mAfter.getId(0) == entry.mAfter.getId(0)
+                && last.mBefore.isDone(0) == entry.mAfter.isDone(0))
+        {
+            mUndo.removeLast();
+            mRowCount -= last.getRowCount();
+            return;
+        }
+
+        if (entry.getRowCount() > mMaxRows)
+        {
+            // Too big to keep; what came before it can no longer be undone in order either
+            clear();
+            return;
+        }
+        mUndo.addLast(entry);
+        mRowCount += entry.getRowCount();
+        trim();
+    }
+
+    /**
+     * trim() forgets the oldest changes until the log is within its bounds.
+     */
+    private void trim() {
+        Iterator<Entry> oldest = mUndo.iterator();
+        while ((mUndo.size() + mRedo.size() > mMaxEntries || mRowCount > mMaxRows) && oldest.hasNext())
+        {
+            mRowCount -= oldest.next().getRowCount();
+            oldest.remove();
+        }
+    }
+
+    synchronized boolean canUndo() { return !mUndo.isEmpty(); }
+
+    synchronized boolean canRedo() { return !mRedo.isEmpty(); }
+
+    synchronized int getRowCount() { return mRowCount; }
+
+    synchronized void clear() {
+        mUndo.clear();
+        mRedo.clear();
+        mRowCount = 0;
+    }
+
+    /**
+     * undo() reverses the latest change, in one transaction.
+     * @param db where to apply it.
+     * @return true if there was a change to undo.
+     */
+    synchronized boolean undo(DBHelper db) {
+        Entry entry = mUndo.pollLast();
+        if (entry == null)
+            return false;
+        switch (entry.mType)
+        {
+            case Entry.INSERTED:
+                db.deleteTasks(entry.mAfter);
+                break;
+            case Entry.UPDATED:
+                db.updateTasks(entry.mBefore);
+                break;
+            case Entry.DONE_CHANGED:
+                db.updateDoneStates(doneStates(entry.mBefore));
+                break;
+            case Entry.DELETED:
+            case Entry.CLEARED:
+                db.restoreTasks(entry.mBefore);
+                break;
+        }
+        mRedo.addLast(entry);
+        return true;
+    }
+
+    /**
+     * redo() makes the latest undone change again, in one transaction.
+     * @param db where to apply it.
+     * @return true if there was a change to redo.
+     */
+    synchronized boolean redo(DBHelper db) {
+        Entry entry = mRedo.pollLast();
+        if (entry == null)
+            return false;
+        switch (entry.mType)
+        {
+            case Entry.INSERTED:
+                db.restoreTasks(entry.mAfter);
+                break;
+            case Entry.UPDATED:
+                db.updateTasks(entry.mAfter);
+                break;
+            case Entry.DONE_CHANGED:
+                db.updateDoneStates(doneStates(entry.mAfter));
+                break;
+            case Entry.DELETED:
+                db.deleteTasks(entry.mBefore);
+                break;
+            case Entry.CLEARED:
+                // Only the rows the clear took away; Tasks added since, by an import,
+                // a sync pull or another app, are left alone
+                db.deleteTasks(entry.mBefore);
+                break;
+        }
+        mUndo.addLast(entry);
+        return true;
+    }
+
+    private static SparseBooleanArray doneStates(TaskArray rows) {
+        SparseBooleanArray doneStates = new SparseBooleanArray(rows.size());
+        for (int i = 0; i < rows.size(); i++)
+            doneStates.put(rows.getId(i), rows.isDone(i));
+        return doneStates;
+    }
+}
@@ -0,0 +1,90 @@
+package com.example.balbert.todo2day;
+
+import org.junit.Test;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for BulkEntry: how pasted lines are cleaned up, and which of them
+ * become new Tasks.
+ */
+public class BulkEntryTest {
+
+    private static final int GROCERIES = 2;
+
+    private static List<String> descriptions(List<Task> tasks) {
+        List<String> descriptions = new ArrayList<>();
+        for (Task task : tasks)
+            descriptions.add(task.getDescription());
+        return descriptions;
+    }
+
+    @Test
+    public void linesAreTrimmedAndLoseTheirBullets() throws Exception {
+        assertEquals("Milk", BulkEntry.clean("  Milk \t"));
+        assertEquals("Milk", BulkEntry.clean("- Milk"));
+        assertEquals("Milk", BulkEntry.clean("*   Milk"));
+        assertEquals("Milk", BulkEntry.clean("\u2022 Milk"));
+        // Only a bullet followed by a space is a bullet
+        assertEquals("-5 degrees", BulkEntry.clean("-5 degrees"));
+        assertEquals("-", BulkEntry.clean(" - "));
+        assertNull(BulkEntry.clean("   "));
+        assertNull(BulkEntry.clean(""));
+    }
+
+    @Test
+    public void everyNewLineIsATaskOfTheList() throws Exception {
+        List<Task> tasks = BulkEntry.parse(new StringReader("Milk\r\n\r\n- Bread\n  Eggs  \n"),
+                new HashSet<String>(), GROCERIES);
+
+        assertEquals(Arrays.asList("Milk", "Bread", "Eggs"), descriptions(tasks));
+        for (Task task : tasks)
+        {
+            assertEquals(GROCERIES, task.getListId());
+            assertFalse(task.isDone());
+            assertEquals(-1, task.getId());
+        }
+    }
+
+    @Test
+    public void linesTheListHasOrThatRepeatAreLeftOut() throws Exception {
+        Set<String> existing = new HashSet<>(Arrays.asList("Milk", "Butter"));
+        List<Task> tasks = BulkEntry.parse(new StringReader("Milk\nBread\n- Bread\nButter \nJam"),
+                existing, GROCERIES);
+
+        assertEquals(Arrays.asList("Bread", "Jam"), descriptions(tasks));
+        // The set now holds everything the list will have
+        assertEquals(new HashSet<>(Arrays.asList("Milk", "Butter", "Bread", "Jam")), existing);
+    }
+
+    @Test
+    public void tenThousandLinesAreParsedInOnePass() throws Exception {
+        StringBuilder text = new StringBuilder();
+        Set<String> existing = new HashSet<>();
+        for (int i = 0; i < 10000; i++)
+        {
+            text.append("- Item ").append(i).append('\n');
+            // Every line pasted twice, and every tenth one already in the list
+            text.append("Item ").append(i).append('\n');
+            if (i % 10 == 0)
+                existing.add("Item " + i);
+        }
+
+        long start = System.nanoTime();
+        List<Task> tasks = BulkEntry.parse(new StringReader(text.toString()), existing, GROCERIES);
+        long elapsedMs = (System.nanoTime() - start) / 1000000;
+
+        assertEquals(9000, tasks.size());
+        assertEquals("Item 1", tasks.get(0).getDescription());
+        assertEquals(10000, existing.size());
+        // Hash lookups, not a scan of the list per line
+        assertTrue("took " + elapsedMs + " ms", elapsedMs < 2000);
+    }
+}
@@ -0,0 +1,50 @@
+package com.example.balbert.todo2day;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for DBConfig: the presets, the PRAGMAs each connection runs and the
+ * checks on each setting.
+ */
+public class DBConfigTest {
+
+    @Test
+    public void defaultsUseWriteAheadLogging() throws Exception {
+        DBConfig config = DBConfig.defaults();
+        assertTrue(config.isWriteAheadLogging());
+        assertEquals(2, config.getConcurrentReaders());
+        assertEquals(Arrays.asList("PRAGMA synchronous = 1", "PRAGMA cache_size = -2048"),
+                config.getConnectionPragmas());
+    }
+
+    @Test
+    public void rollbackJournalReadsOneAtATime() throws Exception {
+        DBConfig config = DBConfig.rollbackJournal().setReaderCount(4);
+        assertFalse(config.isWriteAheadLogging());
+        assertEquals(1, config.getConcurrentReaders());
+        assertEquals(Arrays.asList("PRAGMA synchronous = 2"), config.getConnectionPragmas());
+    }
+
+    @Test
+    public void copiesAreEqualButIndependent() throws Exception {
+        DBConfig config = DBConfig.defaults();
+        DBConfig copy = new DBConfig(config);
+        assertEquals(config, copy);
+        copy.setCacheSizeKb(8192);
+        assertNotEquals(config, copy);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void pageSizeMustBeAPowerOfTwo() throws Exception {
+        DBConfig.defaults().setPageSize(5000);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void journalModeMustBeKnown() throws Exception {
+        DBConfig.defaults().setJournalMode("MEMORY");
+    }
+}
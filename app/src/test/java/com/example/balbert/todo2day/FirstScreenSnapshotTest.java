@@ -0,0 +1,62 @@
+package com.example.balbert.todo2day;
+
+import org.junit.Test;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for FirstScreenSnapshot: a snapshot survives a write and read, and a
+ * missing or unrecognised file reads as no snapshot at all.
+ */
+public class FirstScreenSnapshotTest {
+
+    @Test
+    public void snapshotRoundTrips() throws Exception {
+        File file = File.createTempFile("snapshot", null);
+        try {
+            List<Task> tasks = new ArrayList<>();
+            for (int i = 1; i <= FirstScreenSnapshot.MAX_TASKS + 5; i++)
+                tasks.add(new Task(i, "Task " + i, i % 3 == 0));
+            new FirstScreenSnapshot(tasks, 1000).write(file);
+
+            FirstScreenSnapshot snapshot = FirstScreenSnapshot.read(file);
+            assertNotNull(snapshot);
+            assertEquals(1000, snapshot.getTotalCount());
+            assertEquals(FirstScreenSnapshot.MAX_TASKS, snapshot.getTasks().size());
+            Task third = snapshot.getTasks().get(2);
+            assertEquals(3, third.getId());
+            assertEquals("Task 3", third.getDescription());
+            assertTrue(third.isDone());
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void missingFileIsNoSnapshot() throws Exception {
+        File file = File.createTempFile("snapshot", null);
+        FirstScreenSnapshot.delete(file);
+        assertFalse(file.exists());
+        assertNull(FirstScreenSnapshot.read(file));
+    }
+
+    @Test
+    public void otherVersionIsNoSnapshot() throws Exception {
+        File file = File.createTempFile("snapshot", null);
+        try {
+            DataOutputStream out = new DataOutputStream(new FileOutputStream(file));
+            out.writeInt(-1);
+            out.writeInt(10);
+            out.close();
+            assertNull(FirstScreenSnapshot.read(file));
+        } finally {
+            file.delete();
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package com.example.balbert.todo2day;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * InMemorySyncStore is a device for SyncEngine tests: its Tasks live in a map, numbered and
+ * sequenced the way DBHelper numbers and sequences rows.  Each edit takes the time it was
+ * made as a parameter, so tests decide which edit is the latest.
+ */
+class InMemorySyncStore implements SyncStore {
+
+    private final String mDeviceId = UUID.randomUUID().toString().replace("-", "");
+    private final Map<String, SyncChange> mTasks = new LinkedHashMap<>();
+    private long mSeq;
+    private int mNextId = 1;
+    private long mPushedSeq;
+    private long mPullCursor;
+
+    String add(String description, long time) {
+        String uuid = UUID.randomUUID().toString().replace("-", "");
+        mTasks.put(uuid, new SyncChange(uuid, description, time, false, time, false, 0, ++mSeq, mNextId++));
+        return uuid;
+    }
+
+    void setDescription(String uuid, String description, long time) {
+        SyncChange task = mTasks.get(uuid);
+        mTasks.put(uuid, new SyncChange(uuid, description, time, task.isDone(), task.getDoneTime(),
+                task.isDeleted(), task.getDeletedTime(), ++mSeq, task.getId()));
+    }
+
+    void setDone(String uuid, boolean done, long time) {
+        SyncChange task = mTasks.get(uuid);
+        mTasks.put(uuid, new SyncChange(uuid, task.getDescription(), task.getDescriptionTime(), done, time,
+                task.isDeleted(), task.getDeletedTime(), ++mSeq, task.getId()));
+    }
+
+    void delete(String uuid, long time) {
+        SyncChange task = mTasks.get(uuid);
+        mTasks.put(uuid, new SyncChange(uuid, task.getDescription(), task.getDescriptionTime(),
+                task.isDone(), task.getDoneTime(), true, time, ++mSeq, task.getId()));
+    }
+
+    SyncChange get(String uuid) {
+        return mTasks.get(uuid);
+    }
+
+    /**
+     * @return the live Tasks as "description done" strings, sorted, for comparing devices.
+     */
+    List<String> liveTasks() {
+        List<String> live = new ArrayList<>();
+        for (SyncChange task : mTasks.values())
+            if (!task.isDeleted())
+                live.add(task.getUuid() + " " + task.getDescription() + " " + task.isDone());
+        Collections.sort(live);
+        return live;
+    }
+
+    @Override
+    public String getDeviceId() { return mDeviceId; }
+
+    @Override
+    public long getPushedSeq() { return mPushedSeq; }
+
+    @Override
+    public void setPushedSeq(long seq) { mPushedSeq = seq; }
+
+    @Override
+    public long getPullCursor() { return mPullCursor; }
+
+    @Override
+    public void setPullCursor(long cursor) { mPullCursor = cursor; }
+
+    @Override
+    public List<SyncChange> getChangesAfter(long afterSeq, int afterId, int limit) {
+        List<SyncChange> changes = new ArrayList<>();
+        for (SyncChange task : mTasks.values())
+            if (task.getSeq() > afterSeq || (task.getSeq() == afterSeq && task.getId() > afterId))
+                changes.add(task);
+        Collections.sort(changes, new Comparator<SyncChange>() {
+            @Override
+            public int compare(SyncChange a, SyncChange b) {
+                if (a.getSeq() != b.getSeq())
+                    return a.getSeq() < b.getSeq() ? -1 : 1;
+                return a.getId() - b.getId();
+            }
+        });
+        return changes.size() > limit ? changes.subList(0, limit) : changes;
+    }
+
+    @Override
+    public void applyRemoteChanges(List<SyncChange> changes) {
+        for (SyncChange theirs : changes)
+        {
+            SyncChange mine = mTasks.get(theirs.getUuid());
+            if (mine == null)
+                mTasks.put(theirs.getUuid(), theirs.withSeq(0, mNextId++));
+            else
+                mTasks.put(theirs.getUuid(), SyncChange.merge(mine, theirs));
+        }
+    }
+}
@@ -0,0 +1,165 @@
+package com.example.balbert.todo2day;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * LocalSyncServer is a sync server for SyncEngine tests, listening on a loopback port.
+ *
+ * It keeps one copy of every Task, merging pushes into it with SyncChange.merge(), and
+ * numbers each accepted change so pulls can page through them.  A change a device pushed
+ * and that was taken as it was is not sent back to that device.
+ *
+ * failNext() makes the next requests fail with a status of the test's choosing.
+ */
+class LocalSyncServer {
+
+    private static final class Entry {
+        SyncChange task;
+        String device;
+        boolean asPushed;
+    }
+
+    private final HttpServer mServer;
+    private final Map<String, Entry> mTasks = new HashMap<>();
+    // Server sequence number -> uuid of the Task changed at that point
+    private final TreeMap<Long, String> mLog = new TreeMap<>();
+    private long mSeq;
+    private int mFailuresLeft;
+    private int mFailureStatus;
+    private int mRequests;
+
+    LocalSyncServer() throws IOException {
+        mServer = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        mServer.createContext("/sync/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                try {
+                    LocalSyncServer.this.handle(exchange);
+                } finally {
+                    exchange.close();
+                }
+            }
+        });
+        mServer.start();
+    }
+
+    URL getUrl() throws IOException {
+        return new URL("http://127.0.0.1:" + mServer.getAddress().getPort() + "/sync/");
+    }
+
+    void stop() {
+        mServer.stop(0);
+    }
+
+    synchronized void failNext(int requests, int status) {
+        mFailuresLeft = requests;
+        mFailureStatus = status;
+    }
+
+    synchronized int getRequests() {
+        return mRequests;
+    }
+
+    synchronized int getTaskCount() {
+        return mTasks.size();
+    }
+
+    private synchronized void handle(HttpExchange exchange) throws IOException {
+        mRequests++;
+        if (mFailuresLeft > 0)
+        {
+            mFailuresLeft--;
+            exchange.sendResponseHeaders(mFailureStatus, -1);
+            return;
+        }
+
+        Map<String, String> query = parseQuery(exchange.getRequestURI().getRawQuery());
+        String device = query.get("device");
+        String path = exchange.getRequestURI().getPath();
+        if (path.endsWith("/push") && "POST".equals(exchange.getRequestMethod()))
+        {
+            push(device, SyncBatch.readFrom(exchange.getRequestBody()).getChanges());
+            exchange.sendResponseHeaders(200, -1);
+        }
+        else if (path.endsWith("/pull"))
+        {
+            ByteArrayOutputStream body = new ByteArrayOutputStream();
+            pull(device, Long.parseLong(query.get("since")), Integer.parseInt(query.get("limit")))
+                    .writeTo(body);
+            exchange.getResponseHeaders().set("Content-Type", SyncEngine.CONTENT_TYPE);
+            exchange.sendResponseHeaders(200, body.size());
+            OutputStream out = exchange.getResponseBody();
+            body.writeTo(out);
+            out.close();
+        }
+        else
+            exchange.sendResponseHeaders(404, -1);
+    }
+
+    private void push(String device, List<SyncChange> changes) {
+        for (SyncChange theirs : changes)
+        {
+            Entry entry = mTasks.get(theirs.getUuid());
+            if (entry == null)
+            {
+                entry = new Entry();
+                entry.task = theirs;
+                mTasks.put(theirs.getUuid(), entry);
+            }
+            else
+            {
+                SyncChange merged = SyncChange.merge(entry.task, theirs);
+                if (merged == entry.task)
+                    continue;
+                entry.task = merged;
+            }
+            entry.device = device;
+            entry.asPushed = entry.task.sameValues(theirs);
+            mLog.values().remove(theirs.getUuid());
+            mLog.put(++mSeq, theirs.getUuid());
+        }
+    }
+
+    private SyncBatch pull(String device, long since, int limit) {
+        List<SyncChange> changes = new ArrayList<>();
+        long cursor = since;
+        boolean more = false;
+        for (Map.Entry<Long, String> logged : mLog.tailMap(since, false).entrySet())
+        {
+            if (changes.size() == limit)
+            {
+                more = true;
+                break;
+            }
+            cursor = logged.getKey();
+            Entry entry = mTasks.get(logged.getValue());
+            if (!(entry.asPushed && entry.device.equals(device)))
+                changes.add(entry.task);
+        }
+        return new SyncBatch(changes, cursor, more);
+    }
+
+    private static Map<String, String> parseQuery(String query) {
+        Map<String, String> values = new HashMap<>();
+        if (query != null)
+            for (String pair : query.split("&"))
+            {
+                int equals = pair.indexOf('=');
+                values.put(pair.substring(0, equals), pair.substring(equals + 1));
+            }
+        return values;
+    }
+}
@@ -0,0 +1,73 @@
+package com.example.balbert.todo2day;
+
+import org.junit.After;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for Metrics: nothing is recorded while disabled, and histogram
+ * percentiles and the dump text come out as expected.
+ */
+public class MetricsTest {
+
+    @After
+    public void tearDown() throws Exception {
+        Metrics.setEnabled(false);
+        Metrics.reset();
+    }
+
+    @Test
+    public void nothingIsRecordedWhileDisabled() throws Exception {
+        Metrics.setEnabled(false);
+        Metrics.Counter counter = Metrics.counter("test.disabledCounter");
+        Metrics.Timer timer = Metrics.timer("test.disabledTimer");
+
+        counter.increment();
+        long start = timer.start();
+        timer.stop(start);
+
+        assertEquals(Metrics.NOT_TIMING, start);
+        assertEquals(0, counter.getCount());
+        assertEquals(0, timer.getHistogram().getCount());
+    }
+
+    @Test
+    public void sameNameReturnsSameMetric() throws Exception {
+        assertSame(Metrics.counter("test.same"), Metrics.counter("test.same"));
+        assertSame(Metrics.timer("test.same"), Metrics.timer("test.same"));
+        assertSame(Metrics.histogram("test.same"), Metrics.histogram("test.same"));
+    }
+
+    @Test
+    public void histogramPercentilesAreBucketUpperBounds() throws Exception {
+        Metrics.setEnabled(true);
+        Metrics.Histogram histogram = Metrics.histogram("test.rows");
+        for (int i = 1; i <= 100; i++)
+            histogram.record(i);
+
+        assertEquals(100, histogram.getCount());
+        assertEquals(5050, histogram.getSum());
+        assertEquals(100, histogram.getMax());
+        // 50 falls in the 32..63 bucket
+        assertEquals(63, histogram.getPercentile(50));
+        // Never above the largest value recorded
+        assertEquals(100, histogram.getPercentile(99));
+        assertEquals(1, histogram.getPercentile(0));
+    }
+
+    @Test
+    public void dumpListsRecordedMetricsAndResetClearsThem() throws Exception {
+        Metrics.setEnabled(true);
+        Metrics.counter("test.dumpCounter").add(3);
+        Metrics.Timer timer = Metrics.timer("test.dumpTimer");
+        timer.stop(timer.start());
+
+        String dump = Metrics.dumpToString();
+        assertTrue(dump.contains("counter test.dumpCounter count=3\n"));
+        assertTrue(dump.contains("timer test.dumpTimer count=1 "));
+
+        Metrics.reset();
+        assertFalse(Metrics.dumpToString().contains("test.dump"));
+    }
+}
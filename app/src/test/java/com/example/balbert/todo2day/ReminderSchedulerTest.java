@@ -0,0 +1,316 @@
+package com.example.balbert.todo2day;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for ReminderScheduler, with a clock that only moves when told to, a
+ * map of Tasks standing in for the table, and an Alarm and Listener that record calls.
+ */
+public class ReminderSchedulerTest {
+
+    private static final long MINUTE = 60 * 1000L;
+    private static final long START = 1500000000000L;
+
+    private long mNow;
+    private FakeSource mSource;
+    private List<Long> mAlarmsSet;
+    private int mAlarmsCancelled;
+    private List<List<Task>> mReminders;
+    private long mRemindedUpTo;
+
+    private final ReminderScheduler.Clock mClock = new ReminderScheduler.Clock() {
+        @Override
+        public long currentTimeMillis() {
+            return mNow;
+        }
+    };
+
+    private final ReminderScheduler.Alarm mAlarm = new ReminderScheduler.Alarm() {
+        @Override
+        public void set(long timeMillis) {
+            mAlarmsSet.add(timeMillis);
+        }
+
+        @Override
+        public void cancel() {
+            mAlarmsCancelled++;
+        }
+    };
+
+    private final ReminderScheduler.Listener mListener = new ReminderScheduler.Listener() {
+        @Override
+        public void onReminders(List<Task> dueTasks, long remindedUpTo) {
+            mReminders.add(dueTasks);
+            mRemindedUpTo = remindedUpTo;
+        }
+    };
+
+    /**
+     * FakeSource answers getDueTasks() from a map, the way the due index would.
+     */
+    private static class FakeSource implements ReminderScheduler.Source {
+        final Map<Integer, Task> mTasks = new LinkedHashMap<>();
+        int mQueries;
+
+        Task put(int id, long dueAt) {
+            Task task = new Task(id, "Task " + id, false, dueAt);
+            mTasks.put(id, task);
+            return task;
+        }
+
+        @Override
+        public List<Task> getDueTasks(long afterDueAt, int afterId, int limit) {
+            mQueries++;
+            List<Task> due = new ArrayList<>();
+            for (Task task : mTasks.values())
+            {
+                if (task.isDone() || !task.hasDueDate())
+                    continue;
+                if (task.getDueAt() > afterDueAt || (task.getDueAt() == afterDueAt && task.getId() > afterId))
+                    due.add(new Task(task.getId(), task.getDescription(), false, task.getDueAt()));
+            }
+            Collections.sort(due, new Comparator<Task>() {
+                @Override
+                public int compare(Task a, Task b) {
+                    if (a.getDueAt() != b.getDueAt())
+                        return a.getDueAt() < b.getDueAt() ? -1 : 1;
+                    return a.getId() - b.getId();
+                }
+            });
+            return due.size() > limit ? due.subList(0, limit) : due;
+        }
+
+        @Override
+        public Task getTask(int id) {
+            return mTasks.get(id);
+        }
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        mNow = START;
+        mSource = new FakeSource();
+        mAlarmsSet = new ArrayList<>();
+        mAlarmsCancelled = 0;
+        mReminders = new ArrayList<>();
+        mRemindedUpTo = -1;
+    }
+
+    private ReminderScheduler start(int capacity) {
+        ReminderScheduler scheduler = new ReminderScheduler(mSource, mClock, mAlarm, mListener, START, capacity);
+        scheduler.start();
+        return scheduler;
+    }
+
+    private void change(ReminderScheduler scheduler, TaskChange change) {
+        scheduler.onTasksChanged(Collections.singletonList(change));
+    }
+
+    private static List<Integer> ids(List<Task> tasks) {
+        List<Integer> ids = new ArrayList<>();
+        for (Task task : tasks)
+            ids.add(task.getId());
+        return ids;
+    }
+
+    @Test
+    public void oneWakeupForTheFirstTaskDue() throws Exception {
+        mSource.put(1, START + 30 * MINUTE);
+        mSource.put(2, START + 10 * MINUTE);
+        mSource.put(3, START + 20 * MINUTE);
+        mSource.put(4, Task.NO_DUE_DATE);
+
+        ReminderScheduler scheduler = start(8);
+
+        assertEquals(Collections.singletonList(START + 10 * MINUTE), mAlarmsSet);
+        assertEquals(START + 10 * MINUTE, scheduler.getWakeupTime());
+        assertEquals(3, scheduler.getQueuedCount());
+        assertEquals(1, mSource.mQueries);
+    }
+
+    @Test
+    public void nothingDueCancelsTheWakeup() throws Exception {
+        mSource.put(1, Task.NO_DUE_DATE);
+        ReminderScheduler scheduler = start(8);
+
+        assertTrue(mAlarmsSet.isEmpty());
+        assertEquals(ReminderScheduler.NO_WAKEUP, scheduler.getWakeupTime());
+
+        Task task = mSource.put(2, START + MINUTE);
+        change(scheduler, TaskChange.inserted(task));
+        assertEquals(Collections.singletonList(START + MINUTE), mAlarmsSet);
+
+        change(scheduler, TaskChange.deleted(2));
+        assertEquals(1, mAlarmsCancelled);
+        assertEquals(ReminderScheduler.NO_WAKEUP, scheduler.getWakeupTime());
+    }
+
+    @Test
+    public void overdueTasksAreNotRemindedOf() throws Exception {
+        mSource.put(1, START - MINUTE);
+        mSource.put(2, START);
+        ReminderScheduler scheduler = start(8);
+
+        assertEquals(0, scheduler.getQueuedCount());
+        assertEquals(ReminderScheduler.NO_WAKEUP, scheduler.getWakeupTime());
+    }
+
+    @Test
+    public void changesOnlyMoveTheWakeupWhenTheFirstTaskChanges() throws Exception {
+        mSource.put(1, START + 10 * MINUTE);
+        ReminderScheduler scheduler = start(8);
+        int queries = mSource.mQueries;
+
+        // Later than the first: the wakeup stays where it is
+        change(scheduler, TaskChange.inserted(mSource.put(2, START + 20 * MINUTE)));
+        assertEquals(1, mAlarmsSet.size());
+
+        // Sooner than the first: the wakeup moves
+        change(scheduler, TaskChange.inserted(mSource.put(3, START + 5 * MINUTE)));
+        assertEquals(START + 5 * MINUTE, (long) mAlarmsSet.get(1));
+
+        // Its due date is edited to later
+        change(scheduler, TaskChange.updated(mSource.put(3, START + 15 * MINUTE)));
+        assertEquals(START + 10 * MINUTE, (long) mAlarmsSet.get(2));
+
+        // The first is done, then not done again
+        mSource.getTask(1).setDone(true);
+        change(scheduler, TaskChange.doneChanged(1, true));
+        assertEquals(START + 15 * MINUTE, (long) mAlarmsSet.get(3));
+        mSource.getTask(1).setDone(false);
+        change(scheduler, TaskChange.doneChanged(1, false));
+        assertEquals(START + 10 * MINUTE, (long) mAlarmsSet.get(4));
+
+        // Its due date is taken away
+        change(scheduler, TaskChange.updated(mSource.put(1, Task.NO_DUE_DATE)));
+        assertEquals(START + 15 * MINUTE, (long) mAlarmsSet.get(5));
+
+        // A move changes nothing
+        change(scheduler, TaskChange.moved(2, 3));
+        assertEquals(6, mAlarmsSet.size());
+        assertEquals(2, scheduler.getQueuedCount());
+
+        // None of that read the table again
+        assertEquals(queries, mSource.mQueries);
+    }
+
+    @Test
+    public void alarmRemindsOfEverythingDue() throws Exception {
+        mSource.put(1, START + 10 * MINUTE);
+        mSource.put(2, START + 10 * MINUTE);
+        mSource.put(3, START + 5 * MINUTE);
+        mSource.put(4, START + 60 * MINUTE);
+        ReminderScheduler scheduler = start(8);
+
+        // Called early, nothing is due yet
+        mNow = START + MINUTE;
+        scheduler.onAlarm();
+        assertTrue(mReminders.isEmpty());
+
+        mNow = START + 12 * MINUTE;
+        scheduler.onAlarm();
+        assertEquals(1, mReminders.size());
+        assertEquals(Arrays.asList(3, 1, 2), ids(mReminders.get(0)));
+        assertEquals(mNow, mRemindedUpTo);
+        assertEquals(mNow, scheduler.getRemindedUpTo());
+        assertEquals(START + 60 * MINUTE, scheduler.getWakeupTime());
+
+        // Once reminded of, a Task edited to a time already past is not reminded of again
+        change(scheduler, TaskChange.updated(mSource.put(1, START + 11 * MINUTE)));
+        mNow = START + 60 * MINUTE;
+        scheduler.onAlarm();
+        assertEquals(2, mReminders.size());
+        assertEquals(Collections.singletonList(4), ids(mReminders.get(1)));
+        assertEquals(ReminderScheduler.NO_WAKEUP, scheduler.getWakeupTime());
+    }
+
+    @Test
+    public void heapOnlyHoldsItsCapacity() throws Exception {
+        for (int id = 1; id <= 10; id++)
+            mSource.put(id, START + id * MINUTE);
+        ReminderScheduler scheduler = start(3);
+        assertEquals(3, scheduler.getQueuedCount());
+
+        // Beyond the horizon: left in the table
+        change(scheduler, TaskChange.inserted(mSource.put(11, START + 30 * MINUTE)));
+        assertEquals(3, scheduler.getQueuedCount());
+
+        // Inside it: pushes the latest one out
+        change(scheduler, TaskChange.inserted(mSource.put(12, START + 90 * 1000L)));
+        assertEquals(3, scheduler.getQueuedCount());
+        assertEquals(START + MINUTE, scheduler.getWakeupTime());
+
+        // Every Task still comes due, in order, as the heap is read again
+        List<Integer> reminded = new ArrayList<>();
+        for (int minute = 1; minute <= 30; minute++)
+        {
+            mNow = START + minute * MINUTE;
+            scheduler.onAlarm();
+            assertTrue(scheduler.getQueuedCount() <= 3);
+        }
+        for (List<Task> tasks : mReminders)
+            reminded.addAll(ids(tasks));
+        assertEquals(Arrays.asList(1, 12, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11), reminded);
+        assertEquals(ReminderScheduler.NO_WAKEUP, scheduler.getWakeupTime());
+    }
+
+    @Test
+    public void emptiedHeapReadsTheNextTasks() throws Exception {
+        for (int id = 1; id <= 4; id++)
+            mSource.put(id, START + id * MINUTE);
+        ReminderScheduler scheduler = start(2);
+
+        mSource.mTasks.remove(1);
+        change(scheduler, TaskChange.deleted(1));
+        mSource.mTasks.remove(2);
+        change(scheduler, TaskChange.deleted(2));
+
+        assertEquals(2, scheduler.getQueuedCount());
+        assertEquals(START + 3 * MINUTE, scheduler.getWakeupTime());
+    }
+
+    @Test
+    public void clearingReadsTheHeapAgain() throws Exception {
+        mSource.put(1, START + MINUTE);
+        mSource.put(2, START + 2 * MINUTE);
+        ReminderScheduler scheduler = start(8);
+
+        mSource.mTasks.clear();
+        change(scheduler, TaskChange.cleared());
+        assertEquals(0, scheduler.getQueuedCount());
+        assertEquals(ReminderScheduler.NO_WAKEUP, scheduler.getWakeupTime());
+
+        mSource.put(1, START + MINUTE);
+        mSource.put(2, START + 2 * MINUTE);
+        change(scheduler, TaskChange.restored());
+        assertEquals(2, scheduler.getQueuedCount());
+        assertEquals(START + MINUTE, scheduler.getWakeupTime());
+    }
+
+    @Test
+    public void changesBeforeStartAreIgnored() throws Exception {
+        ReminderScheduler scheduler = new ReminderScheduler(mSource, mClock, mAlarm, mListener, START, 8);
+        scheduler.onTasksChanged(Collections.singletonList(TaskChange.inserted(mSource.put(1, START + MINUTE))));
+        assertEquals(0, scheduler.getQueuedCount());
+        assertTrue(mAlarmsSet.isEmpty());
+
+        scheduler.start();
+        assertEquals(START + MINUTE, scheduler.getWakeupTime());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void capacityMustBePositive() throws Exception {
+        new ReminderScheduler(mSource, mClock, mAlarm, mListener, START, 0);
+    }
+}
@@ -0,0 +1,33 @@
+package com.example.balbert.todo2day;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for turning typed text into an FTS prefix query.
+ */
+public class SearchQueryTest {
+
+    @Test
+    public void wordsBecomePrefixTerms() throws Exception {
+        assertEquals("buy* mi*", DBHelper.toPrefixQuery("Buy mi"));
+    }
+
+    @Test
+    public void punctuationAndFtsSyntaxAreDropped() throws Exception {
+        assertEquals("call* mom* or* dad*", DBHelper.toPrefixQuery("\"call\" mom - OR (dad)*"));
+    }
+
+    @Test
+    public void onlyAsciiLettersAreLowercased() throws Exception {
+        // The simple tokenizer indexes "\u00dcberweisung" as it is, capital \u00dc and all
+        assertEquals("\u00fcberweisung* \u00dcber* stra\u00dfe*",
+                DBHelper.toPrefixQuery("\u00fcberweisung \u00dcBER Stra\u00dfe"));
+    }
+
+    @Test
+    public void blankQueryHasNoTerms() throws Exception {
+        assertEquals("", DBHelper.toPrefixQuery("  ?! "));
+    }
+}
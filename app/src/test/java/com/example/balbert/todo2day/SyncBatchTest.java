@@ -0,0 +1,62 @@
+package com.example.balbert.todo2day;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for the SyncBatch wire format.
+ */
+public class SyncBatchTest {
+
+    @Test
+    public void roundTripsEveryField() throws Exception {
+        List<SyncChange> changes = Arrays.asList(
+                new SyncChange("0123456789abcdef0123456789abcdef", "Caf\u00e9 \u2615", 1500000000000L,
+                        true, 1500000000123L, false, 0),
+                new SyncChange("ffffffffffffffffffffffffffffffff", null, 5, false, 1600000000000L, true, 3),
+                new SyncChange("00000000000000000000000000000000", "", 0, false, 0, false, 0));
+
+        SyncBatch read = roundTrip(new SyncBatch(changes, 42, true));
+        assertEquals(42, read.getCursor());
+        assertTrue(read.hasMore());
+        assertEquals(3, read.getChanges().size());
+        for (int i = 0; i < changes.size(); i++)
+            assertTrue(read.getChanges().get(i).toString(), changes.get(i).sameValues(read.getChanges().get(i)));
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsSomethingElse() throws Exception {
+        SyncBatch.readFrom(new ByteArrayInputStream("{\"tasks\": []}".getBytes("UTF-8")));
+    }
+
+    @Test
+    public void changesMadeTogetherEncodeSmall() throws Exception {
+        List<SyncChange> changes = new ArrayList<>();
+        long time = 1500000000000L;
+        for (int i = 0; i < 1000; i++)
+        {
+            String uuid = String.format("%032x", i * 7919L);
+            changes.add(new SyncChange(uuid, "Task " + i, time + i, i % 2 == 0, time + i, false, 0));
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new SyncBatch(changes).writeTo(out);
+
+        // 16 bytes of uuid, about 9 of description and a few of timestamps, before gzip
+        assertTrue("1000 changes took " + out.size() + " bytes", out.size() < 30000);
+        assertEquals(1000, SyncBatch.readFrom(new ByteArrayInputStream(out.toByteArray())).getChanges().size());
+    }
+
+    private static SyncBatch roundTrip(SyncBatch batch) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        batch.writeTo(out);
+        return SyncBatch.readFrom(new ByteArrayInputStream(out.toByteArray()));
+    }
+}
@@ -0,0 +1,57 @@
+package com.example.balbert.todo2day;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for SyncChange.merge(): last writer wins, one field at a time.
+ */
+public class SyncChangeTest {
+
+    private static final String UUID = "0123456789abcdef0123456789abcdef";
+
+    @Test
+    public void eachFieldKeepsItsLatestValue() throws Exception {
+        SyncChange mine = new SyncChange(UUID, "Buy milk", 100, true, 300, false, 0, 7, 3);
+        SyncChange theirs = new SyncChange(UUID, "Buy oat milk", 200, false, 150, false, 0);
+
+        SyncChange merged = SyncChange.merge(mine, theirs);
+        assertEquals("Buy oat milk", merged.getDescription());
+        assertEquals(200, merged.getDescriptionTime());
+        assertTrue(merged.isDone());
+        assertEquals(300, merged.getDoneTime());
+        // Bookkeeping stays local
+        assertEquals(7, merged.getSeq());
+        assertEquals(3, merged.getId());
+    }
+
+    @Test
+    public void tiesGoTheSameWayWhicheverSideMerges() throws Exception {
+        SyncChange a = new SyncChange(UUID, "apples", 100, false, 100, false, 0);
+        SyncChange b = new SyncChange(UUID, "pears", 100, true, 100, false, 0);
+
+        assertTrue(SyncChange.merge(a, b).sameValues(SyncChange.merge(b, a)));
+        assertEquals("pears", SyncChange.merge(a, b).getDescription());
+        assertTrue(SyncChange.merge(a, b).isDone());
+    }
+
+    @Test
+    public void nothingNewReturnsMine() throws Exception {
+        SyncChange mine = new SyncChange(UUID, "Buy milk", 100, false, 100, false, 0);
+        SyncChange older = new SyncChange(UUID, "Buy bread", 50, true, 50, false, 0);
+
+        assertSame(mine, SyncChange.merge(mine, older));
+        assertSame(mine, SyncChange.merge(mine, mine.withSeq(9, 9)));
+    }
+
+    @Test
+    public void deleteWinsOverAnEarlierEdit() throws Exception {
+        SyncChange edited = new SyncChange(UUID, "Buy milk", 200, false, 100, false, 0);
+        SyncChange deleted = new SyncChange(UUID, "Buy", 100, false, 100, true, 300);
+
+        SyncChange merged = SyncChange.merge(edited, deleted);
+        assertTrue(merged.isDeleted());
+        assertEquals("Buy milk", merged.getDescription());
+    }
+}
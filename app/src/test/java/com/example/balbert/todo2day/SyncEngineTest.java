@@ -0,0 +1,218 @@
+package com.example.balbert.todo2day;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for SyncEngine, syncing InMemorySyncStore devices through a
+ * LocalSyncServer on a loopback port.  Waits between retries are recorded, not slept.
+ */
+public class SyncEngineTest {
+
+    private LocalSyncServer mServer;
+    private final List<Long> mSleeps = new ArrayList<>();
+
+    @Before
+    public void setUp() throws Exception {
+        mServer = new LocalSyncServer();
+        mSleeps.clear();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mServer.stop();
+    }
+
+    private SyncEngine engine(SyncStore store) throws IOException {
+        return new SyncEngine(store, mServer.getUrl(), new SyncEngine.Sleeper() {
+            @Override
+            public void sleep(long millis) {
+                mSleeps.add(millis);
+            }
+        }, new Random(1));
+    }
+
+    @Test
+    public void twoDevicesConverge() throws Exception {
+        InMemorySyncStore phone = new InMemorySyncStore();
+        InMemorySyncStore tablet = new InMemorySyncStore();
+        SyncEngine phoneSync = engine(phone);
+        SyncEngine tabletSync = engine(tablet);
+
+        String milk = phone.add("Buy milk", 10);
+        String bread = phone.add("Buy bread", 11);
+        String call = phone.add("Call mum", 12);
+        phoneSync.sync();
+        SyncEngine.Result first = tabletSync.sync();
+        assertEquals(3, first.getPulled());
+        assertEquals(phone.liveTasks(), tablet.liveTasks());
+
+        tablet.setDescription(milk, "Buy oat milk", 20);
+        tablet.delete(bread, 21);
+        phone.setDone(call, true, 22);
+        String eggs = phone.add("Buy eggs", 23);
+        phoneSync.sync();
+        tabletSync.sync();
+        phoneSync.sync();
+
+        assertEquals(phone.liveTasks(), tablet.liveTasks());
+        assertEquals(3, phone.liveTasks().size());
+        assertEquals("Buy oat milk", phone.get(milk).getDescription());
+        assertTrue(phone.get(bread).isDeleted());
+        assertTrue(tablet.get(call).isDone());
+        assertNotNull(tablet.get(eggs));
+
+        // Nothing left to exchange
+        SyncEngine.Result idle = phoneSync.sync();
+        assertEquals(0, idle.getPushed());
+        assertEquals(0, idle.getPulled());
+    }
+
+    @Test
+    public void editsToDifferentFieldsBothSurvive() throws Exception {
+        InMemorySyncStore phone = new InMemorySyncStore();
+        InMemorySyncStore tablet = new InMemorySyncStore();
+        String task = phone.add("Buy milk", 10);
+        engine(phone).sync();
+        engine(tablet).sync();
+
+        // Offline on both: a rename on one, a tick on the other
+        phone.setDescription(task, "Buy 2 litres of milk", 30);
+        tablet.setDone(task, true, 20);
+        engine(phone).sync();
+        engine(tablet).sync();
+        engine(phone).sync();
+
+        for (InMemorySyncStore device : new InMemorySyncStore[] {phone, tablet})
+        {
+            assertEquals("Buy 2 litres of milk", device.get(task).getDescription());
+            assertTrue(device.get(task).isDone());
+        }
+    }
+
+    @Test
+    public void laterEditOfTheSameFieldWins() throws Exception {
+        InMemorySyncStore phone = new InMemorySyncStore();
+        InMemorySyncStore tablet = new InMemorySyncStore();
+        String task = phone.add("Buy milk", 10);
+        engine(phone).sync();
+        engine(tablet).sync();
+
+        tablet.setDescription(task, "Buy cheese", 40);
+        phone.setDescription(task, "Buy butter", 30);
+        // The older edit reaches the server last
+        engine(tablet).sync();
+        engine(phone).sync();
+        engine(tablet).sync();
+
+        assertEquals("Buy cheese", phone.get(task).getDescription());
+        assertEquals("Buy cheese", tablet.get(task).getDescription());
+    }
+
+    @Test
+    public void largeSyncsArePaged() throws Exception {
+        InMemorySyncStore phone = new InMemorySyncStore();
+        InMemorySyncStore tablet = new InMemorySyncStore();
+        int count = SyncEngine.BATCH_SIZE * 2 + 7;
+        for (int i = 0; i < count; i++)
+            phone.add("Task " + i, i);
+
+        SyncEngine.Result pushed = engine(phone).sync();
+        assertEquals(count, pushed.getPushed());
+        // 3 pushes and 1 pull that finds nothing new for this device
+        assertEquals(4, pushed.getRequests());
+        assertEquals(count, phone.getPushedSeq());
+
+        SyncEngine.Result pulled = engine(tablet).sync();
+        assertEquals(count, pulled.getPulled());
+        assertEquals(3, pulled.getRequests());
+        assertEquals(phone.liveTasks(), tablet.liveTasks());
+    }
+
+    @Test
+    public void deltaSyncSendsAFractionOfTheInitialSync() throws Exception {
+        InMemorySyncStore phone = new InMemorySyncStore();
+        List<String> uuids = new ArrayList<>();
+        for (int i = 0; i < 2000; i++)
+            uuids.add(phone.add("Task number " + i + " with a longer description", 1000000 + i));
+        SyncEngine sync = engine(phone);
+        SyncEngine.Result initial = sync.sync();
+
+        phone.setDone(uuids.get(10), true, 2000000);
+        phone.setDescription(uuids.get(1500), "Renamed", 2000001);
+        SyncEngine.Result delta = sync.sync();
+
+        assertEquals(2, delta.getPushed());
+        assertTrue("Delta sent " + delta.getBytesSent() + " bytes, initial " + initial.getBytesSent(),
+                delta.getBytesSent() * 100 < initial.getBytesSent());
+        assertTrue("Delta sent " + delta.getBytesSent() + " bytes", delta.getBytesSent() < 200);
+    }
+
+    @Test
+    public void serverErrorsAreRetriedWithBackoff() throws Exception {
+        InMemorySyncStore phone = new InMemorySyncStore();
+        phone.add("Buy milk", 10);
+        mServer.failNext(3, 503);
+
+        SyncEngine.Result result = engine(phone).sync();
+        assertEquals(3, result.getRetries());
+        assertEquals(1, result.getPushed());
+        assertEquals(1, mServer.getTaskCount());
+        assertEquals(3, mSleeps.size());
+        assertTrue(mSleeps.get(2) > mSleeps.get(0));
+    }
+
+    @Test
+    public void failedSyncResumesWhereItStopped() throws Exception {
+        InMemorySyncStore phone = new InMemorySyncStore();
+        phone.add("Buy milk", 10);
+        mServer.failNext(SyncEngine.MAX_ATTEMPTS, 500);
+        try {
+            engine(phone).sync();
+            fail("Expected the sync to give up");
+        } catch (SyncEngine.HttpStatusException e) {
+            assertEquals(500, e.getStatus());
+        }
+        assertEquals(SyncEngine.MAX_ATTEMPTS - 1, mSleeps.size());
+        assertEquals(0, phone.getPushedSeq());
+
+        assertEquals(1, engine(phone).sync().getPushed());
+        assertEquals(1, mServer.getTaskCount());
+    }
+
+    @Test
+    public void clientErrorsAreNotRetried() throws Exception {
+        InMemorySyncStore phone = new InMemorySyncStore();
+        phone.add("Buy milk", 10);
+        mServer.failNext(1, 400);
+        try {
+            engine(phone).sync();
+            fail("Expected the sync to fail");
+        } catch (SyncEngine.HttpStatusException e) {
+            assertEquals(400, e.getStatus());
+        }
+        assertEquals(0, mSleeps.size());
+        assertEquals(1, mServer.getRequests());
+    }
+
+    @Test
+    public void backoffDoublesUpToTheCapWithJitter() throws Exception {
+        Random random = new Random(7);
+        for (int attempt = 0; attempt < 12; attempt++)
+        {
+            long ceiling = Math.min(SyncEngine.MAX_BACKOFF_MS, SyncEngine.INITIAL_BACKOFF_MS << attempt);
+            long delay = SyncEngine.backoffMillis(attempt, random);
+            assertTrue(delay <= ceiling);
+            assertTrue(delay >= ceiling / 2);
+        }
+        assertTrue(SyncEngine.backoffMillis(1000, random) <= SyncEngine.MAX_BACKOFF_MS);
+    }
+}
@@ -0,0 +1,119 @@
+package com.example.balbert.todo2day;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for TaskArray: rows round-trip through the packed arrays, and the
+ * flyweight Tasks read and write through to them.
+ */
+public class TaskArrayTest {
+
+    @Test
+    public void rowsRoundTrip() throws Exception {
+        TaskArray tasks = new TaskArray(1);
+        tasks.add(new Task(1, "Buy milk", false));
+        tasks.add(2, null, true);
+        tasks.add(3, "", false);
+        tasks.add(4, "Caf\u00e9 \u2615 \u65e5\u672c", true);
+        char[] chars = "Walk the dog  ".toCharArray();
+        tasks.add(5, chars, 12, false);
+
+        assertEquals(5, tasks.size());
+        assertEquals("Buy milk", tasks.getDescription(0));
+        assertNull(tasks.getDescription(1));
+        assertTrue(tasks.isDone(1));
+        assertEquals("", tasks.getDescription(2));
+        assertEquals("Caf\u00e9 \u2615 \u65e5\u672c", tasks.getDescription(3));
+        assertEquals("Walk the dog", tasks.getDescription(4));
+        assertEquals(5, tasks.getId(4));
+
+        tasks.trimToSize();
+        assertEquals("Caf\u00e9 \u2615 \u65e5\u672c", tasks.getDescription(3));
+    }
+
+    @Test
+    public void flyweightWritesThrough() throws Exception {
+        TaskArray tasks = new TaskArray();
+        tasks.add(7, "Buy milk", false);
+        List<Task> list = tasks;
+
+        Task task = list.get(0);
+        task.setDone(true);
+        task.setDescription("Buy oat milk");
+
+        assertEquals(7, task.getId());
+        assertTrue(tasks.isDone(0));
+        assertEquals("Buy oat milk", tasks.getDescription(0));
+        assertEquals("Buy oat milk", list.get(0).getDescription());
+        assertTrue(task.toString().contains("Buy oat milk"));
+    }
+
+    @Test
+    public void clearEmptiesTheArray() throws Exception {
+        TaskArray tasks = new TaskArray();
+        for (int i = 0; i < 100; i++)
+            tasks.add(i, "Task " + i, i % 2 == 0);
+        tasks.clear();
+        tasks.add(1, "again", false);
+
+        assertEquals(1, tasks.size());
+        assertEquals("again", tasks.getDescription(0));
+        assertFalse(tasks.isDone(0));
+    }
+
+    @Test
+    public void dueDatesRoundTrip() throws Exception {
+        TaskArray tasks = new TaskArray(1);
+        tasks.add(1, "No date", false);
+        tasks.add(new Task(2, "Dentist", false, 1500000000000L));
+        tasks.add(3, "Also no date", true);
+
+        assertEquals(Task.NO_DUE_DATE, tasks.getDueAt(0));
+        assertEquals(1500000000000L, tasks.getDueAt(1));
+        assertEquals(Task.NO_DUE_DATE, tasks.getDueAt(2));
+
+        Task task = ((List<Task>) tasks).get(2);
+        assertFalse(task.hasDueDate());
+        task.setDueAt(1600000000000L);
+        assertEquals(1600000000000L, tasks.getDueAt(2));
+        assertTrue(task.hasDueDate());
+
+        tasks.trimToSize();
+        assertEquals(1500000000000L, tasks.getDueAt(1));
+        tasks.clear();
+        tasks.add(4, "After clear", false);
+        assertEquals(Task.NO_DUE_DATE, tasks.getDueAt(0));
+    }
+
+    @Test
+    public void listIdsRoundTrip() throws Exception {
+        TaskArray tasks = new TaskArray(1);
+        tasks.add(1, "First list", false);
+        tasks.add(new Task(2, "Groceries", false, Task.NO_DUE_DATE, 3));
+        tasks.add(3, "Also first list", true);
+
+        assertEquals(Task.DEFAULT_LIST_ID, tasks.getListId(0));
+        assertEquals(3, tasks.getListId(1));
+        assertEquals(Task.DEFAULT_LIST_ID, tasks.getListId(2));
+
+        Task task = ((List<Task>) tasks).get(2);
+        task.setListId(5);
+        assertEquals(5, tasks.getListId(2));
+        assertEquals(5, task.getListId());
+
+        tasks.trimToSize();
+        assertEquals(3, tasks.getListId(1));
+        tasks.clear();
+        tasks.add(4, "After clear", false);
+        assertEquals(Task.DEFAULT_LIST_ID, tasks.getListId(0));
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void getPastTheEndThrows() throws Exception {
+        new TaskArray().get(0);
+    }
+}
@@ -0,0 +1,78 @@
+package com.example.balbert.todo2day;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for TaskCache's lookups, LRU eviction and counters.
+ */
+public class TaskCacheTest {
+
+    @Test
+    public void getReturnsCachedCopyAndCountsHits() throws Exception {
+        TaskCache cache = new TaskCache(4);
+        Task task = new Task(7, "Buy milk", false);
+        cache.put(task);
+
+        Task cached = cache.get(7);
+        assertEquals("Buy milk", cached.getDescription());
+        assertNotSame(task, cached);
+        assertNull(cache.get(8));
+        assertEquals(1, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+    }
+
+    @Test
+    public void leastRecentlyUsedTaskIsEvicted() throws Exception {
+        TaskCache cache = new TaskCache(3);
+        cache.put(new Task(1, "one", false));
+        cache.put(new Task(2, "two", false));
+        cache.put(new Task(3, "three", false));
+        // Touch 1 so 2 becomes the oldest
+        cache.get(1);
+        cache.put(new Task(4, "four", false));
+
+        assertEquals(3, cache.size());
+        assertNull(cache.get(2));
+        assertNotNull(cache.get(1));
+        assertNotNull(cache.get(3));
+        assertNotNull(cache.get(4));
+    }
+
+    @Test
+    public void removeSetDoneAndClear() throws Exception {
+        TaskCache cache = new TaskCache(8);
+        for (int id = 1; id <= 8; id++)
+            cache.put(new Task(id, "task " + id, false));
+
+        cache.remove(5);
+        assertNull(cache.get(5));
+        cache.setDone(6, true);
+        assertTrue(cache.get(6).isDone());
+
+        cache.clear();
+        assertEquals(0, cache.size());
+        assertNull(cache.get(6));
+    }
+
+    @Test
+    public void shrinkingKeepsMostRecentlyUsed() throws Exception {
+        TaskCache cache = new TaskCache(100);
+        for (int id = 1; id <= 100; id++)
+            cache.put(new Task(id, "task " + id, false));
+
+        cache.setMaxSize(10);
+        assertEquals(10, cache.size());
+        assertNull(cache.get(90));
+        for (int id = 91; id <= 100; id++)
+            assertNotNull(cache.get(id));
+    }
+
+    @Test
+    public void tasksWithoutIdAreNotCached() throws Exception {
+        TaskCache cache = new TaskCache(4);
+        cache.put(new Task("not saved yet", false));
+        assertEquals(0, cache.size());
+    }
+}
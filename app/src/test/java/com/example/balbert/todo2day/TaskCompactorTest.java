@@ -0,0 +1,39 @@
+package com.example.balbert.todo2day;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for TaskCompactor's rate limit: how long it waits between steps.
+ */
+public class TaskCompactorTest {
+
+    @Test
+    public void fastStepWaitsOutItsShareOfASecond() throws Exception {
+        // 500 rows at 5000 a second is a tenth of a second's work
+        assertEquals(100, TaskCompactor.delayMillis(500, 0, 5000));
+        assertEquals(60, TaskCompactor.delayMillis(500, 40, 5000));
+    }
+
+    @Test
+    public void slowStepGoesStraightOn() throws Exception {
+        assertEquals(0, TaskCompactor.delayMillis(500, 100, 5000));
+        assertEquals(0, TaskCompactor.delayMillis(500, 250, 5000));
+    }
+
+    @Test
+    public void zeroMeansNoLimit() throws Exception {
+        assertEquals(0, TaskCompactor.delayMillis(100000, 0, 0));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void chunkSizeMustBePositive() throws Exception {
+        new TaskCompactor(null).setChunkSize(0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rateLimitCannotBeNegative() throws Exception {
+        new TaskCompactor(null).setMaxRowsPerSecond(-1);
+    }
+}
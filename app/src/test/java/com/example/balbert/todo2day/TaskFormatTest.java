@@ -0,0 +1,85 @@
+package com.example.balbert.todo2day;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests writing Tasks with TaskWriter and reading them back with TaskReader.
+ */
+public class TaskFormatTest {
+
+    private static final Task[] TASKS = {
+            new Task(1, "Buy milk", false),
+            new Task(2, "Say \"hi\"\n\tto Zo\u00eb \u2603 \u0001 \\ /", true, 1500000000000L, 3),
+            new Task(3, "", false, Task.NO_DUE_DATE, 200),
+            new Task(4, null, true, Long.MAX_VALUE, Integer.MAX_VALUE),
+    };
+
+    @Test
+    public void binaryRoundTrip() throws Exception {
+        assertRoundTrip(TaskWriter.FORMAT_BINARY);
+    }
+
+    @Test
+    public void ndjsonRoundTrip() throws Exception {
+        assertRoundTrip(TaskWriter.FORMAT_NDJSON);
+    }
+
+    @Test
+    public void ndjsonIgnoresUnknownMembersAndOrder() throws Exception {
+        String json = "{ \"done\": true, \"extra\": {\"a\": [1, \"}\"]}, \"description\": \"x\", \"id\": 9 }\n\n";
+        TaskReader reader = TaskReader.newReader(TaskWriter.FORMAT_NDJSON,
+                new ByteArrayInputStream(json.getBytes("UTF-8")));
+        Task task = reader.read();
+        assertEquals(9, task.getId());
+        assertEquals("x", task.getDescription());
+        assertTrue(task.isDone());
+        assertEquals(Task.NO_DUE_DATE, task.getDueAt());
+        assertEquals(Task.DEFAULT_LIST_ID, task.getListId());
+        assertNull(reader.read());
+    }
+
+    @Test
+    public void binaryReadsVersion1() throws Exception {
+        // "T2D" 1, then id 7, done, and "Old" (length plus one), as written before lists
+        byte[] old = {'T', '2', 'D', 1, 0, 0, 0, 7, 1, 4, 'O', 'l', 'd'};
+        TaskReader reader = TaskReader.newReader(TaskWriter.FORMAT_BINARY, new ByteArrayInputStream(old));
+        Task task = reader.read();
+        assertEquals(7, task.getId());
+        assertEquals("Old", task.getDescription());
+        assertTrue(task.isDone());
+        assertEquals(Task.NO_DUE_DATE, task.getDueAt());
+        assertEquals(Task.DEFAULT_LIST_ID, task.getListId());
+        assertNull(reader.read());
+    }
+
+    @Test(expected = IOException.class)
+    public void binaryRejectsWrongHeader() throws Exception {
+        TaskReader.newReader(TaskWriter.FORMAT_BINARY, new ByteArrayInputStream(new byte[] {1, 2, 3, 4}));
+    }
+
+    private static void assertRoundTrip(int format) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        TaskWriter writer = TaskWriter.newWriter(format, out);
+        for (Task task : TASKS)
+            writer.write(task.getId(), task.getDescription(), task.isDone(), task.getDueAt(), task.getListId());
+        writer.finish();
+
+        TaskReader reader = TaskReader.newReader(format, new ByteArrayInputStream(out.toByteArray()));
+        for (Task expected : TASKS)
+        {
+            Task actual = reader.read();
+            assertEquals(expected.getId(), actual.getId());
+            assertEquals(expected.getDescription(), actual.getDescription());
+            assertEquals(expected.isDone(), actual.isDone());
+            assertEquals(expected.getDueAt(), actual.getDueAt());
+            assertEquals(expected.getListId(), actual.getListId());
+        }
+        assertNull(reader.read());
+    }
+}
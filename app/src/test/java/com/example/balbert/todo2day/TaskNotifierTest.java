@@ -0,0 +1,313 @@
+package com.example.balbert.todo2day;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for TaskNotifier and TaskWindow together, the way TaskProvider and the
+ * widget use them: a table of 10,000 Tasks held in maps, changes sent through a
+ * TaskNotifier, and every notification fanned out to several widgets' TaskWindows, as the
+ * ContentResolver does to every observer of the tasks URI.  Each change is checked for
+ * how many notifications it makes and how many rows each widget reads because of it.
+ */
+public class TaskNotifierTest {
+
+    private static final int TASKS = 10000;
+    private static final int WIDGETS = 3;
+    private static final int WINDOW = TaskWidgetService.WIDGET_LIMIT;
+    private static final int OTHER_LIST = 2;
+
+    private FakeTable mTable;
+    private List<TaskWindow> mWindows;
+    private TaskNotifier mNotifier;
+
+    private int mRowNotifications;
+    private int mListNotifications;
+    private int mEverythingNotifications;
+
+    /**
+     * FakeTable answers TaskWindow's queries the way the list order index would: a window
+     * reads only the rows it returns, and a row is one lookup.
+     */
+    private static class FakeTable implements TaskWindow.Source {
+        final Map<Integer, TaskWindow.Row> mRows = new HashMap<>();
+        final TreeMap<Long, Integer> mOrder = new TreeMap<>();
+        int mWindowQueries;
+        int mRowQueries;
+
+        void put(Task task, long position) {
+            remove(task.getId());
+            mRows.put(task.getId(), new TaskWindow.Row(task, position));
+            mOrder.put(position, task.getId());
+        }
+
+        void remove(int id) {
+            TaskWindow.Row row = mRows.remove(id);
+            if (row != null)
+                mOrder.remove(row.getPosition());
+        }
+
+        TaskWindow.Row row(int id) {
+            return mRows.get(id);
+        }
+
+        @Override
+        public List<TaskWindow.Row> readWindow(int listId, int limit) {
+            mWindowQueries++;
+            List<TaskWindow.Row> rows = new ArrayList<>();
+            for (int id : mOrder.values())
+            {
+                if (rows.size() == limit)
+                    break;
+                TaskWindow.Row row = mRows.get(id);
+                if (row.getTask().getListId() == listId)
+                    rows.add(row);
+            }
+            return rows;
+        }
+
+        @Override
+        public TaskWindow.Row readRow(int id) {
+            mRowQueries++;
+            return mRows.get(id);
+        }
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        mTable = new FakeTable();
+        for (int id = 1; id <= TASKS; id++)
+        {
+            // Every tenth Task is in another list
+            int listId = id % 10 == 0 ? OTHER_LIST : Task.DEFAULT_LIST_ID;
+            mTable.put(new Task(id, "Task " + id, false, Task.NO_DUE_DATE, listId), id * 1024L);
+        }
+
+        mWindows = new ArrayList<>();
+        for (int i = 0; i < WIDGETS; i++)
+            mWindows.add(new TaskWindow(mTable, Task.DEFAULT_LIST_ID, WINDOW));
+
+        mRowNotifications = 0;
+        mListNotifications = 0;
+        mEverythingNotifications = 0;
+        mNotifier = new TaskNotifier(new TaskNotifier.Target() {
+            @Override
+            public void rowChanged(int id) {
+                mRowNotifications++;
+                for (TaskWindow window : mWindows)
+                    window.rowChanged(id);
+            }
+
+            @Override
+            public void listChanged(int listId) {
+                // The widgets only observe Tasks
+                mListNotifications++;
+            }
+
+            @Override
+            public void everythingChanged() {
+                mEverythingNotifications++;
+                for (TaskWindow window : mWindows)
+                    window.everythingChanged();
+            }
+        });
+
+        // Every widget reads its window once to start with
+        for (TaskWindow window : mWindows)
+            assertTrue(window.refresh());
+    }
+
+    private void change(TaskChange... changes) {
+        mNotifier.onTasksChanged(Arrays.asList(changes));
+    }
+
+    /**
+     * refresh() refreshes every widget and returns how many rows each one read.
+     */
+    private long refresh(boolean expectChanged) {
+        long before = mWindows.get(0).getRowsRead();
+        for (TaskWindow window : mWindows)
+            assertEquals(expectChanged, window.refresh());
+        long read = mWindows.get(0).getRowsRead() - before;
+        for (TaskWindow window : mWindows)
+            assertEquals(mWindows.get(0).getRowsRead(), window.getRowsRead());
+        return read;
+    }
+
+    private List<Integer> shownIds(TaskWindow window) {
+        List<Integer> ids = new ArrayList<>();
+        for (int i = 0; i < window.size(); i++)
+            ids.add(window.get(i).getId());
+        return ids;
+    }
+
+    @Test
+    public void windowsStartWithTheFirstTasksOfTheirList() throws Exception {
+        TaskWindow window = mWindows.get(0);
+        assertEquals(WINDOW, window.size());
+        assertEquals(1, window.get(0).getId());
+        assertFalse(shownIds(window).contains(10));
+        assertEquals(WINDOW, window.getRowsRead());
+    }
+
+    @Test
+    public void aToggleIsOneRowNotification() throws Exception {
+        mTable.row(5000).getTask().setDone(true);
+        change(TaskChange.doneChanged(5000, true));
+
+        assertEquals(1, mRowNotifications);
+        assertEquals(1, mListNotifications);
+        assertEquals(0, mEverythingNotifications);
+    }
+
+    @Test
+    public void aRowChangedTwiceInOneOperationIsNotifiedOnce() throws Exception {
+        Task task = mTable.row(7).getTask();
+        change(TaskChange.updated(task), TaskChange.doneChanged(7, true), TaskChange.moved(7, 8));
+        assertEquals(1, mRowNotifications);
+    }
+
+    @Test
+    public void aRowTheWidgetShowsIsReadOnItsOwn() throws Exception {
+        Task task = mTable.row(3).getTask();
+        task.setDone(true);
+        change(TaskChange.doneChanged(3, true));
+
+        // One row per widget, and no window
+        int windowQueries = mTable.mWindowQueries;
+        assertEquals(1, refresh(true));
+        assertEquals(windowQueries, mTable.mWindowQueries);
+        assertTrue(mWindows.get(0).get(2).isDone());
+    }
+
+    @Test
+    public void aRowTheWidgetDoesNotShowCostsOneLookup() throws Exception {
+        // Edited deep in the same list, and in another list
+        mTable.row(5000).getTask().setDescription("Edited");
+        mTable.row(20).getTask().setDescription("Edited too");
+        change(TaskChange.updated(mTable.row(5000).getTask()));
+        change(TaskChange.updated(mTable.row(20).getTask()));
+
+        int windowQueries = mTable.mWindowQueries;
+        assertEquals(2, refresh(false));
+        assertEquals(windowQueries, mTable.mWindowQueries);
+        assertEquals(2 * WIDGETS, mTable.mRowQueries);
+    }
+
+    @Test
+    public void aTaskAddedAtTheEndOfAFullWindowReadsNoWindow() throws Exception {
+        Task added = new Task(TASKS + 1, "New", false);
+        mTable.put(added, (TASKS + 1) * 1024L);
+        change(TaskChange.inserted(added));
+
+        assertEquals(1, refresh(false));
+        assertEquals(1, mListNotifications);
+    }
+
+    @Test
+    public void rowsMovingIntoOrOutOfTheWindowReadIt() throws Exception {
+        // Moved to between the first and second Tasks
+        mTable.put(mTable.row(9001).getTask(), 1536);
+        change(TaskChange.moved(9001, 1));
+        assertEquals(1 + WINDOW, refresh(true));
+        assertEquals(Arrays.asList(1, 9001, 2), shownIds(mWindows.get(0)).subList(0, 3));
+
+        // Deleted from the window
+        mTable.remove(9001);
+        change(TaskChange.deleted(9001));
+        assertEquals(WINDOW, refresh(true));
+        assertEquals(Arrays.asList(1, 2, 3), shownIds(mWindows.get(0)).subList(0, 3));
+
+        // The last Task shown moved further down the list
+        List<Integer> shown = shownIds(mWindows.get(0));
+        int last = shown.get(shown.size() - 1);
+        mTable.put(mTable.row(last).getTask(), 9000 * 1024L + 1);
+        change(TaskChange.moved(last, 9000));
+        assertEquals(1 + WINDOW, refresh(true));
+        assertFalse(shownIds(mWindows.get(0)).contains(last));
+
+        // Moved to another list
+        Task moved = mTable.row(1).getTask();
+        moved.setListId(OTHER_LIST);
+        change(TaskChange.updated(moved));
+        assertEquals(1 + WINDOW, refresh(true));
+        assertEquals(2, mWindows.get(0).get(0).getId());
+    }
+
+    @Test
+    public void manyRowsAreOneNotificationAndOneWindow() throws Exception {
+        // Every Task toggled in one operation
+        List<TaskChange> changes = new ArrayList<>();
+        for (int id = 1; id <= TASKS; id++)
+        {
+            mTable.row(id).getTask().setDone(true);
+            changes.add(TaskChange.doneChanged(id, true));
+        }
+        mNotifier.onTasksChanged(changes);
+
+        assertEquals(0, mRowNotifications);
+        assertEquals(1, mEverythingNotifications);
+        assertEquals(WINDOW, refresh(true));
+        assertEquals(0, mTable.mRowQueries);
+    }
+
+    @Test
+    public void clearingIsOneNotification() throws Exception {
+        for (int id = 1; id <= TASKS; id++)
+            if (mTable.row(id).getTask().getListId() == Task.DEFAULT_LIST_ID)
+                mTable.remove(id);
+        change(TaskChange.cleared(Task.DEFAULT_LIST_ID));
+
+        assertEquals(1, mEverythingNotifications);
+        assertEquals(0, mRowNotifications);
+        assertEquals(0, refresh(true));
+        assertEquals(0, mWindows.get(0).size());
+    }
+
+    @Test
+    public void rowNotificationsUpToTheLimitStayRowByRow() throws Exception {
+        List<TaskChange> changes = new ArrayList<>();
+        for (int id = 5001; id <= 5000 + mNotifier.getMaxRows(); id++)
+            changes.add(TaskChange.doneChanged(id, true));
+        mNotifier.onTasksChanged(changes);
+        assertEquals(mNotifier.getMaxRows(), mRowNotifications);
+        assertEquals(0, mEverythingNotifications);
+
+        // More rows than a window holds: reading the window is cheaper than looking each up
+        assertEquals(WINDOW, refresh(true));
+    }
+
+    @Test
+    public void costPerChangeNeverDependsOnTheTableSize() throws Exception {
+        // A day's worth of edits scattered over the table
+        long before = mWindows.get(0).getRowsRead();
+        for (int i = 0; i < 100; i++)
+        {
+            int id = 1 + (i * 97) % TASKS;
+            Task task = mTable.row(id).getTask();
+            task.setDone(!task.isDone());
+            mNotifier.onTasksChanged(Collections.singletonList(TaskChange.doneChanged(id, task.isDone())));
+            for (TaskWindow window : mWindows)
+                window.refresh();
+        }
+        long perChange = (mWindows.get(0).getRowsRead() - before) / 100;
+        assertTrue("read " + perChange + " rows per change", perChange <= 1 + WINDOW);
+        assertEquals(100, mRowNotifications);
+        assertTrue(mWindows.get(0).getRowsRead() - before < TASKS / 10);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void windowMustHoldSomething() throws Exception {
+        new TaskWindow(mTable, Task.DEFAULT_LIST_ID, 0);
+    }
+}
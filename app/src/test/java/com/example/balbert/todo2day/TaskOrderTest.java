@@ -0,0 +1,79 @@
+package com.example.balbert.todo2day;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for TaskOrder's position arithmetic.
+ */
+public class TaskOrderTest {
+
+    @Test
+    public void betweenSplitsTheGap() throws Exception {
+        assertEquals(3 * TaskOrder.GAP / 2, TaskOrder.between(TaskOrder.GAP, 2 * TaskOrder.GAP));
+        assertEquals(TaskOrder.NONE, TaskOrder.between(10, 11));
+        assertEquals(11, TaskOrder.between(10, 12));
+    }
+
+    @Test
+    public void endsAreAGapAway() throws Exception {
+        assertEquals(TaskOrder.GAP, TaskOrder.between(TaskOrder.NONE, TaskOrder.NONE));
+        assertEquals(-TaskOrder.GAP + 5, TaskOrder.between(TaskOrder.NONE, 5));
+        assertEquals(5 + TaskOrder.GAP, TaskOrder.between(5, TaskOrder.NONE));
+        assertFalse(TaskOrder.isCrowded(TaskOrder.NONE, 1));
+        assertFalse(TaskOrder.isCrowded(1, TaskOrder.NONE));
+    }
+
+    @Test
+    public void repeatedMovesIntoOneSpotGetCrowdedBeforeRunningOut() throws Exception {
+        long before = 0;
+        long after = TaskOrder.GAP;
+        int moves = 0;
+        while (!TaskOrder.isCrowded(before, after))
+        {
+            // Each move lands just before the previous one
+            after = TaskOrder.between(before, after);
+            assertNotEquals(TaskOrder.NONE, after);
+            moves++;
+        }
+        assertTrue("crowded after " + moves + " moves", moves >= 8);
+        // There is still room for a few more while the rebalance waits
+        for (int i = 0; i < 5; i++)
+        {
+            after = TaskOrder.between(before, after);
+            assertNotEquals(TaskOrder.NONE, after);
+        }
+    }
+
+    @Test
+    public void spreadKeepsOrderWithinItsNeighbours() throws Exception {
+        long[] positions = TaskOrder.spread(1000, 1000 + 100 * TaskOrder.GAP, 9);
+        assertEquals(9, positions.length);
+        long previous = 1000;
+        for (long position : positions)
+        {
+            assertTrue(position > previous);
+            assertFalse(TaskOrder.isCrowded(previous, position));
+            previous = position;
+        }
+        assertTrue(previous < 1000 + 100 * TaskOrder.GAP);
+    }
+
+    @Test
+    public void spreadAsksForMoreRoomWhenTooTight() throws Exception {
+        assertNull(TaskOrder.spread(0, 100, 10));
+        assertNull(TaskOrder.spread(0, TaskOrder.GAP, 32));
+    }
+
+    @Test
+    public void spreadAtTheEndsUsesFullGaps() throws Exception {
+        assertArrayEquals(new long[] {TaskOrder.GAP, 2 * TaskOrder.GAP},
+                TaskOrder.spread(TaskOrder.NONE, TaskOrder.NONE, 2));
+        long[] top = TaskOrder.spread(TaskOrder.NONE, 0, 2);
+        assertEquals(-2 * TaskOrder.GAP, top[0]);
+        assertEquals(-TaskOrder.GAP, top[1]);
+        long[] bottom = TaskOrder.spread(7, TaskOrder.NONE, 1);
+        assertEquals(7 + TaskOrder.GAP, bottom[0]);
+    }
+}
@@ -0,0 +1,75 @@
+package com.example.balbert.todo2day;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for UndoLog's bookkeeping: it keeps only the rows each change touched,
+ * stays within its bounds, and forgets a toggle that was toggled straight back.
+ */
+public class UndoLogTest {
+
+    @Test
+    public void keepsOnlyTheRowsThatChanged() throws Exception {
+        UndoLog log = new UndoLog();
+        assertFalse(log.canUndo());
+
+        log.record(UndoLog.inserted(new Task(1, "Buy milk", false)));
+        log.record(UndoLog.updated(Arrays.asList(new Task(1, "Buy milk", false)),
+                Arrays.asList(new Task(1, "Buy oat milk", false))));
+        assertTrue(log.canUndo());
+        assertFalse(log.canRedo());
+        assertEquals(3, log.getRowCount());
+
+        TaskArray cleared = new TaskArray();
+        for (int i = 1; i <= 1000; i++)
+            cleared.add(i, "Task " + i, false);
+        log.record(UndoLog.cleared(cleared));
+        assertEquals(1003, log.getRowCount());
+    }
+
+    @Test
+    public void togglingBackForgetsTheToggle() throws Exception {
+        UndoLog log = new UndoLog();
+        log.record(UndoLog.doneChanged(7, true));
+        log.record(UndoLog.doneChanged(7, false));
+        assertFalse(log.canUndo());
+        assertEquals(0, log.getRowCount());
+
+        log.record(UndoLog.doneChanged(7, true));
+        log.record(UndoLog.doneChanged(8, true));
+        assertEquals(4, log.getRowCount());
+    }
+
+    @Test
+    public void oldestChangesAreForgottenFirst() throws Exception {
+        UndoLog log = new UndoLog(3, 100);
+        for (int i = 1; i <= 5; i++)
+            log.record(UndoLog.inserted(new Task(i, "Task " + i, false)));
+        assertEquals(3, log.getRowCount());
+
+        TaskArray deleted = new TaskArray();
+        for (int i = 1; i <= 99; i++)
+            deleted.add(i, "Task " + i, false);
+        log.record(UndoLog.deleted(deleted));
+        // The two oldest inserts make room; the newest still fits
+        assertEquals(100, log.getRowCount());
+        assertTrue(log.canUndo());
+    }
+
+    @Test
+    public void changeBiggerThanTheLogIsNotKept() throws Exception {
+        UndoLog log = new UndoLog(10, 100);
+        log.record(UndoLog.inserted(new Task(1, "Task 1", false)));
+
+        TaskArray cleared = new TaskArray();
+        for (int i = 1; i <= 101; i++)
+            cleared.add(i, "Task " + i, false);
+        log.record(UndoLog.cleared(cleared));
+        assertFalse(log.canUndo());
+        assertEquals(0, log.getRowCount());
+    }
+}
@@ -0,0 +1,214 @@
+package com.example.balbert.todo2day.benchmark;
+
+import com.example.balbert.todo2day.DBConfig;
+import com.example.balbert.todo2day.Task;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * BatchBenchmark compares writing many Tasks one call (and one transaction) per row with
+ * DBHelper's batch methods, which write them all in a single transaction.
+ *
+ * Each round adds a batch of new Tasks, edits every one of them and deletes them again,
+ * first with a loop of addTask(), updateTask() and deleteTask(), then with one call each of
+ * addTasks(), updateTasks() and deleteTasks().  Each step is timed as a whole and reported
+ * in rows per second.  The table is filled beforehand, so every write pays for indexes of
+ * a realistic size.
+ *
+ * It runs twice: with the settings the app ships with (WAL, synchronous NORMAL), where a
+ * commit costs no sync, and with a rollback journal and synchronous FULL, where every
+ * commit syncs the journal and the database, as on devices that fall back to them.
+ *
+ * Arguments (all optional):
+ *   --rows 100000   Tasks in the table to start with
+ *   --batch 1000   Tasks written per round
+ *   --rounds 10   rounds measured, after one to warm up
+ *   --out build/batch-results.json   where to write one JSON object per line
+ *   --seed 42   seed for the generated data
+ */
+public class BatchBenchmark {
+
+    public static final int DEFAULT_ROWS = 100000;
+    public static final int DEFAULT_BATCH = 1000;
+    public static final int DEFAULT_ROUNDS = 10;
+    public static final String DEFAULT_OUT = "build/batch-results.json";
+
+    private static final int FILL_BATCH_SIZE = 10000;
+
+    // The steps of a round, in the order they run
+    private static final String[] STEPS = { "add", "update", "delete" };
+
+    private final int mRows;
+    private final int mBatch;
+    private final int mRounds;
+    private final Random mRandom;
+
+    public BatchBenchmark(int rows, int batch, int rounds, long seed) {
+        mRows = rows;
+        mBatch = batch;
+        mRounds = rounds;
+        mRandom = new Random(seed);
+    }
+
+    /**
+     * run() fills a fresh database and runs every round both ways.
+     * @param name what to call the settings in the results.
+     * @param config the settings to open the database with.
+     * @return the results, one line of JSON per step and way.
+     */
+    public List<String> run(String name, DBConfig config) throws Exception {
+        File databaseFile = File.createTempFile("todo2day-batch", ".db");
+        databaseFile.deleteOnExit();
+        List<String> results = new ArrayList<>();
+        TaskStore store = new JdbcTaskStore(databaseFile, config);
+        try {
+            fill(store);
+            for (boolean batched : new boolean[] { false, true })
+            {
+                long[][] latencies = new long[STEPS.length][mRounds];
+                for (int round = -1; round < mRounds; round++)
+                {
+                    long[] times = runRound(store, batched);
+                    if (round >= 0)
+                        for (int step = 0; step < STEPS.length; step++)
+                            latencies[step][round] = times[step];
+                }
+                for (int step = 0; step < STEPS.length; step++)
+                    results.add(report(name, STEPS[step], batched, latencies[step]));
+            }
+        } finally {
+            store.close();
+            databaseFile.delete();
+            new File(databaseFile.getPath() + "-wal").delete();
+            new File(databaseFile.getPath() + "-shm").delete();
+        }
+        return results;
+    }
+
+    /**
+     * runRound() adds, edits and deletes one batch of Tasks.
+     * @return the nanoseconds each step took, in the order of STEPS.
+     */
+    private long[] runRound(TaskStore store, boolean batched) throws Exception {
+        List<Task> newTasks = new ArrayList<>(mBatch);
+        for (int i = 0; i < mBatch; i++)
+            newTasks.add(new Task(description(mRandom.nextInt()), false));
+        long[] times = new long[STEPS.length];
+
+        long start = System.nanoTime();
+        List<Task> added;
+        if (batched)
+            added = store.addTasks(newTasks);
+        else
+        {
+            added = new ArrayList<>(mBatch);
+            for (Task newTask : newTasks)
+                added.add(new Task(store.addTask(newTask), newTask.getDescription(), false));
+        }
+        times[0] = System.nanoTime() - start;
+
+        for (Task task : added)
+        {
+            task.setDescription(task.getDescription() + " today");
+            task.setDone(true);
+        }
+        start = System.nanoTime();
+        if (batched)
+            store.updateTasks(added);
+        else
+            for (Task task : added)
+                store.updateTask(task);
+        times[1] = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        if (batched)
+            store.deleteTasks(added);
+        else
+            for (Task task : added)
+                store.deleteTask(task);
+        times[2] = System.nanoTime() - start;
+
+        // Untimed, as TaskCompactor does it in the background
+        store.purgeTombstones(Integer.MAX_VALUE);
+        return times;
+    }
+
+    private String report(String name, String step, boolean batched, long[] latencies) {
+        String way = batched ? "batched" : "perRow";
+        Measurement measurement = new Measurement(step + "." + way, mRows, latencies, -1);
+        double rowsPerSecond = measurement.getOpsPerSecond() * mBatch;
+        System.out.println(String.format(Locale.US, "%-14s %-15s %9d rows %10.0f rows/s  p50 %8.1f ms per %d",
+                name, measurement.getBenchmark(), mRows, rowsPerSecond, measurement.percentileNanos(50) / 1e6,
+                mBatch));
+        return String.format(Locale.US, "{\"config\":\"%s\",\"step\":\"%s\",\"way\":\"%s\",\"batch\":%d,"
+                + "\"rowsPerSecond\":%.0f,\"measurement\":%s}", name, step, way, mBatch, rowsPerSecond,
+                measurement.toJson());
+    }
+
+    private void fill(TaskStore store) throws Exception {
+        List<Task> batch = new ArrayList<>(FILL_BATCH_SIZE);
+        for (int i = 1; i <= mRows; i++)
+        {
+            batch.add(new Task(description(i), mRandom.nextInt(4) == 0));
+            if (batch.size() == FILL_BATCH_SIZE || i == mRows)
+            {
+                store.addTasks(batch);
+                batch.clear();
+            }
+        }
+    }
+
+    private static String description(int n) {
+        return "Task " + n + " pick up groceries and call the bank";
+    }
+
+    public static void main(String[] args) throws Exception {
+        int rows = DEFAULT_ROWS;
+        int batch = DEFAULT_BATCH;
+        int rounds = DEFAULT_ROUNDS;
+        String out = DEFAULT_OUT;
+        long seed = 42;
+        for (int i = 0; i + 1 < args.length; i += 2)
+        {
+            if ("--rows".equals(args[i]))
+                rows = Integer.parseInt(args[i + 1]);
+            else if ("--batch".equals(args[i]))
+                batch = Integer.parseInt(args[i + 1]);
+            else if ("--rounds".equals(args[i]))
+                rounds = Integer.parseInt(args[i + 1]);
+            else if ("--out".equals(args[i]))
+                out = args[i + 1];
+            else if ("--seed".equals(args[i]))
+                seed = Long.parseLong(args[i + 1]);
+            else
+                throw new IllegalArgumentException("Unknown argument " + args[i]);
+        }
+
+        BatchBenchmark benchmark = new BatchBenchmark(rows, batch, rounds, seed);
+        List<String> results = new ArrayList<>();
+        results.addAll(benchmark.run("wal-normal", DBConfig.defaults()));
+        results.addAll(benchmark.run("rollback-full", DBConfig.rollbackJournal()));
+
+        File file = new File(out);
+        File parent = file.getAbsoluteFile().getParentFile();
+        if (parent != null && !parent.isDirectory() && !parent.mkdirs())
+            throw new IOException("Could not create " + parent);
+        Writer writer = new OutputStreamWriter(new FileOutputStream(file), Charset.forName("UTF-8"));
+        try {
+            for (String result : results)
+                writer.write(result + "\n");
+        } finally {
+            writer.close();
+        }
+        System.out.println("Results written to " + out);
+    }
+}
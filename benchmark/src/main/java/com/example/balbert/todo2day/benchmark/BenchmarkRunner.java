@@ -0,0 +1,253 @@
+package com.example.balbert.todo2day.benchmark;
+
+import com.example.balbert.todo2day.Task;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * BenchmarkRunner times the Task data layer on a plain JVM, in the spirit of JMH: each
+ * benchmark is warmed up first, then every operation is timed on its own so latency
+ * percentiles can be reported along with throughput.  The bytes allocated by the
+ * benchmark thread are read before and after to give an allocation rate.
+ *
+ * Each table size gets a fresh database, filled with generated Tasks, then the benchmarks
+ * run against it in this order: getSingleTask, updateTask, getAllTasks, addTask and
+ * deleteAllTasks.  addTask grows the table by its operation count, which is small next to
+ * the table size.  deleteAllTasks leaves tombstones, as DBHelper does; they are purged,
+ * untimed, before the table is filled again for the next run.
+ *
+ * Arguments (all optional):
+ *   --sizes 1000,100000,1000000   table sizes to run at
+ *   --out build/benchmark-results.json   where to write one JSON object per line
+ *   --seed 42   seed for the generated data and the ids picked
+ */
+public class BenchmarkRunner {
+
+    public static final int[] DEFAULT_SIZES = { 1000, 100000, 1000000 };
+    public static final String DEFAULT_OUT = "build/benchmark-results.json";
+
+    // Rows are generated and inserted this many per transaction
+    private static final int FILL_BATCH_SIZE = 10000;
+
+    /**
+     * Benchmark is one operation to time.  setUp() runs untimed before every operation,
+     * for benchmarks like deleteAllTasks that need the table refilled each time.
+     */
+    private abstract static class Benchmark {
+        final String mName;
+
+        Benchmark(String name) { mName = name; }
+
+        abstract int operations(int rows);
+
+        int warmups(int rows) { return Math.max(1, operations(rows) / 10); }
+
+        void setUp(TaskStore store, int rows) throws Exception { }
+
+        abstract void run(TaskStore store, int rows) throws Exception;
+    }
+
+    private final Random mRandom;
+    private final ThreadMXBean mThreads = ManagementFactory.getThreadMXBean();
+    private final List<Benchmark> mBenchmarks = new ArrayList<>();
+
+    public BenchmarkRunner(long seed) {
+        mRandom = new Random(seed);
+
+        mBenchmarks.add(new Benchmark("getSingleTask") {
+            @Override
+            int operations(int rows) { return 10000; }
+
+            @Override
+            void run(TaskStore store, int rows) throws Exception {
+                store.getSingleTask(1 + mRandom.nextInt(rows));
+            }
+        });
+        mBenchmarks.add(new Benchmark("updateTask") {
+            @Override
+            int operations(int rows) { return 10000; }
+
+            @Override
+            void run(TaskStore store, int rows) throws Exception {
+                int id = 1 + mRandom.nextInt(rows);
+                store.updateTask(new Task(id, description(id), mRandom.nextBoolean()));
+            }
+        });
+        mBenchmarks.add(new Benchmark("getAllTasks") {
+            @Override
+            int operations(int rows) { return clamp(10000000 / rows, 5, 200); }
+
+            @Override
+            void run(TaskStore store, int rows) throws Exception {
+                store.getAllTasks();
+            }
+        });
+        mBenchmarks.add(new Benchmark("addTask") {
+            @Override
+            int operations(int rows) { return 1000; }
+
+            @Override
+            void run(TaskStore store, int rows) throws Exception {
+                store.addTask(new Task(description(mRandom.nextInt()), false));
+            }
+        });
+        mBenchmarks.add(new Benchmark("deleteAllTasks") {
+            @Override
+            int operations(int rows) { return clamp(1000000 / rows, 3, 20); }
+
+            @Override
+            int warmups(int rows) { return 0; }
+
+            @Override
+            void setUp(TaskStore store, int rows) throws Exception {
+                if (store.getTaskCount() == 0)
+                {
+                    // Clear away the last run's tombstones, as TaskCompactor would
+                    store.purgeTombstones(Integer.MAX_VALUE);
+                    fill(store, rows);
+                }
+            }
+
+            @Override
+            void run(TaskStore store, int rows) throws Exception {
+                store.deleteAllTasks();
+            }
+        });
+    }
+
+    /**
+     * runAll() runs every benchmark at one table size.
+     * @param rows how many Tasks to put in the table first.
+     * @return one Measurement per benchmark.
+     */
+    public List<Measurement> runAll(int rows) throws Exception {
+        List<Measurement> measurements = new ArrayList<>();
+        File databaseFile = File.createTempFile("todo2day-benchmark", ".db");
+        databaseFile.deleteOnExit();
+        JdbcTaskStore store = new JdbcTaskStore(databaseFile);
+        try {
+            fill(store, rows);
+            for (Benchmark benchmark : mBenchmarks)
+                measurements.add(measure(benchmark, store, rows));
+        } finally {
+            store.close();
+            databaseFile.delete();
+        }
+        return measurements;
+    }
+
+    private Measurement measure(Benchmark benchmark, TaskStore store, int rows) throws Exception {
+        for (int i = 0; i < benchmark.warmups(rows); i++)
+        {
+            benchmark.setUp(store, rows);
+            benchmark.run(store, rows);
+        }
+
+        int operations = benchmark.operations(rows);
+        long[] latencies = new long[operations];
+        long allocated = 0;
+        for (int i = 0; i < operations; i++)
+        {
+            benchmark.setUp(store, rows);
+            long bytesBefore = allocatedBytes();
+            long start = System.nanoTime();
+            benchmark.run(store, rows);
+            latencies[i] = System.nanoTime() - start;
+            long bytesAfter = allocatedBytes();
+            allocated = (bytesBefore < 0 || allocated < 0) ? -1 : allocated + bytesAfter - bytesBefore;
+        }
+        return new Measurement(benchmark.mName, rows, latencies, allocated);
+    }
+
+    /**
+     * allocatedBytes() asks HotSpot how much the current thread has allocated so far.
+     * @return the byte count, or -1 on JVMs that don't track it.
+     */
+    private long allocatedBytes() {
+        if (!(mThreads instanceof com.sun.management.ThreadMXBean))
+            return -1;
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) mThreads;
+        if (!threads.isThreadAllocatedMemorySupported() || !threads.isThreadAllocatedMemoryEnabled())
+            return -1;
+        return threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    private void fill(TaskStore store, int rows) throws Exception {
+        List<Task> batch = new ArrayList<>(FILL_BATCH_SIZE);
+        for (int i = 1; i <= rows; i++)
+        {
+            batch.add(new Task(description(i), mRandom.nextInt(4) == 0));
+            if (batch.size() == FILL_BATCH_SIZE || i == rows)
+            {
+                store.addTasks(batch);
+                batch.clear();
+            }
+        }
+    }
+
+    private static String description(int n) {
+        return "Task " + n + " pick up groceries and call the bank";
+    }
+
+    private static int clamp(int value, int min, int max) {
+        return Math.max(min, Math.min(max, value));
+    }
+
+    public static void main(String[] args) throws Exception {
+        int[] sizes = DEFAULT_SIZES;
+        String out = DEFAULT_OUT;
+        long seed = 42;
+        for (int i = 0; i + 1 < args.length; i += 2)
+        {
+            if ("--sizes".equals(args[i]))
+            {
+                String[] parts = args[i + 1].split(",");
+                sizes = new int[parts.length];
+                for (int j = 0; j < parts.length; j++)
+                    sizes[j] = Integer.parseInt(parts[j].trim());
+            }
+            else if ("--out".equals(args[i]))
+                out = args[i + 1];
+            else if ("--seed".equals(args[i]))
+                seed = Long.parseLong(args[i + 1]);
+            else
+                throw new IllegalArgumentException("Unknown argument " + args[i]);
+        }
+
+        BenchmarkRunner runner = new BenchmarkRunner(seed);
+        List<Measurement> measurements = new ArrayList<>();
+        for (int rows : sizes)
+        {
+            for (Measurement measurement : runner.runAll(rows))
+            {
+                System.out.println(measurement);
+                measurements.add(measurement);
+            }
+        }
+        writeResults(new File(out), measurements);
+        System.out.println("Results written to " + out);
+    }
+
+    private static void writeResults(File file, List<Measurement> measurements) throws IOException {
+        File parent = file.getAbsoluteFile().getParentFile();
+        if (parent != null && !parent.isDirectory() && !parent.mkdirs())
+            throw new IOException("Could not create " + parent);
+        Writer writer = new OutputStreamWriter(new FileOutputStream(file), Charset.forName("UTF-8"));
+        try {
+            for (Measurement measurement : measurements)
+                writer.write(measurement.toJson() + "\n");
+        } finally {
+            writer.close();
+        }
+    }
+}
@@ -0,0 +1,283 @@
+package com.example.balbert.todo2day.benchmark;
+
+import com.example.balbert.todo2day.DBConfig;
+import com.example.balbert.todo2day.Task;
+import com.example.balbert.todo2day.TaskReader;
+import com.example.balbert.todo2day.TaskWriter;
+import com.sun.management.GarbageCollectionNotificationInfo;
+import com.sun.management.GcInfo;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+import javax.management.openmbean.CompositeData;
+
+/**
+ * ExportBenchmark measures exporting every Task to a file and importing the file again,
+ * at a million Tasks, in both of TaskWriter's formats: how many rows a second each way,
+ * and how much heap it needed while it ran.
+ *
+ * Export streams the table through a TaskWriter into a file; import reads that file back
+ * through a TaskReader into a fresh, empty database, IMPORT_BATCH_SIZE Tasks a
+ * transaction, as DBHelper does.  Each run is timed as a whole.
+ *
+ * Two heap figures are given for each run, both measured from the used heap just before
+ * it (after the collector has settled):
+ *   peakHeap, the most the heap pools held at any time, garbage not yet collected included;
+ *   peakLiveHeap, the most left after any collection during the run, which is what the run
+ *   really kept.  A streaming export or import keeps it flat, whatever the row count.
+ *
+ * Arguments (all optional):
+ *   --rows 1000000   Tasks in the table
+ *   --runs 3   runs of each kind and format, after one to warm up
+ *   --out build/export-results.json   where to write one JSON object per line
+ *   --seed 42   seed for the generated data
+ */
+public class ExportBenchmark {
+
+    public static final int DEFAULT_ROWS = 1000000;
+    public static final int DEFAULT_RUNS = 3;
+    public static final String DEFAULT_OUT = "build/export-results.json";
+
+    private static final int FILL_BATCH_SIZE = 10000;
+
+    /**
+     * HeapWatch follows the heap through one run: the pools' own peaks, and the heap
+     * left after each collection, which the collectors report as they finish.
+     */
+    private static final class HeapWatch implements NotificationListener {
+        private final List<MemoryPoolMXBean> mPools = new ArrayList<>();
+        private long mBaseline;
+        private volatile long mPeakLive;
+
+        HeapWatch() {
+            for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans())
+                if (pool.getType() == MemoryType.HEAP && pool.isValid())
+                    mPools.add(pool);
+        }
+
+        void start() throws InterruptedException {
+            mBaseline = settledHeap();
+            mPeakLive = mBaseline;
+            for (MemoryPoolMXBean pool : mPools)
+                pool.resetPeakUsage();
+            for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans())
+                if (collector instanceof NotificationEmitter)
+                    ((NotificationEmitter) collector).addNotificationListener(this, null, null);
+        }
+
+        void stop() throws Exception {
+            for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans())
+                if (collector instanceof NotificationEmitter)
+                    ((NotificationEmitter) collector).removeNotificationListener(this);
+        }
+
+        long getPeakBytes() {
+            long peak = 0;
+            for (MemoryPoolMXBean pool : mPools)
+                peak += pool.getPeakUsage().getUsed();
+            return Math.max(0, peak - mBaseline);
+        }
+
+        long getPeakLiveBytes() { return Math.max(0, mPeakLive - mBaseline); }
+
+        @Override
+        public void handleNotification(Notification notification, Object handback) {
+            if (!GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION.equals(notification.getType()))
+                return;
+            GcInfo info = GarbageCollectionNotificationInfo.from((CompositeData) notification.getUserData()).getGcInfo();
+            long live = 0;
+            for (MemoryPoolMXBean pool : mPools)
+            {
+                MemoryUsage usage = info.getMemoryUsageAfterGc().get(pool.getName());
+                if (usage != null)
+                    live += usage.getUsed();
+            }
+            synchronized (this) {
+                mPeakLive = Math.max(mPeakLive, live);
+            }
+        }
+
+        private static long settledHeap() throws InterruptedException {
+            Runtime runtime = Runtime.getRuntime();
+            long used = runtime.totalMemory() - runtime.freeMemory();
+            // Collect until the number stops dropping
+            for (int i = 0; i < 10; i++)
+            {
+                System.gc();
+                Thread.sleep(50);
+                long now = runtime.totalMemory() - runtime.freeMemory();
+                if (now >= used)
+                    return now;
+                used = now;
+            }
+            return used;
+        }
+    }
+
+    private final int mRows;
+    private final int mRuns;
+    private final Random mRandom;
+
+    public ExportBenchmark(int rows, int runs, long seed) {
+        mRows = rows;
+        mRuns = runs;
+        mRandom = new Random(seed);
+    }
+
+    /**
+     * run() fills a fresh database, then exports and imports it in both formats.
+     * @return the results, one line of JSON per kind and format.
+     */
+    public List<String> run() throws Exception {
+        File databaseFile = File.createTempFile("todo2day-export", ".db");
+        File importFile = File.createTempFile("todo2day-import", ".db");
+        File exportFile = File.createTempFile("todo2day-export", ".tasks");
+        databaseFile.deleteOnExit();
+        importFile.deleteOnExit();
+        exportFile.deleteOnExit();
+        List<String> results = new ArrayList<>();
+        TaskStore store = new JdbcTaskStore(databaseFile, DBConfig.defaults());
+        try {
+            fill(store);
+            for (int format : new int[] { TaskWriter.FORMAT_NDJSON, TaskWriter.FORMAT_BINARY })
+            {
+                results.add(measure("export", format, store, exportFile, importFile));
+                results.add(measure("import", format, store, exportFile, importFile));
+            }
+        } finally {
+            store.close();
+            for (File file : new File[] { databaseFile, importFile, exportFile })
+            {
+                file.delete();
+                new File(file.getPath() + "-wal").delete();
+                new File(file.getPath() + "-shm").delete();
+            }
+        }
+        return results;
+    }
+
+    private String measure(String kind, int format, TaskStore store, File exportFile, File importFile)
+            throws Exception {
+        String formatName = format == TaskWriter.FORMAT_BINARY ? "binary" : "ndjson";
+        long[] latencies = new long[mRuns];
+        long peak = 0;
+        long peakLive = 0;
+        for (int run = -1; run < mRuns; run++)
+        {
+            HeapWatch heap = new HeapWatch();
+            long elapsed;
+            if ("export".equals(kind))
+            {
+                OutputStream out = new FileOutputStream(exportFile);
+                try {
+                    heap.start();
+                    long start = System.nanoTime();
+                    store.exportTasks(TaskWriter.newWriter(format, out));
+                    elapsed = System.nanoTime() - start;
+                    heap.stop();
+                } finally {
+                    out.close();
+                }
+            }
+            else
+            {
+                TaskStore target = new JdbcTaskStore(importFile, DBConfig.defaults());
+                InputStream in = new FileInputStream(exportFile);
+                try {
+                    heap.start();
+                    long start = System.nanoTime();
+                    target.importTasks(TaskReader.newReader(format, in));
+                    elapsed = System.nanoTime() - start;
+                    heap.stop();
+                } finally {
+                    in.close();
+                    target.close();
+                }
+            }
+            if (run < 0)
+                continue;
+            latencies[run] = elapsed;
+            peak = Math.max(peak, heap.getPeakBytes());
+            peakLive = Math.max(peakLive, heap.getPeakLiveBytes());
+        }
+
+        Measurement measurement = new Measurement(kind + "." + formatName, mRows, latencies, -1);
+        double rowsPerSecond = mRows * 1e9 / measurement.percentileNanos(50);
+        double fileMb = exportFile.length() / (1024.0 * 1024.0);
+        System.out.println(String.format(Locale.US, "%-14s %9d rows %10.0f rows/s  p50 %8.2f s"
+                        + "  peak heap %7.1f MB  peak live heap %6.1f MB  file %6.1f MB",
+                measurement.getBenchmark(), mRows, rowsPerSecond, measurement.percentileNanos(50) / 1e9,
+                peak / (1024.0 * 1024.0), peakLive / (1024.0 * 1024.0), fileMb));
+        return String.format(Locale.US, "{\"kind\":\"%s\",\"format\":\"%s\",\"rows\":%d,\"rowsPerSecond\":%.0f,"
+                        + "\"peakHeapBytes\":%d,\"peakLiveHeapBytes\":%d,\"fileBytes\":%d,\"measurement\":%s}",
+                kind, formatName, mRows, rowsPerSecond, peak, peakLive, exportFile.length(), measurement.toJson());
+    }
+
+    private void fill(TaskStore store) throws Exception {
+        List<Task> batch = new ArrayList<>(FILL_BATCH_SIZE);
+        for (int i = 1; i <= mRows; i++)
+        {
+            batch.add(new Task("Task " + i + " pick up groceries and call the bank", mRandom.nextInt(4) == 0));
+            if (batch.size() == FILL_BATCH_SIZE || i == mRows)
+            {
+                store.addTasks(batch);
+                batch.clear();
+            }
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        int rows = DEFAULT_ROWS;
+        int runs = DEFAULT_RUNS;
+        String out = DEFAULT_OUT;
+        long seed = 42;
+        for (int i = 0; i + 1 < args.length; i += 2)
+        {
+            if ("--rows".equals(args[i]))
+                rows = Integer.parseInt(args[i + 1]);
+            else if ("--runs".equals(args[i]))
+                runs = Integer.parseInt(args[i + 1]);
+            else if ("--out".equals(args[i]))
+                out = args[i + 1];
+            else if ("--seed".equals(args[i]))
+                seed = Long.parseLong(args[i + 1]);
+            else
+                throw new IllegalArgumentException("Unknown argument " + args[i]);
+        }
+
+        List<String> results = new ExportBenchmark(rows, runs, seed).run();
+
+        File file = new File(out);
+        File parent = file.getAbsoluteFile().getParentFile();
+        if (parent != null && !parent.isDirectory() && !parent.mkdirs())
+            throw new IOException("Could not create " + parent);
+        Writer writer = new OutputStreamWriter(new FileOutputStream(file), Charset.forName("UTF-8"));
+        try {
+            for (String result : results)
+                writer.write(result + "\n");
+        } finally {
+            writer.close();
+        }
+        System.out.println("Results written to " + out);
+    }
+}
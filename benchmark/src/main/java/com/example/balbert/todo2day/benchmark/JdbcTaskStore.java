@@ -0,0 +1,601 @@
+package com.example.balbert.todo2day.benchmark;
+
+import com.example.balbert.todo2day.DBConfig;
+import com.example.balbert.todo2day.Task;
+import com.example.balbert.todo2day.TaskOrder;
+import com.example.balbert.todo2day.TaskReader;
+import com.example.balbert.todo2day.TaskWriter;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * JdbcTaskStore runs DBHelper's schema and statements against SQLite through JDBC, on a
+ * plain JVM.  Like DBHelper it keeps one connection open and prepares each statement
+ * once, binds ? parameters, and writes bulk operations in a single transaction.
+ *
+ * The schema is the one DBHelper ships (version 8): the Tasks table with its sync
+ * columns, positions, due dates and list ids; the FTS4 search table and the Lists
+ * counters, both kept in step by triggers; SyncState; and every index.  The statements
+ * are DBHelper's too: inserts stamped with a seq, a time and the next position, updates
+ * and deletes that only match live rows, deletes that leave tombstones, pages read by
+ * position within a list, and counts read from the Lists row.  So every operation pays
+ * the same trigger and index costs as on the device.
+ *
+ * Everything happens in the first list, the one every Task starts in.
+ *
+ * The database is opened with the settings of a DBConfig, applied with the same PRAGMAs
+ * DBHelper uses.  openReader() opens another connection to the same file, for reading
+ * alongside the first one as DBHelper's reader threads do.
+ */
+public class JdbcTaskStore implements TaskStore {
+
+    private static final String TABLE = "Tasks";
+    private static final String LIVE = "deleted = 0";
+    private static final String TASK_COLUMNS = "_id, description, done, due_at, list_id";
+
+    /**
+     * DBHelper's statement for one checkbox toggle: done = ?1 for _id = ?2, stamped with
+     * the time ?3 and the seq ?4 if it really changed.
+     */
+    static final String UPDATE_DONE = "UPDATE " + TABLE
+            + " SET done_time = CASE WHEN done = ?1 THEN done_time ELSE ?3 END,"
+            + " seq = CASE WHEN done = ?1 THEN seq ELSE ?4 END, done = ?1"
+            + " WHERE _id = ?2 AND " + LIVE;
+
+    // As DBHelper.IMPORT_BATCH_SIZE
+    static final int IMPORT_BATCH_SIZE = 1000;
+
+    // As DBHelper.SEARCH_RANK_LIMIT
+    static final int SEARCH_RANK_LIMIT = 1000;
+
+    // How long a connection waits for another one's lock
+    static final int BUSY_TIMEOUT_MS = 10000;
+
+    private final Connection mConnection;
+    private final PreparedStatement mInsert;
+    private final PreparedStatement mUpdate;
+    private final PreparedStatement mUpdateDone;
+    private final PreparedStatement mDelete;
+    private final PreparedStatement mDeleteAll;
+    private final PreparedStatement mPurge;
+    private final PreparedStatement mSelectOne;
+    private final PreparedStatement mSelectAll;
+    private final PreparedStatement mSelectAfter;
+    private final PreparedStatement mCount;
+    private final PreparedStatement mExport;
+
+    // The last seq, change time and position handed out, as DBHelper keeps them
+    private long mSeq;
+    private long mLastChangeTime;
+    private long mLastPosition;
+
+    /**
+     * Opens (and replaces) a database file with SQLite's default settings.
+     * @param file the database file to use; deleted first if it exists.
+     */
+    public JdbcTaskStore(File file) throws SQLException {
+        this(file, DBConfig.rollbackJournal());
+    }
+
+    /**
+     * Opens (and replaces) a database file.
+     * @param file the database file to use; deleted first if it exists.
+     * @param config the settings to open it with.
+     */
+    public JdbcTaskStore(File file, DBConfig config) throws SQLException {
+        this(file, config, true);
+    }
+
+    /**
+     * openReader() opens another connection to a database another JdbcTaskStore created.
+     * @param file the database file.
+     * @param config the settings the file was created with.
+     * @return the new connection's store.
+     */
+    public static JdbcTaskStore openReader(File file, DBConfig config) throws SQLException {
+        return new JdbcTaskStore(file, config, false);
+    }
+
+    private JdbcTaskStore(File file, DBConfig config, boolean create) throws SQLException {
+        if (create && file.exists() && !file.delete())
+            throw new SQLException("Could not delete " + file);
+        mConnection = DriverManager.getConnection("jdbc:sqlite:" + file.getPath());
+        configure(config, create);
+        if (create)
+            createSchema();
+        mInsert = mConnection.prepareStatement("INSERT INTO " + TABLE + " ( description, done, uuid, seq,"
+                + " description_time, done_time, position, due_at, list_id )"
+                + " VALUES ( ?, ?, lower(hex(randomblob(16))), ?, ?, ?, ?, ?, ? )");
+        mUpdate = mConnection.prepareStatement("UPDATE " + TABLE
+                + " SET description_time = CASE WHEN description IS ?1 THEN description_time ELSE ?4 END,"
+                + " done_time = CASE WHEN done = ?2 THEN done_time ELSE ?4 END,"
+                + " description = ?1, done = ?2, due_at = ?6, list_id = ?7,"
+                + " seq = CASE WHEN description IS ?1 AND done = ?2 THEN seq ELSE ?5 END"
+                + " WHERE _id = ?3 AND " + LIVE);
+        mUpdateDone = mConnection.prepareStatement(UPDATE_DONE);
+        mDelete = mConnection.prepareStatement("UPDATE " + TABLE
+                + " SET deleted = 1, deleted_time = ?2, seq = ?3 WHERE _id = ?1 AND " + LIVE);
+        mDeleteAll = mConnection.prepareStatement("UPDATE " + TABLE
+                + " SET deleted = 1, deleted_time = ?, seq = ? WHERE " + LIVE);
+        mPurge = mConnection.prepareStatement("DELETE FROM " + TABLE + " WHERE _id IN ( SELECT _id FROM "
+                + TABLE + " WHERE deleted = 1 AND seq <= COALESCE(( SELECT CAST(value AS INTEGER)"
+                + " FROM SyncState WHERE key = 'pushedSeq' ), " + Long.MAX_VALUE + ") LIMIT ? )");
+        mSelectOne = mConnection.prepareStatement("SELECT " + TASK_COLUMNS + " FROM " + TABLE
+                + " WHERE _id = ? AND " + LIVE);
+        mSelectAll = mConnection.prepareStatement("SELECT " + TASK_COLUMNS + " FROM " + TABLE
+                + " WHERE list_id = ? AND " + LIVE + " ORDER BY position");
+        mSelectAfter = mConnection.prepareStatement("SELECT " + TASK_COLUMNS + " FROM " + TABLE
+                + " WHERE list_id = ? AND " + LIVE + " AND position > COALESCE(( SELECT position FROM "
+                + TABLE + " WHERE _id = ? ), " + Long.MIN_VALUE + ") ORDER BY position ASC LIMIT ?");
+        mCount = mConnection.prepareStatement("SELECT total, done FROM Lists WHERE _id = ?");
+        mExport = mConnection.prepareStatement("SELECT " + TASK_COLUMNS + " FROM " + TABLE
+                + " WHERE " + LIVE + " ORDER BY position ASC");
+
+        mSeq = longForQuery("SELECT MAX(seq) FROM " + TABLE);
+        mLastPosition = longForQuery("SELECT COALESCE(MAX(position), 0) FROM " + TABLE);
+    }
+
+    /**
+     * configure() applies the DBConfig: the page size and journal mode when the file is
+     * new, and the synchronous level and cache size on every connection.
+     */
+    private void configure(DBConfig config, boolean create) throws SQLException {
+        Statement statement = mConnection.createStatement();
+        try {
+            // Wait for a lock held by another connection rather than failing at once
+            statement.execute("PRAGMA busy_timeout = " + BUSY_TIMEOUT_MS);
+            if (create)
+            {
+                if (config.getPageSize() != DBConfig.DEFAULT_SIZE)
+                    statement.execute("PRAGMA page_size = " + config.getPageSize());
+                // journal_mode answers with the new mode
+                statement.executeQuery("PRAGMA journal_mode = " + config.getJournalMode()).close();
+            }
+            for (String pragma : config.getConnectionPragmas())
+                statement.execute(pragma);
+        } finally {
+            statement.close();
+        }
+    }
+
+    /**
+     * createSchema() creates what DBMigrations leaves behind at version 8, in one go.
+     */
+    private void createSchema() throws SQLException {
+        // The Lists counters, as DBMigrations.createListCounters() writes them
+        String countNew = "UPDATE Lists SET total = total + 1, done = done + ( new.done IS 1 )"
+                + " WHERE _id = new.list_id AND new.deleted = 0; ";
+        String uncountOld = "UPDATE Lists SET total = total - 1, done = done - ( old.done IS 1 )"
+                + " WHERE _id = old.list_id AND old.deleted = 0; ";
+
+        Statement statement = mConnection.createStatement();
+        try {
+            statement.execute("CREATE TABLE Lists ( _id INTEGER PRIMARY KEY, name TEXT NOT NULL,"
+                    + " total INTEGER NOT NULL DEFAULT 0, done INTEGER NOT NULL DEFAULT 0 )");
+            statement.execute("INSERT INTO Lists ( _id, name ) VALUES ( " + Task.DEFAULT_LIST_ID + ", 'Tasks' )");
+            statement.execute("CREATE TABLE " + TABLE + " ( _id INTEGER PRIMARY KEY, description TEXT,"
+                    + " done INTEGER, deleted INTEGER NOT NULL DEFAULT 0, uuid TEXT,"
+                    + " seq INTEGER NOT NULL DEFAULT 0, description_time INTEGER NOT NULL DEFAULT 0,"
+                    + " done_time INTEGER NOT NULL DEFAULT 0, deleted_time INTEGER NOT NULL DEFAULT 0,"
+                    + " position INTEGER NOT NULL DEFAULT 0, due_at INTEGER NOT NULL DEFAULT 0,"
+                    + " list_id INTEGER NOT NULL DEFAULT " + Task.DEFAULT_LIST_ID + " REFERENCES Lists ( _id ) )");
+            statement.execute("CREATE TABLE SyncState ( key TEXT PRIMARY KEY, value )");
+
+            statement.execute("CREATE UNIQUE INDEX TasksUuid ON " + TABLE + " ( uuid )");
+            statement.execute("CREATE INDEX TasksSeq ON " + TABLE + " ( seq )");
+            statement.execute("CREATE INDEX TasksOrder ON " + TABLE + " ( deleted, position )");
+            statement.execute("CREATE INDEX TasksDue ON " + TABLE + " ( deleted, done, due_at )");
+            statement.execute("CREATE INDEX TasksListOrder ON " + TABLE + " ( list_id, deleted, position )");
+            statement.execute("CREATE INDEX TasksListDone ON " + TABLE + " ( list_id, deleted, done, position )");
+
+            statement.execute("CREATE VIRTUAL TABLE TasksSearch USING fts4 ( content=\"" + TABLE + "\", description )");
+            statement.execute("CREATE TRIGGER TasksSearch_before_update BEFORE UPDATE OF description ON " + TABLE
+                    + " BEGIN DELETE FROM TasksSearch WHERE docid = old._id; END");
+            statement.execute("CREATE TRIGGER TasksSearch_before_delete BEFORE DELETE ON " + TABLE
+                    + " BEGIN DELETE FROM TasksSearch WHERE docid = old._id; END");
+            statement.execute("CREATE TRIGGER TasksSearch_after_update AFTER UPDATE OF description ON " + TABLE
+                    + " BEGIN INSERT INTO TasksSearch ( docid, description ) VALUES ( new._id, new.description ); END");
+            statement.execute("CREATE TRIGGER TasksSearch_after_insert AFTER INSERT ON " + TABLE
+                    + " BEGIN INSERT INTO TasksSearch ( docid, description ) VALUES ( new._id, new.description ); END");
+
+            statement.execute("CREATE TRIGGER Lists_after_insert AFTER INSERT ON " + TABLE
+                    + " BEGIN " + countNew + "END");
+            statement.execute("CREATE TRIGGER Lists_after_update AFTER UPDATE OF done, deleted, list_id ON " + TABLE
+                    + " WHEN old.done IS NOT new.done OR old.deleted IS NOT new.deleted"
+                    + " OR old.list_id IS NOT new.list_id BEGIN " + uncountOld + countNew + "END");
+            statement.execute("CREATE TRIGGER Lists_after_delete AFTER DELETE ON " + TABLE
+                    + " BEGIN " + uncountOld + "END");
+        } finally {
+            statement.close();
+        }
+    }
+
+    @Override
+    public int addTask(Task newTask) throws SQLException {
+        return insert(newTask, nextSeq(), changeTime());
+    }
+
+    @Override
+    public List<Task> addTasks(Collection<Task> newTasks) throws SQLException {
+        List<Task> inserted = new ArrayList<>(newTasks.size());
+        long seq = nextSeq();
+        long time = changeTime();
+        mConnection.setAutoCommit(false);
+        try {
+            for (Task newTask : newTasks)
+                inserted.add(new Task(insert(newTask, seq, time), newTask.getDescription(), newTask.isDone(),
+                        newTask.getDueAt(), newTask.getListId()));
+            mConnection.commit();
+        } catch (SQLException e) {
+            mConnection.rollback();
+            throw e;
+        } finally {
+            mConnection.setAutoCommit(true);
+        }
+        return inserted;
+    }
+
+    private int insert(Task newTask, long seq, long time) throws SQLException {
+        mInsert.setString(1, newTask.getDescription());
+        mInsert.setInt(2, newTask.isDone() ? 1 : 0);
+        mInsert.setLong(3, seq);
+        mInsert.setLong(4, time);
+        mInsert.setLong(5, time);
+        mInsert.setLong(6, nextPosition());
+        mInsert.setLong(7, newTask.getDueAt());
+        mInsert.setInt(8, newTask.getListId());
+        mInsert.executeUpdate();
+        ResultSet keys = mInsert.getGeneratedKeys();
+        try {
+            keys.next();
+            return keys.getInt(1);
+        } finally {
+            keys.close();
+        }
+    }
+
+    @Override
+    public List<Task> getAllTasks() throws SQLException {
+        mSelectAll.setInt(1, Task.DEFAULT_LIST_ID);
+        return readTasks(mSelectAll, 16);
+    }
+
+    @Override
+    public List<Task> getTasksAfter(int afterId, int limit) throws SQLException {
+        mSelectAfter.setInt(1, Task.DEFAULT_LIST_ID);
+        mSelectAfter.setInt(2, afterId);
+        mSelectAfter.setInt(3, limit);
+        return readTasks(mSelectAfter, limit);
+    }
+
+    @Override
+    public void updateTask(Task taskToEdit) throws SQLException {
+        bindUpdate(taskToEdit, nextSeq(), changeTime());
+        // A tombstone matches nothing, and keeps its seq
+        if (mUpdate.executeUpdate() == 0)
+            unusedSeq();
+    }
+
+    @Override
+    public void updateTasks(Collection<Task> tasksToEdit) throws SQLException {
+        long seq = nextSeq();
+        long time = changeTime();
+        int updated = 0;
+        mConnection.setAutoCommit(false);
+        try {
+            for (Task taskToEdit : tasksToEdit)
+            {
+                bindUpdate(taskToEdit, seq, time);
+                updated += mUpdate.executeUpdate();
+            }
+            mConnection.commit();
+        } catch (SQLException e) {
+            mConnection.rollback();
+            throw e;
+        } finally {
+            mConnection.setAutoCommit(true);
+        }
+        if (updated == 0)
+            unusedSeq();
+    }
+
+    private void bindUpdate(Task taskToEdit, long seq, long time) throws SQLException {
+        mUpdate.setString(1, taskToEdit.getDescription());
+        mUpdate.setInt(2, taskToEdit.isDone() ? 1 : 0);
+        mUpdate.setInt(3, taskToEdit.getId());
+        mUpdate.setLong(4, time);
+        mUpdate.setLong(5, seq);
+        mUpdate.setLong(6, taskToEdit.getDueAt());
+        mUpdate.setInt(7, taskToEdit.getListId());
+    }
+
+    @Override
+    public void updateDoneStates(Map<Integer, Boolean> doneStates) throws SQLException {
+        long seq = nextSeq();
+        long time = changeTime();
+        int updated = 0;
+        mConnection.setAutoCommit(false);
+        try {
+            for (Map.Entry<Integer, Boolean> doneState : doneStates.entrySet())
+            {
+                mUpdateDone.setInt(1, doneState.getValue() ? 1 : 0);
+                mUpdateDone.setInt(2, doneState.getKey());
+                mUpdateDone.setLong(3, time);
+                mUpdateDone.setLong(4, seq);
+                updated += mUpdateDone.executeUpdate();
+            }
+            mConnection.commit();
+        } catch (SQLException e) {
+            mConnection.rollback();
+            throw e;
+        } finally {
+            mConnection.setAutoCommit(true);
+        }
+        if (updated == 0)
+            unusedSeq();
+    }
+
+    @Override
+    public Task getSingleTask(int id) throws SQLException {
+        mSelectOne.setInt(1, id);
+        List<Task> tasks = readTasks(mSelectOne, 1);
+        return tasks.isEmpty() ? null : tasks.get(0);
+    }
+
+    @Override
+    public void deleteTask(Task taskToDelete) throws SQLException {
+        mDelete.setInt(1, taskToDelete.getId());
+        mDelete.setLong(2, changeTime());
+        mDelete.setLong(3, nextSeq());
+        if (mDelete.executeUpdate() == 0)
+            unusedSeq();
+    }
+
+    @Override
+    public void deleteTasks(Collection<Task> tasksToDelete) throws SQLException {
+        long seq = nextSeq();
+        long time = changeTime();
+        int deleted = 0;
+        mConnection.setAutoCommit(false);
+        try {
+            for (Task taskToDelete : tasksToDelete)
+            {
+                mDelete.setInt(1, taskToDelete.getId());
+                mDelete.setLong(2, time);
+                mDelete.setLong(3, seq);
+                deleted += mDelete.executeUpdate();
+            }
+            mConnection.commit();
+        } catch (SQLException e) {
+            mConnection.rollback();
+            throw e;
+        } finally {
+            mConnection.setAutoCommit(true);
+        }
+        if (deleted == 0)
+            unusedSeq();
+    }
+
+    @Override
+    public void deleteAllTasks() throws SQLException {
+        mDeleteAll.setLong(1, changeTime());
+        mDeleteAll.setLong(2, nextSeq());
+        mConnection.setAutoCommit(false);
+        try {
+            if (mDeleteAll.executeUpdate() == 0)
+                unusedSeq();
+            mConnection.commit();
+        } catch (SQLException e) {
+            mConnection.rollback();
+            throw e;
+        } finally {
+            mConnection.setAutoCommit(true);
+        }
+    }
+
+    @Override
+    public int purgeTombstones(int limit) throws SQLException {
+        mPurge.setInt(1, limit);
+        return mPurge.executeUpdate();
+    }
+
+    @Override
+    public int getTaskCount() throws SQLException {
+        mCount.setInt(1, Task.DEFAULT_LIST_ID);
+        ResultSet rows = mCount.executeQuery();
+        try {
+            return rows.next() ? rows.getInt(1) : 0;
+        } finally {
+            rows.close();
+        }
+    }
+
+    /**
+     * searchTasks() runs DBHelper.searchTasks()'s query: the first SEARCH_RANK_LIMIT live
+     * Tasks matching each word as a prefix, ranked by the number of hits offsets()
+     * reports, then shortest first.  Like
+     * DBHelper's rawQuery() it compiles the statement each time.
+     */
+    @Override
+    public List<Task> searchTasks(String query, int limit) throws SQLException {
+        String match = toPrefixQuery(query);
+        if (match.isEmpty())
+            return new ArrayList<>();
+        PreparedStatement search = mConnection.prepareStatement("SELECT t._id, t.description, t.done,"
+                + " t.due_at, t.list_id FROM " + TABLE + " t JOIN ( SELECT docid, offsets(TasksSearch) AS hits"
+                + " FROM TasksSearch WHERE TasksSearch MATCH ? AND EXISTS ( SELECT 1 FROM " + TABLE + " l"
+                + " WHERE l._id = docid AND l." + LIVE + " AND l.list_id = ? )"
+                + " LIMIT " + Math.max(limit, SEARCH_RANK_LIMIT) + " ) m ON t._id = m.docid"
+                + " ORDER BY length(m.hits) - length(replace(m.hits, ' ', '')) DESC, length(t.description)"
+                + " LIMIT " + limit);
+        try {
+            search.setString(1, match);
+            search.setInt(2, Task.DEFAULT_LIST_ID);
+            return readTasks(search, Math.min(limit, 64));
+        } finally {
+            search.close();
+        }
+    }
+
+    /**
+     * countMatches() is how many rows of the search table match a query: the rows
+     * searchTasks() computes offsets() for and sorts, whatever its limit.
+     */
+    public int countMatches(String query) throws SQLException {
+        PreparedStatement count = mConnection.prepareStatement("SELECT COUNT(*) FROM TasksSearch"
+                + " WHERE TasksSearch MATCH ?");
+        try {
+            count.setString(1, toPrefixQuery(query));
+            ResultSet rows = count.executeQuery();
+            try {
+                return rows.next() ? rows.getInt(1) : 0;
+            } finally {
+                rows.close();
+            }
+        } finally {
+            count.close();
+        }
+    }
+
+    /**
+     * exportTasks() is DBHelper.exportTasks(): every live Task of every list, in position
+     * order, written from the ResultSet as it is stepped, without making Task objects.
+     */
+    @Override
+    public int exportTasks(TaskWriter writer) throws SQLException, IOException {
+        int count = 0;
+        ResultSet rows = mExport.executeQuery();
+        try {
+            while (rows.next())
+            {
+                writer.write(rows.getInt(1), rows.getString(2), rows.getInt(3) == 1, rows.getLong(4), rows.getInt(5));
+                count++;
+            }
+            writer.finish();
+        } finally {
+            rows.close();
+        }
+        return count;
+    }
+
+    /**
+     * importTasks() is DBHelper.importTasks(): Tasks are read as they are parsed and added
+     * IMPORT_BATCH_SIZE at a time, each batch in one transaction, into their own list if
+     * it exists and the first list otherwise.
+     */
+    @Override
+    public int importTasks(TaskReader reader) throws SQLException, IOException {
+        Set<Integer> listIds = new HashSet<>();
+        Statement statement = mConnection.createStatement();
+        try {
+            ResultSet rows = statement.executeQuery("SELECT _id FROM Lists");
+            while (rows.next())
+                listIds.add(rows.getInt(1));
+        } finally {
+            statement.close();
+        }
+        List<Task> batch = new ArrayList<>(IMPORT_BATCH_SIZE);
+        int count = 0;
+        Task task;
+        while ((task = reader.read()) != null)
+        {
+            if (!listIds.contains(task.getListId()))
+                task.setListId(Task.DEFAULT_LIST_ID);
+            batch.add(task);
+            if (batch.size() == IMPORT_BATCH_SIZE)
+            {
+                addTasks(batch);
+                count += batch.size();
+                batch.clear();
+            }
+        }
+        if (!batch.isEmpty())
+        {
+            addTasks(batch);
+            count += batch.size();
+        }
+        return count;
+    }
+
+    /**
+     * toPrefixQuery() is DBHelper.toPrefixQuery(): each word of letters and digits becomes a
+     * prefix term, only ASCII letters are lowercased, and everything else is dropped.
+     */
+    static String toPrefixQuery(String query) {
+        StringBuilder match = new StringBuilder();
+        StringBuilder word = new StringBuilder();
+        for (int i = 0; i <= query.length(); i++)
+        {
+            char c = i < query.length() ? query.charAt(i) : ' ';
+            if (Character.isLetterOrDigit(c))
+                word.append(c < 0x80 ? Character.toLowerCase(c) : c);
+            else if (word.length() > 0)
+            {
+                if (match.length() > 0)
+                    match.append(' ');
+                match.append(word).append('*');
+                word.setLength(0);
+            }
+        }
+        return match.toString();
+    }
+
+    @Override
+    public void close() throws SQLException {
+        mConnection.close();
+    }
+
+    private long nextSeq() {
+        return ++mSeq;
+    }
+
+    private void unusedSeq() {
+        mSeq--;
+    }
+
+    private long changeTime() {
+        mLastChangeTime = Math.max(System.currentTimeMillis(), mLastChangeTime + 1);
+        return mLastChangeTime;
+    }
+
+    private long nextPosition() {
+        mLastPosition += TaskOrder.GAP;
+        return mLastPosition;
+    }
+
+    private long longForQuery(String sql) throws SQLException {
+        Statement statement = mConnection.createStatement();
+        try {
+            ResultSet rows = statement.executeQuery(sql);
+            return rows.next() ? rows.getLong(1) : 0;
+        } finally {
+            statement.close();
+        }
+    }
+
+    private static List<Task> readTasks(PreparedStatement query, int capacity) throws SQLException {
+        List<Task> tasks = new ArrayList<>(capacity);
+        ResultSet rows = query.executeQuery();
+        try {
+            while (rows.next())
+                tasks.add(new Task(rows.getInt(1), rows.getString(2), rows.getInt(3) == 1, rows.getLong(4),
+                        rows.getInt(5)));
+        } finally {
+            rows.close();
+        }
+        return tasks;
+    }
+}
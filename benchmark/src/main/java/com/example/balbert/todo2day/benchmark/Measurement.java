@@ -0,0 +1,99 @@
+package com.example.balbert.todo2day.benchmark;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Measurement holds the timings of one benchmark at one table size: how many operations
+ * ran, how long each took, and how many bytes the benchmark thread allocated meanwhile.
+ *
+ * toJson() writes it as one line of JSON so results from different runs can be compared
+ * by a script.
+ */
+public class Measurement {
+
+    private final String mBenchmark;
+    private final int mRows;
+    private final long[] mLatenciesNanos;
+    private final long mTotalNanos;
+    private final long mAllocatedBytes;
+
+    /**
+     * @param benchmark name of the benchmark, e.g. "getSingleTask".
+     * @param rows number of rows in the table while it ran.
+     * @param latenciesNanos time each operation took (sorted here).
+     * @param allocatedBytes bytes the benchmark thread allocated during the operations,
+     *                       or -1 if the JVM can't tell.
+     */
+    public Measurement(String benchmark, int rows, long[] latenciesNanos, long allocatedBytes) {
+        mBenchmark = benchmark;
+        mRows = rows;
+        mLatenciesNanos = latenciesNanos.clone();
+        Arrays.sort(mLatenciesNanos);
+        long total = 0;
+        for (long latency : mLatenciesNanos)
+            total += latency;
+        mTotalNanos = total;
+        mAllocatedBytes = allocatedBytes;
+    }
+
+    public String getBenchmark() { return mBenchmark; }
+
+    public int getRows() { return mRows; }
+
+    public int getOperations() { return mLatenciesNanos.length; }
+
+    /**
+     * @return operations per second, counting only the time spent inside the operations.
+     */
+    public double getOpsPerSecond() {
+        return mTotalNanos == 0 ? 0 : mLatenciesNanos.length * 1e9 / mTotalNanos;
+    }
+
+    /**
+     * percentileNanos() uses the nearest-rank method on the sorted latencies.
+     * @param percentile between 0 and 100.
+     * @return the latency in nanoseconds that percentile of operations finished within.
+     */
+    public long percentileNanos(double percentile) {
+        if (mLatenciesNanos.length == 0)
+            return 0;
+        int rank = (int) Math.ceil(percentile / 100.0 * mLatenciesNanos.length);
+        return mLatenciesNanos[Math.min(Math.max(rank, 1), mLatenciesNanos.length) - 1];
+    }
+
+    /**
+     * @return bytes allocated per operation, or -1 if allocation couldn't be measured.
+     */
+    public long getBytesPerOperation() {
+        if (mAllocatedBytes < 0 || mLatenciesNanos.length == 0)
+            return -1;
+        return mAllocatedBytes / mLatenciesNanos.length;
+    }
+
+    /**
+     * @return allocation rate in MB per second of operation time, or -1 if unknown.
+     */
+    public double getAllocationMbPerSecond() {
+        if (mAllocatedBytes < 0 || mTotalNanos == 0)
+            return -1;
+        return mAllocatedBytes / (1024.0 * 1024.0) / (mTotalNanos / 1e9);
+    }
+
+    public String toJson() {
+        return String.format(Locale.US,
+                "{\"benchmark\":\"%s\",\"rows\":%d,\"ops\":%d,\"opsPerSecond\":%.2f,"
+                        + "\"p50Micros\":%.2f,\"p90Micros\":%.2f,\"p99Micros\":%.2f,\"maxMicros\":%.2f,"
+                        + "\"bytesPerOp\":%d,\"allocMbPerSecond\":%.2f}",
+                mBenchmark, mRows, getOperations(), getOpsPerSecond(),
+                percentileNanos(50) / 1e3, percentileNanos(90) / 1e3, percentileNanos(99) / 1e3,
+                percentileNanos(100) / 1e3, getBytesPerOperation(), getAllocationMbPerSecond());
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.US, "%-14s %9d rows %12.1f ops/s  p50 %9.1f us  p99 %9.1f us  %9d B/op",
+                mBenchmark, mRows, getOpsPerSecond(), percentileNanos(50) / 1e3,
+                percentileNanos(99) / 1e3, getBytesPerOperation());
+    }
+}
@@ -0,0 +1,169 @@
+package com.example.balbert.todo2day.benchmark;
+
+import com.example.balbert.todo2day.Task;
+import com.example.balbert.todo2day.TaskArray;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * MemoryBenchmark compares how much heap an ArrayList of Tasks and a TaskArray hold on to
+ * for the same rows, and how long the garbage collector spent while each was built and
+ * then read once from end to end (the way a list is read while scrolling).
+ *
+ * Retained heap is the used heap after building minus the used heap before, each read
+ * after the collector has settled, while the list is still reachable.
+ *
+ * Arguments (all optional):
+ *   --sizes 100000,1000000   numbers of Tasks to build
+ *   --out build/memory-results.json   where to write one JSON object per line
+ */
+public class MemoryBenchmark {
+
+    public static final int[] DEFAULT_SIZES = { 100000, 1000000 };
+    public static final String DEFAULT_OUT = "build/memory-results.json";
+
+    // Keeps the list under measurement reachable until the heap has been read
+    private static Object sRetained;
+
+    private interface Representation {
+        String name();
+
+        List<Task> build(int rows);
+    }
+
+    private static final Representation ARRAY_LIST = new Representation() {
+        @Override
+        public String name() { return "ArrayList<Task>"; }
+
+        @Override
+        public List<Task> build(int rows) {
+            List<Task> tasks = new ArrayList<>(rows);
+            for (int i = 1; i <= rows; i++)
+                tasks.add(new Task(i, description(i), i % 4 == 0));
+            return tasks;
+        }
+    };
+
+    private static final Representation TASK_ARRAY = new Representation() {
+        @Override
+        public String name() { return "TaskArray"; }
+
+        @Override
+        public List<Task> build(int rows) {
+            TaskArray tasks = new TaskArray(rows);
+            for (int i = 1; i <= rows; i++)
+                tasks.add(i, description(i), i % 4 == 0);
+            tasks.trimToSize();
+            return tasks;
+        }
+    };
+
+    private static String description(int n) {
+        return "Task " + n + " pick up groceries and call the bank";
+    }
+
+    private static long usedHeap() throws InterruptedException {
+        Runtime runtime = Runtime.getRuntime();
+        long used = runtime.totalMemory() - runtime.freeMemory();
+        // Collect until the number stops dropping
+        for (int i = 0; i < 10; i++)
+        {
+            System.gc();
+            Thread.sleep(50);
+            long now = runtime.totalMemory() - runtime.freeMemory();
+            if (now >= used)
+                return now;
+            used = now;
+        }
+        return used;
+    }
+
+    private static long gcMillis() {
+        long total = 0;
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans())
+            total += Math.max(0, collector.getCollectionTime());
+        return total;
+    }
+
+    private static String measure(Representation representation, int rows) throws InterruptedException {
+        sRetained = null;
+        long before = usedHeap();
+        long gcBefore = gcMillis();
+        long start = System.nanoTime();
+
+        List<Task> tasks = representation.build(rows);
+        // Read every row once, like scrolling the whole list
+        long checksum = 0;
+        for (int i = 0; i < tasks.size(); i++)
+        {
+            Task task = tasks.get(i);
+            checksum += task.getId() + task.getDescription().length() + (task.isDone() ? 1 : 0);
+        }
+
+        long elapsedMillis = (System.nanoTime() - start) / 1000000;
+        long gc = gcMillis() - gcBefore;
+        sRetained = tasks;
+        long retained = usedHeap() - before;
+        sRetained = null;
+
+        return String.format(Locale.US,
+                "{\"benchmark\":\"memory\",\"representation\":\"%s\",\"rows\":%d,\"retainedBytes\":%d,"
+                        + "\"bytesPerTask\":%.1f,\"buildAndScanMillis\":%d,\"gcMillis\":%d,\"checksum\":%d}",
+                representation.name(), rows, retained, (double) retained / rows, elapsedMillis, gc, checksum);
+    }
+
+    public static void main(String[] args) throws Exception {
+        int[] sizes = DEFAULT_SIZES;
+        String out = DEFAULT_OUT;
+        for (int i = 0; i + 1 < args.length; i += 2)
+        {
+            if ("--sizes".equals(args[i]))
+            {
+                String[] parts = args[i + 1].split(",");
+                sizes = new int[parts.length];
+                for (int j = 0; j < parts.length; j++)
+                    sizes[j] = Integer.parseInt(parts[j].trim());
+            }
+            else if ("--out".equals(args[i]))
+                out = args[i + 1];
+            else
+                throw new IllegalArgumentException("Unknown argument " + args[i]);
+        }
+
+        List<String> results = new ArrayList<>();
+        for (int rows : sizes)
+        {
+            for (Representation representation : new Representation[] { ARRAY_LIST, TASK_ARRAY })
+            {
+                // One untimed pass first so class loading and JIT don't count
+                measure(representation, Math.min(rows, 10000));
+                String result = measure(representation, rows);
+                System.out.println(result);
+                results.add(result);
+            }
+        }
+
+        File file = new File(out);
+        File parent = file.getAbsoluteFile().getParentFile();
+        if (parent != null && !parent.isDirectory() && !parent.mkdirs())
+            throw new IOException("Could not create " + parent);
+        Writer writer = new OutputStreamWriter(new FileOutputStream(file), Charset.forName("UTF-8"));
+        try {
+            for (String result : results)
+                writer.write(result + "\n");
+        } finally {
+            writer.close();
+        }
+        System.out.println("Results written to " + out);
+    }
+}
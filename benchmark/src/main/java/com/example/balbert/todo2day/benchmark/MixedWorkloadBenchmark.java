@@ -0,0 +1,282 @@
+package com.example.balbert.todo2day.benchmark;
+
+import com.example.balbert.todo2day.DBConfig;
+import com.example.balbert.todo2day.Task;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * MixedWorkloadBenchmark measures how reads and writes get in each other's way under each
+ * DBConfig, the way the app uses the database: one thread writes single-row updates (as a
+ * flushed checkbox toggle or an edit does) while readers page through the list 50 Tasks
+ * at a time (as scrolling does).
+ *
+ * With a rollback journal the app runs reads and writes on one thread and one connection,
+ * so here too every operation takes a shared, first-come first-served lock first.  With
+ * write-ahead logging the writer keeps its own connection and each of
+ * DBConfig.getConcurrentReaders() readers opens another, as TaskRepository's reader
+ * threads do.
+ *
+ * Every configuration gets a fresh database of the same generated Tasks and runs for the
+ * same time.  The results are throughput over wall-clock time and latency percentiles of
+ * each side, printed and written one JSON object per configuration.  Readers only run
+ * alongside the writer if there are cores for them, so each result also records how many
+ * processors the JVM had: on a single core, extra readers take time from the writer
+ * rather than overlapping with it.
+ *
+ * Arguments (all optional):
+ *   --rows 100000   Tasks in the table
+ *   --seconds 5   how long each configuration runs, after a one second warm-up
+ *   --out build/mixed-results.json   where to write the results
+ *   --seed 42   seed for the generated data and the ids picked
+ */
+public class MixedWorkloadBenchmark {
+
+    public static final int DEFAULT_ROWS = 100000;
+    public static final int DEFAULT_SECONDS = 5;
+    public static final String DEFAULT_OUT = "build/mixed-results.json";
+
+    // Tasks read per page, as TaskPagedList reads them
+    private static final int PAGE_SIZE = 50;
+
+    private static final int FILL_BATCH_SIZE = 10000;
+    private static final long WARM_UP_MS = 1000;
+
+    /**
+     * configurations() lists the settings compared, by name.
+     */
+    static Map<String, DBConfig> configurations() {
+        Map<String, DBConfig> configs = new LinkedHashMap<>();
+        configs.put("rollback-full", DBConfig.rollbackJournal());
+        configs.put("rollback-normal", DBConfig.rollbackJournal().setSynchronous(DBConfig.SYNCHRONOUS_NORMAL));
+        configs.put("wal-full-1reader", DBConfig.defaults().setSynchronous(DBConfig.SYNCHRONOUS_FULL).setReaderCount(1));
+        configs.put("wal-normal-1reader", DBConfig.defaults().setReaderCount(1));
+        configs.put("wal-normal-2readers", DBConfig.defaults());
+        configs.put("wal-normal-4readers", DBConfig.defaults().setReaderCount(4));
+        return configs;
+    }
+
+    /**
+     * Latencies collects operation times without boxing them.
+     */
+    private static final class Latencies {
+        private long[] mNanos = new long[4096];
+        private int mCount;
+
+        void add(long nanos) {
+            if (mCount == mNanos.length)
+                mNanos = Arrays.copyOf(mNanos, mCount * 2);
+            mNanos[mCount++] = nanos;
+        }
+
+        long[] toArray() { return Arrays.copyOf(mNanos, mCount); }
+    }
+
+    /**
+     * Worker runs one kind of operation in a loop on its own thread until told to stop.
+     */
+    private abstract static class Worker extends Thread {
+        final Latencies mLatencies = new Latencies();
+        final AtomicReference<Exception> mFailure = new AtomicReference<>();
+        final Random mRandom;
+        final Lock mLock;
+        volatile boolean mMeasuring;
+        volatile boolean mStopped;
+
+        Worker(String name, long seed, Lock lock) {
+            super(name);
+            mRandom = new Random(seed);
+            mLock = lock;
+        }
+
+        abstract void runOnce() throws Exception;
+
+        @Override
+        public void run() {
+            try {
+                while (!mStopped)
+                {
+                    long start = System.nanoTime();
+                    if (mLock == null)
+                        runOnce();
+                    else
+                    {
+                        mLock.lock();
+                        try {
+                            runOnce();
+                        } finally {
+                            mLock.unlock();
+                        }
+                    }
+                    if (mMeasuring)
+                        mLatencies.add(System.nanoTime() - start);
+                }
+            } catch (Exception e) {
+                mFailure.set(e);
+            }
+        }
+    }
+
+    private final int mRows;
+    private final long mRunNanos;
+    private final long mSeed;
+
+    public MixedWorkloadBenchmark(int rows, int seconds, long seed) {
+        mRows = rows;
+        mRunNanos = seconds * 1000000000L;
+        mSeed = seed;
+    }
+
+    /**
+     * run() runs the mixed workload under one configuration.
+     * @return the result as one line of JSON.
+     */
+    public String run(String name, DBConfig config) throws Exception {
+        File databaseFile = File.createTempFile("todo2day-mixed", ".db");
+        databaseFile.deleteOnExit();
+        final JdbcTaskStore writerStore = new JdbcTaskStore(databaseFile, config);
+        List<JdbcTaskStore> stores = new ArrayList<>();
+        stores.add(writerStore);
+        try {
+            fill(writerStore);
+
+            // One connection taking turns in order (like one executor thread), or a
+            // connection per reader
+            Lock sharedLock = config.isWriteAheadLogging() ? null : new ReentrantLock(true);
+            List<Worker> workers = new ArrayList<>();
+            workers.add(new Worker("writer", mSeed, sharedLock) {
+                @Override
+                void runOnce() throws Exception {
+                    int id = 1 + mRandom.nextInt(mRows);
+                    writerStore.updateTask(new Task(id, description(id), mRandom.nextBoolean()));
+                }
+            });
+            for (int i = 0; i < config.getConcurrentReaders(); i++)
+            {
+                final JdbcTaskStore readerStore = sharedLock != null ? writerStore
+                        : JdbcTaskStore.openReader(databaseFile, config);
+                if (readerStore != writerStore)
+                    stores.add(readerStore);
+                workers.add(new Worker("reader" + i, mSeed + 1 + i, sharedLock) {
+                    @Override
+                    void runOnce() throws Exception {
+                        readerStore.getTasksAfter(mRandom.nextInt(mRows), PAGE_SIZE);
+                    }
+                });
+            }
+
+            for (Worker worker : workers)
+                worker.start();
+            Thread.sleep(WARM_UP_MS);
+            for (Worker worker : workers)
+                worker.mMeasuring = true;
+            long start = System.nanoTime();
+            Thread.sleep(mRunNanos / 1000000);
+            for (Worker worker : workers)
+                worker.mStopped = true;
+            for (Worker worker : workers)
+                worker.join();
+            long elapsed = System.nanoTime() - start;
+
+            Latencies reads = new Latencies();
+            for (Worker worker : workers)
+            {
+                if (worker.mFailure.get() != null)
+                    throw worker.mFailure.get();
+                if (worker != workers.get(0))
+                    for (long nanos : worker.mLatencies.toArray())
+                        reads.add(nanos);
+            }
+            Measurement write = new Measurement("updateTask", mRows, workers.get(0).mLatencies.toArray(), -1);
+            Measurement read = new Measurement("getTasksAfter", mRows, reads.toArray(), -1);
+            System.out.println(String.format(Locale.US, "%-20s writes %9.1f/s p99 %9.1f us   reads %9.1f/s p99 %9.1f us",
+                    name, write.getOperations() / (elapsed / 1e9), write.percentileNanos(99) / 1e3,
+                    read.getOperations() / (elapsed / 1e9), read.percentileNanos(99) / 1e3));
+            return String.format(Locale.US,
+                    "{\"config\":\"%s\",\"settings\":\"%s\",\"processors\":%d,\"rows\":%d,\"seconds\":%.2f,"
+                            + "\"writesPerSecond\":%.2f,\"readsPerSecond\":%.2f,\"write\":%s,\"read\":%s}",
+                    name, config, Runtime.getRuntime().availableProcessors(), mRows, elapsed / 1e9,
+                    write.getOperations() / (elapsed / 1e9), read.getOperations() / (elapsed / 1e9),
+                    write.toJson(), read.toJson());
+        } finally {
+            for (JdbcTaskStore store : stores)
+                store.close();
+            databaseFile.delete();
+            new File(databaseFile.getPath() + "-wal").delete();
+            new File(databaseFile.getPath() + "-shm").delete();
+        }
+    }
+
+    private void fill(TaskStore store) throws Exception {
+        Random random = new Random(mSeed);
+        List<Task> batch = new ArrayList<>(FILL_BATCH_SIZE);
+        for (int i = 1; i <= mRows; i++)
+        {
+            batch.add(new Task(description(i), random.nextInt(4) == 0));
+            if (batch.size() == FILL_BATCH_SIZE || i == mRows)
+            {
+                store.addTasks(batch);
+                batch.clear();
+            }
+        }
+    }
+
+    private static String description(int n) {
+        return "Task " + n + " pick up groceries and call the bank";
+    }
+
+    public static void main(String[] args) throws Exception {
+        int rows = DEFAULT_ROWS;
+        int seconds = DEFAULT_SECONDS;
+        String out = DEFAULT_OUT;
+        long seed = 42;
+        for (int i = 0; i + 1 < args.length; i += 2)
+        {
+            if ("--rows".equals(args[i]))
+                rows = Integer.parseInt(args[i + 1]);
+            else if ("--seconds".equals(args[i]))
+                seconds = Integer.parseInt(args[i + 1]);
+            else if ("--out".equals(args[i]))
+                out = args[i + 1];
+            else if ("--seed".equals(args[i]))
+                seed = Long.parseLong(args[i + 1]);
+            else
+                throw new IllegalArgumentException("Unknown argument " + args[i]);
+        }
+
+        MixedWorkloadBenchmark benchmark = new MixedWorkloadBenchmark(rows, seconds, seed);
+        System.out.println(rows + " rows, " + seconds + " s per configuration, "
+                + Runtime.getRuntime().availableProcessors() + " processors");
+        List<String> results = new ArrayList<>();
+        for (Map.Entry<String, DBConfig> config : configurations().entrySet())
+            results.add(benchmark.run(config.getKey(), config.getValue()));
+
+        File file = new File(out);
+        File parent = file.getAbsoluteFile().getParentFile();
+        if (parent != null && !parent.isDirectory() && !parent.mkdirs())
+            throw new IOException("Could not create " + parent);
+        Writer writer = new OutputStreamWriter(new FileOutputStream(file), Charset.forName("UTF-8"));
+        try {
+            for (String result : results)
+                writer.write(result + "\n");
+        } finally {
+            writer.close();
+        }
+        System.out.println("Results written to " + out);
+    }
+}
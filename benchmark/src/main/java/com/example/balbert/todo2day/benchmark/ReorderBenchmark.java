@@ -0,0 +1,360 @@
+package com.example.balbert.todo2day.benchmark;
+
+import com.example.balbert.todo2day.TaskOrder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * ReorderBenchmark measures how long dragging a Task to a new place takes in a large list,
+ * the way DBHelper.moveTask() does it and the naive way.
+ *
+ * "gap" keeps DBHelper's positions: rows start TaskOrder.GAP apart, a move reads the
+ * positions either side of its new place from the order index and rewrites one row, and a
+ * spot crowded by moves is spread out again afterwards (as TaskRepository does when idle).
+ * The time of those rebalances is reported on its own, and again added to the moves that
+ * caused them, so the cost of the whole scheme can be compared.
+ *
+ * "renumber" numbers the rows 1, 2, 3... and shifts every row between the old and the new
+ * place by one, which is what keeping a plain index column in order costs.
+ *
+ * Each scheme gets a fresh database of the same rows and runs the same moves, twice: to
+ * random places, and all into one spot (after the first Task), which uses up the room
+ * there as fast as possible.  Each move is its own transaction, as in the app.
+ *
+ * Arguments (all optional):
+ *   --rows 100000   Tasks in the table
+ *   --moves 2000   moves of each kind
+ *   --out build/reorder-results.json   where to write the results
+ *   --seed 42   seed for the moves picked
+ */
+public class ReorderBenchmark {
+
+    public static final int DEFAULT_ROWS = 100000;
+    public static final int DEFAULT_MOVES = 2000;
+    public static final String DEFAULT_OUT = "build/reorder-results.json";
+
+    // As DBHelper.REBALANCE_WINDOW
+    private static final int REBALANCE_WINDOW = 32;
+
+    private static final int FILL_BATCH_SIZE = 10000;
+    private static final int WARM_UP_MOVES = 200;
+
+    private static final String SCHEMA = "CREATE TABLE Tasks ( _id INTEGER PRIMARY KEY, description TEXT,"
+            + " done INTEGER, deleted INTEGER NOT NULL DEFAULT 0, position INTEGER NOT NULL )";
+    private static final String ORDER_INDEX = "CREATE INDEX TasksOrder ON Tasks ( deleted, position )";
+
+    private final int mRows;
+    private final int mMoves;
+    private final long mSeed;
+
+    private Connection mConnection;
+    private PreparedStatement mSelectPosition;
+    private PreparedStatement mSelectNext;
+    private PreparedStatement mSetPosition;
+    private PreparedStatement mShiftDown;
+    private PreparedStatement mShiftUp;
+    private PreparedStatement mSelectBelow;
+    private PreparedStatement mSelectAbove;
+    private long mCrowdedPosition = TaskOrder.NONE;
+
+    public ReorderBenchmark(int rows, int moves, long seed) {
+        mRows = rows;
+        mMoves = moves;
+        mSeed = seed;
+    }
+
+    /**
+     * run() measures one scheme ("gap" or "renumber") for both kinds of move.
+     * @return the results, one line of JSON each.
+     */
+    public List<String> run(String scheme) throws Exception {
+        boolean gap = "gap".equals(scheme);
+        File databaseFile = File.createTempFile("todo2day-reorder", ".db");
+        databaseFile.deleteOnExit();
+        List<String> results = new ArrayList<>();
+        open(databaseFile, gap);
+        try {
+            // Moves within a few rows of a spot for the warm-up, so the caches and the JIT
+            // are ready without the measured runs starting from a disturbed list
+            Random random = new Random(mSeed);
+            for (int i = 0; i < WARM_UP_MOVES; i++)
+            {
+                int id = 1 + random.nextInt(mRows);
+                move(gap, id, id > 1 ? id - 1 : 0);
+            }
+            rebalanceIfCrowded(gap);
+
+            results.add(measure(scheme, "random", gap, new Random(mSeed + 1), false));
+            results.add(measure(scheme, "sameSpot", gap, new Random(mSeed + 2), true));
+        } finally {
+            mConnection.close();
+            databaseFile.delete();
+            new File(databaseFile.getPath() + "-journal").delete();
+        }
+        return results;
+    }
+
+    private String measure(String scheme, String kind, boolean gap, Random random, boolean sameSpot)
+            throws SQLException {
+        long[] moves = new long[mMoves];
+        long[] total = new long[mMoves];
+        long[] rebalances = new long[mMoves];
+        int rebalanceCount = 0;
+        for (int i = 0; i < mMoves; i++)
+        {
+            int id = 2 + random.nextInt(mRows - 1);
+            int afterId = sameSpot ? 1 : random.nextInt(mRows + 1);
+            if (afterId == id)
+                afterId = 0;
+            long start = System.nanoTime();
+            move(gap, id, afterId);
+            moves[i] = System.nanoTime() - start;
+            total[i] = moves[i];
+            if (mCrowdedPosition != TaskOrder.NONE)
+            {
+                start = System.nanoTime();
+                rebalanceIfCrowded(gap);
+                rebalances[rebalanceCount] = System.nanoTime() - start;
+                total[i] += rebalances[rebalanceCount++];
+            }
+        }
+
+        Measurement move = new Measurement(scheme + "." + kind, mRows, moves, -1);
+        Measurement rebalance = new Measurement(scheme + "." + kind + ".rebalance", mRows,
+                Arrays.copyOf(rebalances, rebalanceCount), -1);
+        Measurement withRebalance = new Measurement(scheme + "." + kind + ".withRebalance", mRows, total, -1);
+        System.out.println(move);
+        if (rebalanceCount > 0)
+            System.out.println(rebalance);
+        return String.format(Locale.US, "{\"scheme\":\"%s\",\"moves\":\"%s\",\"rows\":%d,\"rebalances\":%d,"
+                        + "\"move\":%s,\"rebalance\":%s,\"moveWithRebalance\":%s}",
+                scheme, kind, mRows, rebalanceCount, move.toJson(), rebalance.toJson(), withRebalance.toJson());
+    }
+
+    private void open(File file, boolean gap) throws SQLException {
+        if (file.exists() && !file.delete())
+            throw new SQLException("Could not delete " + file);
+        mConnection = DriverManager.getConnection("jdbc:sqlite:" + file.getPath());
+        Statement statement = mConnection.createStatement();
+        try {
+            statement.execute(SCHEMA);
+            statement.execute(ORDER_INDEX);
+        } finally {
+            statement.close();
+        }
+
+        mConnection.setAutoCommit(false);
+        PreparedStatement insert = mConnection.prepareStatement(
+                "INSERT INTO Tasks ( description, done, position ) VALUES ( ?, ?, ? )");
+        try {
+            for (int i = 1; i <= mRows; i++)
+            {
+                insert.setString(1, "Task " + i + " pick up groceries and call the bank");
+                insert.setInt(2, i % 4 == 0 ? 1 : 0);
+                insert.setLong(3, gap ? i * TaskOrder.GAP : i);
+                insert.addBatch();
+                if (i % FILL_BATCH_SIZE == 0 || i == mRows)
+                    insert.executeBatch();
+            }
+            mConnection.commit();
+        } finally {
+            insert.close();
+        }
+
+        mSelectPosition = mConnection.prepareStatement("SELECT position FROM Tasks WHERE _id = ? AND deleted = 0");
+        mSelectNext = mConnection.prepareStatement("SELECT position FROM Tasks WHERE deleted = 0"
+                + " AND position > ? AND _id != ? ORDER BY position LIMIT 1");
+        mSetPosition = mConnection.prepareStatement("UPDATE Tasks SET position = ? WHERE _id = ?");
+        mShiftDown = mConnection.prepareStatement("UPDATE Tasks SET position = position - 1"
+                + " WHERE deleted = 0 AND position > ? AND position <= ?");
+        mShiftUp = mConnection.prepareStatement("UPDATE Tasks SET position = position + 1"
+                + " WHERE deleted = 0 AND position > ? AND position < ?");
+        mSelectBelow = mConnection.prepareStatement("SELECT _id, position FROM Tasks WHERE deleted = 0"
+                + " AND position <= ? ORDER BY position DESC LIMIT ?");
+        mSelectAbove = mConnection.prepareStatement("SELECT _id, position FROM Tasks WHERE deleted = 0"
+                + " AND position > ? ORDER BY position ASC LIMIT ?");
+        mCrowdedPosition = TaskOrder.NONE;
+    }
+
+    /**
+     * move() puts one Task after another (or at the top for 0) in one transaction.
+     */
+    private void move(boolean gap, int id, int afterId) throws SQLException {
+        try {
+            if (gap)
+                moveBetweenGaps(id, afterId);
+            else
+                moveRenumbering(id, afterId);
+            mConnection.commit();
+        } catch (SQLException e) {
+            mConnection.rollback();
+            throw e;
+        }
+    }
+
+    // As DBHelper.moveTask()
+    private void moveBetweenGaps(int id, int afterId) throws SQLException {
+        long before = afterId == 0 ? TaskOrder.NONE : position(afterId);
+        long after = next(before, id);
+        long position = TaskOrder.between(before, after);
+        if (position == TaskOrder.NONE)
+        {
+            rebalance(before);
+            before = position(afterId);
+            after = next(before, id);
+            position = TaskOrder.between(before, after);
+        }
+        else if (TaskOrder.isCrowded(before, after))
+            mCrowdedPosition = before;
+        setPosition(id, position);
+    }
+
+    private void moveRenumbering(int id, int afterId) throws SQLException {
+        long from = position(id);
+        long to = afterId == 0 ? 0 : position(afterId);
+        if (to < from)
+        {
+            // Rows after the new place and before the old one move down the list by one
+            mShiftUp.setLong(1, to);
+            mShiftUp.setLong(2, from);
+            mShiftUp.executeUpdate();
+            setPosition(id, to + 1);
+        }
+        else
+        {
+            mShiftDown.setLong(1, from);
+            mShiftDown.setLong(2, to);
+            mShiftDown.executeUpdate();
+            setPosition(id, to);
+        }
+    }
+
+    private void rebalanceIfCrowded(boolean gap) throws SQLException {
+        if (!gap || mCrowdedPosition == TaskOrder.NONE)
+            return;
+        try {
+            rebalance(mCrowdedPosition);
+            mConnection.commit();
+        } catch (SQLException e) {
+            mConnection.rollback();
+            throw e;
+        }
+        mCrowdedPosition = TaskOrder.NONE;
+    }
+
+    // As DBHelper.rebalance()
+    private void rebalance(long around) throws SQLException {
+        for (int half = REBALANCE_WINDOW / 2; ; half *= 2)
+        {
+            List<long[]> below = rows(mSelectBelow, around, half + 1);
+            List<long[]> above = rows(mSelectAbove, around, half + 1);
+            long before = below.size() > half ? below.remove(half)[1] : TaskOrder.NONE;
+            long after = above.size() > half ? above.remove(half)[1] : TaskOrder.NONE;
+            int count = below.size() + above.size();
+            long[] positions = TaskOrder.spread(before, after, count);
+            if (positions == null)
+                continue;
+
+            Collections.reverse(below);
+            below.addAll(above);
+            for (int i = 0; i < count; i++)
+                setPosition((int) below.get(i)[0], positions[i]);
+            return;
+        }
+    }
+
+    private List<long[]> rows(PreparedStatement select, long position, int limit) throws SQLException {
+        select.setLong(1, position);
+        select.setInt(2, limit);
+        List<long[]> rows = new ArrayList<>(limit);
+        ResultSet results = select.executeQuery();
+        try {
+            while (results.next())
+                rows.add(new long[] {results.getLong(1), results.getLong(2)});
+        } finally {
+            results.close();
+        }
+        return rows;
+    }
+
+    private long position(int id) throws SQLException {
+        mSelectPosition.setInt(1, id);
+        return queryPosition(mSelectPosition);
+    }
+
+    private long next(long position, int movingId) throws SQLException {
+        mSelectNext.setLong(1, position);
+        mSelectNext.setInt(2, movingId);
+        return queryPosition(mSelectNext);
+    }
+
+    private static long queryPosition(PreparedStatement select) throws SQLException {
+        ResultSet results = select.executeQuery();
+        try {
+            return results.next() ? results.getLong(1) : TaskOrder.NONE;
+        } finally {
+            results.close();
+        }
+    }
+
+    private void setPosition(int id, long position) throws SQLException {
+        mSetPosition.setLong(1, position);
+        mSetPosition.setInt(2, id);
+        mSetPosition.executeUpdate();
+    }
+
+    public static void main(String[] args) throws Exception {
+        int rows = DEFAULT_ROWS;
+        int moves = DEFAULT_MOVES;
+        String out = DEFAULT_OUT;
+        long seed = 42;
+        for (int i = 0; i + 1 < args.length; i += 2)
+        {
+            if ("--rows".equals(args[i]))
+                rows = Integer.parseInt(args[i + 1]);
+            else if ("--moves".equals(args[i]))
+                moves = Integer.parseInt(args[i + 1]);
+            else if ("--out".equals(args[i]))
+                out = args[i + 1];
+            else if ("--seed".equals(args[i]))
+                seed = Long.parseLong(args[i + 1]);
+            else
+                throw new IllegalArgumentException("Unknown argument " + args[i]);
+        }
+
+        ReorderBenchmark benchmark = new ReorderBenchmark(rows, moves, seed);
+        List<String> results = new ArrayList<>();
+        results.addAll(benchmark.run("gap"));
+        results.addAll(benchmark.run("renumber"));
+
+        File file = new File(out);
+        File parent = file.getAbsoluteFile().getParentFile();
+        if (parent != null && !parent.isDirectory() && !parent.mkdirs())
+            throw new IOException("Could not create " + parent);
+        Writer writer = new OutputStreamWriter(new FileOutputStream(file), Charset.forName("UTF-8"));
+        try {
+            for (String result : results)
+                writer.write(result + "\n");
+        } finally {
+            writer.close();
+        }
+        System.out.println("Results written to " + out);
+    }
+}
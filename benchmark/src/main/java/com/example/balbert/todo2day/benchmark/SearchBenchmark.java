@@ -0,0 +1,162 @@
+package com.example.balbert.todo2day.benchmark;
+
+import com.example.balbert.todo2day.DBConfig;
+import com.example.balbert.todo2day.Task;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * SearchBenchmark measures how long DBHelper.searchTasks() takes in a large list, for
+ * queries from one that matches every Task down to one that matches none.
+ *
+ * The cost is in the matches that are ranked, not the results: offsets() is computed for
+ * every ranked row and all of them are sorted before the LIMIT applies.  DBHelper ranks
+ * at most SEARCH_RANK_LIMIT matches, so a query matching more costs no more than that.
+ * Every description starts with "Task", so "t" and "ta" (what the search box holds after
+ * one or two keystrokes) match every row; the other queries match a share of the rows
+ * set by how often their words occur, and each result line says how many that was.
+ *
+ * The descriptions are "Task n" and three words picked from WORDS.  Each query runs with
+ * MainActivity's limit of 100, in the settings the app ships with (DBConfig.defaults()).
+ *
+ * Arguments (all optional):
+ *   --rows 100000   Tasks in the table
+ *   --searches 100   searches timed per query, after a tenth as many to warm up
+ *   --out build/search-results.json   where to write one JSON object per line
+ *   --seed 42   seed for the generated data
+ */
+public class SearchBenchmark {
+
+    public static final int DEFAULT_ROWS = 100000;
+    public static final int DEFAULT_SEARCHES = 100;
+    public static final String DEFAULT_OUT = "build/search-results.json";
+
+    // As MainActivity.SEARCH_LIMIT
+    private static final int LIMIT = 100;
+
+    private static final int FILL_BATCH_SIZE = 10000;
+
+    private static final String[] WORDS = { "pick", "up", "groceries", "call", "the", "bank", "email",
+            "mum", "book", "dentist", "pay", "rent", "water", "plants", "buy", "milk", "bread", "fix",
+            "bike", "clean", "kitchen", "return", "library", "books", "walk", "dog", "renew", "passport",
+            "send", "invoice", "order", "printer" };
+
+    // From most matches to fewest
+    private static final String[] QUERIES = { "t", "ta", "task", "b", "gro", "call ba", "dentist",
+            "4242", "zebra" };
+
+    private final int mRows;
+    private final int mSearches;
+    private final Random mRandom;
+
+    public SearchBenchmark(int rows, int searches, long seed) {
+        mRows = rows;
+        mSearches = searches;
+        mRandom = new Random(seed);
+    }
+
+    /**
+     * run() fills a fresh database and times every query in QUERIES.
+     * @return the results, one line of JSON per query.
+     */
+    public List<String> run() throws Exception {
+        File databaseFile = File.createTempFile("todo2day-search", ".db");
+        databaseFile.deleteOnExit();
+        List<String> results = new ArrayList<>();
+        JdbcTaskStore store = new JdbcTaskStore(databaseFile, DBConfig.defaults());
+        try {
+            fill(store);
+            for (String query : QUERIES)
+                results.add(measure(store, query));
+        } finally {
+            store.close();
+            databaseFile.delete();
+            new File(databaseFile.getPath() + "-wal").delete();
+            new File(databaseFile.getPath() + "-shm").delete();
+        }
+        return results;
+    }
+
+    private String measure(JdbcTaskStore store, String query) throws Exception {
+        for (int i = 0; i < Math.max(1, mSearches / 10); i++)
+            store.searchTasks(query, LIMIT);
+
+        long[] latencies = new long[mSearches];
+        int results = 0;
+        for (int i = 0; i < mSearches; i++)
+        {
+            long start = System.nanoTime();
+            results = store.searchTasks(query, LIMIT).size();
+            latencies[i] = System.nanoTime() - start;
+        }
+        int matches = store.countMatches(query);
+
+        Measurement measurement = new Measurement("searchTasks", mRows, latencies, -1);
+        System.out.println(String.format(Locale.US, "%-10s %9d rows %8d matches %4d results"
+                        + "  p50 %9.1f us  p90 %9.1f us  p99 %9.1f us",
+                "\"" + query + "\"", mRows, matches, results, measurement.percentileNanos(50) / 1e3,
+                measurement.percentileNanos(90) / 1e3, measurement.percentileNanos(99) / 1e3));
+        return String.format(Locale.US, "{\"query\":\"%s\",\"matches\":%d,\"results\":%d,\"measurement\":%s}",
+                query, matches, results, measurement.toJson());
+    }
+
+    private void fill(TaskStore store) throws Exception {
+        List<Task> batch = new ArrayList<>(FILL_BATCH_SIZE);
+        for (int i = 1; i <= mRows; i++)
+        {
+            StringBuilder description = new StringBuilder("Task ").append(i);
+            for (int word = 0; word < 3; word++)
+                description.append(' ').append(WORDS[mRandom.nextInt(WORDS.length)]);
+            batch.add(new Task(description.toString(), mRandom.nextInt(4) == 0));
+            if (batch.size() == FILL_BATCH_SIZE || i == mRows)
+            {
+                store.addTasks(batch);
+                batch.clear();
+            }
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        int rows = DEFAULT_ROWS;
+        int searches = DEFAULT_SEARCHES;
+        String out = DEFAULT_OUT;
+        long seed = 42;
+        for (int i = 0; i + 1 < args.length; i += 2)
+        {
+            if ("--rows".equals(args[i]))
+                rows = Integer.parseInt(args[i + 1]);
+            else if ("--searches".equals(args[i]))
+                searches = Integer.parseInt(args[i + 1]);
+            else if ("--out".equals(args[i]))
+                out = args[i + 1];
+            else if ("--seed".equals(args[i]))
+                seed = Long.parseLong(args[i + 1]);
+            else
+                throw new IllegalArgumentException("Unknown argument " + args[i]);
+        }
+
+        List<String> results = new SearchBenchmark(rows, searches, seed).run();
+
+        File file = new File(out);
+        File parent = file.getAbsoluteFile().getParentFile();
+        if (parent != null && !parent.isDirectory() && !parent.mkdirs())
+            throw new IOException("Could not create " + parent);
+        Writer writer = new OutputStreamWriter(new FileOutputStream(file), Charset.forName("UTF-8"));
+        try {
+            for (String result : results)
+                writer.write(result + "\n");
+        } finally {
+            writer.close();
+        }
+        System.out.println("Results written to " + out);
+    }
+}
@@ -0,0 +1,56 @@
+package com.example.balbert.todo2day.benchmark;
+
+import com.example.balbert.todo2day.Task;
+import com.example.balbert.todo2day.TaskReader;
+import com.example.balbert.todo2day.TaskWriter;
+
+import java.sql.SQLException;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * TaskStore is the part of DBHelper's API that the benchmarks exercise, so the same
+ * benchmarks can run against any implementation that follows DBHelper's SQL.
+ *
+ * As in DBHelper, deletes leave tombstones that no query returns, and updates and deletes
+ * of a tombstone change nothing; purgeTombstones() removes them for good.
+ */
+public interface TaskStore extends AutoCloseable {
+
+    int addTask(Task newTask) throws Exception;
+
+    List<Task> addTasks(Collection<Task> newTasks) throws Exception;
+
+    List<Task> getAllTasks() throws Exception;
+
+    List<Task> getTasksAfter(int afterId, int limit) throws Exception;
+
+    void updateTask(Task taskToEdit) throws Exception;
+
+    void updateTasks(Collection<Task> tasksToEdit) throws Exception;
+
+    void updateDoneStates(Map<Integer, Boolean> doneStates) throws Exception;
+
+    Task getSingleTask(int id) throws Exception;
+
+    void deleteTask(Task taskToDelete) throws Exception;
+
+    void deleteTasks(Collection<Task> tasksToDelete) throws Exception;
+
+    void deleteAllTasks() throws Exception;
+
+    int purgeTombstones(int limit) throws Exception;
+
+    int getTaskCount() throws Exception;
+
+    List<Task> searchTasks(String query, int limit) throws Exception;
+
+    int exportTasks(TaskWriter writer) throws Exception;
+
+    int importTasks(TaskReader reader) throws Exception;
+
+    // Narrowed from AutoCloseable's, which may throw InterruptedException
+    @Override
+    void close() throws SQLException;
+}
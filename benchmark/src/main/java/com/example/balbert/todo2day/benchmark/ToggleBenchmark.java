@@ -0,0 +1,203 @@
+package com.example.balbert.todo2day.benchmark;
+
+import com.example.balbert.todo2day.DBConfig;
+import com.example.balbert.todo2day.Task;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * ToggleBenchmark measures checkbox toggles, one at a time as MainActivity makes them,
+ * before and after DBHelper kept its connection open.
+ *
+ * "reopening" is how DBHelper used to do it: every toggle opens the database file, applies
+ * the connection's PRAGMAs, compiles the UPDATE, runs it and closes the connection again.
+ * With the WAL journal, closing the last connection also checkpoints the log into the
+ * database file, as it did on the device.
+ *
+ * "shared" is how DBHelper does it now: one connection opened beforehand, and the same
+ * compiled statement bound and run for every toggle (TaskStore.updateDoneStates() with
+ * one Task, which is what a flushed toggle is).
+ *
+ * Both run the same UPDATE on the same table, with the settings the app ships with
+ * (DBConfig.defaults()), and each toggle is its own transaction.
+ *
+ * Arguments (all optional):
+ *   --rows 100000   Tasks in the table
+ *   --toggles 10000   toggles of each kind
+ *   --out build/toggle-results.json   where to write one JSON object per line
+ *   --seed 42   seed for the Tasks toggled
+ */
+public class ToggleBenchmark {
+
+    public static final int DEFAULT_ROWS = 100000;
+    public static final int DEFAULT_TOGGLES = 10000;
+    public static final String DEFAULT_OUT = "build/toggle-results.json";
+
+    private static final int FILL_BATCH_SIZE = 10000;
+    private static final int WARM_UP_TOGGLES = 500;
+
+    private final int mRows;
+    private final int mToggles;
+    private final long mSeed;
+    private final DBConfig mConfig = DBConfig.defaults();
+
+    // Seqs for the reopening toggles, well clear of the ones the store hands out
+    private long mSeq = Integer.MAX_VALUE;
+
+    public ToggleBenchmark(int rows, int toggles, long seed) {
+        mRows = rows;
+        mToggles = toggles;
+        mSeed = seed;
+    }
+
+    /**
+     * run() fills a fresh database and toggles random Tasks both ways.
+     * @return a Measurement for each way, reopening first.
+     */
+    public List<Measurement> run() throws Exception {
+        File databaseFile = File.createTempFile("todo2day-toggle", ".db");
+        databaseFile.deleteOnExit();
+        List<Measurement> measurements = new ArrayList<>();
+        try {
+            JdbcTaskStore store = new JdbcTaskStore(databaseFile, mConfig);
+            try {
+                fill(store);
+            } finally {
+                store.close();
+            }
+
+            measurements.add(measure("reopening", databaseFile, null));
+
+            store = JdbcTaskStore.openReader(databaseFile, mConfig);
+            try {
+                measurements.add(measure("shared", databaseFile, store));
+            } finally {
+                store.close();
+            }
+        } finally {
+            databaseFile.delete();
+            new File(databaseFile.getPath() + "-wal").delete();
+            new File(databaseFile.getPath() + "-shm").delete();
+        }
+        return measurements;
+    }
+
+    /**
+     * measure() times mToggles toggles after a warm-up, through the store if there is one
+     * and by reopening the file otherwise.
+     */
+    private Measurement measure(String name, File databaseFile, TaskStore store) throws Exception {
+        Random random = new Random(mSeed);
+        long[] latencies = new long[mToggles];
+        for (int i = -WARM_UP_TOGGLES; i < mToggles; i++)
+        {
+            int id = 1 + random.nextInt(mRows);
+            boolean done = random.nextBoolean();
+            long start = System.nanoTime();
+            if (store == null)
+                toggleReopening(databaseFile, id, done);
+            else
+                store.updateDoneStates(Collections.singletonMap(id, done));
+            if (i >= 0)
+                latencies[i] = System.nanoTime() - start;
+        }
+        return new Measurement("toggle." + name, mRows, latencies, -1);
+    }
+
+    /**
+     * toggleReopening() is one toggle the old way: open, configure, compile, run, close.
+     */
+    private void toggleReopening(File databaseFile, int id, boolean done) throws SQLException {
+        Connection connection = DriverManager.getConnection("jdbc:sqlite:" + databaseFile.getPath());
+        try {
+            Statement statement = connection.createStatement();
+            try {
+                statement.execute("PRAGMA busy_timeout = " + JdbcTaskStore.BUSY_TIMEOUT_MS);
+                for (String pragma : mConfig.getConnectionPragmas())
+                    statement.execute(pragma);
+            } finally {
+                statement.close();
+            }
+            PreparedStatement update = connection.prepareStatement(JdbcTaskStore.UPDATE_DONE);
+            try {
+                update.setInt(1, done ? 1 : 0);
+                update.setInt(2, id);
+                update.setLong(3, System.currentTimeMillis());
+                update.setLong(4, ++mSeq);
+                update.executeUpdate();
+            } finally {
+                update.close();
+            }
+        } finally {
+            connection.close();
+        }
+    }
+
+    private void fill(TaskStore store) throws Exception {
+        Random random = new Random(mSeed);
+        List<Task> batch = new ArrayList<>(FILL_BATCH_SIZE);
+        for (int i = 1; i <= mRows; i++)
+        {
+            batch.add(new Task("Task " + i + " pick up groceries and call the bank", random.nextInt(4) == 0));
+            if (batch.size() == FILL_BATCH_SIZE || i == mRows)
+            {
+                store.addTasks(batch);
+                batch.clear();
+            }
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        int rows = DEFAULT_ROWS;
+        int toggles = DEFAULT_TOGGLES;
+        String out = DEFAULT_OUT;
+        long seed = 42;
+        for (int i = 0; i + 1 < args.length; i += 2)
+        {
+            if ("--rows".equals(args[i]))
+                rows = Integer.parseInt(args[i + 1]);
+            else if ("--toggles".equals(args[i]))
+                toggles = Integer.parseInt(args[i + 1]);
+            else if ("--out".equals(args[i]))
+                out = args[i + 1];
+            else if ("--seed".equals(args[i]))
+                seed = Long.parseLong(args[i + 1]);
+            else
+                throw new IllegalArgumentException("Unknown argument " + args[i]);
+        }
+
+        List<Measurement> measurements = new ToggleBenchmark(rows, toggles, seed).run();
+        for (Measurement measurement : measurements)
+            System.out.println(measurement);
+        double speedUp = measurements.get(0).percentileNanos(50) / (double) measurements.get(1).percentileNanos(50);
+        System.out.println(String.format(Locale.US, "p50 speed-up: %.1fx", speedUp));
+
+        File file = new File(out);
+        File parent = file.getAbsoluteFile().getParentFile();
+        if (parent != null && !parent.isDirectory() && !parent.mkdirs())
+            throw new IOException("Could not create " + parent);
+        Writer writer = new OutputStreamWriter(new FileOutputStream(file), Charset.forName("UTF-8"));
+        try {
+            for (Measurement measurement : measurements)
+                writer.write(measurement.toJson() + "\n");
+        } finally {
+            writer.close();
+        }
+        System.out.println("Results written to " + out);
+    }
+}